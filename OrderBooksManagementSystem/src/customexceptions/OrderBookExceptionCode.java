@@ -14,7 +14,33 @@ public enum OrderBookExceptionCode {
 
 	ADD_EXECUTION_ON_OPEN_BOOK_EXCEPTION_MESSAGE("It is not possible to add an execution on an open book!"),
 
-	ADD_EXECUTION_ON_PROCESSED_BOOK("It is not possible to add an execution when the book has already been processed!");
+	ADD_EXECUTION_ON_PROCESSED_BOOK("It is not possible to add an execution when the book has already been processed!"),
+
+	ADD_EXECUTION_ON_NEVER_OPENED_BOOK("It is not possible to add an execution on a book that was never opened!"),
+
+	INSTRUMENT_ALREADY_HAS_BOOK("There is already a book for this financial instrument!"),
+
+	UNKNOWN_INSTRUMENT("There is no book for this financial instrument!"),
+
+	EXECUTION_OFFER_EXCEEDS_DEMAND("It is not possible to offer more than the demand of the book!"),
+
+	BOOK_ALREADY_OPEN("The book is already open!"),
+
+	REOPEN_BOOK("Cannot reopen a book!"),
+
+	BOOK_ALREADY_CLOSED("The book is already closed!"),
+
+	PROCESS_OPEN_BOOK("You cannot execute an open book - there are no executions anyway"),
+
+	MALFORMED_REQUEST("The request could not be understood!"),
+
+	BOOK_ALREADY_PROCESSED("The executions of this book were already processed!"),
+
+	INTAKE_RATE_EXCEEDED("Too many orders for this book, please retry later!"),
+
+	DUPLICATE_CLIENT_ORDER_ID("An order with this client order id was already added to this book!"),
+
+	RISK_LIMIT_EXCEEDED("The order exceeds the risk limits of its account!");
 
 	private String exceptionMessage;
 
@@ -26,4 +52,27 @@ public enum OrderBookExceptionCode {
 		return exceptionMessage;
 	}
 
+	/**
+	 * Returns the numeric code sent over the network. 0 means success, so the
+	 * codes start at 1. New codes must be added at the end of the list, to keep
+	 * the existing numbers.
+	 *
+	 * @return the numeric code
+	 */
+	public int code() {
+		return ordinal() + 1;
+	}
+
+	/**
+	 * Returns the exception of a numeric code
+	 *
+	 * @param code
+	 *            the numeric code
+	 * @return the exception, or null for 0 (success) or an unknown code
+	 */
+	public static OrderBookExceptionCode fromCode(final int code) {
+		final OrderBookExceptionCode[] exceptionCodes = values();
+		return ((code >= 1) && (code <= exceptionCodes.length) ? exceptionCodes[code - 1] : null);
+	}
+
 }
@@ -0,0 +1,57 @@
+package gateway;
+
+import java.util.UUID;
+
+import customexceptions.OrderBookExceptionCode;
+
+/**
+ * The answer of the gateway to a request, as received by a
+ * {@link GatewayClient}.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class Acknowledgement {
+
+	private final long correlationId;
+
+	/**
+	 * The reason of the refusal, null if the request was accepted
+	 */
+	private final OrderBookExceptionCode status;
+
+	/**
+	 * The id of the created order, null if no order was created
+	 */
+	private final UUID orderId;
+
+	public Acknowledgement(final long correlationId, final OrderBookExceptionCode status, final UUID orderId) {
+		this.correlationId = correlationId;
+		this.status = status;
+		this.orderId = orderId;
+	}
+
+	public long getCorrelationId() {
+		return correlationId;
+	}
+
+	public OrderBookExceptionCode getStatus() {
+		return status;
+	}
+
+	public UUID getOrderId() {
+		return orderId;
+	}
+
+	public boolean isAccepted() {
+		return status == null;
+	}
+
+	@Override
+	public String toString() {
+		return "Acknowledgement [correlationId=" + correlationId + ", status="
+				+ (status == null ? "OK" : status.name()) + ", orderId=" + orderId + "]";
+	}
+
+}
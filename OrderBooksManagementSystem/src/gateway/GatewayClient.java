@@ -0,0 +1,201 @@
+package gateway;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import customexceptions.OrderBookExceptionCode;
+
+/**
+ * A blocking client of the {@link OrderEntryGateway}. The requests can be
+ * pipelined: each send method returns the correlation id of the request, and
+ * the acknowledgements are then received in the same order.
+ *
+ * A client is not thread-safe.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class GatewayClient implements Closeable {
+
+	private final SocketChannel channel;
+
+	private final ByteBuffer requestBuffer = ByteBuffer
+			.allocate(GatewayProtocol.LENGTH_FIELD_SIZE + GatewayProtocol.MAX_FRAME_LENGTH);
+
+	private final ByteBuffer acknowledgementBuffer = ByteBuffer
+			.allocate(GatewayProtocol.LENGTH_FIELD_SIZE + GatewayProtocol.ACKNOWLEDGEMENT_LENGTH);
+
+	private long nextCorrelationId = 1;
+
+	/**
+	 * Constructor. Connects to the gateway.
+	 *
+	 * @param address
+	 *            the address of the gateway
+	 * @throws IOException
+	 *             if the connection fails
+	 */
+	public GatewayClient(final InetSocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	public long sendLimitOrder(final String symbol, final int quantity, final double limitPrice) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_LIMIT_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putDouble(limitPrice);
+		sendRequest();
+		return correlationId;
+	}
+
+	/**
+	 * Sends a limit order with a client order id: sending it again with the same
+	 * id does not add it twice
+	 */
+	public long sendLimitOrder(final String symbol, final int quantity, final double limitPrice,
+			final long clientOrderId) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_LIMIT_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putDouble(limitPrice);
+		requestBuffer.putLong(clientOrderId);
+		sendRequest();
+		return correlationId;
+	}
+
+	/**
+	 * Sends a limit order of an account, checked against the risk limits of the
+	 * account
+	 */
+	public long sendLimitOrder(final String symbol, final int quantity, final double limitPrice,
+			final long clientOrderId, final long accountId) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_LIMIT_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putDouble(limitPrice);
+		requestBuffer.putLong(clientOrderId);
+		requestBuffer.putLong(accountId);
+		sendRequest();
+		return correlationId;
+	}
+
+	public long sendMarketOrder(final String symbol, final int quantity) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_MARKET_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		sendRequest();
+		return correlationId;
+	}
+
+	/**
+	 * Sends a market order with a client order id: sending it again with the
+	 * same id does not add it twice
+	 */
+	public long sendMarketOrder(final String symbol, final int quantity, final long clientOrderId)
+			throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_MARKET_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putLong(clientOrderId);
+		sendRequest();
+		return correlationId;
+	}
+
+	/**
+	 * Sends a market order of an account, checked against the risk limits of
+	 * the account
+	 */
+	public long sendMarketOrder(final String symbol, final int quantity, final long clientOrderId,
+			final long accountId) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_MARKET_ORDER, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putLong(clientOrderId);
+		requestBuffer.putLong(accountId);
+		sendRequest();
+		return correlationId;
+	}
+
+	public long sendExecution(final String symbol, final int quantity, final double unitPrice) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.NEW_EXECUTION, symbol);
+		requestBuffer.putInt(quantity);
+		requestBuffer.putDouble(unitPrice);
+		sendRequest();
+		return correlationId;
+	}
+
+	public long sendOpenBook(final String symbol) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.OPEN_BOOK, symbol);
+		sendRequest();
+		return correlationId;
+	}
+
+	public long sendCloseBook(final String symbol) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.CLOSE_BOOK, symbol);
+		sendRequest();
+		return correlationId;
+	}
+
+	public long sendProcessBook(final String symbol) throws IOException {
+		final long correlationId = startRequest(GatewayProtocol.PROCESS_BOOK, symbol);
+		sendRequest();
+		return correlationId;
+	}
+
+	/**
+	 * Waits for the next acknowledgement
+	 *
+	 * @return the acknowledgement
+	 * @throws IOException
+	 *             if the connection fails or the gateway closed it
+	 */
+	public Acknowledgement receiveAcknowledgement() throws IOException {
+		acknowledgementBuffer.clear();
+		while (acknowledgementBuffer.hasRemaining()) {
+			if (channel.read(acknowledgementBuffer) < 0) {
+				throw new EOFException("The gateway closed the connection");
+			}
+		}
+		acknowledgementBuffer.flip();
+		acknowledgementBuffer.getInt();
+		acknowledgementBuffer.get();
+		final long correlationId = acknowledgementBuffer.getLong();
+		final short status = acknowledgementBuffer.getShort();
+		final long idMostSignificantBits = acknowledgementBuffer.getLong();
+		final long idLeastSignificantBits = acknowledgementBuffer.getLong();
+		final UUID orderId = ((idMostSignificantBits == 0L) && (idLeastSignificantBits == 0L)) ? null
+				: new UUID(idMostSignificantBits, idLeastSignificantBits);
+		return new Acknowledgement(correlationId, OrderBookExceptionCode.fromCode(status), orderId);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private long startRequest(final byte type, final String symbol) {
+		final byte[] symbolBytes = symbol.getBytes(StandardCharsets.US_ASCII);
+		if (symbolBytes.length > 255) {
+			throw new IllegalArgumentException("The symbol is too long: " + symbol);
+		}
+		final long correlationId = nextCorrelationId++;
+		requestBuffer.clear();
+		requestBuffer.putInt(0);
+		requestBuffer.put(type);
+		requestBuffer.putLong(correlationId);
+		requestBuffer.put((byte) symbolBytes.length);
+		requestBuffer.put(symbolBytes);
+		return correlationId;
+	}
+
+	private void sendRequest() throws IOException {
+		requestBuffer.putInt(0, requestBuffer.position() - GatewayProtocol.LENGTH_FIELD_SIZE);
+		requestBuffer.flip();
+		while (requestBuffer.hasRemaining()) {
+			channel.write(requestBuffer);
+		}
+	}
+
+}
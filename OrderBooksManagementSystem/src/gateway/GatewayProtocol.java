@@ -0,0 +1,76 @@
+package gateway;
+
+/**
+ * The binary protocol of the order entry gateway. All numbers are big endian.
+ *
+ * Each frame starts with its length (int, not counting itself), followed by
+ * the type of the message (byte) and a correlation id (long) chosen by the
+ * client and sent back in the acknowledgement. The body depends on the type:
+ * <ul>
+ * <li>NEW_LIMIT_ORDER: symbol, quantity (int), limit price (double), and
+ * optionally a client order id (long) and an account id (long)</li>
+ * <li>NEW_MARKET_ORDER: symbol, quantity (int), and optionally a client order
+ * id (long) and an account id (long)</li>
+ * <li>NEW_EXECUTION: symbol, quantity (int), unit price (double)</li>
+ * <li>OPEN_BOOK, CLOSE_BOOK, PROCESS_BOOK: symbol</li>
+ * </ul>
+ * A symbol is its length (unsigned byte) followed by its ASCII characters. A
+ * book adds only one order per client order id (other than 0): an order sent
+ * again with the same id is acknowledged with DUPLICATE_CLIENT_ORDER_ID, so a
+ * client can safely send again an order it got no acknowledgement for.
+ *
+ * Each request gets exactly one ACKNOWLEDGEMENT, in the order of the requests:
+ * status (short, 0 if accepted, otherwise the code of the
+ * {@link customexceptions.OrderBookExceptionCode}) and the id of the created
+ * order (two longs, 0 if no order was created).
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class GatewayProtocol {
+
+	public static final byte NEW_LIMIT_ORDER = 1;
+
+	public static final byte NEW_MARKET_ORDER = 2;
+
+	public static final byte NEW_EXECUTION = 3;
+
+	public static final byte OPEN_BOOK = 4;
+
+	public static final byte CLOSE_BOOK = 5;
+
+	public static final byte PROCESS_BOOK = 6;
+
+	public static final byte ACKNOWLEDGEMENT = 100;
+
+	/**
+	 * Status of an accepted request
+	 */
+	public static final short STATUS_OK = 0;
+
+	/**
+	 * Size of the length field
+	 */
+	public static final int LENGTH_FIELD_SIZE = 4;
+
+	/**
+	 * Size of the type and of the correlation id
+	 */
+	public static final int HEADER_SIZE = 1 + 8;
+
+	/**
+	 * Longest frame accepted (without the length field): the header, the longest
+	 * symbol and the longest body. Connections sending longer frames are closed.
+	 */
+	public static final int MAX_FRAME_LENGTH = HEADER_SIZE + 1 + 255 + 4 + 8 + 8 + 8;
+
+	/**
+	 * Length of an acknowledgement (without the length field)
+	 */
+	public static final int ACKNOWLEDGEMENT_LENGTH = HEADER_SIZE + 2 + 8 + 8;
+
+	private GatewayProtocol() {
+	}
+
+}
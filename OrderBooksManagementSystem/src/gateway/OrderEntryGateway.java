@@ -0,0 +1,591 @@
+package gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import customexceptions.OrderBookExceptionCode;
+import logging.AsyncLogger;
+import model.Execution;
+import model.OrderBookManager;
+import model.intake.TokenBucket;
+import model.orders.LimitOrder;
+import model.orders.MarketOrder;
+import model.orders.Order;
+
+/**
+ * A TCP gateway accepting orders, executions and lifecycle commands in the
+ * binary protocol described in {@link GatewayProtocol}, and routing them to an
+ * {@link OrderBookManager}.
+ *
+ * All the connections are served by a single thread with a non-blocking
+ * selector, so thousands of clients only cost their buffers. The requests of a
+ * connection are decoded as long as there is room to write their
+ * acknowledgements: when a client does not read its acknowledgements, the
+ * gateway stops reading its requests until the acknowledgements are sent.
+ *
+ * Each connection can be given its own rate of orders
+ * ({@link #setSourceRateLimit(double, int)}): the orders above it are delayed,
+ * not refused. The gateway stops decoding and reading the requests of the
+ * connection until its rate allows the next order, its buffer then the TCP
+ * window filling up and pushing back on the client. The other connections are
+ * served meanwhile.
+ *
+ * The books are not synchronized, so the gateway should not be used at the
+ * same time as another entry point (e.g. the console menu). The other threads
+ * changing the books (e.g. the {@link scheduling.BookScheduler}) hand their
+ * changes to the thread of the gateway with {@link #execute(Runnable)}.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderEntryGateway implements Runnable, Executor {
+
+	private static final int READ_BUFFER_SIZE = 4096;
+
+	private static final int WRITE_BUFFER_SIZE = 4096;
+
+	private static final int ACCEPT_BACKLOG = 1024;
+
+	/**
+	 * The buffers of a connection. The read buffer is kept in write mode
+	 * (filled by the channel) and the write buffer as well (filled with
+	 * acknowledgements).
+	 */
+	private static class Connection {
+
+		private final SocketChannel channel;
+
+		private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+		private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+		/**
+		 * The rate of orders of the connection, null if not limited
+		 */
+		private final TokenBucket rateLimit;
+
+		/**
+		 * Whether the decoding is paused until the rate allows the next order
+		 */
+		private boolean throttled;
+
+		/**
+		 * Whether the key of the connection is in the list of the paused
+		 * connections
+		 */
+		private boolean listedAsThrottled;
+
+		private long resumeAtNanos;
+
+		private Connection(final SocketChannel channel, final TokenBucket rateLimit) {
+			this.channel = channel;
+			this.rateLimit = rateLimit;
+		}
+
+	}
+
+	private final OrderBookManager orderBookManager;
+
+	private final ServerSocketChannel serverChannel;
+
+	private final Selector selector;
+
+	private final Thread thread;
+
+	/**
+	 * Scratch array to decode the symbols
+	 */
+	private final byte[] symbolBytes = new byte[255];
+
+	private volatile boolean running;
+
+	private volatile int connectionCount;
+
+	/**
+	 * The rate and the burst of orders of each new connection, 0 if not limited
+	 */
+	private volatile double sourceOrdersPerSecond;
+
+	private volatile int sourceBurst;
+
+	/**
+	 * The connections whose decoding is paused by their rate
+	 */
+	private final ArrayList<SelectionKey> throttledKeys = new ArrayList<SelectionKey>();
+
+	/**
+	 * Scratch list of the connections to resume
+	 */
+	private final ArrayList<SelectionKey> resumedKeys = new ArrayList<SelectionKey>();
+
+	/**
+	 * The tasks handed over by other threads, run between two selections
+	 */
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Constructor. The gateway is bound but does not serve the connections until
+	 * it is started.
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books
+	 * @param address
+	 *            the address to listen to (port 0 for any free port)
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public OrderEntryGateway(final OrderBookManager orderBookManager, final InetSocketAddress address)
+			throws IOException {
+		this.orderBookManager = orderBookManager;
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.configureBlocking(false);
+			serverChannel.bind(address, ACCEPT_BACKLOG);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		thread = new Thread(this, "order-gateway");
+		thread.setDaemon(true);
+	}
+
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Stops the gateway and closes all the connections
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns the port the gateway listens to, useful when it was bound to port 0
+	 *
+	 * @return the port
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	public int getConnectionCount() {
+		return connectionCount;
+	}
+
+	/**
+	 * Runs a task on the thread of the gateway, between two selections, so that
+	 * it changes the books without racing with the orders of the connections
+	 *
+	 * @param task
+	 *            the task
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		tasks.offer(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Limits the rate of orders of each connection accepted from now on. The
+	 * orders above it are delayed.
+	 *
+	 * @param ordersPerSecond
+	 *            the sustained rate, 0 to remove the limit
+	 * @param burst
+	 *            the amount of orders accepted at once above the rate
+	 */
+	public void setSourceRateLimit(final double ordersPerSecond, final int burst) {
+		sourceBurst = burst;
+		sourceOrdersPerSecond = ordersPerSecond;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select(getSelectTimeoutMillis());
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						serve(key);
+					}
+				}
+				resumeThrottledConnections();
+				runTasks();
+			}
+		} catch (final IOException e) {
+			AsyncLogger.error().append("The order gateway stopped: ").append(e.getMessage()).commit();
+		} finally {
+			for (final SelectionKey key : selector.keys()) {
+				closeQuietly(key);
+			}
+			try {
+				selector.close();
+			} catch (final IOException e) {
+				// nothing more can be done
+			}
+		}
+	}
+
+	/**
+	 * Runs the tasks handed over by other threads
+	 */
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (final RuntimeException e) {
+				// a failing task must not stop the gateway
+				AsyncLogger.error().append("A gateway task failed: ").append(e.toString()).commit();
+			}
+		}
+	}
+
+	/**
+	 * Accepts all the pending connections
+	 *
+	 * @throws IOException
+	 *             if the server channel fails
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final double ordersPerSecond = sourceOrdersPerSecond;
+			channel.register(selector, SelectionKey.OP_READ, new Connection(channel,
+					(ordersPerSecond > 0 ? new TokenBucket(ordersPerSecond, sourceBurst) : null)));
+			connectionCount++;
+		}
+	}
+
+	/**
+	 * Reads the requests and writes the acknowledgements of a connection. A
+	 * connection failing is closed without disturbing the others.
+	 *
+	 * @param key
+	 *            the key of the connection
+	 */
+	private void serve(final SelectionKey key) {
+		final Connection connection = (Connection) key.attachment();
+		try {
+			if (key.isReadable() && (connection.channel.read(connection.readBuffer) < 0)) {
+				close(key);
+				return;
+			}
+			// the frames left behind while the write buffer was full will not be
+			// signalled again by the selector, so they are decoded once it drains
+			boolean blocked;
+			do {
+				if (!decodeFrames(connection)) {
+					close(key);
+					return;
+				}
+				flush(connection);
+				blocked = connection.writeBuffer.remaining() < GatewayProtocol.LENGTH_FIELD_SIZE
+						+ GatewayProtocol.ACKNOWLEDGEMENT_LENGTH;
+			} while (!blocked && !connection.throttled && hasCompleteFrame(connection.readBuffer));
+
+			// stop reading while the acknowledgements cannot be written or the
+			// rate of the connection is exceeded
+			final boolean pendingWrite = connection.writeBuffer.position() > 0;
+			key.interestOps(((blocked || connection.throttled) ? 0 : SelectionKey.OP_READ)
+					| (pendingWrite ? SelectionKey.OP_WRITE : 0));
+			if (connection.throttled && !connection.listedAsThrottled) {
+				throttledKeys.add(key);
+				connection.listedAsThrottled = true;
+			}
+		} catch (final IOException e) {
+			close(key);
+		}
+	}
+
+	/**
+	 * Handles all the complete frames of the read buffer, as long as there is
+	 * room for their acknowledgements
+	 *
+	 * @param connection
+	 *            the connection
+	 * @return false if a frame is invalid and the connection must be closed
+	 */
+	private boolean decodeFrames(final Connection connection) {
+		final ByteBuffer readBuffer = connection.readBuffer;
+		final ByteBuffer writeBuffer = connection.writeBuffer;
+		readBuffer.flip();
+		try {
+			while (readBuffer.remaining() >= GatewayProtocol.LENGTH_FIELD_SIZE) {
+				final int length = readBuffer.getInt(readBuffer.position());
+				if ((length < GatewayProtocol.HEADER_SIZE) || (length > GatewayProtocol.MAX_FRAME_LENGTH)) {
+					return false;
+				}
+				if ((readBuffer.remaining() < (GatewayProtocol.LENGTH_FIELD_SIZE + length)) || (writeBuffer
+						.remaining() < (GatewayProtocol.LENGTH_FIELD_SIZE + GatewayProtocol.ACKNOWLEDGEMENT_LENGTH))) {
+					break;
+				}
+				if (isThrottled(connection,
+						readBuffer.get(readBuffer.position() + GatewayProtocol.LENGTH_FIELD_SIZE))) {
+					break;
+				}
+				handleFrame(readBuffer, length, writeBuffer);
+			}
+		} finally {
+			readBuffer.compact();
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a token from the rate of the connection for a new order. If there is
+	 * none, the connection is paused until there is.
+	 *
+	 * @param connection
+	 *            the connection
+	 * @param type
+	 *            the type of the next request
+	 * @return true if the request must wait
+	 */
+	private static boolean isThrottled(final Connection connection, final byte type) {
+		if ((connection.rateLimit == null)
+				|| ((type != GatewayProtocol.NEW_LIMIT_ORDER) && (type != GatewayProtocol.NEW_MARKET_ORDER))) {
+			return false;
+		}
+		if (connection.rateLimit.tryAcquire()) {
+			connection.throttled = false;
+			return false;
+		}
+		connection.throttled = true;
+		connection.resumeAtNanos = System.nanoTime() + connection.rateLimit.nanosUntilAvailable();
+		return true;
+	}
+
+	/**
+	 * Returns how long the selector can wait before a paused connection must be
+	 * resumed
+	 *
+	 * @return the timeout in milliseconds, 0 to wait without timeout
+	 */
+	private long getSelectTimeoutMillis() {
+		if (throttledKeys.isEmpty()) {
+			return 0;
+		}
+		long resumeAtNanos = Long.MAX_VALUE;
+		for (final SelectionKey key : throttledKeys) {
+			resumeAtNanos = Math.min(resumeAtNanos, ((Connection) key.attachment()).resumeAtNanos);
+		}
+		// at least 1 ms, 0 meaning no timeout
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(resumeAtNanos - System.nanoTime() + 999999));
+	}
+
+	/**
+	 * Resumes the connections whose rate allows the next order
+	 */
+	private void resumeThrottledConnections() {
+		if (throttledKeys.isEmpty()) {
+			return;
+		}
+		final long now = System.nanoTime();
+		final Iterator<SelectionKey> keys = throttledKeys.iterator();
+		while (keys.hasNext()) {
+			final SelectionKey key = keys.next();
+			final Connection connection = (Connection) key.attachment();
+			if (!key.isValid()) {
+				keys.remove();
+				connection.listedAsThrottled = false;
+			} else if ((connection.resumeAtNanos - now) <= 0) {
+				keys.remove();
+				connection.listedAsThrottled = false;
+				connection.throttled = false;
+				resumedKeys.add(key);
+			}
+		}
+		for (final SelectionKey key : resumedKeys) {
+			if (key.isValid()) {
+				serve(key);
+			}
+		}
+		resumedKeys.clear();
+	}
+
+	/**
+	 * Whether the read buffer (in write mode) holds a complete frame
+	 *
+	 * @param readBuffer
+	 *            the read buffer
+	 * @return true if a complete frame can be decoded
+	 */
+	private static boolean hasCompleteFrame(final ByteBuffer readBuffer) {
+		return (readBuffer.position() >= GatewayProtocol.LENGTH_FIELD_SIZE)
+				&& (readBuffer.position() >= (GatewayProtocol.LENGTH_FIELD_SIZE + readBuffer.getInt(0)));
+	}
+
+	/**
+	 * Handles a frame and writes its acknowledgement
+	 *
+	 * @param readBuffer
+	 *            the buffer, positioned at the start of the frame
+	 * @param length
+	 *            the length of the frame
+	 * @param writeBuffer
+	 *            the buffer of the acknowledgements
+	 */
+	private void handleFrame(final ByteBuffer readBuffer, final int length, final ByteBuffer writeBuffer) {
+		final int limit = readBuffer.limit();
+		final int frameEnd = readBuffer.position() + GatewayProtocol.LENGTH_FIELD_SIZE + length;
+		readBuffer.limit(frameEnd);
+		readBuffer.getInt();
+		final byte type = readBuffer.get();
+		final long correlationId = readBuffer.getLong();
+
+		OrderBookExceptionCode status;
+		Order order = null;
+		try {
+			final String symbol = readSymbol(readBuffer);
+			switch (type) {
+			case GatewayProtocol.NEW_LIMIT_ORDER: {
+				final int quantity = readBuffer.getInt();
+				final double limitPrice = readBuffer.getDouble();
+				if ((quantity <= 0) || !(limitPrice > 0)) {
+					status = OrderBookExceptionCode.MALFORMED_REQUEST;
+				} else {
+					order = new LimitOrder(quantity, limitPrice);
+					order.setClientOrderId(readOptionalLong(readBuffer));
+					order.setAccountId(readOptionalLong(readBuffer));
+					status = orderBookManager.addOrder(symbol, order);
+				}
+				break;
+			}
+			case GatewayProtocol.NEW_MARKET_ORDER: {
+				final int quantity = readBuffer.getInt();
+				if (quantity <= 0) {
+					status = OrderBookExceptionCode.MALFORMED_REQUEST;
+				} else {
+					order = new MarketOrder(quantity);
+					order.setClientOrderId(readOptionalLong(readBuffer));
+					order.setAccountId(readOptionalLong(readBuffer));
+					status = orderBookManager.addOrder(symbol, order);
+				}
+				break;
+			}
+			case GatewayProtocol.NEW_EXECUTION: {
+				final int quantity = readBuffer.getInt();
+				final double unitPrice = readBuffer.getDouble();
+				if ((quantity <= 0) || !(unitPrice > 0)) {
+					status = OrderBookExceptionCode.MALFORMED_REQUEST;
+				} else {
+					status = orderBookManager.addExecution(symbol, new Execution(quantity, unitPrice));
+				}
+				break;
+			}
+			case GatewayProtocol.OPEN_BOOK:
+				status = orderBookManager.openBook(symbol);
+				break;
+			case GatewayProtocol.CLOSE_BOOK:
+				status = orderBookManager.closeBook(symbol);
+				break;
+			case GatewayProtocol.PROCESS_BOOK:
+				status = orderBookManager.processBook(symbol);
+				break;
+			default:
+				status = OrderBookExceptionCode.MALFORMED_REQUEST;
+			}
+		} catch (final BufferUnderflowException e) {
+			status = OrderBookExceptionCode.MALFORMED_REQUEST;
+		}
+		readBuffer.limit(limit);
+		readBuffer.position(frameEnd);
+
+		writeBuffer.putInt(GatewayProtocol.ACKNOWLEDGEMENT_LENGTH);
+		writeBuffer.put(GatewayProtocol.ACKNOWLEDGEMENT);
+		writeBuffer.putLong(correlationId);
+		writeBuffer.putShort(status == null ? GatewayProtocol.STATUS_OK : (short) status.code());
+		if ((status == null) && (order != null)) {
+			writeBuffer.putLong(order.getIdMostSignificantBits());
+			writeBuffer.putLong(order.getIdLeastSignificantBits());
+		} else {
+			writeBuffer.putLong(0L);
+			writeBuffer.putLong(0L);
+		}
+	}
+
+	/**
+	 * Reads one of the optional ids ending an order (client order id, then
+	 * account id), if the frame has it
+	 *
+	 * @param readBuffer
+	 *            the buffer, limited to the frame
+	 * @return the id, 0 if none
+	 */
+	private static long readOptionalLong(final ByteBuffer readBuffer) {
+		return (readBuffer.remaining() >= 8 ? readBuffer.getLong() : 0L);
+	}
+
+	private String readSymbol(final ByteBuffer readBuffer) {
+		final int length = readBuffer.get() & 0xff;
+		readBuffer.get(symbolBytes, 0, length);
+		return new String(symbolBytes, 0, length, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Writes as many acknowledgements as the channel accepts
+	 *
+	 * @param connection
+	 *            the connection
+	 * @throws IOException
+	 *             if the channel fails
+	 */
+	private static void flush(final Connection connection) throws IOException {
+		final ByteBuffer writeBuffer = connection.writeBuffer;
+		if (writeBuffer.position() > 0) {
+			writeBuffer.flip();
+			connection.channel.write(writeBuffer);
+			writeBuffer.compact();
+		}
+	}
+
+	private void close(final SelectionKey key) {
+		closeQuietly(key);
+		connectionCount--;
+	}
+
+	private static void closeQuietly(final SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (final IOException e) {
+			// the connection is dropped anyway
+		}
+	}
+
+}
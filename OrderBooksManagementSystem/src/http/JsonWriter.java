@@ -0,0 +1,224 @@
+package http;
+
+import java.util.Arrays;
+
+/**
+ * Renders compact JSON straight into a byte array, which is kept and reused
+ * from one document to the next: once it has grown to the size of the
+ * largest document, rendering allocates nothing but the text of the doubles.
+ *
+ * A writer is not thread-safe, each thread of the server has its own.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class JsonWriter {
+
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd',
+			'e', 'f' };
+
+	private static final int MAX_DEPTH = 32;
+
+	private byte[] bytes = new byte[4096];
+
+	private int length;
+
+	/**
+	 * Whether a value was already written in each enclosing object or array, to
+	 * know where commas go
+	 */
+	private final boolean[] hasValue = new boolean[MAX_DEPTH];
+
+	private int depth;
+
+	/**
+	 * After a name, the value must not be preceded by a comma
+	 */
+	private boolean afterName;
+
+	/**
+	 * Forgets the previous document, keeping the buffer
+	 */
+	public JsonWriter reset() {
+		length = 0;
+		depth = 0;
+		afterName = false;
+		return this;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public JsonWriter beginObject() {
+		beforeValue();
+		put((byte) '{');
+		hasValue[++depth] = false;
+		return this;
+	}
+
+	public JsonWriter endObject() {
+		depth--;
+		put((byte) '}');
+		return this;
+	}
+
+	public JsonWriter beginArray() {
+		beforeValue();
+		put((byte) '[');
+		hasValue[++depth] = false;
+		return this;
+	}
+
+	public JsonWriter endArray() {
+		depth--;
+		put((byte) ']');
+		return this;
+	}
+
+	/**
+	 * Writes the name of the next member of the current object
+	 *
+	 * @param name
+	 *            the name
+	 */
+	public JsonWriter name(final String name) {
+		beforeValue();
+		putString(name);
+		put((byte) ':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(final String value) {
+		beforeValue();
+		if (value == null) {
+			put(NULL);
+		} else {
+			putString(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(final boolean value) {
+		beforeValue();
+		put(value ? TRUE : FALSE);
+		return this;
+	}
+
+	public JsonWriter value(final long value) {
+		beforeValue();
+		if (value == Long.MIN_VALUE) {
+			putAscii(Long.toString(value));
+			return this;
+		}
+		long remaining = value;
+		if (remaining < 0) {
+			put((byte) '-');
+			remaining = -remaining;
+		}
+		ensureCapacity(20);
+		final int start = length;
+		do {
+			bytes[length++] = (byte) ('0' + (remaining % 10));
+			remaining /= 10;
+		} while (remaining != 0);
+		// the digits were written backwards
+		for (int i = start, j = length - 1; i < j; i++, j--) {
+			final byte digit = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = digit;
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a number. JSON has no NaN nor infinity, they are written as null.
+	 *
+	 * @param value
+	 *            the number
+	 */
+	public JsonWriter value(final double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			beforeValue();
+			put(NULL);
+		} else if ((value == Math.rint(value)) && (Math.abs(value) < 1e15)) {
+			value((long) value);
+		} else {
+			beforeValue();
+			putAscii(Double.toString(value));
+		}
+		return this;
+	}
+
+	private void beforeValue() {
+		if (afterName) {
+			afterName = false;
+		} else if (depth > 0) {
+			if (hasValue[depth]) {
+				put((byte) ',');
+			}
+			hasValue[depth] = true;
+		}
+	}
+
+	private void putString(final String value) {
+		put((byte) '"');
+		final int valueLength = value.length();
+		for (int i = 0; i < valueLength; i++) {
+			final char c = value.charAt(i);
+			if ((c == '"') || (c == '\\')) {
+				put((byte) '\\');
+				put((byte) c);
+			} else if ((c < 0x20) || (c > 0x7e)) {
+				ensureCapacity(6);
+				bytes[length++] = '\\';
+				bytes[length++] = 'u';
+				bytes[length++] = HEX_DIGITS[(c >> 12) & 0xf];
+				bytes[length++] = HEX_DIGITS[(c >> 8) & 0xf];
+				bytes[length++] = HEX_DIGITS[(c >> 4) & 0xf];
+				bytes[length++] = HEX_DIGITS[c & 0xf];
+			} else {
+				put((byte) c);
+			}
+		}
+		put((byte) '"');
+	}
+
+	private void putAscii(final String value) {
+		final int valueLength = value.length();
+		ensureCapacity(valueLength);
+		for (int i = 0; i < valueLength; i++) {
+			bytes[length++] = (byte) value.charAt(i);
+		}
+	}
+
+	private void put(final byte b) {
+		ensureCapacity(1);
+		bytes[length++] = b;
+	}
+
+	private void put(final byte[] b) {
+		ensureCapacity(b.length);
+		System.arraycopy(b, 0, bytes, length, b.length);
+		length += b.length;
+	}
+
+	private void ensureCapacity(final int extraLength) {
+		if ((length + extraLength) > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extraLength));
+		}
+	}
+
+}
@@ -0,0 +1,387 @@
+package http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import customexceptions.OrderBookExceptionCode;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.archive.ArchivedBook;
+import model.archive.BookArchive;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * A read-only HTTP API giving in JSON what the statistics menu prints:
+ * <ul>
+ * <li>GET /books: the books and their state</li>
+ * <li>GET /books/{symbol}/statistics1: amount of orders, demand, particular
+ * orders, limit break-down</li>
+ * <li>GET /books/{symbol}/statistics2: valid/invalid orders and demand,
+ * particular orders, limit break-down, execution quantity and price</li>
+ * <li>GET /books/{symbol}/limits: the limit break-down</li>
+ * <li>GET /orders/{id}: validity, execution quantity, order's price, execution
+ * price of an order</li>
+ * </ul>
+ *
+ * The requests are served by a small pool of daemon threads of minimal
+ * priority, so that dashboards polling the statistics do not take the CPU from
+ * the order intake. Each thread renders into its own reusable buffer. Each
+ * answer about a book is computed on a single snapshot of the book, so it is
+ * consistent and never blocks the intake.
+ *
+ * The books of the manager are read from an immutable copy of its list, so a
+ * request racing with the addition or removal of a book sees the books of
+ * before or after the change. The orders of the archived books are found in
+ * the cold storage.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class StatisticsHttpServer {
+
+	private static final int DEFAULT_THREAD_COUNT = 2;
+
+	private static final String BOOKS_PATH = "/books";
+
+	private static final String ORDERS_PATH = "/orders";
+
+	/**
+	 * The reusable buffer of each thread of the server
+	 */
+	private static final ThreadLocal<JsonWriter> JSON_WRITERS = new ThreadLocal<JsonWriter>() {
+		@Override
+		protected JsonWriter initialValue() {
+			return new JsonWriter();
+		}
+	};
+
+	private final OrderBookManager orderBookManager;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Constructor. The server is bound but does not serve the requests until it is
+	 * started.
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books
+	 * @param address
+	 *            the address to listen to (port 0 for any free port)
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public StatisticsHttpServer(final OrderBookManager orderBookManager, final InetSocketAddress address)
+			throws IOException {
+		this(orderBookManager, address, DEFAULT_THREAD_COUNT);
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books
+	 * @param address
+	 *            the address to listen to (port 0 for any free port)
+	 * @param threadCount
+	 *            the amount of threads serving the requests
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public StatisticsHttpServer(final OrderBookManager orderBookManager, final InetSocketAddress address,
+			final int threadCount) throws IOException {
+		this.orderBookManager = orderBookManager;
+		server = HttpServer.create(address, 0);
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+					private final AtomicInteger threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable, "statistics-http-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		server.setExecutor(executor);
+		server.createContext(BOOKS_PATH, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				handleBooks(exchange);
+			}
+		});
+		server.createContext(ORDERS_PATH, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				handleOrders(exchange);
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops the server, waiting at most one second for the requests in progress
+	 */
+	public void stop() {
+		server.stop(1);
+		executor.shutdown();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	private void handleBooks(final HttpExchange exchange) throws IOException {
+		if (!isGet(exchange)) {
+			return;
+		}
+		// /books, /books/{symbol}/statistics1, ...
+		final String[] segments = exchange.getRequestURI().getPath().substring(BOOKS_PATH.length()).split("/");
+		final JsonWriter json = JSON_WRITERS.get();
+
+		if (segments.length <= 1) {
+			writeBooks(json.reset(), orderBookManager.getOrderBooks().toArray(new OrderBook[0]));
+			send(exchange, 200, json);
+			return;
+		}
+
+		if (segments.length != 3) {
+			sendError(exchange, 404, "Unknown resource");
+			return;
+		}
+		final OrderBook orderBook = orderBookManager.getOrderBook(segments[1]);
+		if (orderBook == null) {
+			sendError(exchange, 404, OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage());
+			return;
+		}
+		final String resource = segments[2];
+		if (!"statistics1".equals(resource) && !"statistics2".equals(resource) && !"limits".equals(resource)) {
+			sendError(exchange, 404, "Unknown resource");
+			return;
+		}
+
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+		json.reset();
+		if ("statistics1".equals(resource)) {
+			writeStatistics1(json, orderBook, snapshot);
+		} else if ("statistics2".equals(resource)) {
+			writeStatistics2(json, orderBook, snapshot);
+		} else {
+			writeLimitBreakDown(json, snapshot);
+		}
+		send(exchange, 200, json);
+	}
+
+	private void handleOrders(final HttpExchange exchange) throws IOException {
+		if (!isGet(exchange)) {
+			return;
+		}
+		// /orders/{id}
+		final String[] segments = exchange.getRequestURI().getPath().substring(ORDERS_PATH.length()).split("/");
+		UUID orderId = null;
+		if (segments.length == 2) {
+			try {
+				orderId = UUID.fromString(segments[1]);
+			} catch (final IllegalArgumentException e) {
+				// not a UUID, hence not the id of an order
+			}
+		}
+		if (orderId == null) {
+			sendError(exchange, 404, "The id that you entered is not associated to any order of any book.");
+			return;
+		}
+
+		final JsonWriter json = JSON_WRITERS.get();
+		if (writeStatistics3(json.reset(), orderId)) {
+			send(exchange, 200, json);
+		} else {
+			sendError(exchange, 404, "The id that you entered is not associated to any order of any book.");
+		}
+	}
+
+	private void writeBooks(final JsonWriter json, final OrderBook[] orderBooks) {
+		json.beginArray();
+		for (final OrderBook orderBook : orderBooks) {
+			final OrderBookSnapshot snapshot = orderBook.snapshot();
+			json.beginObject();
+			json.name("symbol").value(orderBook.getFinancialInstrument().getName());
+			json.name("version").value(snapshot.getVersion());
+			json.name("matchingMode").value(orderBook.getMatchingMode().name());
+			json.name("open").value(snapshot.isOpen());
+			json.name("processed").value(snapshot.isProcessed());
+			json.name("totalAmountOfOrders").value(snapshot.getOrderCount());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	private static void writeStatistics1(final JsonWriter json, final OrderBook orderBook,
+			final OrderBookSnapshot snapshot) {
+		json.beginObject();
+		json.name("symbol").value(orderBook.getFinancialInstrument().getName());
+		json.name("version").value(snapshot.getVersion());
+		json.name("totalAmountOfOrders").value(snapshot.getOrderCount());
+		json.name("demand").value(snapshot.getDemand());
+		writeParticularOrders(json, snapshot);
+		json.name("limitBreakDown");
+		writeLimitBreakDown(json, snapshot);
+		json.endObject();
+	}
+
+	private static void writeStatistics2(final JsonWriter json, final OrderBook orderBook,
+			final OrderBookSnapshot snapshot) {
+		json.beginObject();
+		json.name("symbol").value(orderBook.getFinancialInstrument().getName());
+		json.name("version").value(snapshot.getVersion());
+		json.name("amountOfValidOrders").value(snapshot.getAmountOfOrders(true));
+		json.name("amountOfInvalidOrders").value(snapshot.getAmountOfOrders(false));
+		json.name("demandOfValidOrders").value(snapshot.getDemand(true));
+		json.name("demandOfInvalidOrders").value(snapshot.getDemand(false));
+		writeParticularOrders(json, snapshot);
+		json.name("limitBreakDown");
+		writeLimitBreakDown(json, snapshot);
+		json.name("totalExecutionQuantity").value(snapshot.getTotalExecutionOffer());
+		json.name("executionPrice").value(snapshot.getExecutionPrice());
+		json.endObject();
+	}
+
+	/**
+	 * Writes the statistics of an order, if a book has it. The archived books
+	 * are searched after the books of the manager, as in
+	 * {@link OrderBookManager#printStatistics3(String)}.
+	 *
+	 * @param json
+	 *            the writer
+	 * @param orderId
+	 *            the id of the order
+	 * @return false if no book has the order
+	 */
+	private boolean writeStatistics3(final JsonWriter json, final UUID orderId) {
+		for (final OrderBook orderBook : orderBookManager.getOrderBooks()) {
+			final OrderBookSnapshot snapshot = orderBook.snapshot();
+			final int index = snapshot.indexOf(orderId);
+			if (index >= 0) {
+				writeOrderStatistics(json, orderBook.getFinancialInstrument().getName(), snapshot, index);
+				return true;
+			}
+		}
+
+		final BookArchive bookArchive = orderBookManager.getBookArchive();
+		if (bookArchive != null) {
+			final ArchivedBook archivedBook = bookArchive.findBookOfOrder(orderId);
+			if (archivedBook != null) {
+				final OrderBookSnapshot snapshot = archivedBook.getSnapshot();
+				writeOrderStatistics(json, archivedBook.getSymbol(), snapshot, snapshot.indexOf(orderId));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void writeOrderStatistics(final JsonWriter json, final String symbol,
+			final OrderBookSnapshot snapshot, final int index) {
+		final double executionPrice = snapshot.isProcessed() ? snapshot.getExecutionPrice() : 0;
+		json.beginObject();
+		json.name("symbol").value(symbol);
+		json.name("version").value(snapshot.getVersion());
+		json.name("id").value(snapshot.getOrderId(index).toString());
+		json.name("valid").value(snapshot.isValid(index));
+		json.name("executionQuantity").value(snapshot.getSatisfiedQuantity(index));
+		json.name("orderPrice").value(executionPrice);
+		json.name("executionPrice").value(snapshot.getSatisfiedQuantity(index) * executionPrice);
+		json.endObject();
+	}
+
+	private static void writeParticularOrders(final JsonWriter json, final OrderBookSnapshot snapshot) {
+		json.name("particularOrders").beginObject();
+		if (snapshot.getOrderCount() > 0) {
+			writeOrder(json, "biggest", snapshot, snapshot.getBiggestOrderIndex());
+			writeOrder(json, "smallest", snapshot, snapshot.getSmallestOrderIndex());
+			writeOrder(json, "earliest", snapshot, snapshot.getEarliestOrderIndex());
+			writeOrder(json, "latest", snapshot, snapshot.getLatestOrderIndex());
+		}
+		json.endObject();
+	}
+
+	private static void writeOrder(final JsonWriter json, final String name, final OrderBookSnapshot snapshot,
+			final int index) {
+		json.name(name).beginObject();
+		json.name("id").value(snapshot.getOrderId(index).toString());
+		json.name("requestedQuantity").value(snapshot.getRequestedQuantity(index));
+		json.name("satisfiedQuantity").value(snapshot.getSatisfiedQuantity(index));
+		json.name("entryTimeMillis").value(snapshot.getEntryTimeMillis(index));
+		json.name("valid").value(snapshot.isValid(index));
+		if (snapshot.isLimitOrder(index)) {
+			json.name("limitPrice").value(snapshot.getLimitPrice(index));
+		}
+		json.endObject();
+	}
+
+	private static void writeLimitBreakDown(final JsonWriter json, final OrderBookSnapshot snapshot) {
+		final HashMap<Double, Integer> demandPerLimitPrice = snapshot.getDemandPerLimitPrice();
+		json.beginArray();
+		for (final Map.Entry<Double, Integer> entry : demandPerLimitPrice.entrySet()) {
+			json.beginObject();
+			json.name("limitPrice").value(entry.getKey().doubleValue());
+			json.name("demand").value(entry.getValue().intValue());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	/**
+	 * Answers 405 to anything but GET
+	 *
+	 * @param exchange
+	 *            the exchange
+	 * @return true if the request is a GET
+	 * @throws IOException
+	 *             if the answer cannot be sent
+	 */
+	private static boolean isGet(final HttpExchange exchange) throws IOException {
+		if ("GET".equals(exchange.getRequestMethod())) {
+			return true;
+		}
+		exchange.getResponseHeaders().set("Allow", "GET");
+		sendError(exchange, 405, "Only GET is supported");
+		return false;
+	}
+
+	private static void sendError(final HttpExchange exchange, final int status, final String message)
+			throws IOException {
+		final JsonWriter json = JSON_WRITERS.get().reset();
+		json.beginObject().name("error").value(message).endObject();
+		send(exchange, status, json);
+	}
+
+	private static void send(final HttpExchange exchange, final int status, final JsonWriter json)
+			throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, json.getLength());
+		try (OutputStream body = exchange.getResponseBody()) {
+			body.write(json.getBytes(), 0, json.getLength());
+		}
+	}
+
+}
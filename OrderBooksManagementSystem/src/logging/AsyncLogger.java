@@ -0,0 +1,260 @@
+package logging;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A logger which never makes the logging thread wait for the console: the
+ * messages go to a preallocated ring of {@link LogEntry}s and a background
+ * thread, the flusher, formats and prints them in order. Logging claims an
+ * entry with a compare-and-set and appends primitives and references to it, so
+ * it costs nanoseconds and allocates nothing.
+ *
+ * The INFO messages are the reports asked by the user (statistics, tables):
+ * if the ring is full, they wait for the flusher, so that no line of a report
+ * is lost. The other messages are the diagnostics of the intake and the
+ * matching, which never wait: if the ring is full they are dropped, counted,
+ * and the flusher prints how many lines were dropped. The entries below the
+ * level of the logger are not even claimed.
+ *
+ * The default logger prints to the standard output, at the level of the system
+ * property orderbook.log.level (INFO by default), with a ring of
+ * orderbook.log.capacity entries (8192 by default). Code reading the console
+ * (the menu) must {@link #flush()} it first, so that the messages appear
+ * before the prompts.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class AsyncLogger {
+
+	/**
+	 * The logger of the application
+	 */
+	private static final AsyncLogger INSTANCE = new AsyncLogger(System.out,
+			Integer.getInteger("orderbook.log.capacity", 8192),
+			LogLevel.parse(System.getProperty("orderbook.log.level"), LogLevel.INFO));
+
+	/**
+	 * How long the flusher sleeps when there is nothing to print
+	 */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * How long {@link #flush()} waits at most, in case an entry is never
+	 * committed
+	 */
+	private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final PrintStream out;
+
+	private final LogEntry[] ring;
+
+	private final int mask;
+
+	private volatile LogLevel level;
+
+	/**
+	 * The next sequence to claim
+	 */
+	private final AtomicLong claimedSequence = new AtomicLong();
+
+	/**
+	 * The sequences below it were printed and their entries can be reused.
+	 * Only written by the flusher.
+	 */
+	private volatile long flushedSequence = 0;
+
+	private final AtomicLong droppedEntries = new AtomicLong();
+
+	/**
+	 * The sequence the last dropped message could not claim: the messages
+	 * dropped are told once the entries before it are printed
+	 */
+	private volatile long droppedSequence = 0;
+
+	/**
+	 * The dropped messages already told in the output. Only written by the
+	 * flusher.
+	 */
+	private volatile long reportedDroppedEntries = 0;
+
+	private final Thread flusher;
+
+	/**
+	 * Constructor. Starts the flusher, a daemon thread.
+	 *
+	 * @param out
+	 *            where the messages are printed
+	 * @param capacity
+	 *            the amount of entries of the ring, rounded up to a power of two
+	 * @param level
+	 *            the least important level printed
+	 */
+	public AsyncLogger(final PrintStream out, final int capacity, final LogLevel level) {
+		this.out = out;
+		this.level = level;
+		final int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		ring = new LogEntry[size];
+		for (int i = 0; i < size; i++) {
+			ring[i] = new LogEntry();
+		}
+		mask = size - 1;
+
+		flusher = new Thread("orderbook-log-flusher") {
+
+			@Override
+			public void run() {
+				flushContinuously();
+			}
+
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+		Runtime.getRuntime().addShutdownHook(new Thread("orderbook-log-shutdown") {
+
+			@Override
+			public void run() {
+				flushEntries();
+			}
+
+		});
+	}
+
+	public static AsyncLogger getInstance() {
+		return INSTANCE;
+	}
+
+	public static LogEntry error() {
+		return INSTANCE.entry(LogLevel.ERROR);
+	}
+
+	public static LogEntry warn() {
+		return INSTANCE.entry(LogLevel.WARN);
+	}
+
+	public static LogEntry info() {
+		return INSTANCE.entry(LogLevel.INFO);
+	}
+
+	public static LogEntry debug() {
+		return INSTANCE.entry(LogLevel.DEBUG);
+	}
+
+	/**
+	 * Waits until the messages logged so far are printed by the default logger
+	 */
+	public static void flush() {
+		INSTANCE.flushEntries();
+	}
+
+	/**
+	 * Claims an entry for a message. If the ring is full, an INFO message waits
+	 * for the flusher, any other message is dropped.
+	 *
+	 * @param entryLevel
+	 *            the level of the message
+	 * @return the entry to append the message to, and to commit
+	 */
+	public LogEntry entry(final LogLevel entryLevel) {
+		if (!level.includes(entryLevel)) {
+			return LogEntry.DISABLED;
+		}
+		long sequence = claimedSequence.get();
+		while (true) {
+			if ((sequence - flushedSequence) >= ring.length) {
+				if ((entryLevel != LogLevel.INFO) || !flusher.isAlive()) {
+					droppedSequence = sequence;
+					droppedEntries.incrementAndGet();
+					return LogEntry.DISABLED;
+				}
+				LockSupport.unpark(flusher);
+				Thread.yield();
+			} else if (claimedSequence.compareAndSet(sequence, sequence + 1)) {
+				break;
+			}
+			sequence = claimedSequence.get();
+		}
+
+		final LogEntry entry = ring[(int) sequence & mask];
+		entry.start(sequence);
+		return entry;
+	}
+
+	/**
+	 * Waits until the messages logged so far, and the count of the messages
+	 * dropped so far, are printed, at most a second
+	 */
+	public void flushEntries() {
+		final long target = claimedSequence.get();
+		final long droppedTarget = droppedEntries.get();
+		final long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+		while (((flushedSequence < target) || (reportedDroppedEntries < droppedTarget)) && flusher.isAlive()
+				&& ((deadline - System.nanoTime()) > 0)) {
+			LockSupport.unpark(flusher);
+			Thread.yield();
+		}
+		out.flush();
+	}
+
+	/**
+	 * The loop of the flusher: prints the committed entries in order, flushing
+	 * the output when it catches up. It tells how many messages were dropped
+	 * where they would have been printed.
+	 */
+	private void flushContinuously() {
+		final StringBuilder line = new StringBuilder(256);
+		boolean printed = false;
+		while (true) {
+			final long sequence = flushedSequence;
+			final long dropped = droppedEntries.get();
+			if ((dropped != reportedDroppedEntries) && (sequence >= droppedSequence)) {
+				line.setLength(0);
+				line.append('[').append(dropped - reportedDroppedEntries).append(" log lines dropped]");
+				out.println(line);
+				reportedDroppedEntries = dropped;
+				printed = true;
+			}
+			final LogEntry entry = ring[(int) sequence & mask];
+			if (entry.isCommitted(sequence)) {
+				line.setLength(0);
+				entry.drainTo(line);
+				out.println(line);
+				// only once printed, for flushEntries
+				flushedSequence = sequence + 1;
+				printed = true;
+			} else {
+				if (printed) {
+					out.flush();
+					printed = false;
+				}
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+			}
+		}
+	}
+
+	public LogLevel getLevel() {
+		return level;
+	}
+
+	/**
+	 * Changes the least important level printed
+	 *
+	 * @param level
+	 *            the level
+	 */
+	public void setLevel(final LogLevel level) {
+		this.level = level;
+	}
+
+	/**
+	 * @return the amount of messages dropped because the ring was full
+	 */
+	public long getDroppedEntries() {
+		return droppedEntries.get();
+	}
+
+}
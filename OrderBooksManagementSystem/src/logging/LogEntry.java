@@ -0,0 +1,162 @@
+package logging;
+
+import java.util.Arrays;
+
+/**
+ * An entry of the ring of an {@link AsyncLogger}, filled by the thread logging
+ * and written by the flusher thread. The entries are created with the logger
+ * and reused: appending keeps the pieces of the message as they are (a
+ * reference to a String, or the bits of a number) and the message is only
+ * formatted by the flusher, so logging allocates nothing.
+ *
+ * An entry must be committed once its message is complete, otherwise the
+ * flusher waits for it. Entries of disabled levels, or refused because the
+ * ring is full, ignore the appends.
+ *
+ * <pre>
+ * AsyncLogger.warn().append("Only ").append(quantity).append(" units matched").commit();
+ * </pre>
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class LogEntry {
+
+	/**
+	 * The most pieces a message can have, the next ones are ignored
+	 */
+	static final int MAX_PIECES = 32;
+
+	private static final byte TEXT = 0;
+
+	private static final byte LONG = 1;
+
+	private static final byte DOUBLE = 2;
+
+	private static final byte BOOLEAN = 3;
+
+	private static final byte CHAR = 4;
+
+	/**
+	 * The entry given when nothing must be logged
+	 */
+	static final LogEntry DISABLED = new LogEntry(false);
+
+	private final boolean enabled;
+
+	private final byte[] types;
+
+	private final long[] values;
+
+	private final String[] texts;
+
+	private int pieceCount;
+
+	/**
+	 * The sequence the entry was claimed for
+	 */
+	private long sequence;
+
+	/**
+	 * The sequence of the last committed message, read by the flusher: the entry
+	 * is ready when it equals the sequence the flusher waits for
+	 */
+	private volatile long committedSequence = -1;
+
+	LogEntry() {
+		this(true);
+	}
+
+	private LogEntry(final boolean enabled) {
+		this.enabled = enabled;
+		types = (enabled ? new byte[MAX_PIECES] : null);
+		values = (enabled ? new long[MAX_PIECES] : null);
+		texts = (enabled ? new String[MAX_PIECES] : null);
+	}
+
+	public LogEntry append(final String text) {
+		if (enabled && (pieceCount < MAX_PIECES)) {
+			types[pieceCount] = TEXT;
+			texts[pieceCount++] = text;
+		}
+		return this;
+	}
+
+	public LogEntry append(final long value) {
+		return appendBits(LONG, value);
+	}
+
+	public LogEntry append(final double value) {
+		return appendBits(DOUBLE, Double.doubleToRawLongBits(value));
+	}
+
+	public LogEntry append(final boolean value) {
+		return appendBits(BOOLEAN, (value ? 1 : 0));
+	}
+
+	public LogEntry append(final char value) {
+		return appendBits(CHAR, value);
+	}
+
+	private LogEntry appendBits(final byte type, final long bits) {
+		if (enabled && (pieceCount < MAX_PIECES)) {
+			types[pieceCount] = type;
+			values[pieceCount++] = bits;
+		}
+		return this;
+	}
+
+	/**
+	 * Hands the entry over to the flusher
+	 */
+	public void commit() {
+		if (enabled) {
+			committedSequence = sequence;
+		}
+	}
+
+	/**
+	 * Prepares the entry for a new message, once claimed
+	 *
+	 * @param claimedSequence
+	 *            the sequence claimed
+	 */
+	void start(final long claimedSequence) {
+		sequence = claimedSequence;
+	}
+
+	boolean isCommitted(final long expectedSequence) {
+		return committedSequence == expectedSequence;
+	}
+
+	/**
+	 * Formats the message and forgets it, the entry can then be reused
+	 *
+	 * @param line
+	 *            where the message is formatted
+	 */
+	void drainTo(final StringBuilder line) {
+		for (int i = 0; i < pieceCount; i++) {
+			switch (types[i]) {
+			case TEXT:
+				line.append(texts[i]);
+				break;
+			case LONG:
+				line.append(values[i]);
+				break;
+			case DOUBLE:
+				line.append(Double.longBitsToDouble(values[i]));
+				break;
+			case BOOLEAN:
+				line.append(values[i] != 0);
+				break;
+			default:
+				line.append((char) values[i]);
+			}
+		}
+		Arrays.fill(texts, 0, pieceCount, null);
+		pieceCount = 0;
+	}
+
+}
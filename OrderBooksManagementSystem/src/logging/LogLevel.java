@@ -0,0 +1,65 @@
+package logging;
+
+/**
+ * The levels of the log entries, from the most to the least important. A
+ * logger writes the entries of its level and of the levels above.
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum LogLevel {
+
+	/**
+	 * Something failed (e.g. a file could not be written)
+	 */
+	ERROR,
+
+	/**
+	 * A request was refused (e.g. an order added to a closed book)
+	 */
+	WARN,
+
+	/**
+	 * What the user asked for (statistics, lists of books) and the usual events
+	 */
+	INFO,
+
+	/**
+	 * Details only useful while investigating
+	 */
+	DEBUG;
+
+	/**
+	 * Whether the entries of a level are written by a logger of this level
+	 *
+	 * @param entryLevel
+	 *            the level of the entry
+	 * @return true if written
+	 */
+	public boolean includes(final LogLevel entryLevel) {
+		return entryLevel.ordinal() <= ordinal();
+	}
+
+	/**
+	 * Parses the name of a level, whatever its case
+	 *
+	 * @param name
+	 *            the name, may be null
+	 * @param defaultLevel
+	 *            the level returned if the name is not the one of a level
+	 * @return the level
+	 */
+	public static LogLevel parse(final String name, final LogLevel defaultLevel) {
+		if (name != null) {
+			final String trimmedName = name.trim();
+			for (final LogLevel level : values()) {
+				if (level.name().equalsIgnoreCase(trimmedName)) {
+					return level;
+				}
+			}
+		}
+		return defaultLevel;
+	}
+
+}
@@ -2,11 +2,12 @@ package menu;
 
 import java.util.Scanner;
 
+import customexceptions.OrderBookExceptionCode;
+import logging.AsyncLogger;
 import model.Execution;
+import model.MatchingMode;
 import model.OrderBook;
 import model.OrderBookManager;
-import model.orders.LimitOrder;
-import model.orders.MarketOrder;
 import model.orders.Order;
 
 /**
@@ -68,7 +69,7 @@ public class Menu {
 						break;
 
 					default:
-						System.out.println("Something went wrong");
+						println("Something went wrong");
 						break;
 				}
 			} while (selectedNavigation != MIN_NAVIGATION_CHOICE);
@@ -103,7 +104,7 @@ public class Menu {
 					prepareForStatistics3(sc);
 					break;
 				default:
-					System.out.println("Something went wrong");
+					println("Something went wrong");
 					break;
 			}
 		} while (selectedNavigation != MIN_NAVIGATION_CHOICE);
@@ -125,12 +126,12 @@ public class Menu {
 		int chosenNumber = -1;
 
 		do {
-			System.out.println("Please enter a value within the proposed range");
+			println("Please enter a value within the proposed range");
 
 			if (scanner.hasNextInt()) {
 				chosenNumber = scanner.nextInt();
 			} else {
-				System.out.println("Invalid! You need to type an integer!");
+				println("Invalid! You need to type an integer!");
 				scanner.nextLine();
 			}
 
@@ -151,12 +152,12 @@ public class Menu {
 		int chosenNumber = -1;
 
 		do {
-			System.out.println("Please enter a positive integer");
+			println("Please enter a positive integer");
 
 			if (scanner.hasNextInt()) {
 				chosenNumber = scanner.nextInt();
 			} else {
-				System.out.println("Invalid! You need to type an integer!");
+				println("Invalid! You need to type an integer!");
 				scanner.nextLine();
 			}
 
@@ -177,12 +178,12 @@ public class Menu {
 		double chosenNumber = -1;
 
 		do {
-			System.out.println("Please enter a positive number");
+			println("Please enter a positive number");
 
 			if (scanner.hasNextDouble()) {
 				chosenNumber = scanner.nextDouble();
 			} else {
-				System.out.println("Invalid! You need to type a number!");
+				println("Invalid! You need to type a number!");
 				scanner.nextLine();
 			}
 
@@ -205,12 +206,12 @@ public class Menu {
 		sc.nextLine();
 
 		do {
-			System.out.println("Please enter the string");
+			println("Please enter the string");
 
 			string = sc.nextLine();
 
 			if (string.isEmpty()) {
-				System.out.println("Invalid! Empty string!");
+				println("Invalid! Empty string!");
 			}
 
 		} while (string.isEmpty());
@@ -227,15 +228,15 @@ public class Menu {
 	 *            the scanner
 	 */
 	public void addOrder(final Scanner sc) {
-		System.out.println("Add an order to the book");
-		System.out.println();
+		println("Add an order to the book");
+		println();
 
 		// part 1 : select the book
 		if (orderBookManager.getOrderBooks().isEmpty()) {
-			System.out.println("There is no book - you cannot add an order.");
+			println("There is no book - you cannot add an order.");
 		} else {
 			orderBookManager.displayOrderBooks();
-			System.out.println("To which book would you like to add an order?");
+			println("To which book would you like to add an order?");
 
 			final int bookNumber = getPositiveIntegerFromUser(sc, orderBookManager.getOrderBooks().size());
 
@@ -243,43 +244,46 @@ public class Menu {
 
 			// part 2 : create the order
 			if (orderBook.isOpen()) {
-				final Order order = createOrder(sc);
-				orderBookManager.getOrderBooks().get(bookNumber).addOrder(order);
+				createOrder(sc, orderBook);
 
 			} else {
-				System.out.println("It is not possible to add an order to a closed book!");
+				println("It is not possible to add an order to a closed book!");
 			}
 
 		}
 	}
 
 	/**
-	 * Allows to create a customisable order
+	 * Allows to create a customisable order and adds it to the book. The order is
+	 * created by the book from the primitive values typed by the user, so that it
+	 * can be taken from the pool of orders.
 	 *
 	 * @param sc
 	 *            the scanner
-	 * @return the created order
+	 * @param orderBook
+	 *            the book receiving the order
+	 * @return the created order, or null if the book refused it
 	 */
-	public Order createOrder(final Scanner sc) {
-		System.out.println("Which type of order would you like to create?");
-		System.out.println("0 - Market Order");
-		System.out.println("1 - Limit Order");
-		System.out.println();
-		final int orderType = getPositiveIntegerFromUser(sc, orderBookManager.getOrderBooks().size());
-		System.out.println("Specify quantity:");
+	public Order createOrder(final Scanner sc, final OrderBook orderBook) {
+		println("Which type of order would you like to create?");
+		println("0 - Market Order");
+		println("1 - Limit Order");
+		println();
+		final int orderType = getPositiveIntegerFromUser(sc, 1);
+		println("Specify quantity:");
 		final int quantity = getPositiveIntegerFromUser(sc);
 
 		Order order = null;
 
 		switch (orderType) {
 			case 0:
-				order = new MarketOrder(quantity);
+				order = orderBook.addMarketOrder(quantity);
 				break;
 
 			case 1:
-				System.out.println("Specify limit price:");
+				println("Specify limit price:");
 				final double limitPrice = getPositiveDoubleFromUser(sc);
-				order = new LimitOrder(quantity, limitPrice);
+				order = orderBook.addLimitOrder(quantity, limitPrice);
 				break;
 		}
 
@@ -293,27 +297,28 @@ public class Menu {
 	 * @param sc
 	 */
 	public void addExecution(final Scanner sc) {
-		System.out.println("Add an execution to the book");
-		System.out.println();
+		println("Add an execution to the book");
+		println();
 
 		// part 1 : select the book
 		if (orderBookManager.getOrderBooks().isEmpty()) {
-			System.out.println("There is no book - you cannot add an an execution.");
+			println("There is no book - you cannot add an an execution.");
 		} else {
 			orderBookManager.displayOrderBooks();
-			System.out.println("To which book would you like to add an execution?");
+			println("To which book would you like to add an execution?");
 
 			final OrderBook orderBook = getOrderBookFromUser(sc);
 
-			// part 2 : add the execution
-			if (orderBook.isOpen()) {
-				System.out.println("It is not possible to add an execution to an open book!");
+			// part 2 : add the execution (continuous books match executions while open)
+			if (orderBook.isOpen() && (orderBook.getMatchingMode() == MatchingMode.CALL_AUCTION)) {
+				println("It is not possible to add an execution to an open book!");
 			} else {
 
 				Execution execution = null;
 
-				// if there is no execution in the order, the price must be specified
-				if (orderBook.getExecutions().isEmpty()) {
+				// if there is no execution in the order, the price must be specified. In
+				// continuous mode, each execution has its own price.
+				if (orderBook.getExecutions().isEmpty() || (orderBook.getMatchingMode() == MatchingMode.CONTINUOUS)) {
 					execution = createExecution(sc);
 
 					// if there is an execution in the order, get the price of the first one
@@ -350,9 +355,9 @@ public class Menu {
 	 * @return the created execution
 	 */
 	public Execution createExecution(final Scanner sc) {
-		System.out.println("Specify the common unit price for all executions on this book?");
+		println("Specify the common unit price for all executions on this book?");
 		final double unitPrice = getPositiveDoubleFromUser(sc);
-		System.out.println("Specify quantity:");
+		println("Specify quantity:");
 		final int quantity = getPositiveIntegerFromUser(sc);
 		return new Execution(quantity, unitPrice);
 	}
@@ -366,7 +371,7 @@ public class Menu {
 	 * @return the created execution
 	 */
 	public Execution createExecution(final Scanner sc, final double unitPrice) {
-		System.out.println("Specify quantity:");
+		println("Specify quantity:");
 		final int quantity = getPositiveIntegerFromUser(sc);
 		return new Execution(quantity, unitPrice);
 	}
@@ -379,18 +384,14 @@ public class Menu {
 	 */
 	public void openBook(final Scanner sc) {
 		orderBookManager.displayOrderBooks();
-		System.out.println("Which book would you like to open?");
+		println("Which book would you like to open?");
 		final OrderBook orderBook = getOrderBookFromUser(sc);
 
-		if (orderBook.isOpen()) {
-			System.out.println("The book is already open!");
+		final OrderBookExceptionCode rejection = orderBook.open();
+		if (rejection == null) {
+			println("Order book opened");
 		} else {
-			if (orderBook.isWasAlreadyOpenedOnce()) {
-				System.out.println("Cannot reopen a book!");
-			} else {
-				orderBook.setOpen(true);
-				System.out.println("Order book opened");
-			}
+			println(rejection.exceptionMessage());
 		}
 
 	}
@@ -403,14 +404,14 @@ public class Menu {
 	 */
 	public void closeBook(final Scanner sc) {
 		orderBookManager.displayOrderBooks();
-		System.out.println("Which book would you like to close?");
+		println("Which book would you like to close?");
 		final OrderBook orderBook = getOrderBookFromUser(sc);
 
-		if (orderBook.isOpen()) {
-			orderBook.setOpen(false);
-			System.out.println("Order book closed");
+		final OrderBookExceptionCode rejection = orderBook.close();
+		if (rejection == null) {
+			println("Order book closed");
 		} else {
-			System.out.println("The book is already closed!");
+			println(rejection.exceptionMessage());
 		}
 	}
 
@@ -422,12 +423,12 @@ public class Menu {
 	 */
 	public void executeBook(final Scanner sc) {
 		orderBookManager.displayOrderBooks();
-		System.out.println("Which book would you like to execute?");
+		println("Which book would you like to execute?");
 		final int bookNumber = getPositiveIntegerFromUser(sc, orderBookManager.getOrderBooks().size());
 		final OrderBook orderBook = orderBookManager.getOrderBooks().get(bookNumber);
 
 		if (orderBook.isOpen()) {
-			System.out.println("You cannot execute an open book - there are no executions anyway");
+			println("You cannot execute an open book - there are no executions anyway");
 		} else {
 			orderBookManager.processBook(bookNumber);
 		}
@@ -441,7 +442,7 @@ public class Menu {
 	 *            the scanner
 	 */
 	public void prepareForStatistics3(final Scanner sc) {
-		System.out.println("Enter the id associated to the order you are looking for:");
+		println("Enter the id associated to the order you are looking for:");
 		final String orderId = getNonEmptyStringFromUserInput(sc);
 
 		orderBookManager.printStatistics3(orderId);
@@ -450,44 +451,64 @@ public class Menu {
 
 	/* ****************** Pure printing Functions ****************** */
 
+	/**
+	 * Prints a line of the menu. The menu talks to the user synchronously, so the
+	 * messages logged so far (e.g. by the books) are flushed first, to appear
+	 * before the line.
+	 *
+	 * @param line
+	 *            the line
+	 */
+	private static void println(final String line) {
+		AsyncLogger.flush();
+		System.out.println(line);
+	}
+
+	/**
+	 * Prints an empty line of the menu
+	 */
+	private static void println() {
+		println("");
+	}
+
 	/**
 	 * Welcomes the user
 	 */
 	private void printWelcome() {
-		System.out.println("Welcome to the order books management System");
-		System.out.println(
+		println("Welcome to the order books management System");
+		println(
 				"To navigate through the menu, select the number located on the left of the option that you want to choose");
-		System.out.println("");
+		println("");
 	}
 
 	/**
 	 * Prints the main menu
 	 */
 	private void printMainMenu() {
-		System.out.println("MAIN MENU");
-		System.out.println("1 - Add an order to a book");
-		System.out.println("2 - Add an execution to a book");
-		System.out.println("3 - Open a book");
-		System.out.println("4 - Close a book");
-		System.out.println("5 - Process executions for a book");
-		System.out.println("6 - Print statistics");
-		System.out.println("0 - exit");
+		println("MAIN MENU");
+		println("1 - Add an order to a book");
+		println("2 - Add an execution to a book");
+		println("3 - Open a book");
+		println("4 - Close a book");
+		println("5 - Process executions for a book");
+		println("6 - Print statistics");
+		println("0 - exit");
 	}
 
 	/**
 	 * Prints the statistics menu
 	 */
 	private void printStatisticsMenu() {
-		System.out.println("STATISTICS MENU");
-		System.out.println("1 - Print statistics 1");
-		System.out.println(
+		println("STATISTICS MENU");
+		println("1 - Print statistics 1");
+		println(
 				"=> for each book: amount of orders, demand, biggest / smallest / earliest / latest orders, limit break-down");
-		System.out.println("2 - Print statistics 2");
-		System.out.println(
+		println("2 - Print statistics 2");
+		println(
 				"=> for each book: amount of valid/invalid orders, amount of valid/invalid demand, biggest / smallest / earliest / latest orders, limit break-down, accumulated execution quantity, execution price");
-		System.out.println("3 - Print statistics 3");
-		System.out.println("=> for a given order id: validity, execution quantity, order's price, execution price");
-		System.out.println("0 - Return to main menu");
+		println("3 - Print statistics 3");
+		println("=> for a given order id: validity, execution quantity, order's price, execution price");
+		println("0 - Return to main menu");
 	}
 
 }
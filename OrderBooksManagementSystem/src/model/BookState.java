@@ -0,0 +1,27 @@
+package model;
+
+/**
+ * The lifecycle of a book. The transitions only go forward:
+ * <ul>
+ * <li>NEW to OPEN: the book accepts orders</li>
+ * <li>OPEN to CLOSED: the book accepts executions instead</li>
+ * <li>NEW or CLOSED to PROCESSED: the executions are given to the orders, the
+ * book does not change anymore</li>
+ * </ul>
+ * A book cannot be reopened.
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum BookState {
+
+	NEW,
+
+	OPEN,
+
+	CLOSED,
+
+	PROCESSED;
+
+}
@@ -0,0 +1,135 @@
+package model;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the financial instruments by symbol and by id, and maps each
+ * instrument to its book, so that an order or an execution is routed to its
+ * book in constant time, whatever the amount of instruments.
+ *
+ * Lookups do not lock, so they can be done from any thread.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class InstrumentRegistry {
+
+	/**
+	 * The instruments, by symbol (= name)
+	 */
+	private final ConcurrentHashMap<String, FinancialInstrument> instrumentsBySymbol = new ConcurrentHashMap<String, FinancialInstrument>();
+
+	/**
+	 * The instruments, by id
+	 */
+	private final ConcurrentHashMap<UUID, FinancialInstrument> instrumentsById = new ConcurrentHashMap<UUID, FinancialInstrument>();
+
+	/**
+	 * The books, by symbol of their instrument
+	 */
+	private final ConcurrentHashMap<String, OrderBook> orderBooksBySymbol = new ConcurrentHashMap<String, OrderBook>();
+
+	/**
+	 * The books, by id of their instrument
+	 */
+	private final ConcurrentHashMap<UUID, OrderBook> orderBooksByInstrumentId = new ConcurrentHashMap<UUID, OrderBook>();
+
+	/**
+	 * Returns the instrument of a symbol, creating it the first time. Asking twice
+	 * for the same symbol gives the same instrument.
+	 *
+	 * @param symbol
+	 *            the symbol (= name) of the instrument
+	 * @return the instrument
+	 */
+	public FinancialInstrument intern(final String symbol) {
+		FinancialInstrument financialInstrument = instrumentsBySymbol.get(symbol);
+		if (financialInstrument == null) {
+			final FinancialInstrument newFinancialInstrument = new FinancialInstrument(symbol);
+			financialInstrument = instrumentsBySymbol.putIfAbsent(symbol, newFinancialInstrument);
+			if (financialInstrument == null) {
+				financialInstrument = newFinancialInstrument;
+				instrumentsById.put(financialInstrument.getInstrumentID(), financialInstrument);
+			}
+		}
+		return financialInstrument;
+	}
+
+	/**
+	 * Maps the instrument of a book to the book. The instrument is interned if it
+	 * was created outside of the registry.
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @return true if the book was registered, false if its instrument (or an
+	 *         instrument having the same symbol) already has a book
+	 */
+	public boolean registerOrderBook(final OrderBook orderBook) {
+		final FinancialInstrument financialInstrument = orderBook.getFinancialInstrument();
+
+		final FinancialInstrument internedInstrument = instrumentsBySymbol.putIfAbsent(financialInstrument.getName(),
+				financialInstrument);
+		if ((internedInstrument != null) && (internedInstrument != financialInstrument)) {
+			return false;
+		}
+		instrumentsById.put(financialInstrument.getInstrumentID(), financialInstrument);
+
+		if (orderBooksBySymbol.putIfAbsent(financialInstrument.getName(), orderBook) != null) {
+			return false;
+		}
+		orderBooksByInstrumentId.put(financialInstrument.getInstrumentID(), orderBook);
+		return true;
+	}
+
+	/**
+	 * Removes the mapping of a book (e.g. when it is archived). The instrument
+	 * stays interned.
+	 *
+	 * @param orderBook
+	 *            the book
+	 */
+	public void unregisterOrderBook(final OrderBook orderBook) {
+		final FinancialInstrument financialInstrument = orderBook.getFinancialInstrument();
+		orderBooksBySymbol.remove(financialInstrument.getName(), orderBook);
+		orderBooksByInstrumentId.remove(financialInstrument.getInstrumentID(), orderBook);
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol of an instrument
+	 * @return the instrument, or null if the symbol is unknown
+	 */
+	public FinancialInstrument getFinancialInstrument(final String symbol) {
+		return instrumentsBySymbol.get(symbol);
+	}
+
+	/**
+	 * @param instrumentId
+	 *            the id of an instrument
+	 * @return the instrument, or null if the id is unknown
+	 */
+	public FinancialInstrument getFinancialInstrument(final UUID instrumentId) {
+		return instrumentsById.get(instrumentId);
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol of an instrument
+	 * @return the book of the instrument, or null if it has no book
+	 */
+	public OrderBook getOrderBook(final String symbol) {
+		return orderBooksBySymbol.get(symbol);
+	}
+
+	/**
+	 * @param instrumentId
+	 *            the id of an instrument
+	 * @return the book of the instrument, or null if it has no book
+	 */
+	public OrderBook getOrderBook(final UUID instrumentId) {
+		return orderBooksByInstrumentId.get(instrumentId);
+	}
+
+}
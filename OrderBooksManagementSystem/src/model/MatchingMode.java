@@ -0,0 +1,33 @@
+package model;
+
+/**
+ * How the executions of a book are given to its orders
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum MatchingMode {
+
+	/**
+	 * Orders are collected while the book is open, executions are added once it
+	 * is closed, and all the executions are distributed proportionately among the
+	 * valid orders when the book is processed
+	 */
+	CALL_AUCTION,
+
+	/**
+	 * Like the call auction, except that each execution is distributed
+	 * proportionately among the valid orders as soon as it is added, according to
+	 * what each order still expects. Processing the book then has nothing left to
+	 * distribute.
+	 */
+	INCREMENTAL_AUCTION,
+
+	/**
+	 * Each execution is matched as soon as it arrives against the orders resting
+	 * in the book, in price-time priority
+	 */
+	CONTINUOUS;
+
+}
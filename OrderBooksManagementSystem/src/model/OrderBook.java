@@ -1,13 +1,40 @@
 package model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import customexceptions.OrderBookExceptionCode;
+import logging.AsyncLogger;
+import model.allocation.ProRataKernel;
+import model.fills.ClientFillIndex;
+import model.fills.Fill;
+import model.fills.FillListener;
+import model.fills.FillPublisher;
+import model.fills.FillSubscription;
+import model.intake.ClientOrderIdSet;
+import model.intake.TokenBucket;
+import model.marketdata.DepthBook;
+import model.matching.MatchListener;
+import model.matching.PriceLevelBook;
 import model.orders.LimitOrder;
 import model.orders.MarketOrder;
 import model.orders.Order;
+import model.orders.OrderPool;
+import model.risk.PreTradeRiskCheck;
+import model.snapshot.OrderBookSnapshot;
+import model.snapshot.OrderStore;
+import monitoring.BookEventRecorder;
+import monitoring.BookEventType;
+import monitoring.Operation;
+import monitoring.OrderBookMetrics;
 
 /**
  * The book contains a list of orders and a list of executions that will be
@@ -19,26 +46,65 @@ import model.orders.Order;
  */
 public class OrderBook {
 
+	private static final AtomicReferenceFieldUpdater<OrderBook, BookState> STATE_UPDATER = AtomicReferenceFieldUpdater
+			.newUpdater(OrderBook.class, BookState.class, "state");
+
+	private static final AtomicIntegerFieldUpdater<OrderBook> WRITERS_UPDATER = AtomicIntegerFieldUpdater
+			.newUpdater(OrderBook.class, "writers");
+
 	/**
-	 * Whether the book is open or not. If the book is open, orders can be added but
-	 * execution cannot be added. On the other hand, if the book is close, orders
-	 * cannot be added but execution can be added.
+	 * Where the book is in its lifecycle. If the book is open, orders can be added
+	 * but execution cannot be added. On the other hand, if the book is closed,
+	 * orders cannot be added but execution can be added. A book cannot be
+	 * reopened, and no execution can be added once the book is processed.
 	 *
+	 * The transitions are made by compare-and-set, so any thread can open, close
+	 * or process the book while another one adds orders: an order is accepted if
+	 * the book is open when its state is read, and the thread closing the book
+	 * waits for the orders being added (see {@link #writers}) before it returns.
+	 * The orders and the executions of a book must still be added by one thread
+	 * at a time.
+	 */
+	private volatile BookState state = BookState.NEW;
+
+	/**
+	 * The amount of threads adding an order, counted before they read the state.
+	 * Once the book is not open anymore, no order starts being added, so waiting
+	 * for this count to reach 0 ensures that the orders are not changed anymore:
+	 * {@link #close()}, {@link #addExecution(Execution)} and
+	 * {@link #processExecutions()} wait for it before they read the orders.
+	 */
+	private volatile int writers;
+
+	/**
+	 * When the book was opened and closed, in milliseconds since the epoch, for
+	 * the snapshots of the past
+	 */
+	private volatile long openedAtMillis = Long.MAX_VALUE;
+
+	private volatile long closedAtMillis = Long.MAX_VALUE;
+
+	/**
+	 * Limits the rate of the orders added to the book, null if not limited
 	 */
-	private boolean isOpen;
+	private volatile TokenBucket intakeLimit;
 
 	/**
-	 * Stores whether the book was already open at some point in time. Since a book
-	 * cannot be reopened, this attribute is useful.
+	 * The client order ids of the orders added to the book, to refuse an order
+	 * sent twice
 	 */
-	private boolean wasAlreadyOpenedOnce = false;
+	private final ClientOrderIdSet clientOrderIds = new ClientOrderIdSet();
 
 	/**
-	 * Stores whether a process of executions already happened in the past. I
-	 * assumed that it is not possible to add new executions after a book is
-	 * processed, therefore this attribute is useful.
+	 * Limits what the accounts of the orders have open, null if not checked
 	 */
-	private boolean areExecutionsProcessed = false;
+	private volatile PreTradeRiskCheck riskCheck;
+
+	/**
+	 * Receives the units given to the orders of each account, null if not
+	 * recorded
+	 */
+	private volatile ClientFillIndex clientFillIndex;
 
 	/**
 	 * The financial instrument "traded" in the order book
@@ -55,6 +121,135 @@ public class OrderBook {
 	 */
 	private final ArrayList<Order> orders = new ArrayList<Order>();
 
+	/**
+	 * The limit orders of the list of orders, in the same order. Kept apart when
+	 * the orders are added so that the functions only interested in limit orders
+	 * neither filter nor cast the whole list.
+	 */
+	private final ArrayList<LimitOrder> limitOrders = new ArrayList<LimitOrder>();
+
+	/**
+	 * The market orders of the list of orders, in the same order
+	 */
+	private final ArrayList<MarketOrder> marketOrders = new ArrayList<MarketOrder>();
+
+	/**
+	 * The limit prices of the limit orders, in the same order, so that the
+	 * validation runs on a primitive array
+	 */
+	private double[] limitPrices = new double[16];
+
+	/**
+	 * Scratch arrays of the allocation, kept from one run to the next
+	 */
+	private boolean[] validityMask = new boolean[0];
+
+	private int[] requestedQuantities = new int[0];
+
+	private int[] allocatedQuantities = new int[0];
+
+	/**
+	 * Read-only view of the limit orders, returned to the callers instead of a
+	 * copy
+	 */
+	private final List<LimitOrder> limitOrdersView = Collections.unmodifiableList(limitOrders);
+
+	/**
+	 * Read-only view of the market orders, returned to the callers instead of a
+	 * copy
+	 */
+	private final List<MarketOrder> marketOrdersView = Collections.unmodifiableList(marketOrders);
+
+	/**
+	 * The orders, executions and state of the book, published as versioned
+	 * snapshots so that the statistics are computed without stopping the intake
+	 */
+	private final OrderStore orderStore = new OrderStore();
+
+	/**
+	 * The latencies of the operations on the book and the accepted / rejected
+	 * counters, exposed through JMX by the book manager
+	 */
+	private final OrderBookMetrics metrics = new OrderBookMetrics();
+
+	/**
+	 * Publishes the fills to the listeners once the executions are processed
+	 */
+	private final FillPublisher fillPublisher = new FillPublisher();
+
+	/**
+	 * The aggregated demand per limit price, publishing its changes to the market
+	 * data listeners
+	 */
+	private final DepthBook depthBook;
+
+	/**
+	 * The pool providing the orders created by {@link #addLimitOrder(int, double)}
+	 * and {@link #addMarketOrder(int)}, and receiving them back once the book is
+	 * archived and nothing reaches its store anymore
+	 */
+	private final OrderPool orderPool;
+
+	/**
+	 * How the executions are given to the orders: call auction (the default) or
+	 * continuous matching
+	 */
+	private final MatchingMode matchingMode;
+
+	/**
+	 * The orders waiting for executions, in price-time priority. Only used in
+	 * continuous mode, null otherwise.
+	 */
+	private final PriceLevelBook priceLevelBook;
+
+	/**
+	 * The fills of the execution being matched, published once the execution is
+	 * matched or once they make a full batch. Only filled if somebody listens to
+	 * the fills.
+	 */
+	private ArrayList<Fill> pendingFills = new ArrayList<Fill>();
+
+	/**
+	 * The quantity each order of {@link #incrementalAllocationOrders} gets from
+	 * the execution being distributed, reused from one execution to the next
+	 */
+	private int[] incrementalAllocations = new int[0];
+
+	/**
+	 * The valid orders among which the executions are distributed in incremental
+	 * mode, set when the first execution is distributed (the orders cannot change
+	 * anymore since the book is closed). Null otherwise.
+	 */
+	private ArrayList<Order> incrementalAllocationOrders = null;
+
+	/**
+	 * In incremental mode, the quantity still expected by the valid orders, kept
+	 * up to date as the executions are distributed
+	 */
+	private int remainingValidDemand = 0;
+
+	/**
+	 * Receives the matches of the continuous mode
+	 */
+	private final MatchListener matchListener = new MatchListener() {
+
+		@Override
+		public void onMatch(final Order order, final int quantity, final double price) {
+			// an order which gets units at the execution price obviously accepts it
+			if (!order.isValid()) {
+				changeValidity(order, true);
+			}
+			order.recordFillPrice(quantity, price);
+			orderStore.updateOrder(order);
+			releaseRisk(order, quantity);
+			recordClientFill(order, quantity, price);
+			if (fillPublisher.hasSubscriptions()) {
+				addPendingFill(order, quantity, price);
+			}
+		}
+
+	};
+
 	/**
 	 * Constructor
 	 *
@@ -62,7 +257,38 @@ public class OrderBook {
 	 *            the financial instrument
 	 */
 	public OrderBook(final FinancialInstrument financialInstrument) {
+		this(financialInstrument, new OrderPool());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument
+	 * @param orderPool
+	 *            the pool of orders, usually shared by all the books of a manager
+	 */
+	public OrderBook(final FinancialInstrument financialInstrument, final OrderPool orderPool) {
+		this(financialInstrument, orderPool, MatchingMode.CALL_AUCTION);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument
+	 * @param orderPool
+	 *            the pool of orders, usually shared by all the books of a manager
+	 * @param matchingMode
+	 *            how the executions are given to the orders
+	 */
+	public OrderBook(final FinancialInstrument financialInstrument, final OrderPool orderPool,
+			final MatchingMode matchingMode) {
 		this.financialInstrument = financialInstrument;
+		this.orderPool = orderPool;
+		this.matchingMode = matchingMode;
+		depthBook = new DepthBook(financialInstrument);
+		priceLevelBook = (matchingMode == MatchingMode.CONTINUOUS ? new PriceLevelBook() : null);
 	}
 
 	/**
@@ -70,16 +296,32 @@ public class OrderBook {
 	 * processed before AND 3) the new quantity offered by the execution will not
 	 * make the new total execution amount bigger than the demand
 	 *
+	 * In continuous mode, the execution is matched right away against the resting
+	 * orders instead (see {@link #matchExecution(Execution)}).
+	 *
 	 * @param execution
 	 *            the execution to be added
+	 * @return null if the execution was added, otherwise the reason why it was
+	 *         not
 	 */
-	public void addExecution(final Execution execution) {
+	public OrderBookExceptionCode addExecution(final Execution execution) {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		OrderBookExceptionCode rejection = null;
+		final BookState currentState = state;
+		if (currentState != BookState.OPEN) {
+			// the thread closing the book may still be waiting for the last orders
+			awaitWriters();
+		}
+
+		if (matchingMode == MatchingMode.CONTINUOUS) {
+			rejection = matchExecution(execution, currentState);
 
-		// cannot add an execution on an open book
-		if (!isOpen) {
+			// cannot add an execution on an open book
+		} else if (currentState != BookState.OPEN) {
 			// cannot add an execution if the book was already processed
-			if (!areExecutionsProcessed) {
-				final int demand = getDemand();
+			if (currentState != BookState.PROCESSED) {
+				final int demand = sumDemand(null);
 				final int currentTotalExecutionOffer = getTotalExecutionOffer();
 				final int possibleExecutionQuantityLeft = demand - currentTotalExecutionOffer;
 
@@ -87,12 +329,19 @@ public class OrderBook {
 				// total
 				// execution offer, do not add the execution
 				if (execution.getOfferedQuantity() > possibleExecutionQuantityLeft) {
-					System.out.println("It is not possible to offer more than " + possibleExecutionQuantityLeft);
-					System.out.println("Current demand " + demand + ", current total execution offer: "
-							+ currentTotalExecutionOffer);
-					System.out.println("The execution was not added.");
+					AsyncLogger.warn().append("It is not possible to offer more than ")
+							.append(possibleExecutionQuantityLeft).commit();
+					AsyncLogger.warn().append("Current demand ").append(demand)
+							.append(", current total execution offer: ").append(currentTotalExecutionOffer).commit();
+					AsyncLogger.warn().append("The execution was not added.").commit();
+					rejection = OrderBookExceptionCode.EXECUTION_OFFER_EXCEEDS_DEMAND;
+					metrics.executionRejected();
+					recordExecutionEvent(BookEventType.EXECUTION_REJECTED, execution);
 				} else {
 					executions.add(execution);
+					orderStore.addExecution(execution);
+					metrics.executionAccepted();
+					recordExecutionEvent(BookEventType.EXECUTION_ACCEPTED, execution);
 
 					// if the execution inserted is the first one, limit orders with limit price
 					// lower than execution price must become invalid (since all execution have the
@@ -101,59 +350,628 @@ public class OrderBook {
 						validateAppropriateOrders();
 					}
 
+					if (matchingMode == MatchingMode.INCREMENTAL_AUCTION) {
+						distributeExecutionIncrementally(execution);
+					}
+
 					// after adding the execution, the executions must be processed if total valid
 					// book demand = total execution offer
-					final int newTotalExecutionOffer = currentTotalExecutionOffer + getDemandOfValidOrders();
+					final int newTotalExecutionOffer = currentTotalExecutionOffer + sumDemand(Boolean.TRUE);
 					if (newTotalExecutionOffer == demand) {
 						processExecutions();
 					}
 				}
 			} else {
-				System.out.println(OrderBookExceptionCode.ADD_EXECUTION_ON_PROCESSED_BOOK.exceptionMessage());
+				rejection = OrderBookExceptionCode.ADD_EXECUTION_ON_PROCESSED_BOOK;
+				AsyncLogger.warn().append(rejection.exceptionMessage()).commit();
+				metrics.executionRejected();
+				recordExecutionEvent(BookEventType.EXECUTION_REJECTED, execution);
 			}
 
 		} else {
-			System.out.println(OrderBookExceptionCode.ADD_EXECUTION_ON_OPEN_BOOK_EXCEPTION_MESSAGE.exceptionMessage());
+			rejection = OrderBookExceptionCode.ADD_EXECUTION_ON_OPEN_BOOK_EXCEPTION_MESSAGE;
+			AsyncLogger.warn().append(rejection.exceptionMessage()).commit();
+			metrics.executionRejected();
+			recordExecutionEvent(BookEventType.EXECUTION_REJECTED, execution);
+		}
+
+		metrics.recordLatency(Operation.ADD_EXECUTION, startNanos);
+		return rejection;
+	}
+
+	/**
+	 * Matches an execution against the resting orders, in price-time priority: the
+	 * market orders first, then the limit orders accepting the execution price,
+	 * from the highest limit price to the lowest, the oldest first within a price.
+	 * The part of the execution that no order accepts is not kept.
+	 *
+	 * The book must have been opened and not processed yet: executions can arrive
+	 * while the book is open.
+	 *
+	 * @param execution
+	 *            the execution
+	 * @param currentState
+	 *            the state of the book
+	 * @return null if the execution was matched, otherwise the reason why it was
+	 *         not
+	 */
+	private OrderBookExceptionCode matchExecution(final Execution execution, final BookState currentState) {
+		OrderBookExceptionCode rejection = null;
+
+		if (currentState == BookState.NEW) {
+			rejection = OrderBookExceptionCode.ADD_EXECUTION_ON_NEVER_OPENED_BOOK;
+		} else if (currentState == BookState.PROCESSED) {
+			rejection = OrderBookExceptionCode.ADD_EXECUTION_ON_PROCESSED_BOOK;
+		}
+
+		if (rejection != null) {
+			AsyncLogger.warn().append(rejection.exceptionMessage()).commit();
+			metrics.executionRejected();
+			recordExecutionEvent(BookEventType.EXECUTION_REJECTED, execution);
+		} else {
+			executions.add(execution);
+			orderStore.addExecution(execution);
+			metrics.executionAccepted();
+			recordExecutionEvent(BookEventType.EXECUTION_ACCEPTED, execution);
+
+			final int matchedQuantity = priceLevelBook.match(execution.getOfferedQuantity(), execution.getUnitPrice(),
+					matchListener);
+			depthBook.publishDelta();
+			orderStore.publishUpdates();
+			if (matchedQuantity < execution.getOfferedQuantity()) {
+				AsyncLogger.warn().append("Only ").append(matchedQuantity).append(" units out of ")
+						.append(execution.getOfferedQuantity()).append(" found a buyer at ")
+						.append(execution.getUnitPrice()).commit();
+			}
+
+			publishPendingFills();
+		}
+
+		return rejection;
+	}
+
+	/**
+	 * Distributes an execution among the valid orders as soon as it is added
+	 * (incremental mode), proportionately to the quantity each order still
+	 * expects. The satisfied quantities and the remaining valid demand are
+	 * updated in place, so the cost only depends on the amount of valid orders.
+	 *
+	 * @param execution
+	 *            the execution just added
+	 */
+	private void distributeExecutionIncrementally(final Execution execution) {
+		if (incrementalAllocationOrders == null) {
+			incrementalAllocationOrders = getValidOrders();
+			remainingValidDemand = 0;
+			for (final Order order : incrementalAllocationOrders) {
+				remainingValidDemand += order.getRequestedQuantity() - order.getSatisfiedQuantity();
+			}
+		}
+
+		// the invalid orders are part of the demand, so the offer can exceed what the
+		// valid orders still expect
+		final int quantityToDistribute = Math.min(execution.getOfferedQuantity(), remainingValidDemand);
+		if (quantityToDistribute < execution.getOfferedQuantity()) {
+			AsyncLogger.warn().append("Only ").append(quantityToDistribute).append(" units out of ")
+					.append(execution.getOfferedQuantity()).append(" are expected by valid orders").commit();
+		}
+		if (quantityToDistribute == 0) {
+			return;
+		}
+
+		final int orderCount = incrementalAllocationOrders.size();
+		if (incrementalAllocations.length < orderCount) {
+			incrementalAllocations = new int[orderCount];
+		}
+		int remainingQuantityToDistribute = quantityToDistribute;
+
+		// Proportionate distribution of what is still expected. Long arithmetic gives
+		// the exact floor, units cannot be divided.
+		for (int i = 0; i < orderCount; i++) {
+			final Order order = incrementalAllocationOrders.get(i);
+			final int openQuantity = order.getRequestedQuantity() - order.getSatisfiedQuantity();
+			incrementalAllocations[i] = (int) (((long) openQuantity * quantityToDistribute) / remainingValidDemand);
+			remainingQuantityToDistribute -= incrementalAllocations[i];
+		}
+
+		// Distributing the few units left, one per order still expecting units
+		while (remainingQuantityToDistribute != 0) {
+			for (int i = 0; (i < orderCount) && (remainingQuantityToDistribute != 0); i++) {
+				final Order order = incrementalAllocationOrders.get(i);
+				if ((order.getSatisfiedQuantity() + incrementalAllocations[i]) < order.getRequestedQuantity()) {
+					incrementalAllocations[i]++;
+					remainingQuantityToDistribute--;
+				}
+			}
+		}
+
+		// a single fill per order, whatever the pass its units come from
+		final boolean publishesFills = fillPublisher.hasSubscriptions();
+		for (int i = 0; i < orderCount; i++) {
+			final int quantityToAllocate = incrementalAllocations[i];
+			if (quantityToAllocate > 0) {
+				final Order order = incrementalAllocationOrders.get(i);
+				order.setSatisfiedQuantity(order.getSatisfiedQuantity() + quantityToAllocate);
+				order.recordFillPrice(quantityToAllocate, execution.getUnitPrice());
+				orderStore.updateOrder(order);
+				releaseRisk(order, quantityToAllocate);
+				recordClientFill(order, quantityToAllocate, execution.getUnitPrice());
+				if (publishesFills) {
+					addPendingFill(order, quantityToAllocate, execution.getUnitPrice());
+				}
+			}
+		}
+
+		remainingValidDemand -= quantityToDistribute;
+		orderStore.publishUpdates();
+		publishPendingFills();
+	}
+
+	/**
+	 * Adds a fill to the pending fills, publishing them once they make a full
+	 * batch of {@link FillPublisher#MAX_BATCH_SIZE} fills
+	 *
+	 * @param order
+	 *            the filled order
+	 * @param quantity
+	 *            the quantity filled
+	 * @param price
+	 *            the price of the fill
+	 */
+	private void addPendingFill(final Order order, final int quantity, final double price) {
+		pendingFills.add(new Fill(fillPublisher.nextSequence(), order.getId(), financialInstrument, quantity, price));
+		if (pendingFills.size() == FillPublisher.MAX_BATCH_SIZE) {
+			publishPendingFills();
+		}
+	}
+
+	/**
+	 * Publishes the pending fills, if any
+	 */
+	private void publishPendingFills() {
+		if (!pendingFills.isEmpty()) {
+			fillPublisher.publish(pendingFills);
+			pendingFills = new ArrayList<Fill>();
+		}
+	}
+
+	/**
+	 * Records an event about an execution in the book event recorder, if it is
+	 * recording
+	 *
+	 * @param type
+	 *            accepted or rejected
+	 * @param execution
+	 *            the execution
+	 */
+	private void recordExecutionEvent(final BookEventType type, final Execution execution) {
+		if (BookEventRecorder.isEnabled()) {
+			BookEventRecorder.record(type, financialInstrument.getName(), orders.size(), executions.size(),
+					execution.getOfferedQuantity());
+		}
+	}
+
+	/**
+	 * Returns the total execution offer
+	 *
+	 * @return totalExecutionOffer the total execution offer
+	 */
+	public int getTotalExecutionOffer() {
+		return snapshot().getTotalExecutionOffer();
+	}
+
+	/**
+	 * Gets the execution price. The execution price is the same for all executions,
+	 * therefore it is either 0 (if the execution list is empty) or the unit price
+	 * of the first execution (if the execution list is not empty)
+	 *
+	 * @return the execution price
+	 */
+	public double getExecutionPrice() {
+		return snapshot().getExecutionPrice();
+	}
+
+	/**
+	 * Adds the order to the book. It is possible to add the order only if the book
+	 * is open, only once per client order id (if the order has one) and within
+	 * the risk limits of its account (if it has one).
+	 *
+	 * @param order
+	 *            the order to be added
+	 * @return null if the order was added, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode addOrder(final Order order) {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		OrderBookExceptionCode rejection = null;
+		final double limitPrice = (order instanceof LimitOrder ? ((LimitOrder) order).getLimitPrice() : 0);
+		int reservedQuantity;
+
+		WRITERS_UPDATER.incrementAndGet(this);
+		try {
+			if (state != BookState.OPEN) {
+				rejection = rejectOrder();
+			} else if (isDuplicate(order.getClientOrderId())) {
+				rejection = OrderBookExceptionCode.DUPLICATE_CLIENT_ORDER_ID;
+			} else if (isIntakeRateExceeded()) {
+				rejection = OrderBookExceptionCode.INTAKE_RATE_EXCEEDED;
+			} else if ((reservedQuantity = reserveRisk(order.getAccountId(), order.getRequestedQuantity(),
+					limitPrice)) == PreTradeRiskCheck.REFUSED) {
+				rejection = OrderBookExceptionCode.RISK_LIMIT_EXCEEDED;
+			} else {
+				order.setReservedQuantity(reservedQuantity);
+				recordClientOrderId(order.getClientOrderId());
+				if (order instanceof LimitOrder) {
+					appendLimitOrder((LimitOrder) order);
+				} else if (order instanceof MarketOrder) {
+					appendMarketOrder((MarketOrder) order);
+				} else {
+					orders.add(order);
+					orderStore.addOrder(order);
+				}
+				metrics.orderAccepted();
+			}
+		} finally {
+			WRITERS_UPDATER.decrementAndGet(this);
+		}
+
+		metrics.recordLatency(Operation.ADD_ORDER, startNanos);
+		return rejection;
+	}
+
+	/**
+	 * Creates a limit order and adds it to the book, if the book is open. The
+	 * order comes from the pool of orders, so once the pool is warm nothing is
+	 * allocated.
+	 *
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if the book is closed or the intake rate
+	 *         of the book is exceeded
+	 */
+	public LimitOrder addLimitOrder(final int quantity, final double limitPrice) {
+		return addLimitOrder(0, quantity, limitPrice);
+	}
+
+	/**
+	 * Creates a limit order with a client order id and adds it to the book, if
+	 * the book is open and no order with that id was added yet. Sending the same
+	 * order again (e.g. after a lost connection) therefore adds it only once.
+	 *
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if the book is closed, the id was already
+	 *         used or the intake rate of the book is exceeded
+	 */
+	public LimitOrder addLimitOrder(final long clientOrderId, final int quantity, final double limitPrice) {
+		return addLimitOrder(0, clientOrderId, quantity, limitPrice);
+	}
+
+	/**
+	 * Creates a limit order for an account and adds it to the book, if the book
+	 * is open, no order with the same client order id was added yet and the
+	 * order is within the risk limits of the account
+	 *
+	 * @param accountId
+	 *            the account the order is sent for, 0 if none
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if it was refused
+	 */
+	public LimitOrder addLimitOrder(final long accountId, final long clientOrderId, final int quantity,
+			final double limitPrice) {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		LimitOrder order = null;
+		int reservedQuantity;
+		WRITERS_UPDATER.incrementAndGet(this);
+		try {
+			if (state != BookState.OPEN) {
+				rejectOrder();
+			} else if (!isDuplicate(clientOrderId) && !isIntakeRateExceeded()
+					&& ((reservedQuantity = reserveRisk(accountId, quantity,
+							limitPrice)) != PreTradeRiskCheck.REFUSED)) {
+				recordClientOrderId(clientOrderId);
+				order = orderPool.acquireLimitOrder(quantity, limitPrice);
+				order.setClientOrderId(clientOrderId);
+				order.setAccountId(accountId);
+				order.setReservedQuantity(reservedQuantity);
+				appendLimitOrder(order);
+				metrics.orderAccepted();
+			}
+		} finally {
+			WRITERS_UPDATER.decrementAndGet(this);
+		}
+
+		metrics.recordLatency(Operation.ADD_ORDER, startNanos);
+		return order;
+	}
+
+	/**
+	 * Creates a market order and adds it to the book, if the book is open. The
+	 * order comes from the pool of orders, so once the pool is warm nothing is
+	 * allocated.
+	 *
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if the book is closed or the intake rate
+	 *         of the book is exceeded
+	 */
+	public MarketOrder addMarketOrder(final int quantity) {
+		return addMarketOrder(0, quantity);
+	}
+
+	/**
+	 * Creates a market order with a client order id and adds it to the book, if
+	 * the book is open and no order with that id was added yet
+	 *
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if the book is closed, the id was already
+	 *         used or the intake rate of the book is exceeded
+	 */
+	public MarketOrder addMarketOrder(final long clientOrderId, final int quantity) {
+		return addMarketOrder(0, clientOrderId, quantity);
+	}
+
+	/**
+	 * Creates a market order for an account and adds it to the book, if the book
+	 * is open, no order with the same client order id was added yet and the
+	 * order is within the risk limits of the account
+	 *
+	 * @param accountId
+	 *            the account the order is sent for, 0 if none
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if it was refused
+	 */
+	public MarketOrder addMarketOrder(final long accountId, final long clientOrderId, final int quantity) {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		MarketOrder order = null;
+		int reservedQuantity;
+		WRITERS_UPDATER.incrementAndGet(this);
+		try {
+			if (state != BookState.OPEN) {
+				rejectOrder();
+			} else if (!isDuplicate(clientOrderId) && !isIntakeRateExceeded()
+					&& ((reservedQuantity = reserveRisk(accountId, quantity, 0)) != PreTradeRiskCheck.REFUSED)) {
+				recordClientOrderId(clientOrderId);
+				order = orderPool.acquireMarketOrder(quantity);
+				order.setClientOrderId(clientOrderId);
+				order.setAccountId(accountId);
+				order.setReservedQuantity(reservedQuantity);
+				appendMarketOrder(order);
+				metrics.orderAccepted();
+			}
+		} finally {
+			WRITERS_UPDATER.decrementAndGet(this);
+		}
+
+		metrics.recordLatency(Operation.ADD_ORDER, startNanos);
+		return order;
+	}
+
+	/**
+	 * Appends a limit order to the lists of orders and to the depth
+	 *
+	 * @param order
+	 *            the order
+	 */
+	private void appendLimitOrder(final LimitOrder order) {
+		if (limitOrders.size() == limitPrices.length) {
+			limitPrices = Arrays.copyOf(limitPrices, limitPrices.length * 2);
+		}
+		limitPrices[limitOrders.size()] = order.getLimitPrice();
+		orders.add(order);
+		limitOrders.add(order);
+		orderStore.addOrder(order);
+		depthBook.onLimitOrderAdded(order);
+		if (priceLevelBook != null) {
+			priceLevelBook.addLimitOrder(order);
+		}
+	}
+
+	/**
+	 * Appends a market order to the lists of orders
+	 *
+	 * @param order
+	 *            the order
+	 */
+	private void appendMarketOrder(final MarketOrder order) {
+		orders.add(order);
+		marketOrders.add(order);
+		orderStore.addOrder(order);
+		if (priceLevelBook != null) {
+			priceLevelBook.addMarketOrder(order);
+		}
+	}
+
+	/**
+	 * Whether an order with a client order id was already added to the book. The
+	 * duplicates are only counted, not printed, like the throttled orders.
+	 *
+	 * @param clientOrderId
+	 *            the id, 0 if none
+	 * @return true if the order must be refused
+	 */
+	private boolean isDuplicate(final long clientOrderId) {
+		if ((clientOrderId == 0) || !clientOrderIds.contains(clientOrderId)) {
+			return false;
+		}
+		metrics.orderDuplicated();
+		return true;
+	}
+
+	private void recordClientOrderId(final long clientOrderId) {
+		if (clientOrderId != 0) {
+			clientOrderIds.add(clientOrderId);
+		}
+	}
+
+	/**
+	 * Takes a token from the intake limit of the book, if any. The orders
+	 * refused are only counted, not printed: printing them would slow the book
+	 * down while it is flooded.
+	 *
+	 * @return true if the order must be refused
+	 */
+	private boolean isIntakeRateExceeded() {
+		final TokenBucket limit = intakeLimit;
+		if ((limit == null) || limit.tryAcquire()) {
+			return false;
+		}
+		metrics.orderThrottled();
+		return true;
+	}
+
+	/**
+	 * Limits the rate of the orders added to the book. The orders above the rate
+	 * are refused with {@link OrderBookExceptionCode#INTAKE_RATE_EXCEEDED}.
+	 *
+	 * @param intakeLimit
+	 *            the limit, possibly shared with other books, or null to remove
+	 *            the limit
+	 */
+	public void setIntakeLimit(final TokenBucket intakeLimit) {
+		this.intakeLimit = intakeLimit;
+	}
+
+	public TokenBucket getIntakeLimit() {
+		return intakeLimit;
+	}
+
+	/**
+	 * Reserves the quantity and notional of an order in the risk check, if the
+	 * book has one and the order an account. Checked last, once nothing else can
+	 * refuse the order, since it reserves.
+	 *
+	 * @param accountId
+	 *            the account of the order, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price, 0 for a market order
+	 * @return the quantity reserved, to be recorded on the order, or
+	 *         {@link PreTradeRiskCheck#REFUSED} if the order must be refused
+	 */
+	private int reserveRisk(final long accountId, final int quantity, final double limitPrice) {
+		final PreTradeRiskCheck check = riskCheck;
+		if ((check == null) || (accountId == 0)) {
+			return 0;
+		}
+		final int reservedQuantity = check.reserve(accountId, financialInstrument, quantity, limitPrice);
+		if (reservedQuantity == PreTradeRiskCheck.REFUSED) {
+			metrics.orderRiskRejected();
+		}
+		return reservedQuantity;
+	}
+
+	/**
+	 * Gives back to the risk check part of what an order reserved
+	 *
+	 * @param order
+	 *            the order, filled or done
+	 * @param quantity
+	 *            the units given back, at most what the order still has reserved
+	 */
+	private void releaseRisk(final Order order, final int quantity) {
+		final PreTradeRiskCheck check = riskCheck;
+		if ((check != null) && (order.getReservedQuantity() != 0)) {
+			check.release(order, financialInstrument, quantity);
+		}
+	}
+
+	/**
+	 * Adds units given to an order to the fills of its account, if recorded
+	 *
+	 * @param order
+	 *            the order
+	 * @param quantity
+	 *            the units
+	 * @param price
+	 *            the price of a unit
+	 */
+	private void recordClientFill(final Order order, final int quantity, final double price) {
+		final ClientFillIndex fillIndex = clientFillIndex;
+		if (fillIndex != null) {
+			fillIndex.recordFill(order, financialInstrument, quantity, price);
 		}
 	}
 
 	/**
-	 * Returns the total execution offer
+	 * Records the units given to the orders of each account in an index
 	 *
-	 * @return totalExecutionOffer the total execution offer
+	 * @param clientFillIndex
+	 *            the index, usually shared by all the books of a manager, or null
+	 *            not to record them
 	 */
-	public int getTotalExecutionOffer() {
-		int totalExecutionOffer = 0;
-		for (final Execution execution : executions) {
-			totalExecutionOffer += execution.getOfferedQuantity();
-		}
-		return totalExecutionOffer;
+	public void setClientFillIndex(final ClientFillIndex clientFillIndex) {
+		this.clientFillIndex = clientFillIndex;
+	}
+
+	public ClientFillIndex getClientFillIndex() {
+		return clientFillIndex;
 	}
 
 	/**
-	 * Gets the execution price. The execution price is the same for all executions,
-	 * therefore it is either 0 (if the execution list is empty) or the unit price
-	 * of the first execution (if the execution list is not empty)
+	 * Limits what the accounts of the orders can have open. To be set before the
+	 * book is opened, so that what the orders reserve is given back to the same
+	 * check.
 	 *
-	 * @return the execution price
+	 * @param riskCheck
+	 *            the check, usually shared by all the books of a manager, or null
+	 *            not to check
 	 */
-	public double getExecutionPrice() {
-		return (executions.isEmpty() ? 0 : executions.get(0).getUnitPrice());
+	public void setRiskCheck(final PreTradeRiskCheck riskCheck) {
+		this.riskCheck = riskCheck;
+	}
+
+	public PreTradeRiskCheck getRiskCheck() {
+		return riskCheck;
 	}
 
 	/**
-	 * Adds the order to the book. It is possible to add the order only if the book
-	 * is open.
+	 * Refuses an order because the book is closed
 	 *
-	 * @param order
-	 *            the order to be added
+	 * @return the reason of the refusal
 	 */
-	public void addOrder(final Order order) {
-		if (isOpen) {
-			orders.add(order);
-		} else {
-			System.out.println(OrderBookExceptionCode.ADD_ORDER_ON_CLOSED_BOOK_EXCEPTION_MESSAGE.exceptionMessage());
+	private OrderBookExceptionCode rejectOrder() {
+		AsyncLogger.warn().append(OrderBookExceptionCode.ADD_ORDER_ON_CLOSED_BOOK_EXCEPTION_MESSAGE.exceptionMessage())
+				.commit();
+		metrics.orderRejected();
+		return OrderBookExceptionCode.ADD_ORDER_ON_CLOSED_BOOK_EXCEPTION_MESSAGE;
+	}
+
+	/**
+	 * Reserves room for a given amount of orders, so that the lists of orders do
+	 * not grow (and reallocate) while the book is open
+	 *
+	 * @param expectedOrders
+	 *            the amount of orders expected in the book
+	 */
+	public void ensureCapacity(final int expectedOrders) {
+		orders.ensureCapacity(expectedOrders);
+		limitOrders.ensureCapacity(expectedOrders);
+		marketOrders.ensureCapacity(expectedOrders);
+		if (limitPrices.length < expectedOrders) {
+			limitPrices = Arrays.copyOf(limitPrices, expectedOrders);
 		}
+		clientOrderIds.ensureCapacity(expectedOrders);
 	}
 
 	/**
@@ -163,45 +981,110 @@ public class OrderBook {
 	 * (therefore the Limit Orders) lower than the unit price offered
 	 */
 	private void validateAppropriateOrders() {
+		final long eventStartNanos = BookEventRecorder.startTimer();
+
 		if (!executions.isEmpty()) {
 			final double offeredExecutionPrice = executions.get(0).getUnitPrice();
-			for (final Order order : orders) {
-				if (order instanceof LimitOrder) {
-					if (((LimitOrder) order).getLimitPrice() >= offeredExecutionPrice) {
-						order.setValid(true);
-					} else {
-						order.setValid(false);
-					}
+			final int limitOrderCount = limitOrders.size();
+			if (validityMask.length < limitOrderCount) {
+				validityMask = new boolean[limitOrderCount];
+			}
+			ProRataKernel.computeValidityMask(limitPrices, limitOrderCount, offeredExecutionPrice, validityMask);
+
+			for (int i = 0; i < limitOrderCount; i++) {
+				final LimitOrder order = limitOrders.get(i);
+				if (order.isValid() != validityMask[i]) {
+					changeValidity(order, validityMask[i]);
 				}
 			}
+			depthBook.publishDelta();
+			orderStore.updateOrders(orders);
+		}
+
+		BookEventRecorder.recordTimed(BookEventType.VALIDATION, financialInstrument.getName(), orders.size(),
+				executions.size(), eventStartNanos);
+	}
+
+	/**
+	 * Changes the validity of an order and the valid demand of its level in the
+	 * depth. The delta is published by the caller, once all the changes are done.
+	 *
+	 * @param order
+	 *            the order
+	 * @param valid
+	 *            its new validity
+	 */
+	private void changeValidity(final Order order, final boolean valid) {
+		order.setValid(valid);
+		if (order instanceof LimitOrder) {
+			depthBook.onValidityChanged((LimitOrder) order);
 		}
 	}
 
 	/* ********************** functions used in stats *********************** */
 
 	/**
-	 * Returns the total amount of orders in the book
+	 * Takes a snapshot of the book: an immutable view of its orders, executions
+	 * and state at the current version. It can be taken from any thread, without
+	 * locking nor copying, and the statistics computed on it are consistent with
+	 * each other while the book goes on changing.
+	 *
+	 * @return the snapshot
+	 */
+	public OrderBookSnapshot snapshot() {
+		return orderStore.snapshot(state == BookState.OPEN);
+	}
+
+	/**
+	 * Takes the snapshot of the book as it was at a past time, from the history
+	 * of the book: the orders added until then with their validity and satisfied
+	 * quantity at that time, the executions added until then, and whether the
+	 * book was open or processed.
 	 *
-	 * It is assumed that the list of orders is not null
+	 * @param timeMillis
+	 *            the time, in milliseconds since the epoch
+	 * @return the snapshot, or null if the history is not kept (system property
+	 *         orderbook.history.enabled) or does not go back to that time
+	 */
+	public OrderBookSnapshot snapshotAt(final long timeMillis) {
+		return orderStore.snapshotAt(timeMillis, (openedAtMillis <= timeMillis) && (timeMillis < closedAtMillis));
+	}
+
+	/**
+	 * Returns the total amount of orders in the book
 	 *
 	 * @return the number of orders in the book
 	 */
 	public int getTotalAmountOfOrders() {
-		return orders.size();
+		return snapshot().getOrderCount();
 	}
 
 	/**
 	 * Returns the total demand in the book
 	 *
-	 * It is assumed that the list of orders is not null
-	 *
 	 * @return demand the total demand in the book
 	 */
 	public int getDemand() {
+		return snapshot().getDemand();
+	}
 
+	/**
+	 * Sums the demand of the orders on the calling thread, for the intake and the
+	 * processing: the getters of the statistics are reports, which may run on the
+	 * reporting threads. The book must not receive orders anymore.
+	 *
+	 * @param valid
+	 *            true for the valid orders, false for the invalid ones, null for
+	 *            all
+	 * @return the demand
+	 */
+	private int sumDemand(final Boolean valid) {
 		int demand = 0;
-		for (final Order order : orders) {
-			demand += order.getRequestedQuantity();
+		for (int i = 0, orderCount = orders.size(); i < orderCount; i++) {
+			final Order order = orders.get(i);
+			if ((valid == null) || (order.isValid() == valid.booleanValue())) {
+				demand += order.getRequestedQuantity();
+			}
 		}
 		return demand;
 	}
@@ -209,139 +1092,79 @@ public class OrderBook {
 	/**
 	 * Returns the biggest order in the book
 	 *
-	 * It is assumed that the list of orders is not null
-	 *
 	 * To simplify, I did not treat the case where there can be multiple biggest
 	 * orders
 	 *
 	 * @return biggestOrder the biggest order
 	 */
 	public Order getBiggestOrder() {
-
-		Order biggestOrder = null;
-
-		if (!orders.isEmpty()) {
-			biggestOrder = orders.get(0);
-			for (int i = 1; i < orders.size(); i++) {
-				if (orders.get(i).getRequestedQuantity() > biggestOrder.getRequestedQuantity()) {
-					biggestOrder = orders.get(i);
-				}
-			}
-		}
-
-		return biggestOrder;
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = snapshot.getBiggestOrderIndex();
+		return (index < 0 ? null : snapshot.getOrder(index));
 	}
 
 	/**
 	 * Returns the smallest order in the book
 	 *
-	 * It is assumed that the list of orders is not null
-	 *
 	 * To simplify, I did not treat the case where there can be multiple smallest
 	 * orders
 	 *
 	 * @return smallestOrder the smallest order
 	 */
 	public Order getSmallestOrder() {
-
-		Order smallestOrder = null;
-
-		if (!orders.isEmpty()) {
-			smallestOrder = orders.get(0);
-			for (int i = 1; i < orders.size(); i++) {
-				if (orders.get(i).getRequestedQuantity() < smallestOrder.getRequestedQuantity()) {
-					smallestOrder = orders.get(i);
-				}
-			}
-		}
-
-		return smallestOrder;
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = snapshot.getSmallestOrderIndex();
+		return (index < 0 ? null : snapshot.getOrder(index));
 	}
 
 	/**
 	 * Returns the earliest order in the book
 	 *
-	 * It is assumed that the list of orders is not null
-	 *
 	 * To simplify, I did not treat the case where there can be multiple earliest
 	 * orders
 	 *
 	 * @return earliestOrder the earliest order
 	 */
 	public Order getEarliestOrder() {
-
-		Order earliestOrder = null;
-
-		if (!orders.isEmpty()) {
-			earliestOrder = orders.get(0);
-			for (int i = 1; i < orders.size(); i++) {
-				if (orders.get(i).getEntryDate().before(earliestOrder.getEntryDate())) {
-					earliestOrder = orders.get(i);
-				}
-			}
-		}
-
-		return earliestOrder;
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = snapshot.getEarliestOrderIndex();
+		return (index < 0 ? null : snapshot.getOrder(index));
 	}
 
 	/**
 	 * Returns the latest order in the book
 	 *
-	 * It is assumed that the list of orders is not null
+	 * If the date is equal (happens if orders were created very close to each
+	 * other), then the one further in the list is the latest
 	 *
-	 * To simplify, I did not treat the case where there can be multiple latest
-	 * orders
-	 *
-	 * @return earliestOrder the earliest order
+	 * @return latestOrder the latest order
 	 */
 	public Order getLatestOrder() {
-
-		Order latestOrder = null;
-
-		if (!orders.isEmpty()) {
-			latestOrder = orders.get(0);
-			for (int i = 1; i < orders.size(); i++) {
-				if (orders.get(i).getEntryDate().after(latestOrder.getEntryDate())) {
-					latestOrder = orders.get(i);
-					// if the date is equal (happens if orders were created very close to each
-					// other), then the one further in the list is the latest
-				} else if (orders.get(i).getEntryDate().equals(latestOrder.getEntryDate())) {
-					latestOrder = orders.get(i);
-				}
-			}
-		}
-
-		return latestOrder;
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = snapshot.getLatestOrderIndex();
+		return (index < 0 ? null : snapshot.getOrder(index));
 	}
 
 	/**
-	 * Returns the list of limit orders within the list of orders
+	 * Returns the list of limit orders within the list of orders. Nothing is
+	 * copied: the returned list is a read-only view, following the orders added
+	 * afterwards.
 	 *
 	 * @return the list of limit orders
 	 */
-	public ArrayList<LimitOrder> getLimitOrders() {
-		final ArrayList<LimitOrder> limitOrders = new ArrayList<LimitOrder>();
-		for (final Order order : orders) {
-			if (order instanceof LimitOrder) {
-				limitOrders.add((LimitOrder) order);
-			}
-		}
-		return limitOrders;
+	public List<LimitOrder> getLimitOrders() {
+		return limitOrdersView;
 	}
 
 	/**
-	 * Returns the list of market orders within the list of orders
+	 * Returns the list of market orders within the list of orders. Nothing is
+	 * copied: the returned list is a read-only view, following the orders added
+	 * afterwards.
 	 *
 	 * @return the list of market orders
 	 */
-	public ArrayList<MarketOrder> getMarketOrders() {
-		final ArrayList<MarketOrder> marketOrders = new ArrayList<MarketOrder>();
-		for (final Order order : orders) {
-			if (order instanceof MarketOrder) {
-				marketOrders.add((MarketOrder) order);
-			}
-		}
-		return marketOrders;
+	public List<MarketOrder> getMarketOrders() {
+		return marketOrdersView;
 	}
 
 	/**
@@ -351,21 +1174,7 @@ public class OrderBook {
 	 * @return demandPerLimitPrice
 	 */
 	public HashMap<Double, Integer> getDemandPerLimitPrice() {
-		final HashMap<Double, Integer> demandPerLimitPrice = new HashMap<>();
-
-		final ArrayList<LimitOrder> limitOrders = getLimitOrders();
-
-		for (final LimitOrder order : limitOrders) {
-			if (demandPerLimitPrice.containsKey(order.getLimitPrice())) {
-				final int newDemandForGivenLimitPrice = demandPerLimitPrice.get(order.getLimitPrice())
-						+ order.getRequestedQuantity();
-				demandPerLimitPrice.put(order.getLimitPrice(), newDemandForGivenLimitPrice);
-			} else {
-				demandPerLimitPrice.put(order.getLimitPrice(), order.getRequestedQuantity());
-			}
-		}
-
-		return demandPerLimitPrice;
+		return snapshot().getDemandPerLimitPrice();
 	}
 
 	/**
@@ -374,13 +1183,7 @@ public class OrderBook {
 	 * @return amountOfInvalidOrders the amount/number of invalid orders
 	 */
 	public int getAmountOfInvalidOrders() {
-		int amountOfInvalidOrders = 0;
-		for (final Order order : orders) {
-			if (!order.isValid()) {
-				amountOfInvalidOrders++;
-			}
-		}
-		return amountOfInvalidOrders;
+		return snapshot().getAmountOfOrders(false);
 	}
 
 	/**
@@ -389,13 +1192,7 @@ public class OrderBook {
 	 * @return amountOfValidOrders the amount/number of valid orders
 	 */
 	public int getAmountOfValidOrders() {
-		int amountOfValidOrders = 0;
-		for (final Order order : orders) {
-			if (order.isValid()) {
-				amountOfValidOrders++;
-			}
-		}
-		return amountOfValidOrders;
+		return snapshot().getAmountOfOrders(true);
 	}
 
 	/**
@@ -404,13 +1201,7 @@ public class OrderBook {
 	 * @return demandOfInvalidOrders the amount/number of invalid orders
 	 */
 	public int getDemandOfInvalidOrders() {
-		int demandOfInvalidOrders = 0;
-		for (final Order order : orders) {
-			if (!order.isValid()) {
-				demandOfInvalidOrders += order.getRequestedQuantity();
-			}
-		}
-		return demandOfInvalidOrders;
+		return snapshot().getDemand(false);
 	}
 
 	/**
@@ -419,27 +1210,104 @@ public class OrderBook {
 	 * @return demandOfValidOrders the amount/number of valid orders
 	 */
 	public int getDemandOfValidOrders() {
-		int demandOfValidOrders = 0;
-		for (final Order order : orders) {
-			if (order.isValid()) {
-				demandOfValidOrders += order.getRequestedQuantity();
+		return snapshot().getDemand(true);
+	}
+
+	/**
+	 * Processes the list of executions. In continuous and incremental modes, the
+	 * executions were already given to the orders when they arrived, so
+	 * processing only marks the book as processed.
+	 *
+	 * An open book cannot be processed, and a book is processed only once: if
+	 * several threads try, only one does it.
+	 *
+	 * @return null if the book was processed, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode processExecutions() {
+		final long startNanos = OrderBookMetrics.startTimer();
+		final long eventStartNanos = BookEventRecorder.startTimer();
+
+		BookState currentState;
+		do {
+			currentState = state;
+			OrderBookExceptionCode rejection = null;
+			if (currentState == BookState.OPEN) {
+				rejection = OrderBookExceptionCode.PROCESS_OPEN_BOOK;
+			} else if (currentState == BookState.PROCESSED) {
+				rejection = OrderBookExceptionCode.BOOK_ALREADY_PROCESSED;
+			}
+			if (rejection != null) {
+				AsyncLogger.warn().append(rejection.exceptionMessage()).commit();
+				return rejection;
+			}
+		} while (!STATE_UPDATER.compareAndSet(this, currentState, BookState.PROCESSED));
+		awaitWriters();
+
+		if (matchingMode == MatchingMode.CALL_AUCTION) {
+			final ArrayList<Order> validOrders = getValidOrders();
+
+			for (final Execution execution : executions) {
+				distributeExecutionAmongOrders(execution, validOrders);
+			}
+
+			publishFills(validOrders);
+			orderStore.updateOrders(orders);
+		}
+
+		if (riskCheck != null) {
+			// the orders are done: what they still have reserved (what they did not
+			// get, and in call auction what they got) is not open anymore
+			for (final Order order : orders) {
+				releaseRisk(order, order.getReservedQuantity());
 			}
 		}
-		return demandOfValidOrders;
+
+		orderStore.setProcessed();
+
+		metrics.recordLatency(Operation.PROCESS_EXECUTIONS, startNanos);
+		BookEventRecorder.recordTimed(BookEventType.EXECUTIONS_PROCESSED, financialInstrument.getName(), orders.size(),
+				executions.size(), eventStartNanos);
+		return null;
 	}
 
 	/**
-	 * Processes the list of executions
+	 * Publishes the fills of the orders that received a quantity, in batches of
+	 * at most {@link FillPublisher#MAX_BATCH_SIZE} fills. Nothing is built if
+	 * nobody listens.
+	 *
+	 * @param validOrders
+	 *            the orders which received units of the executions
 	 */
-	public void processExecutions() {
-
-		final ArrayList<Order> validOrders = getValidOrders();
+	private void publishFills(final ArrayList<Order> validOrders) {
+		if (!fillPublisher.hasSubscriptions()) {
+			return;
+		}
 
-		for (final Execution execution : executions) {
-			distributeExecutionAmongOrders(execution, validOrders);
+		final double executionPrice = getExecutionPrice();
+		for (final Order order : validOrders) {
+			if (order.getSatisfiedQuantity() > 0) {
+				addPendingFill(order, order.getSatisfiedQuantity(), executionPrice);
+			}
 		}
+		publishPendingFills();
+	}
 
-		areExecutionsProcessed = true;
+	/**
+	 * Subscribes a listener to the fills of the book. The fills are delivered on
+	 * a thread dedicated to the listener.
+	 *
+	 * @param listener
+	 *            the listener
+	 * @param capacity
+	 *            the maximum amount of batches waiting for the listener before
+	 *            new batches are dropped
+	 * @return the subscription, to be cancelled when the listener is not
+	 *         interested anymore
+	 */
+	public FillSubscription subscribeToFills(final FillListener listener, final int capacity) {
+		final FillSubscription subscription = new FillSubscription(listener, capacity);
+		fillPublisher.addSubscription(subscription);
+		return subscription;
 	}
 
 	/**
@@ -471,36 +1339,34 @@ public class OrderBook {
 	 */
 	public void distributeExecutionAmongOrders(final Execution execution, final ArrayList<Order> validOrders) {
 
-		int remainingQuantityToDistribute = execution.getOfferedQuantity();
-
-		int quantityToAllocateForCurrentOrder = 0;
-
-		// I made the 3 variables double in order not to lose precision when doing the
-		// division
-		double requestedOrderQuantity = 0;
-		double demand = 0;
-		double executionOffer = 0;
+		final int validOrderCount = validOrders.size();
+		if (requestedQuantities.length < validOrderCount) {
+			requestedQuantities = new int[validOrderCount];
+			allocatedQuantities = new int[validOrderCount];
+		}
+		for (int i = 0; i < validOrderCount; i++) {
+			requestedQuantities[i] = validOrders.get(i).getRequestedQuantity();
+		}
 
 		// Proportionate distribution, i.e. the more you order, the more you get if
-		// there is insufficient execution offer to satisfy everyone
-		for (final Order order : validOrders) {
-
-			requestedOrderQuantity = (order.getRequestedQuantity());
-			demand = getDemand();
-			executionOffer = execution.getOfferedQuantity();
-
-			// floor, because units cannot be divided
-			quantityToAllocateForCurrentOrder = (int) Math.floor((requestedOrderQuantity * executionOffer) / demand);
-
-			// this cannot happen here, because I did not allow to have a total execution
-			// offer bigger than the total demand
-			if (quantityToAllocateForCurrentOrder > requestedOrderQuantity) {
-				quantityToAllocateForCurrentOrder = (int) requestedOrderQuantity;
+		// there is insufficient execution offer to satisfy everyone. The shares are
+		// computed on primitive arrays by the kernel (floor, because units cannot be
+		// divided), the demand is the same for all orders.
+		final int allocatedQuantity = ProRataKernel.computeShares(requestedQuantities, validOrderCount,
+				execution.getOfferedQuantity(), sumDemand(null), allocatedQuantities);
+		final ClientFillIndex fillIndex = clientFillIndex;
+		for (int i = 0; i < validOrderCount; i++) {
+			final Order order = validOrders.get(i);
+			final int filledQuantity = allocatedQuantities[i] - order.getSatisfiedQuantity();
+			order.recordFillPrice(filledQuantity, execution.getUnitPrice());
+			if (fillIndex != null) {
+				fillIndex.recordFill(order, financialInstrument, filledQuantity, execution.getUnitPrice());
 			}
-			order.setSatisfiedQuantity(quantityToAllocateForCurrentOrder);
-			remainingQuantityToDistribute -= quantityToAllocateForCurrentOrder;
+			order.setSatisfiedQuantity(allocatedQuantities[i]);
 		}
 
+		int remainingQuantityToDistribute = execution.getOfferedQuantity() - allocatedQuantity;
+
 		// Distributing the few units left that have not been distributed yet
 		while (remainingQuantityToDistribute != 0) {
 
@@ -511,7 +1377,11 @@ public class OrderBook {
 				} else {
 					if (remainingQuantityToDistribute != 0) {
 						order.setSatisfiedQuantity(order.getSatisfiedQuantity() + 1);
+						order.recordFillPrice(1, execution.getUnitPrice());
 						remainingQuantityToDistribute--;
+						if (fillIndex != null) {
+							fillIndex.recordFill(order, financialInstrument, 1, execution.getUnitPrice());
+						}
 					}
 				}
 
@@ -522,21 +1392,34 @@ public class OrderBook {
 	}
 
 	/**
-	 * Gets an order by id
+	 * Gets the index of an order in a snapshot
 	 *
+	 * @param snapshot
+	 *            the snapshot of the book
 	 * @param orderId
 	 *            the id of the searched order
-	 * @return searchedOrder the order
+	 * @return the index, or -1 if the order is not in the snapshot
 	 */
-	private Order getOrderById(final String orderId) {
-		Order searchedOrder = null;
-		for (final Order order : orders) {
-			if (orderId.equals(order.getId().toString())) {
-				searchedOrder = order;
-				break;
-			}
+	private static int indexOf(final OrderBookSnapshot snapshot, final String orderId) {
+		try {
+			return snapshot.indexOf(UUID.fromString(orderId));
+		} catch (final IllegalArgumentException e) {
+			// not a UUID, hence not the id of an order
+			return -1;
 		}
-		return searchedOrder;
+	}
+
+	/**
+	 * Gets an order by id
+	 *
+	 * @param orderId
+	 *            the id of the searched order
+	 * @return searchedOrder the order, or null if the order is not in the book
+	 */
+	public Order getOrderById(final UUID orderId) {
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = snapshot.indexOf(orderId);
+		return (index < 0 ? null : snapshot.getOrder(index));
 	}
 
 	/*
@@ -547,19 +1430,29 @@ public class OrderBook {
 	 * Header for statistics
 	 */
 	public void printStatisticsIntro() {
-		System.out
-				.println("Statistics for Order book related to financial instrument " + financialInstrument.getName());
-		;
-		System.out.println("-----------------------------------------------------------------------------");
+		printStatisticsIntro(financialInstrument.getName());
+	}
+
+	/**
+	 * Header for statistics, also used for the archived books
+	 *
+	 * @param instrumentName
+	 *            the name of the financial instrument of the book
+	 */
+	public static void printStatisticsIntro(final String instrumentName) {
+		AsyncLogger.info().append("Statistics for Order book related to financial instrument ").append(instrumentName)
+				.commit();
+		AsyncLogger.info().append("-----------------------------------------------------------------------------")
+				.commit();
 
 	}
 
 	/**
 	 * Adds a space separation after the statistics of the book
 	 */
-	public void printStatisticsOutro() {
+	public static void printStatisticsOutro() {
 		for (int i = 0; i < 4; i++) {
-			System.out.println();
+			AsyncLogger.info().commit();
 		}
 	}
 
@@ -567,7 +1460,7 @@ public class OrderBook {
 	 * Used when no records are found
 	 */
 	public void printNoRecordFound() {
-		System.out.println("No record found.");
+		AsyncLogger.info().append("No record found.").commit();
 	}
 
 	/**
@@ -579,55 +1472,93 @@ public class OrderBook {
 	 *            the order to be printed
 	 */
 	public void printOrder(final String rowTitle, final Order order) {
-		System.out.printf("%15s %40s %25s %25s %30s %10s", rowTitle, order.getId(), order.getRequestedQuantity(),
-				order.getSatisfiedQuantity(), order.getEntryDate(), order.isValid());
-		System.out.println();
+		AsyncLogger.info()
+				.append(String.format("%15s %40s %25s %25s %30s %10s", rowTitle, order.getId(),
+						order.getRequestedQuantity(), order.getSatisfiedQuantity(), order.getEntryDate(), order.isValid()))
+				.commit();
+	}
+
+	/**
+	 * Prints an order as it is in a snapshot
+	 *
+	 * @param rowTitle
+	 *            the row title
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @param index
+	 *            the index of the order in the snapshot
+	 */
+	public void printOrder(final String rowTitle, final OrderBookSnapshot snapshot, final int index) {
+		AsyncLogger.info()
+				.append(String.format("%15s %40s %25s %25s %30s %10s", rowTitle, snapshot.getOrderId(index),
+						snapshot.getRequestedQuantity(index), snapshot.getSatisfiedQuantity(index),
+						new Date(snapshot.getEntryTimeMillis(index)), snapshot.isValid(index)))
+				.commit();
 	}
 
 	/**
 	 * Prints particular orders: biggest, smallest, earliest, latest
 	 */
 	public void printParticularOrders() {
-		System.out.println("Characteristics of particular orders:");
-		System.out.println(
-				"----------------------------------------------------------------------------------------------------------------------------------------------------------");
-		System.out.printf("%15s %40s %25s %25s %30s %10s", "", "ID |", "REQUESTED QUANTITY |", "SATISFIED QUANTITY |",
-				"ENTRY DATE |", "IS VALID |");
-		System.out.println();
-		System.out.println(
-				"----------------------------------------------------------------------------------------------------------------------------------------------------------");
-
-		if (orders.isEmpty()) {
+		printParticularOrders(snapshot());
+	}
+
+	/**
+	 * Prints particular orders of a snapshot: biggest, smallest, earliest, latest
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book
+	 */
+	public void printParticularOrders(final OrderBookSnapshot snapshot) {
+		AsyncLogger.info().append("Characteristics of particular orders:").commit();
+		AsyncLogger.info()
+				.append("----------------------------------------------------------------------------------------------------------------------------------------------------------")
+				.commit();
+		AsyncLogger.info().append(String.format("%15s %40s %25s %25s %30s %10s", "", "ID |", "REQUESTED QUANTITY |",
+				"SATISFIED QUANTITY |", "ENTRY DATE |", "IS VALID |")).commit();
+		AsyncLogger.info()
+				.append("----------------------------------------------------------------------------------------------------------------------------------------------------------")
+				.commit();
+
+		if (snapshot.getOrderCount() == 0) {
 			printNoRecordFound();
 		} else {
-			printOrder("Biggest order:", getBiggestOrder());
-			printOrder("Smallest order:", getSmallestOrder());
-			printOrder("Earliest order:", getEarliestOrder());
-			printOrder("Latest order:", getLatestOrder());
+			printOrder("Biggest order:", snapshot, snapshot.getBiggestOrderIndex());
+			printOrder("Smallest order:", snapshot, snapshot.getSmallestOrderIndex());
+			printOrder("Earliest order:", snapshot, snapshot.getEarliestOrderIndex());
+			printOrder("Latest order:", snapshot, snapshot.getLatestOrderIndex());
 		}
 
-		System.out.println();
-		System.out.println();
+		AsyncLogger.info().commit();
+		AsyncLogger.info().commit();
 	}
 
 	/**
 	 * Print the limit break-down, ie the demand per limite price
 	 */
 	public void printLimitBreakDown() {
-		final HashMap<Double, Integer> demandPerLimitPrice = getDemandPerLimitPrice();
+		printLimitBreakDown(snapshot());
+	}
+
+	/**
+	 * Print the limit break-down of a snapshot, ie the demand per limite price
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book
+	 */
+	public void printLimitBreakDown(final OrderBookSnapshot snapshot) {
+		final HashMap<Double, Integer> demandPerLimitPrice = snapshot.getDemandPerLimitPrice();
 
-		System.out.println("Limit break down: demand per limit price");
-		System.out.println("---------------------------------------------------");
-		System.out.printf("%15s %10s", "LIMIT PRICE |", "DEMAND |");
-		System.out.println();
-		System.out.println("---------------------------------------------------");
+		AsyncLogger.info().append("Limit break down: demand per limit price").commit();
+		AsyncLogger.info().append("---------------------------------------------------").commit();
+		AsyncLogger.info().append(String.format("%15s %10s", "LIMIT PRICE |", "DEMAND |")).commit();
+		AsyncLogger.info().append("---------------------------------------------------").commit();
 
 		if (demandPerLimitPrice.isEmpty()) {
 			printNoRecordFound();
 		} else {
 			for (final Map.Entry<Double, Integer> entry : demandPerLimitPrice.entrySet()) {
-				System.out.format("%15s %10s", entry.getKey(), entry.getValue());
-				System.out.println();
+				AsyncLogger.info().append(String.format("%15s %10s", entry.getKey(), entry.getValue())).commit();
 			}
 		}
 	}
@@ -637,13 +1568,19 @@ public class OrderBook {
 	 * smallest / earliest / latest orders, limit break-down
 	 */
 	public void printStatistics1() {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		final OrderBookSnapshot snapshot = snapshot();
+
 		printStatisticsIntro();
-		System.out.println("Total amount of orders: " + getTotalAmountOfOrders());
-		System.out.println("Demand: " + getDemand());
-		System.out.println();
-		printParticularOrders();
-		printLimitBreakDown();
+		AsyncLogger.info().append("Total amount of orders: ").append(snapshot.getOrderCount()).commit();
+		AsyncLogger.info().append("Demand: ").append(snapshot.getDemand()).commit();
+		AsyncLogger.info().commit();
+		printParticularOrders(snapshot);
+		printLimitBreakDown(snapshot);
 		printStatisticsOutro();
+
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
 	}
 
 	/**
@@ -652,21 +1589,75 @@ public class OrderBook {
 	 * break-down, accumulated execution quantity, execution price
 	 */
 	public void printStatistics2() {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		final OrderBookSnapshot snapshot = snapshot();
+
 		printStatisticsIntro();
 
-		System.out.println("Total amount of valid orders: " + getAmountOfValidOrders());
-		System.out.println("Total amount of invalid orders: " + getAmountOfInvalidOrders());
-		System.out.println("Total demand of valid orders: " + getDemandOfValidOrders());
-		System.out.println("Total demand of invalid orders: " + getDemandOfInvalidOrders());
-		System.out.println();
+		AsyncLogger.info().append("Total amount of valid orders: ").append(snapshot.getAmountOfOrders(true)).commit();
+		AsyncLogger.info().append("Total amount of invalid orders: ").append(snapshot.getAmountOfOrders(false))
+				.commit();
+		AsyncLogger.info().append("Total demand of valid orders: ").append(snapshot.getDemand(true)).commit();
+		AsyncLogger.info().append("Total demand of invalid orders: ").append(snapshot.getDemand(false)).commit();
+		AsyncLogger.info().commit();
+
+		printParticularOrders(snapshot);
+		printLimitBreakDown(snapshot);
+
+		AsyncLogger.info().append("Total execution quantity: ").append(snapshot.getTotalExecutionOffer()).commit();
+		AsyncLogger.info().append("Total execution price: ").append(snapshot.getExecutionPrice()).commit();
+
+		printStatisticsOutro();
+
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
+	}
+
+	/**
+	 * Prints the book as it was at a past time: demand, amount and demand of the
+	 * valid/invalid orders, limit break-down, executions and fills
+	 *
+	 * @param timeMillis
+	 *            the time, in milliseconds since the epoch
+	 */
+	public void printStatisticsAt(final long timeMillis) {
+		final long startNanos = OrderBookMetrics.startTimer();
+
+		final OrderBookSnapshot snapshot = snapshotAt(timeMillis);
+		if (snapshot == null) {
+			if (OrderStore.HISTORY_ENABLED) {
+				AsyncLogger.info().append("The history of the books does not go back to that time.").commit();
+			} else {
+				AsyncLogger.info().append("The history of the books is not kept.").commit();
+			}
+			return;
+		}
 
-		printParticularOrders();
-		printLimitBreakDown();
+		printStatisticsIntro();
 
-		System.out.println("Total execution quantity: " + getTotalExecutionOffer());
-		System.out.println("Total execution price: " + getExecutionPrice());
+		AsyncLogger.info().append("As of ").append(String.valueOf(new Date(timeMillis))).append(" (version ")
+				.append(snapshot.getVersion()).append(", ")
+				.append(snapshot.isProcessed() ? "processed" : (snapshot.isOpen() ? "open" : "not open")).append(')')
+				.commit();
+		AsyncLogger.info().append("Total amount of orders: ").append(snapshot.getOrderCount()).commit();
+		AsyncLogger.info().append("Demand: ").append(snapshot.getDemand()).commit();
+		AsyncLogger.info().append("Total amount of valid orders: ").append(snapshot.getAmountOfOrders(true)).commit();
+		AsyncLogger.info().append("Total amount of invalid orders: ").append(snapshot.getAmountOfOrders(false))
+				.commit();
+		AsyncLogger.info().append("Total demand of valid orders: ").append(snapshot.getDemand(true)).commit();
+		AsyncLogger.info().append("Total demand of invalid orders: ").append(snapshot.getDemand(false)).commit();
+		AsyncLogger.info().commit();
+
+		printLimitBreakDown(snapshot);
+
+		AsyncLogger.info().append("Total execution quantity: ").append(snapshot.getTotalExecutionOffer()).commit();
+		AsyncLogger.info().append("Total execution price: ").append(snapshot.getExecutionPrice()).commit();
+		AsyncLogger.info().append("Amount of filled orders: ").append(snapshot.getAmountOfFilledOrders()).commit();
+		AsyncLogger.info().append("Total filled quantity: ").append(snapshot.getTotalSatisfiedQuantity()).commit();
 
 		printStatisticsOutro();
+
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
 	}
 
 	/**
@@ -676,20 +1667,39 @@ public class OrderBook {
 	 * @param uuid
 	 */
 	public void printStatistics3(final String uuid) {
+		final long startNanos = OrderBookMetrics.startTimer();
 
 		printStatisticsIntro();
 
-		final Order order = getOrderById(uuid);
+		final OrderBookSnapshot snapshot = snapshot();
+		final int index = indexOf(snapshot, uuid);
 
-		if (order != null) {
-			System.out.println("Valid: " + order.isValid());
-			System.out.println("Execution quantity (=satisfied quantity): " + order.getSatisfiedQuantity());
-			System.out.println("Order price: " + (areExecutionsProcessed ? executions.get(0).getUnitPrice() : 0));
-			System.out.println("Execution price: "
-					+ (areExecutionsProcessed ? (order.getSatisfiedQuantity() * executions.get(0).getUnitPrice()) : 0));
+		if (index >= 0) {
+			printOrderStatistics(snapshot, index);
 		}
 
 		printStatisticsOutro();
+
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
+	}
+
+	/**
+	 * Prints the third set of information for an order of a snapshot, also used
+	 * for the archived books
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @param index
+	 *            the index of the order in the snapshot
+	 */
+	public static void printOrderStatistics(final OrderBookSnapshot snapshot, final int index) {
+		final double executionPrice = (snapshot.isProcessed() ? snapshot.getExecutionPrice() : 0);
+		AsyncLogger.info().append("Valid: ").append(snapshot.isValid(index)).commit();
+		AsyncLogger.info().append("Execution quantity (=satisfied quantity): ")
+				.append(snapshot.getSatisfiedQuantity(index)).commit();
+		AsyncLogger.info().append("Order price: ").append(executionPrice).commit();
+		AsyncLogger.info().append("Execution price: ").append(snapshot.getSatisfiedQuantity(index) * executionPrice)
+				.commit();
 	}
 
 	public FinancialInstrument getFinancialInstrument() {
@@ -700,25 +1710,134 @@ public class OrderBook {
 		return executions;
 	}
 
+	/**
+	 * Returns the orders of the book. Neither the list nor the orders may be kept
+	 * once the book is archived: the orders are then recycled.
+	 *
+	 * @return the orders, in the order they were added
+	 */
 	public ArrayList<Order> getOrders() {
 		return orders;
 	}
 
-	public boolean isWasAlreadyOpenedOnce() {
-		return wasAlreadyOpenedOnce;
+	/**
+	 * Gives the orders of the book back to its pool once nothing reaches the
+	 * store of the book anymore, i.e. once the book, its snapshots and its
+	 * history are gone. Called when the book is archived: it must not change
+	 * afterwards.
+	 */
+	void recycleOrdersWhenUnreachable() {
+		orderPool.recycleWhenUnreachable(orderStore, orders);
+	}
+
+	public OrderBookMetrics getMetrics() {
+		return metrics;
+	}
+
+	public FillPublisher getFillPublisher() {
+		return fillPublisher;
 	}
 
-	public void setWasAlreadyOpenedOnce(final boolean wasAlreadyOpenedOnce) {
-		this.wasAlreadyOpenedOnce = wasAlreadyOpenedOnce;
+	public DepthBook getDepthBook() {
+		return depthBook;
+	}
+
+	public BookState getState() {
+		return state;
+	}
+
+	public boolean isWasAlreadyOpenedOnce() {
+		return state != BookState.NEW;
 	}
 
 	public boolean isOpen() {
-		return isOpen;
+		return state == BookState.OPEN;
+	}
+
+	/**
+	 * Whether the book is processed. The book is marked as processed as soon as a
+	 * thread starts processing it; its snapshots only say so once the executions
+	 * are given to the orders.
+	 *
+	 * @return true if the book is processed
+	 */
+	public boolean isProcessed() {
+		return state == BookState.PROCESSED;
+	}
+
+	public MatchingMode getMatchingMode() {
+		return matchingMode;
+	}
+
+	/**
+	 * @return in incremental mode, the quantity still expected by the valid
+	 *         orders once the executions added so far are distributed
+	 */
+	public int getRemainingValidDemand() {
+		return remainingValidDemand;
+	}
+
+	/**
+	 * @return the orders waiting for executions in continuous mode, null in call
+	 *         auction mode
+	 */
+	public PriceLevelBook getPriceLevelBook() {
+		return priceLevelBook;
+	}
+
+	/**
+	 * Opens the book, if it was never opened
+	 *
+	 * @return null if the book was opened, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode open() {
+		if (STATE_UPDATER.compareAndSet(this, BookState.NEW, BookState.OPEN)) {
+			openedAtMillis = System.currentTimeMillis();
+			BookEventRecorder.record(BookEventType.BOOK_OPENED, financialInstrument.getName(), orders.size(),
+					executions.size(), 0);
+			return null;
+		}
+		return (state == BookState.OPEN ? OrderBookExceptionCode.BOOK_ALREADY_OPEN
+				: OrderBookExceptionCode.REOPEN_BOOK);
+	}
+
+	/**
+	 * Closes the book, if it is open. Returns once the orders being added by
+	 * other threads are in the book: no order is added afterwards.
+	 *
+	 * @return null if the book was closed, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode close() {
+		if (STATE_UPDATER.compareAndSet(this, BookState.OPEN, BookState.CLOSED)) {
+			awaitWriters();
+			closedAtMillis = System.currentTimeMillis();
+			BookEventRecorder.record(BookEventType.BOOK_CLOSED, financialInstrument.getName(), orders.size(),
+					executions.size(), 0);
+			return null;
+		}
+		return OrderBookExceptionCode.BOOK_ALREADY_CLOSED;
 	}
 
-	public void setOpen(final boolean isOpen) {
-		this.isOpen = isOpen;
-		wasAlreadyOpenedOnce = true;
+	/**
+	 * Waits for the threads adding an order, once the book is not open anymore.
+	 * They only append the order, so the wait is short and a spin is enough.
+	 */
+	private void awaitWriters() {
+		while (writers != 0) {
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Opens or closes the book
+	 *
+	 * @param isOpen
+	 *            true to open the book, false to close it
+	 * @return null if the book was opened / closed, otherwise the reason why it
+	 *         was not
+	 */
+	public OrderBookExceptionCode setOpen(final boolean isOpen) {
+		return (isOpen ? open() : close());
 	}
 
 }
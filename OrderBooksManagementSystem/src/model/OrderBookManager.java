@@ -1,10 +1,40 @@
 package model;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
+
+import customexceptions.OrderBookExceptionCode;
+import logging.AsyncLogger;
+import model.archive.ArchivedBook;
+import model.audit.AllocationAuditExporter;
+import model.archive.BookArchive;
+import model.fills.ClientFillIndex;
+import model.fills.ClientFills;
+import model.fills.FillListener;
+import model.fills.FillSubscription;
+import model.intake.TokenBucket;
+import model.marketdata.MarketDataListener;
+import model.marketdata.MarketDataSubscription;
 import model.orders.LimitOrder;
 import model.orders.MarketOrder;
 import model.orders.Order;
+import model.orders.OrderPool;
+import model.risk.PreTradeRiskCheck;
+import model.risk.RiskLimits;
+import monitoring.BookEventRecorder;
+import monitoring.MetricsRegistration;
+import monitoring.Operation;
+import monitoring.OrderBookMetrics;
 
 /**
  * Manages a list of books
@@ -15,7 +45,218 @@ import model.orders.Order;
  */
 public class OrderBookManager {
 
-	ArrayList<OrderBook> orderBooks = new ArrayList<OrderBook>();
+	/**
+	 * The amounts of orders created in advance by default
+	 */
+	private static final int DEFAULT_POOLED_LIMIT_ORDERS = 10000;
+
+	private static final int DEFAULT_POOLED_MARKET_ORDERS = 1000;
+
+	/**
+	 * The books, copied on write: the gateway, HTTP, market data and scheduler
+	 * threads read them without locking while books are added or archived
+	 */
+	final CopyOnWriteArrayList<OrderBook> orderBooks = new CopyOnWriteArrayList<OrderBook>();
+
+	/**
+	 * The pool of orders shared by the books of the manager, preallocated before
+	 * the books open (system properties orderbook.pool.limitOrders and
+	 * orderbook.pool.marketOrders) and receiving the orders of the archived books
+	 */
+	private final OrderPool orderPool = new OrderPool();
+
+	/**
+	 * The instruments and the book of each instrument, to route the orders and
+	 * executions by symbol or by instrument id
+	 */
+	private final InstrumentRegistry instrumentRegistry = new InstrumentRegistry();
+
+	/**
+	 * The JMX names of the metrics of the books, to unregister them when the
+	 * books are archived
+	 */
+	private final HashMap<OrderBook, ObjectName> metricsNames = new HashMap<OrderBook, ObjectName>();
+
+	/**
+	 * The latencies of the operations done on the manager (processing a book,
+	 * printing statistics for all books)
+	 */
+	private final OrderBookMetrics metrics = new OrderBookMetrics();
+
+	/**
+	 * The subscriptions to the fills of all books, also added to the books added
+	 * later on
+	 */
+	private final CopyOnWriteArrayList<FillSubscription> fillSubscriptions = new CopyOnWriteArrayList<FillSubscription>();
+
+	/**
+	 * The subscriptions to the market data of all books, also added to the books
+	 * added later on
+	 */
+	private final CopyOnWriteArrayList<MarketDataSubscription> marketDataSubscriptions = new CopyOnWriteArrayList<MarketDataSubscription>();
+
+	/**
+	 * Publishes the periodic market data snapshots, null if not started
+	 */
+	private ScheduledExecutorService marketDataSnapshotScheduler;
+
+	/**
+	 * The cold storage of the processed books, null if the processed books are
+	 * kept in memory. Read by the HTTP threads.
+	 */
+	private volatile BookArchive bookArchive;
+
+	/**
+	 * The directory where the allocations of the processed books are exported,
+	 * null if they are not
+	 */
+	private File auditDirectory;
+
+	/**
+	 * The pre-trade risk limits of the accounts, checked by all the books
+	 */
+	private final PreTradeRiskCheck riskCheck = new PreTradeRiskCheck();
+
+	/**
+	 * The fills of each account over all the books, archived ones included
+	 */
+	private final ClientFillIndex clientFillIndex = new ClientFillIndex();
+
+	/**
+	 * Constructor. Registers the metrics of the manager and the book event
+	 * recorder in JMX, enables the cold storage if the system property
+	 * orderbook.archive.directory is set and the export of the allocations if
+	 * orderbook.audit.directory is set.
+	 */
+	public OrderBookManager() {
+		orderPool.preallocate(Integer.getInteger("orderbook.pool.limitOrders", DEFAULT_POOLED_LIMIT_ORDERS),
+				Integer.getInteger("orderbook.pool.marketOrders", DEFAULT_POOLED_MARKET_ORDERS));
+		if (OrderBookMetrics.ENABLED) {
+			MetricsRegistration.register("OrderBookManager", "manager", metrics);
+		}
+		MetricsRegistration.register("BookEventRecorder", "events", BookEventRecorder.getInstance());
+
+		final String archiveDirectory = System.getProperty("orderbook.archive.directory");
+		if (archiveDirectory != null) {
+			enableColdStorage(archiveDirectory, Integer.getInteger("orderbook.archive.cachedBooks", 8));
+		}
+		final String auditDirectoryName = System.getProperty("orderbook.audit.directory");
+		if (auditDirectoryName != null) {
+			enableAllocationAudit(auditDirectoryName);
+		}
+	}
+
+	/**
+	 * Enables the export of the allocations: from now on, the allocations of
+	 * each processed book are written to a file named after the id of its
+	 * instrument in a directory
+	 *
+	 * @param directory
+	 *            the directory of the exported files
+	 * @return true if the export is enabled, false if the directory cannot be
+	 *         created
+	 */
+	public boolean enableAllocationAudit(final String directory) {
+		final File file = new File(directory);
+		if (!file.isDirectory() && !file.mkdirs()) {
+			AsyncLogger.error().append("The export of the allocations could not be enabled: cannot create ")
+					.append(directory).commit();
+			return false;
+		}
+		auditDirectory = file;
+		return true;
+	}
+
+	/**
+	 * Exports the allocations of a processed book, if the export is enabled
+	 *
+	 * @param orderBook
+	 *            the processed book
+	 */
+	private void exportAllocations(final OrderBook orderBook) {
+		if (auditDirectory == null) {
+			return;
+		}
+		final long startNanos = OrderBookMetrics.startTimer();
+		final FinancialInstrument financialInstrument = orderBook.getFinancialInstrument();
+		try {
+			AllocationAuditExporter.export(
+					new File(auditDirectory,
+							financialInstrument.getInstrumentID() + AllocationAuditExporter.EXTENSION),
+					financialInstrument.getInstrumentID(), orderBook.snapshot());
+		} catch (final IOException e) {
+			AsyncLogger.error().append("The allocations of the book ").append(financialInstrument.getName())
+					.append(" could not be exported: ").append(e.getMessage()).commit();
+		}
+		metrics.recordLatency(Operation.AUDIT_EXPORT, startNanos);
+	}
+
+	/**
+	 * Enables the cold storage: from now on, the processed books are written to
+	 * segment files in a directory and removed from the manager. The statistics
+	 * of their orders are still available, the books being read back on demand.
+	 *
+	 * @param directory
+	 *            the directory of the segment files
+	 * @param cachedBooks
+	 *            the maximum amount of archived books kept in memory once read
+	 *            back
+	 * @return true if the cold storage is enabled, false if the directory cannot
+	 *         be used
+	 */
+	public boolean enableColdStorage(final String directory, final int cachedBooks) {
+		try {
+			bookArchive = new BookArchive(directory, cachedBooks);
+		} catch (final IOException e) {
+			AsyncLogger.error().append("The cold storage could not be enabled: ").append(e.getMessage()).commit();
+			return false;
+		}
+		evictProcessedBooks();
+		return true;
+	}
+
+	/**
+	 * Archives all the processed books, if the cold storage is enabled
+	 */
+	public synchronized void evictProcessedBooks() {
+		if (bookArchive == null) {
+			return;
+		}
+		for (int i = orderBooks.size() - 1; i >= 0; i--) {
+			if (orderBooks.get(i).isProcessed()) {
+				archiveBook(i);
+			}
+		}
+	}
+
+	/**
+	 * Adds a book to the manager and registers its metrics in JMX. An instrument
+	 * (identified by its symbol) can only have one book.
+	 *
+	 * @param orderBook
+	 *            the book to add
+	 */
+	public synchronized void addOrderBook(final OrderBook orderBook) {
+		if (!instrumentRegistry.registerOrderBook(orderBook)) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.INSTRUMENT_ALREADY_HAS_BOOK.exceptionMessage()).commit();
+			return;
+		}
+
+		orderBooks.add(orderBook);
+		orderBook.setRiskCheck(riskCheck);
+		orderBook.setClientFillIndex(clientFillIndex);
+		for (final FillSubscription subscription : fillSubscriptions) {
+			orderBook.getFillPublisher().addSubscription(subscription);
+		}
+		for (final MarketDataSubscription subscription : marketDataSubscriptions) {
+			orderBook.getDepthBook().subscribe(subscription);
+		}
+		if (OrderBookMetrics.ENABLED) {
+			final FinancialInstrument financialInstrument = orderBook.getFinancialInstrument();
+			metricsNames.put(orderBook, MetricsRegistration.register("OrderBook",
+					financialInstrument.getName() + " " + financialInstrument.getInstrumentID(), orderBook.getMetrics()));
+		}
+	}
 
 	/**
 	 * A simple initialisation function to have some books filled with orders and
@@ -25,43 +266,44 @@ public class OrderBookManager {
 
 		// contains 2 MarketOrders, 2 LimitOrders, no execution, and is open when the
 		// program starts
-		final FinancialInstrument fi1 = new FinancialInstrument("A");
-		final OrderBook orderBook1 = new OrderBook(fi1);
+		final FinancialInstrument fi1 = instrumentRegistry.intern("A");
+		final OrderBook orderBook1 = new OrderBook(fi1, orderPool);
+		addOrderBook(orderBook1);
 		orderBook1.setOpen(true);
 		orderBook1.addOrder(new MarketOrder(20));
 		orderBook1.addOrder(new MarketOrder(15));
 		orderBook1.addOrder(new LimitOrder(50, 20));
 		orderBook1.addOrder(new LimitOrder(30, 10));
-		orderBooks.add(orderBook1);
 
 		// contains 0 MarketOrders, 2 LimitOrders, no execution, and is open when the
 		// program starts
-		final FinancialInstrument fi2 = new FinancialInstrument("B");
-		final OrderBook orderBook2 = new OrderBook(fi2);
+		final FinancialInstrument fi2 = instrumentRegistry.intern("B");
+		final OrderBook orderBook2 = new OrderBook(fi2, orderPool);
+		addOrderBook(orderBook2);
 		orderBook2.setOpen(true);
 		orderBook2.addOrder(new LimitOrder(40, 10));
 		orderBook2.addOrder(new LimitOrder(20, 5));
-		orderBooks.add(orderBook2);
 
 		// contains 2 MarketOrders, 0 LimitOrders, no execution, and is open when the
 		// program starts
-		final FinancialInstrument fi3 = new FinancialInstrument("C");
-		final OrderBook orderBook3 = new OrderBook(fi3);
+		final FinancialInstrument fi3 = instrumentRegistry.intern("C");
+		final OrderBook orderBook3 = new OrderBook(fi3, orderPool);
+		addOrderBook(orderBook3);
 		orderBook3.setOpen(true);
 		orderBook3.addOrder(new LimitOrder(40, 10));
 		orderBook3.addOrder(new LimitOrder(20, 5));
-		orderBooks.add(orderBook3);
 
 		// contains no orders, and is closed when the program starts
-		final FinancialInstrument fi4 = new FinancialInstrument("C");
-		final OrderBook orderBook4 = new OrderBook(fi4);
-		orderBooks.add(orderBook4);
+		final FinancialInstrument fi4 = instrumentRegistry.intern("F");
+		final OrderBook orderBook4 = new OrderBook(fi4, orderPool);
+		addOrderBook(orderBook4);
 
 		// contains 2 market orders, 1 invalid limit order, 1 valid limit order, 1
 		// execution, and its closed when the program starts. The book is not executed
 		// yet: a book is automatically executed only when demand meets offer
-		final FinancialInstrument fi5 = new FinancialInstrument("D");
-		final OrderBook orderBook5 = new OrderBook(fi5);
+		final FinancialInstrument fi5 = instrumentRegistry.intern("D");
+		final OrderBook orderBook5 = new OrderBook(fi5, orderPool);
+		addOrderBook(orderBook5);
 		orderBook5.setOpen(true);
 		orderBook5.addOrder(new MarketOrder(12));
 		orderBook5.addOrder(new MarketOrder(15));
@@ -69,20 +311,19 @@ public class OrderBookManager {
 		orderBook5.addOrder(new LimitOrder(2, 15));
 		orderBook5.setOpen(false);
 		orderBook5.addExecution(new Execution(10, 20));
-		orderBooks.add(orderBook5);
 
 		// contains 2 market orders, 1 valid limit order, 1
 		// execution, and its closed when the program starts. Total demand = total
 		// execution offer, therefore it is automatically executed!
-		final FinancialInstrument fi6 = new FinancialInstrument("E");
-		final OrderBook orderBook6 = new OrderBook(fi6);
+		final FinancialInstrument fi6 = instrumentRegistry.intern("E");
+		final OrderBook orderBook6 = new OrderBook(fi6, orderPool);
+		addOrderBook(orderBook6);
 		orderBook6.setOpen(true);
 		orderBook6.addOrder(new MarketOrder(16));
 		orderBook6.addOrder(new MarketOrder(16));
 		orderBook6.addOrder(new LimitOrder(10, 26));
 		orderBook6.setOpen(false);
 		orderBook6.addExecution(new Execution(40, 20));
-		orderBooks.add(orderBook6);
 
 	}
 
@@ -92,7 +333,440 @@ public class OrderBookManager {
 	 * @param orderBookPosition
 	 */
 	public void processBook(final int orderBookPosition) {
-		orderBooks.get(orderBookPosition).processExecutions();
+		final long startNanos = OrderBookMetrics.startTimer();
+		final OrderBook orderBook = orderBooks.get(orderBookPosition);
+		final OrderBookExceptionCode rejection = orderBook.processExecutions();
+		metrics.recordLatency(Operation.PROCESS_EXECUTIONS, startNanos);
+		if (rejection == null) {
+			exportAllocations(orderBook);
+			evictProcessedBooks();
+		}
+	}
+
+	/**
+	 * Creates a book for a financial instrument, sharing the pool of orders of the
+	 * manager, and adds it to the manager
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument
+	 * @return the created book
+	 */
+	public OrderBook createOrderBook(final FinancialInstrument financialInstrument) {
+		return createOrderBook(financialInstrument, MatchingMode.CALL_AUCTION);
+	}
+
+	/**
+	 * Creates a book for a financial instrument, sharing the pool of orders of the
+	 * manager, and adds it to the manager
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument
+	 * @param matchingMode
+	 *            how the executions are given to the orders
+	 * @return the created book
+	 */
+	public OrderBook createOrderBook(final FinancialInstrument financialInstrument,
+			final MatchingMode matchingMode) {
+		final OrderBook orderBook = new OrderBook(financialInstrument, orderPool, matchingMode);
+		addOrderBook(orderBook);
+		return orderBook;
+	}
+
+	/**
+	 * Archives a processed book: writes it to the cold storage if enabled and
+	 * removes it from the manager. Its orders are given back to the pool once
+	 * nothing reaches the book, its snapshots and its history anymore.
+	 *
+	 * @param orderBookPosition
+	 *            the position of the book
+	 * @return true if the book was archived, false if it is not processed yet or
+	 *         could not be written
+	 */
+	public synchronized boolean archiveBook(final int orderBookPosition) {
+		final OrderBook orderBook = orderBooks.get(orderBookPosition);
+		if (!orderBook.isProcessed()) {
+			AsyncLogger.warn().append("Only a processed book can be archived!").commit();
+			return false;
+		}
+		if ((bookArchive != null) && !bookArchive.archive(orderBook)) {
+			return false;
+		}
+
+		orderBooks.remove(orderBookPosition);
+		instrumentRegistry.unregisterOrderBook(orderBook);
+		MetricsRegistration.unregister(metricsNames.remove(orderBook));
+		orderBook.recycleOrdersWhenUnreachable();
+		return true;
+	}
+
+	/**
+	 * Returns the cold storage of the processed books
+	 *
+	 * @return the archive, or null if the cold storage is not enabled
+	 */
+	public BookArchive getBookArchive() {
+		return bookArchive;
+	}
+
+	public OrderPool getOrderPool() {
+		return orderPool;
+	}
+
+	public InstrumentRegistry getInstrumentRegistry() {
+		return instrumentRegistry;
+	}
+
+	/**
+	 * Returns the book of an instrument, in constant time
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @return the book, or null if the instrument has no book
+	 */
+	public OrderBook getOrderBook(final String symbol) {
+		return instrumentRegistry.getOrderBook(symbol);
+	}
+
+	/**
+	 * Routes an order to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param order
+	 *            the order
+	 * @return null if the order was added, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode addOrder(final String symbol, final Order order) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		return orderBook.addOrder(order);
+	}
+
+	/**
+	 * Routes a new limit order to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if it was refused
+	 */
+	public LimitOrder addLimitOrder(final String symbol, final int quantity, final double limitPrice) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return null;
+		}
+		return orderBook.addLimitOrder(quantity, limitPrice);
+	}
+
+	/**
+	 * Routes a new limit order with a client order id to the book of its
+	 * instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if it was refused (e.g. already added)
+	 */
+	public LimitOrder addLimitOrder(final String symbol, final long clientOrderId, final int quantity,
+			final double limitPrice) {
+		return addLimitOrder(symbol, 0, clientOrderId, quantity, limitPrice);
+	}
+
+	/**
+	 * Routes a new limit order of an account to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param accountId
+	 *            the account the order is sent for, 0 if none
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the added order, or null if it was refused (e.g. beyond the risk
+	 *         limits of the account)
+	 */
+	public LimitOrder addLimitOrder(final String symbol, final long accountId, final long clientOrderId,
+			final int quantity, final double limitPrice) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return null;
+		}
+		return orderBook.addLimitOrder(accountId, clientOrderId, quantity, limitPrice);
+	}
+
+	/**
+	 * Routes a new market order to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if it was refused
+	 */
+	public MarketOrder addMarketOrder(final String symbol, final int quantity) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return null;
+		}
+		return orderBook.addMarketOrder(quantity);
+	}
+
+	/**
+	 * Routes a new market order with a client order id to the book of its
+	 * instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if it was refused (e.g. already added)
+	 */
+	public MarketOrder addMarketOrder(final String symbol, final long clientOrderId, final int quantity) {
+		return addMarketOrder(symbol, 0, clientOrderId, quantity);
+	}
+
+	/**
+	 * Routes a new market order of an account to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param accountId
+	 *            the account the order is sent for, 0 if none
+	 * @param clientOrderId
+	 *            the id given to the order by the client, 0 if none
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the added order, or null if it was refused (e.g. beyond the risk
+	 *         limits of the account)
+	 */
+	public MarketOrder addMarketOrder(final String symbol, final long accountId, final long clientOrderId,
+			final int quantity) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return null;
+		}
+		return orderBook.addMarketOrder(accountId, clientOrderId, quantity);
+	}
+
+	/**
+	 * Limits what an account can have open in the books of the manager: the
+	 * orders of the account beyond its limits are refused with
+	 * {@link OrderBookExceptionCode#RISK_LIMIT_EXCEEDED}
+	 *
+	 * @param accountId
+	 *            the account, not 0
+	 * @param accountLimits
+	 *            the limits over all instruments
+	 * @param instrumentLimits
+	 *            the limits on each instrument
+	 */
+	public void setAccountLimits(final long accountId, final RiskLimits accountLimits,
+			final RiskLimits instrumentLimits) {
+		riskCheck.setLimits(accountId, accountLimits, instrumentLimits);
+	}
+
+	public PreTradeRiskCheck getRiskCheck() {
+		return riskCheck;
+	}
+
+	/**
+	 * Routes an execution to the book of its instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param execution
+	 *            the execution
+	 * @return null if the execution was added, otherwise the reason why it was
+	 *         not
+	 */
+	public OrderBookExceptionCode addExecution(final String symbol, final Execution execution) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		return orderBook.addExecution(execution);
+	}
+
+	/**
+	 * Limits the rate of the orders added to the book of an instrument, the
+	 * orders above it being refused
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param ordersPerSecond
+	 *            the sustained rate
+	 * @param burst
+	 *            the amount of orders accepted at once above the rate
+	 * @return null if the limit was set, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode setIntakeRateLimit(final String symbol, final double ordersPerSecond,
+			final int burst) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		orderBook.setIntakeLimit(new TokenBucket(ordersPerSecond, burst));
+		return null;
+	}
+
+	/**
+	 * Opens the book of an instrument. A book can only be opened once.
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @return null if the book was opened, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode openBook(final String symbol) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		return orderBook.open();
+	}
+
+	/**
+	 * Closes the book of an instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @return null if the book was closed, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode closeBook(final String symbol) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		return orderBook.close();
+	}
+
+	/**
+	 * Processes the executions of the book of an instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @return null if the book was processed, otherwise the reason why it was not
+	 */
+	public OrderBookExceptionCode processBook(final String symbol) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			return OrderBookExceptionCode.UNKNOWN_INSTRUMENT;
+		}
+		final long startNanos = OrderBookMetrics.startTimer();
+		final OrderBookExceptionCode rejection = orderBook.processExecutions();
+		metrics.recordLatency(Operation.PROCESS_EXECUTIONS, startNanos);
+		if (rejection == null) {
+			exportAllocations(orderBook);
+			evictProcessedBooks();
+		}
+		return rejection;
+	}
+
+	/**
+	 * Subscribes a listener to the fills of all the books, including the books
+	 * added later on. The fills of all books are delivered on a single thread
+	 * dedicated to the listener.
+	 *
+	 * @param listener
+	 *            the listener
+	 * @param capacity
+	 *            the maximum amount of batches waiting for the listener before
+	 *            new batches are dropped
+	 * @return the subscription, to be cancelled when the listener is not
+	 *         interested anymore
+	 */
+	public FillSubscription subscribeToFills(final FillListener listener, final int capacity) {
+		final FillSubscription subscription = new FillSubscription(listener, capacity);
+		fillSubscriptions.add(subscription);
+		for (final OrderBook orderBook : orderBooks) {
+			orderBook.getFillPublisher().addSubscription(subscription);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Subscribes a listener to the market data of all the books, including the
+	 * books added later on. The listener first receives a snapshot of each book.
+	 * The updates of all books are delivered on a single thread dedicated to the
+	 * listener.
+	 *
+	 * @param listener
+	 *            the listener
+	 * @param capacity
+	 *            the maximum amount of updates waiting for the listener before
+	 *            new updates are dropped
+	 * @return the subscription, to be cancelled when the listener is not
+	 *         interested anymore
+	 */
+	public MarketDataSubscription subscribeToMarketData(final MarketDataListener listener, final int capacity) {
+		final MarketDataSubscription subscription = new MarketDataSubscription(listener, capacity);
+		marketDataSubscriptions.add(subscription);
+		for (final OrderBook orderBook : orderBooks) {
+			orderBook.getDepthBook().subscribe(subscription);
+		}
+		return subscription;
+	}
+
+	/**
+	 * Starts publishing a full snapshot of each book periodically, for the
+	 * listeners which joined late or missed deltas
+	 *
+	 * @param periodMillis
+	 *            the time between two snapshots of a book, in milliseconds
+	 */
+	public synchronized void startMarketDataSnapshots(final long periodMillis) {
+		stopMarketDataSnapshots();
+
+		marketDataSnapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "market-data-snapshots");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+		marketDataSnapshotScheduler.scheduleAtFixedRate(new Runnable() {
+
+			@Override
+			public void run() {
+				for (final OrderBook orderBook : orderBooks) {
+					orderBook.getDepthBook().publishSnapshot();
+				}
+			}
+
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops publishing the periodic snapshots
+	 */
+	public synchronized void stopMarketDataSnapshots() {
+		if (marketDataSnapshotScheduler != null) {
+			marketDataSnapshotScheduler.shutdownNow();
+			marketDataSnapshotScheduler = null;
+		}
 	}
 
 	/**
@@ -100,9 +774,11 @@ public class OrderBookManager {
 	 * demand, biggest / smallest / earliest / latest orders, limit break-down
 	 */
 	public void printStatistics1() {
+		final long startNanos = OrderBookMetrics.startTimer();
 		for (final OrderBook orderBook : orderBooks) {
 			orderBook.printStatistics1();
 		}
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
 	}
 
 	/**
@@ -112,54 +788,133 @@ public class OrderBookManager {
 	 * price
 	 */
 	public void printStatistics2() {
+		final long startNanos = OrderBookMetrics.startTimer();
 		for (final OrderBook orderBook : orderBooks) {
 			orderBook.printStatistics2();
 		}
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
 	}
 
 	/**
 	 * Prints the third set of information - for a given order id: validity,
-	 * execution quantity, order's price, execution price
+	 * execution quantity, order's price, execution price. The archived books are
+	 * searched after the books of the manager.
 	 */
 	public void printStatistics3(final String orderId) {
+		final long startNanos = OrderBookMetrics.startTimer();
 
 		boolean orderExists = false;
-		for (final OrderBook orderBook : orderBooks) {
-			for (final Order order : orderBook.getOrders()) {
-				if (order.getId().toString().equals(orderId)) {
+		UUID parsedOrderId = null;
+		try {
+			parsedOrderId = UUID.fromString(orderId);
+		} catch (final IllegalArgumentException e) {
+			// not a UUID, hence not the id of an order
+		}
+
+		if (parsedOrderId != null) {
+			for (final OrderBook orderBook : orderBooks) {
+				if (orderBook.getOrderById(parsedOrderId) != null) {
 					orderExists = true;
-					orderBook.printStatistics3(order.getId().toString());
+					orderBook.printStatistics3(orderId);
 					break;
 				}
 			}
+		}
 
-			if (orderExists) {
-				break;
+		if (!orderExists && (parsedOrderId != null) && (bookArchive != null)) {
+			final ArchivedBook archivedBook = bookArchive.findBookOfOrder(parsedOrderId);
+			if (archivedBook != null) {
+				orderExists = true;
+				OrderBook.printStatisticsIntro(archivedBook.getSymbol());
+				OrderBook.printOrderStatistics(archivedBook.getSnapshot(),
+						archivedBook.getSnapshot().indexOf(parsedOrderId));
+				OrderBook.printStatisticsOutro();
 			}
 		}
 
 		if (!orderExists) {
-			System.out.println("The id that you entered is not associated to any order of any book.");
+			AsyncLogger.info().append("The id that you entered is not associated to any order of any book.").commit();
 		}
+
+		metrics.recordLatency(Operation.STATISTICS, startNanos);
+	}
+
+	/**
+	 * Prints the book of an instrument as it was at a past time
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @param timeMillis
+	 *            the time, in milliseconds since the epoch
+	 */
+	public void printStatisticsAt(final String symbol, final long timeMillis) {
+		final OrderBook orderBook = instrumentRegistry.getOrderBook(symbol);
+		if (orderBook == null) {
+			AsyncLogger.warn().append(OrderBookExceptionCode.UNKNOWN_INSTRUMENT.exceptionMessage()).commit();
+			return;
+		}
+		orderBook.printStatisticsAt(timeMillis);
+	}
+
+	/**
+	 * Prints what a client got from the executions, per instrument and in
+	 * total. Read from the fill index: no book is scanned.
+	 *
+	 * @param accountId
+	 *            the account of the client
+	 */
+	public void printClientFills(final long accountId) {
+		final ClientFills clientFills = clientFillIndex.getClientFills(accountId);
+		if (clientFills == null) {
+			AsyncLogger.info().append("The account ").append(accountId).append(" did not receive anything yet.")
+					.commit();
+			return;
+		}
+		AsyncLogger.info().append("Fills of account ").append(accountId).commit();
+		AsyncLogger.info().append("-----------------------------------------------------------------------------")
+				.commit();
+		for (final FinancialInstrument financialInstrument : clientFills.getInstruments()) {
+			AsyncLogger.info().append(financialInstrument.getName()).append(": quantity ")
+					.append(clientFills.getFilledQuantity(financialInstrument)).append(", notional ")
+					.append(clientFills.getFilledNotional(financialInstrument)).commit();
+		}
+		AsyncLogger.info().append("Total: quantity ").append(clientFills.getFilledQuantity()).append(", notional ")
+				.append(clientFills.getFilledNotional()).commit();
+	}
+
+	public ClientFillIndex getClientFillIndex() {
+		return clientFillIndex;
 	}
 
 	/**
 	 * Prints the books held in the book manager
 	 */
 	public void displayOrderBooks() {
-		System.out.println("LIST OF BOOKS:");
-		if (orderBooks.isEmpty()) {
-			System.out.println("There is no book.");
+		AsyncLogger.info().append("LIST OF BOOKS:").commit();
+		final Object[] books = orderBooks.toArray();
+		if (books.length == 0) {
+			AsyncLogger.info().append("There is no book.").commit();
 		} else {
-			for (int i = 0; i < orderBooks.size(); i++) {
-				System.out.println(i + " - Order book for financial instrument: "
-						+ orderBooks.get(i).getFinancialInstrument().getName());
+			for (int i = 0; i < books.length; i++) {
+				AsyncLogger.info().append(i).append(" - Order book for financial instrument: ")
+						.append(((OrderBook) books[i]).getFinancialInstrument().getName()).commit();
 			}
 		}
 	}
 
-	public ArrayList<OrderBook> getOrderBooks() {
+	/**
+	 * Returns the books of the manager. The list can be read from any thread;
+	 * iterating it, or copying it with toArray, gives a consistent set of books
+	 * even if books are archived meanwhile.
+	 *
+	 * @return the books
+	 */
+	public List<OrderBook> getOrderBooks() {
 		return orderBooks;
 	}
 
+	public OrderBookMetrics getMetrics() {
+		return metrics;
+	}
+
 }
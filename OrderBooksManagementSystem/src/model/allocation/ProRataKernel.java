@@ -0,0 +1,113 @@
+package model.allocation;
+
+/**
+ * The number crunching of the allocation, working on primitive arrays: the
+ * proportionate shares of an execution and the validity of the limit orders
+ * against the execution price.
+ *
+ * The loops are simple counted loops without calls nor branches, the shape
+ * that the JIT compiler turns into SIMD instructions by itself (superword
+ * optimisation), on x86 as well as on ARM. The Vector API would make it
+ * explicit, but it needs a Java version much more recent than the one of this
+ * project.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class ProRataKernel {
+
+	private ProRataKernel() {
+	}
+
+	/**
+	 * Computes the proportionate share of each order: floor(requested x offer /
+	 * demand), capped to the requested quantity. Same formula as the one the book
+	 * always used, hence the same shares.
+	 *
+	 * @param requestedQuantities
+	 *            the quantities requested by the orders
+	 * @param count
+	 *            the amount of orders (the arrays can be longer)
+	 * @param offer
+	 *            the quantity offered by the execution
+	 * @param demand
+	 *            the demand the offer is shared against, strictly positive
+	 * @param shares
+	 *            receives the share of each order
+	 * @return the sum of the shares
+	 */
+	public static int computeShares(final int[] requestedQuantities, final int count, final int offer,
+			final double demand, final int[] shares) {
+		final double executionOffer = offer;
+		for (int i = 0; i < count; i++) {
+			// the values are positive, so the cast gives the floor
+			shares[i] = Math.min((int) ((requestedQuantities[i] * executionOffer) / demand), requestedQuantities[i]);
+		}
+		return sum(shares, count);
+	}
+
+	/**
+	 * Computes what each order still expects once it received its share
+	 *
+	 * @param requestedQuantities
+	 *            the quantities requested by the orders
+	 * @param shares
+	 *            the quantities received by the orders
+	 * @param count
+	 *            the amount of orders
+	 * @param remainders
+	 *            receives the quantity still expected by each order
+	 * @return the sum of the remainders
+	 */
+	public static int computeRemainders(final int[] requestedQuantities, final int[] shares, final int count,
+			final int[] remainders) {
+		for (int i = 0; i < count; i++) {
+			remainders[i] = requestedQuantities[i] - shares[i];
+		}
+		return sum(remainders, count);
+	}
+
+	/**
+	 * Computes the validity of limit orders: an order is valid if its limit price
+	 * is higher than or equal to the execution price
+	 *
+	 * @param limitPrices
+	 *            the limit prices of the orders
+	 * @param count
+	 *            the amount of orders
+	 * @param executionPrice
+	 *            the price of the executions
+	 * @param validityMask
+	 *            receives the validity of each order
+	 * @return the amount of valid orders
+	 */
+	public static int computeValidityMask(final double[] limitPrices, final int count, final double executionPrice,
+			final boolean[] validityMask) {
+		int validCount = 0;
+		for (int i = 0; i < count; i++) {
+			final boolean valid = limitPrices[i] >= executionPrice;
+			validityMask[i] = valid;
+			validCount += (valid ? 1 : 0);
+		}
+		return validCount;
+	}
+
+	/**
+	 * Sums the first values of an array
+	 *
+	 * @param values
+	 *            the values
+	 * @param count
+	 *            the amount of values to sum
+	 * @return the sum
+	 */
+	public static int sum(final int[] values, final int count) {
+		int sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += values[i];
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,53 @@
+package model.archive;
+
+import java.util.UUID;
+
+import model.MatchingMode;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * A processed book read back from the cold storage. Only its snapshot is kept:
+ * the order and execution objects are gone.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class ArchivedBook {
+
+	/**
+	 * The symbol (= name) of the financial instrument of the book
+	 */
+	private final String symbol;
+
+	private final UUID instrumentId;
+
+	private final MatchingMode matchingMode;
+
+	private final OrderBookSnapshot snapshot;
+
+	public ArchivedBook(final String symbol, final UUID instrumentId, final MatchingMode matchingMode,
+			final OrderBookSnapshot snapshot) {
+		this.symbol = symbol;
+		this.instrumentId = instrumentId;
+		this.matchingMode = matchingMode;
+		this.snapshot = snapshot;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public UUID getInstrumentId() {
+		return instrumentId;
+	}
+
+	public MatchingMode getMatchingMode() {
+		return matchingMode;
+	}
+
+	public OrderBookSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,183 @@
+package model.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import logging.AsyncLogger;
+import model.OrderBook;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * The cold storage of the processed books: each book is written to its own
+ * segment file in a directory, then only the list of the files is kept in
+ * memory. The books searched by {@link #findBookOfOrder(UUID)} are read back
+ * into a cache holding the most recently used ones, up to a maximum amount of
+ * books.
+ *
+ * The segments already in the directory (e.g. from the previous days) are part
+ * of the archive.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookArchive {
+
+	private final File directory;
+
+	/**
+	 * The segment files, oldest first
+	 */
+	private final ArrayList<File> segments = new ArrayList<File>();
+
+	/**
+	 * The books read back, least recently used first
+	 */
+	private final LinkedHashMap<File, ArchivedBook> cache;
+
+	/**
+	 * The number of the next segment written
+	 */
+	private int nextSegmentNumber;
+
+	/**
+	 * Constructor
+	 *
+	 * @param directory
+	 *            the directory of the segments, created if it does not exist
+	 * @param cachedBooks
+	 *            the maximum amount of books kept in memory once read back
+	 * @throws IOException
+	 *             if the directory cannot be created or read
+	 */
+	public BookArchive(final String directory, final int cachedBooks) throws IOException {
+		this.directory = new File(directory);
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Cannot create the directory " + directory);
+		}
+		final File[] files = this.directory.listFiles();
+		if (files == null) {
+			throw new IOException("Cannot read the directory " + directory);
+		}
+		Arrays.sort(files);
+		for (final File file : files) {
+			if (file.isFile() && file.getName().endsWith(BookSegment.EXTENSION)) {
+				segments.add(file);
+			}
+		}
+		nextSegmentNumber = segments.size();
+
+		final int maximumCachedBooks = Math.max(1, cachedBooks);
+		cache = new LinkedHashMap<File, ArchivedBook>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<File, ArchivedBook> eldest) {
+				return size() > maximumCachedBooks;
+			}
+		};
+	}
+
+	/**
+	 * Writes a processed book to a new segment. Its orders must not be released
+	 * yet.
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @return true if the book was written, false otherwise
+	 */
+	public synchronized boolean archive(final OrderBook orderBook) {
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+		final String symbol = orderBook.getFinancialInstrument().getName();
+
+		File file;
+		do {
+			file = new File(directory,
+					String.format("%08d-%s%s", nextSegmentNumber++, sanitize(symbol), BookSegment.EXTENSION));
+		} while (file.exists());
+
+		try {
+			BookSegment.write(file, symbol, orderBook.getFinancialInstrument().getInstrumentID(),
+					orderBook.getMatchingMode(), snapshot);
+		} catch (final IOException e) {
+			AsyncLogger.error().append("The book ").append(symbol).append(" could not be archived: ")
+					.append(e.getMessage()).commit();
+			file.delete();
+			return false;
+		}
+		segments.add(file);
+		return true;
+	}
+
+	/**
+	 * Finds the archived book holding an order. The cached books are searched
+	 * first, then the index of each segment; the book found is cached.
+	 *
+	 * @param orderId
+	 *            the id of the order
+	 * @return the book, or null if no archived book has the order
+	 */
+	public synchronized ArchivedBook findBookOfOrder(final UUID orderId) {
+		for (final ArchivedBook archivedBook : cache.values()) {
+			if (archivedBook.getSnapshot().indexOf(orderId) >= 0) {
+				return archivedBook;
+			}
+		}
+
+		// the most recent books first
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			final File file = segments.get(i);
+			if (cache.containsKey(file)) {
+				continue;
+			}
+			try {
+				if (BookSegment.containsOrder(file, orderId)) {
+					final ArchivedBook archivedBook = BookSegment.read(file);
+					cache.put(file, archivedBook);
+					return archivedBook;
+				}
+			} catch (final IOException e) {
+				AsyncLogger.error().append("The archived book ").append(file.getName()).append(" could not be read: ")
+						.append(e.getMessage()).commit();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the amount of archived books
+	 *
+	 * @return the amount of segments
+	 */
+	public synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Returns the amount of archived books currently in memory
+	 *
+	 * @return the amount of cached books
+	 */
+	public synchronized int getCachedBookCount() {
+		return cache.size();
+	}
+
+	/**
+	 * Keeps the characters of a symbol which are safe in a file name
+	 */
+	private static String sanitize(final String symbol) {
+		final StringBuilder sanitized = new StringBuilder(symbol.length());
+		for (int i = 0; i < symbol.length(); i++) {
+			final char c = symbol.charAt(i);
+			sanitized.append(((c < 128) && (Character.isLetterOrDigit(c) || (c == '-') || (c == '_'))) ? c : '_');
+		}
+		return sanitized.toString();
+	}
+
+}
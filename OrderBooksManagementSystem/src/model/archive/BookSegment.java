@@ -0,0 +1,290 @@
+package model.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+
+import model.Execution;
+import model.MatchingMode;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * The file format of an archived book. All numbers are big endian.
+ *
+ * <pre>
+ * header     magic (int), format (int), order count (int), execution count (int),
+ *            index offset (long), columns offset (long)
+ * metadata   symbol (modified UTF-8), instrument id (2 longs), matching mode (byte),
+ *            processed (byte), version (long)
+ * index      for each order, sorted by id: id (2 longs), position (int)
+ * columns    for each order, in the order of the book: id (2 longs), requested
+ *            quantity (int), satisfied quantity (int), entry time (long), limit
+ *            price (double, NaN for a market order), valid (byte)
+ *            then for each execution: offered quantity (int), unit price (double)
+ * </pre>
+ *
+ * The index lets {@link #containsOrder(File, UUID)} find an order with a
+ * binary search of a few reads, without loading the segment.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class BookSegment {
+
+	/**
+	 * The extension of the segment files
+	 */
+	public static final String EXTENSION = ".obs";
+
+	private static final int MAGIC = 0x4f425331; // OBS1
+
+	private static final int FORMAT = 1;
+
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 8;
+
+	private static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+
+	private BookSegment() {
+	}
+
+	/**
+	 * Writes a book to a segment file
+	 *
+	 * @param file
+	 *            the file, overwritten if it exists
+	 * @param symbol
+	 *            the symbol of the instrument of the book
+	 * @param instrumentId
+	 *            the id of the instrument of the book
+	 * @param matchingMode
+	 *            the matching mode of the book
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static void write(final File file, final String symbol, final UUID instrumentId,
+			final MatchingMode matchingMode, final OrderBookSnapshot snapshot) throws IOException {
+		final int orderCount = snapshot.getOrderCount();
+		final int executionCount = snapshot.getExecutionCount();
+
+		final ByteArrayOutputStream metadataBytes = new ByteArrayOutputStream();
+		final DataOutputStream metadata = new DataOutputStream(metadataBytes);
+		metadata.writeUTF(symbol);
+		metadata.writeLong(instrumentId.getMostSignificantBits());
+		metadata.writeLong(instrumentId.getLeastSignificantBits());
+		metadata.writeByte(matchingMode.ordinal());
+		metadata.writeBoolean(snapshot.isProcessed());
+		metadata.writeLong(snapshot.getVersion());
+		metadata.flush();
+
+		final long indexOffset = HEADER_SIZE + metadataBytes.size();
+		final long columnsOffset = indexOffset + ((long) orderCount * INDEX_ENTRY_SIZE);
+
+		final long[] most = new long[orderCount];
+		final long[] least = new long[orderCount];
+		final Integer[] sortedPositions = new Integer[orderCount];
+		for (int i = 0; i < orderCount; i++) {
+			final UUID orderId = snapshot.getOrderId(i);
+			most[i] = orderId.getMostSignificantBits();
+			least[i] = orderId.getLeastSignificantBits();
+			sortedPositions[i] = i;
+		}
+		Arrays.sort(sortedPositions, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer position1, final Integer position2) {
+				return compareIds(most[position1], least[position1], most[position2], least[position2]);
+			}
+		});
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeInt(orderCount);
+			out.writeInt(executionCount);
+			out.writeLong(indexOffset);
+			out.writeLong(columnsOffset);
+			metadataBytes.writeTo(out);
+
+			for (final Integer position : sortedPositions) {
+				out.writeLong(most[position]);
+				out.writeLong(least[position]);
+				out.writeInt(position);
+			}
+
+			for (int i = 0; i < orderCount; i++) {
+				out.writeLong(most[i]);
+				out.writeLong(least[i]);
+				out.writeInt(snapshot.getRequestedQuantity(i));
+				out.writeInt(snapshot.getSatisfiedQuantity(i));
+				out.writeLong(snapshot.getEntryTimeMillis(i));
+				out.writeDouble(snapshot.getLimitPrice(i));
+				out.writeBoolean(snapshot.isValid(i));
+			}
+			for (int i = 0; i < executionCount; i++) {
+				final Execution execution = snapshot.getExecution(i);
+				out.writeInt(execution.getOfferedQuantity());
+				out.writeDouble(execution.getUnitPrice());
+			}
+		}
+	}
+
+	/**
+	 * Reads a whole segment file
+	 *
+	 * @param file
+	 *            the file
+	 * @return the archived book
+	 * @throws IOException
+	 *             if the file cannot be read or is not a segment
+	 */
+	public static ArchivedBook read(final File file) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Segment too big: " + file);
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Truncated segment: " + file);
+				}
+			}
+			buffer.flip();
+
+			final int orderCount = readHeader(buffer, file);
+			final int executionCount = buffer.getInt();
+			buffer.getLong();
+			final long columnsOffset = buffer.getLong();
+
+			final String symbol = readUTF(buffer);
+			final UUID instrumentId = new UUID(buffer.getLong(), buffer.getLong());
+			final MatchingMode matchingMode = MatchingMode.values()[buffer.get()];
+			final boolean processed = buffer.get() != 0;
+			final long version = buffer.getLong();
+
+			buffer.position((int) columnsOffset);
+			final long[] most = new long[orderCount];
+			final long[] least = new long[orderCount];
+			final int[] requestedQuantities = new int[orderCount];
+			final int[] satisfiedQuantities = new int[orderCount];
+			final long[] entryTimes = new long[orderCount];
+			final double[] limitPrices = new double[orderCount];
+			final boolean[] validities = new boolean[orderCount];
+			for (int i = 0; i < orderCount; i++) {
+				most[i] = buffer.getLong();
+				least[i] = buffer.getLong();
+				requestedQuantities[i] = buffer.getInt();
+				satisfiedQuantities[i] = buffer.getInt();
+				entryTimes[i] = buffer.getLong();
+				limitPrices[i] = buffer.getDouble();
+				validities[i] = buffer.get() != 0;
+			}
+			final Execution[] executions = new Execution[executionCount];
+			for (int i = 0; i < executionCount; i++) {
+				executions[i] = new Execution(buffer.getInt(), buffer.getDouble());
+			}
+
+			return new ArchivedBook(symbol, instrumentId, matchingMode,
+					OrderBookSnapshot.restore(version, processed, orderCount, most, least, requestedQuantities,
+							satisfiedQuantities, entryTimes, limitPrices, validities, executions));
+		}
+	}
+
+	/**
+	 * Whether a segment file holds an order, found by a binary search in the
+	 * index of the segment
+	 *
+	 * @param file
+	 *            the file
+	 * @param orderId
+	 *            the id of the order
+	 * @return true if the book of the segment has the order
+	 * @throws IOException
+	 *             if the file cannot be read or is not a segment
+	 */
+	public static boolean containsOrder(final File file, final UUID orderId) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			final FileChannel channel = randomAccessFile.getChannel();
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0);
+			final int orderCount = readHeader(header, file);
+			header.getInt();
+			final long indexOffset = header.getLong();
+
+			final long most = orderId.getMostSignificantBits();
+			final long least = orderId.getLeastSignificantBits();
+			final ByteBuffer entry = ByteBuffer.allocate(16);
+			int low = 0;
+			int high = orderCount - 1;
+			while (low <= high) {
+				final int middle = (low + high) >>> 1;
+				entry.clear();
+				readFully(channel, entry, indexOffset + ((long) middle * INDEX_ENTRY_SIZE));
+				final int comparison = compareIds(entry.getLong(), entry.getLong(), most, least);
+				if (comparison < 0) {
+					low = middle + 1;
+				} else if (comparison > 0) {
+					high = middle - 1;
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static int readHeader(final ByteBuffer buffer, final File file) throws IOException {
+		if ((buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT)) {
+			throw new IOException("Not a book segment: " + file);
+		}
+		return buffer.getInt();
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position)
+			throws IOException {
+		long currentPosition = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, currentPosition);
+			if (read < 0) {
+				throw new IOException("Truncated segment");
+			}
+			currentPosition += read;
+		}
+		buffer.flip();
+	}
+
+	/**
+	 * Reads a string written by {@link DataOutputStream#writeUTF(String)}. The
+	 * symbols are ASCII, which modified UTF-8 leaves as is.
+	 */
+	private static String readUTF(final ByteBuffer buffer) throws IOException {
+		final int length = buffer.getShort() & 0xffff;
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static int compareIds(final long most1, final long least1, final long most2, final long least2) {
+		if (most1 != most2) {
+			return (most1 < most2 ? -1 : 1);
+		}
+		if (least1 != least2) {
+			return (least1 < least2 ? -1 : 1);
+		}
+		return 0;
+	}
+
+}
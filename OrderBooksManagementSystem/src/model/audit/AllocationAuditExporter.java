@@ -0,0 +1,151 @@
+package model.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+
+import model.orders.Order;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Exports the allocations of a processed book for the reconciliation with the
+ * back office: one fixed-width record per order, written straight from the
+ * columns of a snapshot into a memory-mapped file. No object is created per
+ * record. All numbers are big endian.
+ *
+ * <pre>
+ * header (64 bytes)  magic (int), format (int), record size (int), record count (int),
+ *                    version of the book (long), instrument id (2 longs),
+ *                    execution price (double), reserved
+ * record (56 bytes)  order id (2 longs), instrument id (2 longs), requested quantity (int),
+ *                    satisfied quantity (int), price (double), valid (byte), reserved
+ * </pre>
+ *
+ * The price of a record is the average price of the units the order received,
+ * 0 if it received none: in continuous and incremental modes the executions
+ * may have different prices, so the execution price of the header (the price
+ * of the first execution) only holds for the call auctions.
+ *
+ * The records are forced to the storage device before the header, and the
+ * header before the export returns: a file with a valid header is complete.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class AllocationAuditExporter {
+
+	/**
+	 * The extension of the exported files
+	 */
+	public static final String EXTENSION = ".alloc";
+
+	public static final int HEADER_SIZE = 64;
+
+	public static final int RECORD_SIZE = 56;
+
+	private static final int MAGIC = 0x414c4c31; // ALL1
+
+	/**
+	 * The format of the records. Format 1 gave the execution price of the book
+	 * to every record.
+	 */
+	private static final int FORMAT = 2;
+
+	/**
+	 * The maximum amount of records mapped at once (256 MB)
+	 */
+	private static final int RECORDS_PER_REGION = (1 << 28) / RECORD_SIZE;
+
+	private AllocationAuditExporter() {
+	}
+
+	/**
+	 * Writes the allocations of a book to a file
+	 *
+	 * @param file
+	 *            the file, overwritten if it exists
+	 * @param instrumentId
+	 *            the id of the instrument of the book
+	 * @param snapshot
+	 *            the snapshot of the book, once processed
+	 * @return the amount of records written
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public static int export(final File file, final UUID instrumentId, final OrderBookSnapshot snapshot)
+			throws IOException {
+		final int orderCount = snapshot.getOrderCount();
+		final long instrumentMostSignificantBits = instrumentId.getMostSignificantBits();
+		final long instrumentLeastSignificantBits = instrumentId.getLeastSignificantBits();
+		final double executionPrice = (snapshot.isProcessed() ? snapshot.getExecutionPrice() : 0);
+
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			final FileChannel channel = randomAccessFile.getChannel();
+			// an overwritten file must not look complete until the header is written
+			randomAccessFile.setLength(0);
+			randomAccessFile.setLength(HEADER_SIZE + ((long) orderCount * RECORD_SIZE));
+
+			for (int start = 0; start < orderCount; start += RECORDS_PER_REGION) {
+				final int end = Math.min(orderCount, start + RECORDS_PER_REGION);
+				final MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_WRITE,
+						HEADER_SIZE + ((long) start * RECORD_SIZE), (long) (end - start) * RECORD_SIZE);
+				int offset = 0;
+				for (int i = start; i < end; i++) {
+					final int satisfiedQuantity = snapshot.getSatisfiedQuantity(i);
+					region.putLong(offset, snapshot.getOrderIdMostSignificantBits(i));
+					region.putLong(offset + 8, snapshot.getOrderIdLeastSignificantBits(i));
+					region.putLong(offset + 16, instrumentMostSignificantBits);
+					region.putLong(offset + 24, instrumentLeastSignificantBits);
+					region.putInt(offset + 32, snapshot.getRequestedQuantity(i));
+					region.putInt(offset + 36, satisfiedQuantity);
+					region.putDouble(offset + 40, averagePrice(snapshot, i, satisfiedQuantity, executionPrice));
+					region.put(offset + 48, (byte) (snapshot.isValid(i) ? 1 : 0));
+					offset += RECORD_SIZE;
+				}
+				region.force();
+			}
+
+			final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(0, MAGIC);
+			header.putInt(4, FORMAT);
+			header.putInt(8, RECORD_SIZE);
+			header.putInt(12, orderCount);
+			header.putLong(16, snapshot.getVersion());
+			header.putLong(24, instrumentMostSignificantBits);
+			header.putLong(32, instrumentLeastSignificantBits);
+			header.putDouble(40, executionPrice);
+			header.force();
+			// the length of the file
+			channel.force(true);
+		}
+		return orderCount;
+	}
+
+	/**
+	 * Returns the average price of the units given to an order of a snapshot
+	 *
+	 * @param snapshot
+	 *            the snapshot of the processed book
+	 * @param index
+	 *            the index of the order
+	 * @param satisfiedQuantity
+	 *            the units given to the order
+	 * @param executionPrice
+	 *            the price of the first execution, used for the orders restored
+	 *            from the archive
+	 * @return the average price, 0 if the order got nothing
+	 */
+	private static double averagePrice(final OrderBookSnapshot snapshot, final int index,
+			final int satisfiedQuantity, final double executionPrice) {
+		if (satisfiedQuantity == 0) {
+			return 0;
+		}
+		final Order order = snapshot.getOrder(index);
+		return (order == null ? executionPrice : order.getFilledNotional() / satisfiedQuantity);
+	}
+
+}
@@ -0,0 +1,74 @@
+package model.fills;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.FinancialInstrument;
+import model.orders.Order;
+
+/**
+ * The fills of each client (account), over all the books of a manager. The
+ * books add to it the units they give to the orders of an account, as they
+ * give them, so reporting what a client got is a lookup instead of a scan of
+ * the orders of every book; it also covers the books already archived.
+ *
+ * Books processed by different threads can add to the same client: the
+ * counters are atomic, nothing is locked.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class ClientFillIndex {
+
+	private final ConcurrentHashMap<Long, ClientFills> fillsPerAccount = new ConcurrentHashMap<Long, ClientFills>();
+
+	/**
+	 * Adds units given to an order. Orders without account are ignored.
+	 *
+	 * @param order
+	 *            the order
+	 * @param financialInstrument
+	 *            the instrument of the book of the order
+	 * @param quantity
+	 *            the units, negative if units given before are taken back
+	 * @param price
+	 *            the price of a unit
+	 */
+	public void recordFill(final Order order, final FinancialInstrument financialInstrument, final int quantity,
+			final double price) {
+		final long accountId = order.getAccountId();
+		if ((accountId == 0) || (quantity == 0)) {
+			return;
+		}
+		ClientFills fills = fillsPerAccount.get(accountId);
+		if (fills == null) {
+			final ClientFills newFills = new ClientFills(accountId);
+			fills = fillsPerAccount.putIfAbsent(accountId, newFills);
+			if (fills == null) {
+				fills = newFills;
+			}
+		}
+		fills.add(financialInstrument, quantity, price);
+	}
+
+	/**
+	 * Returns the fills of a client
+	 *
+	 * @param accountId
+	 *            the account of the client
+	 * @return the fills, kept up to date, or null if the client got nothing yet
+	 */
+	public ClientFills getClientFills(final long accountId) {
+		return fillsPerAccount.get(accountId);
+	}
+
+	/**
+	 * @return the fills of all the clients who got something
+	 */
+	public Collection<ClientFills> getAllClientFills() {
+		return Collections.unmodifiableCollection(fillsPerAccount.values());
+	}
+
+}
@@ -0,0 +1,124 @@
+package model.fills;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import model.FinancialInstrument;
+
+/**
+ * What a client (an account) got from the executions: the filled quantity and
+ * notional over all books, and for each instrument. Kept up to date by the
+ * books as they give units to the orders of the client, so that reading them
+ * is a lookup.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class ClientFills {
+
+	/**
+	 * The notionals are counted in ten-thousandths, as longs, so that adding and
+	 * removing units in any order stays exact
+	 */
+	private static final double NOTIONAL_SCALE = 10000;
+
+	/**
+	 * The counters of one instrument, or of all of them
+	 */
+	private static final class Totals {
+
+		final AtomicLong filledQuantity = new AtomicLong();
+
+		final AtomicLong filledScaledNotional = new AtomicLong();
+
+		void add(final int quantity, final long scaledNotional) {
+			filledQuantity.addAndGet(quantity);
+			filledScaledNotional.addAndGet(scaledNotional);
+		}
+
+	}
+
+	private final long accountId;
+
+	private final Totals totals = new Totals();
+
+	private final ConcurrentHashMap<FinancialInstrument, Totals> totalsPerInstrument = //
+			new ConcurrentHashMap<FinancialInstrument, Totals>();
+
+	ClientFills(final long accountId) {
+		this.accountId = accountId;
+	}
+
+	/**
+	 * Adds units given to an order of the client
+	 *
+	 * @param financialInstrument
+	 *            the instrument of the book of the order
+	 * @param quantity
+	 *            the units, negative if units given before are taken back
+	 * @param price
+	 *            the price of a unit
+	 */
+	void add(final FinancialInstrument financialInstrument, final int quantity, final double price) {
+		final long scaledNotional = quantity * Math.round(price * NOTIONAL_SCALE);
+		totals.add(quantity, scaledNotional);
+		Totals instrumentTotals = totalsPerInstrument.get(financialInstrument);
+		if (instrumentTotals == null) {
+			final Totals newTotals = new Totals();
+			instrumentTotals = totalsPerInstrument.putIfAbsent(financialInstrument, newTotals);
+			if (instrumentTotals == null) {
+				instrumentTotals = newTotals;
+			}
+		}
+		instrumentTotals.add(quantity, scaledNotional);
+	}
+
+	public long getAccountId() {
+		return accountId;
+	}
+
+	/**
+	 * @return the units received over all books
+	 */
+	public long getFilledQuantity() {
+		return totals.filledQuantity.get();
+	}
+
+	/**
+	 * @return the notional received over all books
+	 */
+	public double getFilledNotional() {
+		return totals.filledScaledNotional.get() / NOTIONAL_SCALE;
+	}
+
+	/**
+	 * @param financialInstrument
+	 *            the instrument
+	 * @return the units received in the books of the instrument
+	 */
+	public long getFilledQuantity(final FinancialInstrument financialInstrument) {
+		final Totals instrumentTotals = totalsPerInstrument.get(financialInstrument);
+		return (instrumentTotals == null ? 0 : instrumentTotals.filledQuantity.get());
+	}
+
+	/**
+	 * @param financialInstrument
+	 *            the instrument
+	 * @return the notional received in the books of the instrument
+	 */
+	public double getFilledNotional(final FinancialInstrument financialInstrument) {
+		final Totals instrumentTotals = totalsPerInstrument.get(financialInstrument);
+		return (instrumentTotals == null ? 0 : instrumentTotals.filledScaledNotional.get() / NOTIONAL_SCALE);
+	}
+
+	/**
+	 * @return the instruments in which the client received units
+	 */
+	public Set<FinancialInstrument> getInstruments() {
+		return Collections.unmodifiableSet(totalsPerInstrument.keySet());
+	}
+
+}
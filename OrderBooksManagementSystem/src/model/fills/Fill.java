@@ -0,0 +1,89 @@
+package model.fills;
+
+import java.util.UUID;
+
+import model.FinancialInstrument;
+
+/**
+ * A fill: the quantity of financial instrument that an order received when the
+ * executions of its book were processed, and the price of a unit
+ *
+ * The sequence numbers of a book increase by one at each fill, so a listener
+ * notices the fills it missed and gets them again from the book
+ * ({@link FillPublisher#getFillsSince(long)}).
+ *
+ *
+ * @author Jules
+ *
+ */
+public class Fill {
+
+	/**
+	 * The sequence number of the fill in its book
+	 */
+	private final long sequence;
+
+	/**
+	 * The id of the filled order
+	 */
+	private final UUID orderId;
+
+	/**
+	 * The financial instrument of the book of the order
+	 */
+	private final FinancialInstrument financialInstrument;
+
+	/**
+	 * The quantity received by the order
+	 */
+	private final int filledQuantity;
+
+	/**
+	 * The price of a financial instrument unit
+	 */
+	private final double price;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sequence
+	 *            the sequence number of the fill in its book
+	 * @param orderId
+	 *            the id of the filled order
+	 * @param financialInstrument
+	 *            the financial instrument of the book of the order
+	 * @param filledQuantity
+	 *            the quantity received by the order
+	 * @param price
+	 *            the price of a financial instrument unit
+	 */
+	public Fill(final long sequence, final UUID orderId, final FinancialInstrument financialInstrument,
+			final int filledQuantity, final double price) {
+		this.sequence = sequence;
+		this.orderId = orderId;
+		this.financialInstrument = financialInstrument;
+		this.filledQuantity = filledQuantity;
+		this.price = price;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public UUID getOrderId() {
+		return orderId;
+	}
+
+	public FinancialInstrument getFinancialInstrument() {
+		return financialInstrument;
+	}
+
+	public int getFilledQuantity() {
+		return filledQuantity;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+}
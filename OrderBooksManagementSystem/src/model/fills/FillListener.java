@@ -0,0 +1,43 @@
+package model.fills;
+
+import java.util.List;
+import java.util.Map;
+
+import model.FinancialInstrument;
+
+/**
+ * Receives the fills of the books it subscribed to. The functions are called
+ * on the thread of the subscription, never on the thread processing the books.
+ *
+ *
+ * @author Jules
+ *
+ */
+public interface FillListener {
+
+	/**
+	 * Called for each batch of fills, in the order in which they were published
+	 *
+	 * @param fills
+	 *            the batch of fills, not modifiable
+	 */
+	void onFills(List<Fill> fills);
+
+	/**
+	 * Called when batches were dropped because the listener was too slow and its
+	 * queue was full. The listener gets the missing fills again from the
+	 * {@link FillPublisher} of each book concerned
+	 * (OrderBook.getFillPublisher().getFillsSince(sequence)). The batches
+	 * queued after the dropped ones are still delivered, so the listener applies
+	 * the fills of a book in the order of their sequence numbers and ignores
+	 * those it already applied.
+	 *
+	 * @param droppedBatches
+	 *            the amount of batches dropped since the last call
+	 * @param firstMissedSequences
+	 *            for each financial instrument whose fills were dropped, the
+	 *            sequence number of the first fill dropped
+	 */
+	void onFillsDropped(int droppedBatches, Map<FinancialInstrument, Long> firstMissedSequences);
+
+}
@@ -0,0 +1,124 @@
+package model.fills;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Publishes the fills of a book to the subscriptions of the book. Publishing
+ * never blocks: each subscription queues the batches for its own thread.
+ *
+ * The publisher gives the fills their sequence numbers and keeps every fill it
+ * published, so that a subscription which dropped batches (see
+ * {@link FillListener#onFillsDropped(int, java.util.Map)}) gets the missing
+ * fills again with {@link #getFillsSince(long)}. The fills are only built, and
+ * kept, while the book has subscriptions.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class FillPublisher {
+
+	/**
+	 * The maximum amount of fills in a batch. Bigger batches are split, so that a
+	 * huge book does not produce a single huge batch.
+	 */
+	public static final int MAX_BATCH_SIZE = 1024;
+
+	/**
+	 * The subscriptions. Rarely modified and read at each publication, hence the
+	 * copy on write list.
+	 */
+	private final CopyOnWriteArrayList<FillSubscription> subscriptions = new CopyOnWriteArrayList<FillSubscription>();
+
+	/**
+	 * The sequence number of the last fill built. Only used by the thread
+	 * changing the book.
+	 */
+	private long sequence = 0;
+
+	/**
+	 * The fills published, in the order of their sequence numbers. Read by the
+	 * threads of the subscriptions, hence guarded by itself.
+	 */
+	private final ArrayList<Fill> publishedFills = new ArrayList<Fill>();
+
+	/**
+	 * Returns the sequence number of the next fill of the book. Only called by
+	 * the thread changing the book, in the order the fills are published.
+	 *
+	 * @return the sequence number
+	 */
+	public long nextSequence() {
+		return ++sequence;
+	}
+
+	/**
+	 * Adds a subscription. The same subscription can be added to several
+	 * publishers, to listen to several books.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 */
+	public void addSubscription(final FillSubscription subscription) {
+		subscriptions.addIfAbsent(subscription);
+	}
+
+	/**
+	 * Whether there is at least one subscription. Used to avoid building fills
+	 * that nobody will read.
+	 *
+	 * @return true if there is at least one subscription
+	 */
+	public boolean hasSubscriptions() {
+		return !subscriptions.isEmpty();
+	}
+
+	/**
+	 * Publishes a batch of fills to all the subscriptions. The cancelled
+	 * subscriptions are removed.
+	 *
+	 * @param fills
+	 *            the fills, must not be modified afterwards
+	 */
+	public void publish(final List<Fill> fills) {
+		if (fills.isEmpty()) {
+			return;
+		}
+
+		synchronized (publishedFills) {
+			publishedFills.addAll(fills);
+		}
+		final List<Fill> batch = Collections.unmodifiableList(fills);
+		for (final FillSubscription subscription : subscriptions) {
+			if (subscription.isCancelled()) {
+				subscriptions.remove(subscription);
+			} else {
+				subscription.offer(batch);
+			}
+		}
+	}
+
+	/**
+	 * Returns the fills published from a sequence number on, e.g. those that a
+	 * subscription dropped. Can be called from any thread.
+	 *
+	 * @param fromSequence
+	 *            the sequence number of the first fill wanted
+	 * @return the fills, in the order of their sequence numbers
+	 */
+	public List<Fill> getFillsSince(final long fromSequence) {
+		synchronized (publishedFills) {
+			if (publishedFills.isEmpty()) {
+				return Collections.emptyList();
+			}
+			// the sequence numbers of the published fills are consecutive
+			final long firstSequence = publishedFills.get(0).getSequence();
+			final int from = (int) Math.min(Math.max(0, fromSequence - firstSequence), publishedFills.size());
+			return new ArrayList<Fill>(publishedFills.subList(from, publishedFills.size()));
+		}
+	}
+
+}
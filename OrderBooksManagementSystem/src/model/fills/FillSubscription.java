@@ -0,0 +1,180 @@
+package model.fills;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import logging.AsyncLogger;
+import model.FinancialInstrument;
+
+/**
+ * A subscription of a listener to the fills of one or several books. Each
+ * subscription has its own bounded queue and its own thread delivering the
+ * batches, so a slow listener only slows itself down: when its queue is full,
+ * the new batches are dropped instead of blocking the thread that processes the
+ * books. Nothing is lost for the listener: it is told, for each book, the
+ * sequence number of the first fill dropped, and gets the fills again from the
+ * book.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class FillSubscription {
+
+	/**
+	 * The listener receiving the fills
+	 */
+	private final FillListener listener;
+
+	/**
+	 * The batches waiting to be delivered
+	 */
+	private final BlockingQueue<List<Fill>> pendingBatches;
+
+	/**
+	 * The amount of batches dropped since the listener was last told about it
+	 */
+	private final AtomicInteger droppedBatches = new AtomicInteger();
+
+	/**
+	 * For each financial instrument whose fills were dropped since the listener
+	 * was last told about it, the sequence number of the first fill dropped
+	 */
+	private final ConcurrentHashMap<FinancialInstrument, Long> firstMissedSequences = //
+			new ConcurrentHashMap<FinancialInstrument, Long>();
+
+	/**
+	 * How long the delivery thread waits for a batch before checking whether
+	 * batches were dropped
+	 */
+	private static final long DROP_CHECK_MILLIS = 100;
+
+	/**
+	 * The thread delivering the batches to the listener
+	 */
+	private final Thread deliveryThread;
+
+	/**
+	 * Whether the subscription was cancelled
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructor. Starts the delivery thread.
+	 *
+	 * @param listener
+	 *            the listener receiving the fills
+	 * @param capacity
+	 *            the maximum amount of batches waiting to be delivered
+	 */
+	public FillSubscription(final FillListener listener, final int capacity) {
+		this.listener = listener;
+		pendingBatches = new ArrayBlockingQueue<List<Fill>>(capacity);
+
+		deliveryThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				deliverBatches();
+			}
+
+		}, "fills-" + listener.getClass().getName());
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+	}
+
+	/**
+	 * Queues a batch of fills for delivery, without ever blocking
+	 *
+	 * @param fills
+	 *            the batch of fills of a book, not empty
+	 * @return true if the batch was queued, false if it was dropped
+	 */
+	boolean offer(final List<Fill> fills) {
+		if (cancelled) {
+			return false;
+		}
+		if (pendingBatches.offer(fills)) {
+			return true;
+		}
+		final Fill firstFill = fills.get(0);
+		firstMissedSequences.putIfAbsent(firstFill.getFinancialInstrument(), firstFill.getSequence());
+		droppedBatches.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Delivers the batches to the listener until the subscription is cancelled
+	 */
+	private void deliverBatches() {
+		while (!cancelled) {
+			final List<Fill> fills;
+			try {
+				fills = pendingBatches.poll(DROP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				// cancelled
+				break;
+			}
+
+			try {
+				final int dropped = droppedBatches.getAndSet(0);
+				if (dropped > 0) {
+					listener.onFillsDropped(dropped, takeFirstMissedSequences());
+				}
+				if (fills != null) {
+					listener.onFills(fills);
+				}
+			} catch (final RuntimeException e) {
+				// a failing listener must not stop the delivery of the next batches
+				AsyncLogger.error().append("The fill listener failed: ").append(e.toString()).commit();
+			}
+		}
+	}
+
+	/**
+	 * Takes the first sequence numbers dropped, a drop happening meanwhile being
+	 * kept for the next time
+	 *
+	 * @return the first sequence number dropped for each financial instrument
+	 */
+	private Map<FinancialInstrument, Long> takeFirstMissedSequences() {
+		final Map<FinancialInstrument, Long> sequences = new HashMap<FinancialInstrument, Long>();
+		for (final Map.Entry<FinancialInstrument, Long> entry : firstMissedSequences.entrySet()) {
+			if (firstMissedSequences.remove(entry.getKey(), entry.getValue())) {
+				sequences.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return sequences;
+	}
+
+	/**
+	 * Cancels the subscription. The batches not delivered yet are discarded.
+	 */
+	public void cancel() {
+		cancelled = true;
+		deliveryThread.interrupt();
+		pendingBatches.clear();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public FillListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the amount of batches waiting to be delivered
+	 */
+	public int getPendingBatches() {
+		return pendingBatches.size();
+	}
+
+}
@@ -0,0 +1,132 @@
+package model.intake;
+
+import java.util.Arrays;
+
+/**
+ * The client order ids already seen by a book, to detect the orders sent
+ * twice. A hash set of primitive longs with open addressing (linear probing):
+ * 8 bytes per slot, at most half of the slots used, and no object per id, so
+ * looking an id up or adding it allocates nothing (except when the table
+ * grows, which {@link #ensureCapacity(int)} avoids).
+ *
+ * 0 is not a client order id (it is the empty slot). Not thread safe: used by
+ * the thread adding the orders to the book.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class ClientOrderIdSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] slots = new long[MIN_CAPACITY];
+
+	private int mask = MIN_CAPACITY - 1;
+
+	private int size;
+
+	/**
+	 * Adds an id, unless already there
+	 *
+	 * @param clientOrderId
+	 *            the id, not 0
+	 * @return true if the id was added, false if it was already in the set
+	 */
+	public boolean add(final long clientOrderId) {
+		if (clientOrderId == 0) {
+			throw new IllegalArgumentException("0 is not a client order id");
+		}
+		int slot = hash(clientOrderId) & mask;
+		long current;
+		while ((current = slots[slot]) != 0) {
+			if (current == clientOrderId) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = clientOrderId;
+		if (++size > (slots.length >>> 1)) {
+			resize(slots.length << 1);
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the set holds an id
+	 *
+	 * @param clientOrderId
+	 *            the id
+	 * @return true if the id is in the set
+	 */
+	public boolean contains(final long clientOrderId) {
+		if (clientOrderId == 0) {
+			return false;
+		}
+		int slot = hash(clientOrderId) & mask;
+		long current;
+		while ((current = slots[slot]) != 0) {
+			if (current == clientOrderId) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Makes room for an amount of ids, so that adding them does not grow the
+	 * table
+	 *
+	 * @param expectedIds
+	 *            the amount of ids
+	 */
+	public void ensureCapacity(final int expectedIds) {
+		final int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedIds) - 1) << 2;
+		if (capacity > slots.length) {
+			resize(capacity);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all the ids, keeping the table
+	 */
+	public void clear() {
+		Arrays.fill(slots, 0);
+		size = 0;
+	}
+
+	private void resize(final int capacity) {
+		final long[] oldSlots = slots;
+		slots = new long[capacity];
+		mask = capacity - 1;
+		for (final long clientOrderId : oldSlots) {
+			if (clientOrderId != 0) {
+				int slot = hash(clientOrderId) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = clientOrderId;
+			}
+		}
+	}
+
+	/**
+	 * Spreads the bits of an id (finaliser of MurmurHash3), the client ids being
+	 * often sequential
+	 */
+	private static int hash(final long clientOrderId) {
+		long h = clientOrderId;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+}
@@ -0,0 +1,92 @@
+package model.intake;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket limiting the rate of a flow of orders: a sustained rate, with
+ * bursts up to a given amount of orders. Taking a token never blocks nor
+ * locks.
+ *
+ * The bucket is held as a single time, the time at which it would be full
+ * again (the generic cell rate algorithm): each token taken pushes it one
+ * interval further, and a token can be taken as long as that time is less
+ * than a burst ahead of now.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class TokenBucket {
+
+	private final double ordersPerSecond;
+
+	private final int burst;
+
+	/**
+	 * The time between two tokens
+	 */
+	private final long intervalNanos;
+
+	/**
+	 * How far ahead of now the time of the bucket can go
+	 */
+	private final long toleranceNanos;
+
+	private final AtomicLong fullAtNanos;
+
+	/**
+	 * Constructor. The bucket starts full.
+	 *
+	 * @param ordersPerSecond
+	 *            the sustained rate, strictly positive
+	 * @param burst
+	 *            the amount of orders which can be taken at once, at least 1
+	 */
+	public TokenBucket(final double ordersPerSecond, final int burst) {
+		if (!(ordersPerSecond > 0) || (burst < 1)) {
+			throw new IllegalArgumentException("The rate must be positive and the burst at least 1");
+		}
+		this.ordersPerSecond = ordersPerSecond;
+		this.burst = burst;
+		intervalNanos = Math.max(1, Math.round(1e9 / ordersPerSecond));
+		toleranceNanos = (burst - 1) * intervalNanos;
+		fullAtNanos = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token if there is one
+	 *
+	 * @return true if the token was taken, false if the rate is exceeded
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			final long now = System.nanoTime();
+			final long fullAt = fullAtNanos.get();
+			final long start = ((fullAt - now) > 0 ? fullAt : now);
+			if ((start - now) > toleranceNanos) {
+				return false;
+			}
+			if (fullAtNanos.compareAndSet(fullAt, start + intervalNanos)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns how long until a token can be taken
+	 *
+	 * @return the delay in nanoseconds, 0 if a token can be taken now
+	 */
+	public long nanosUntilAvailable() {
+		return Math.max(0, fullAtNanos.get() - System.nanoTime() - toleranceNanos);
+	}
+
+	public double getOrdersPerSecond() {
+		return ordersPerSecond;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+}
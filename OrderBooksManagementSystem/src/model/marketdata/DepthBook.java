@@ -0,0 +1,298 @@
+package model.marketdata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import model.FinancialInstrument;
+import model.orders.LimitOrder;
+
+/**
+ * Keeps the aggregated demand per limit price of a book up to date as orders
+ * are added and validated, and publishes only the levels that changed. The
+ * cost of an update therefore depends on the amount of changed levels, not on
+ * the size of the book.
+ *
+ * The updates are only queued to the subscriptions while the lock of the depth
+ * book is held, in the order of their sequence numbers; each subscription calls
+ * its listener on its own thread, so a slow listener never delays the intake.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class DepthBook {
+
+	/**
+	 * A level being aggregated
+	 */
+	private static class Level {
+
+		private final double limitPrice;
+
+		private int demand = 0;
+
+		private int validDemand = 0;
+
+		private int orderCount = 0;
+
+		/**
+		 * Whether the level changed since the last delta
+		 */
+		private boolean dirty = false;
+
+		private Level(final double limitPrice) {
+			this.limitPrice = limitPrice;
+		}
+
+		private DepthLevel toDepthLevel() {
+			return new DepthLevel(limitPrice, demand, validDemand, orderCount);
+		}
+
+	}
+
+	/**
+	 * The financial instrument of the book
+	 */
+	private final FinancialInstrument financialInstrument;
+
+	/**
+	 * The levels, in an open addressing hash table keyed by the limit price of
+	 * the level. Finding the level of an order does not box the price, so adding
+	 * an order to an existing level does not allocate anything.
+	 */
+	private Level[] levelTable = new Level[16];
+
+	/**
+	 * The amount of levels in the table
+	 */
+	private int levelCount = 0;
+
+	/**
+	 * The levels changed since the last delta
+	 */
+	private final ArrayList<Level> dirtyLevels = new ArrayList<Level>();
+
+	/**
+	 * The sequence number of the last delta
+	 */
+	private long sequence = 0;
+
+	/**
+	 * The subscriptions
+	 */
+	private final CopyOnWriteArrayList<MarketDataSubscription> subscriptions = new CopyOnWriteArrayList<MarketDataSubscription>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument of the book
+	 */
+	public DepthBook(final FinancialInstrument financialInstrument) {
+		this.financialInstrument = financialInstrument;
+	}
+
+	/**
+	 * Adds a subscription. Its listener first receives a snapshot of the book,
+	 * then the following deltas. The same subscription can be added to several
+	 * depth books, to listen to several books.
+	 *
+	 * @param subscription
+	 *            the subscription
+	 */
+	public synchronized void subscribe(final MarketDataSubscription subscription) {
+		if (subscriptions.addIfAbsent(subscription)) {
+			subscription.offer(buildSnapshot());
+		}
+	}
+
+	public void unsubscribe(final MarketDataSubscription subscription) {
+		subscriptions.remove(subscription);
+	}
+
+	/**
+	 * Adds a limit order to its level and publishes the delta
+	 *
+	 * @param order
+	 *            the added order
+	 */
+	public synchronized void onLimitOrderAdded(final LimitOrder order) {
+		final Level level = findOrCreateLevel(order.getLimitPrice());
+		level.demand += order.getRequestedQuantity();
+		level.orderCount++;
+		if (order.isValid()) {
+			level.validDemand += order.getRequestedQuantity();
+		}
+		markDirty(level);
+		publishDelta();
+	}
+
+	/**
+	 * Updates the valid demand of the level of an order whose validity changed.
+	 * The delta is only published by {@link #publishDelta()}, so that a
+	 * validation run changing many orders produces a single delta.
+	 *
+	 * @param order
+	 *            the order, already having its new validity
+	 */
+	public synchronized void onValidityChanged(final LimitOrder order) {
+		final Level level = levelTable[findSlot(levelTable, order.getLimitPrice())];
+		if (level != null) {
+			level.validDemand += (order.isValid() ? order.getRequestedQuantity() : -order.getRequestedQuantity());
+			markDirty(level);
+		}
+	}
+
+	/**
+	 * Publishes the levels changed since the last delta, if any
+	 */
+	public synchronized void publishDelta() {
+		if (dirtyLevels.isEmpty()) {
+			return;
+		}
+
+		sequence++;
+
+		// the delta is only built if somebody listens
+		if (subscriptions.isEmpty()) {
+			for (int i = 0; i < dirtyLevels.size(); i++) {
+				dirtyLevels.get(i).dirty = false;
+			}
+		} else {
+			final ArrayList<DepthLevel> changedLevels = new ArrayList<DepthLevel>(dirtyLevels.size());
+			for (int i = 0; i < dirtyLevels.size(); i++) {
+				final Level level = dirtyLevels.get(i);
+				changedLevels.add(level.toDepthLevel());
+				level.dirty = false;
+			}
+
+			final DepthUpdate delta = new DepthUpdate(financialInstrument, sequence, false,
+					Collections.unmodifiableList(changedLevels));
+			offer(delta);
+		}
+		dirtyLevels.clear();
+	}
+
+	/**
+	 * Publishes a full snapshot to all the listeners, for the ones which joined
+	 * late or missed deltas
+	 */
+	public synchronized void publishSnapshot() {
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+
+		// pending changes go in a delta first, so that the snapshot has the sequence
+		// number of the last delta
+		publishDelta();
+		offer(buildSnapshot());
+	}
+
+	/**
+	 * Returns the current levels
+	 *
+	 * @return all the levels, in no particular order
+	 */
+	public synchronized List<DepthLevel> getLevels() {
+		final ArrayList<DepthLevel> depthLevels = new ArrayList<DepthLevel>(levelCount);
+		for (final Level level : levelTable) {
+			if (level != null) {
+				depthLevels.add(level.toDepthLevel());
+			}
+		}
+		return depthLevels;
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Queues an update to all the subscriptions, without blocking. The cancelled
+	 * subscriptions are removed.
+	 *
+	 * @param update
+	 *            the update
+	 */
+	private void offer(final DepthUpdate update) {
+		for (final MarketDataSubscription subscription : subscriptions) {
+			if (subscription.isCancelled()) {
+				subscriptions.remove(subscription);
+			} else {
+				subscription.offer(update);
+			}
+		}
+	}
+
+	/**
+	 * Builds a snapshot of all the levels
+	 *
+	 * @return the snapshot
+	 */
+	private DepthUpdate buildSnapshot() {
+		return new DepthUpdate(financialInstrument, sequence, true, Collections.unmodifiableList(getLevels()));
+	}
+
+	/**
+	 * Returns the level of a limit price, creating it if needed
+	 *
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the level
+	 */
+	private Level findOrCreateLevel(final double limitPrice) {
+		int slot = findSlot(levelTable, limitPrice);
+		if (levelTable[slot] == null) {
+			// the table is kept at most half full, so that probing stays short
+			if ((levelCount + 1) * 2 > levelTable.length) {
+				final Level[] biggerTable = new Level[levelTable.length * 2];
+				for (final Level level : levelTable) {
+					if (level != null) {
+						biggerTable[findSlot(biggerTable, level.limitPrice)] = level;
+					}
+				}
+				levelTable = biggerTable;
+				slot = findSlot(levelTable, limitPrice);
+			}
+			levelTable[slot] = new Level(limitPrice);
+			levelCount++;
+		}
+		return levelTable[slot];
+	}
+
+	/**
+	 * Returns the slot of a limit price in a table: either the slot of its level,
+	 * or the empty slot where its level should go
+	 *
+	 * @param table
+	 *            the table, whose length is a power of 2 and which is never full
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the slot
+	 */
+	private static int findSlot(final Level[] table, final double limitPrice) {
+		final long bits = Double.doubleToLongBits(limitPrice);
+		final int mask = table.length - 1;
+		int slot = (int) ((bits ^ (bits >>> 32)) * 0x9E3779B9L >>> 16) & mask;
+		while ((table[slot] != null) && (Double.doubleToLongBits(table[slot].limitPrice) != bits)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Adds a level to the changed levels, once
+	 *
+	 * @param level
+	 *            the changed level
+	 */
+	private void markDirty(final Level level) {
+		if (!level.dirty) {
+			level.dirty = true;
+			dirtyLevels.add(level);
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package model.marketdata;
+
+/**
+ * The aggregated demand of the limit orders of a book sharing the same limit
+ * price
+ *
+ *
+ * @author Jules
+ *
+ */
+public class DepthLevel {
+
+	/**
+	 * The limit price of the level
+	 */
+	private final double limitPrice;
+
+	/**
+	 * The total quantity requested by the orders of the level
+	 */
+	private final int demand;
+
+	/**
+	 * The quantity requested by the valid orders of the level
+	 */
+	private final int validDemand;
+
+	/**
+	 * The amount of orders in the level
+	 */
+	private final int orderCount;
+
+	/**
+	 * Constructor
+	 *
+	 * @param limitPrice
+	 *            the limit price of the level
+	 * @param demand
+	 *            the total quantity requested by the orders of the level
+	 * @param validDemand
+	 *            the quantity requested by the valid orders of the level
+	 * @param orderCount
+	 *            the amount of orders in the level
+	 */
+	public DepthLevel(final double limitPrice, final int demand, final int validDemand, final int orderCount) {
+		this.limitPrice = limitPrice;
+		this.demand = demand;
+		this.validDemand = validDemand;
+		this.orderCount = orderCount;
+	}
+
+	public double getLimitPrice() {
+		return limitPrice;
+	}
+
+	public int getDemand() {
+		return demand;
+	}
+
+	public int getValidDemand() {
+		return validDemand;
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+}
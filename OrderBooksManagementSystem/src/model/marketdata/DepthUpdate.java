@@ -0,0 +1,78 @@
+package model.marketdata;
+
+import java.util.List;
+
+import model.FinancialInstrument;
+
+/**
+ * An update of the aggregated depth of a book. It is either a delta (only the
+ * levels that changed since the previous update) or a full snapshot (all the
+ * levels of the book).
+ *
+ * The sequence numbers of a book increase by one at each delta. A snapshot
+ * carries the sequence number of the last delta it includes, so a late joiner
+ * applies the snapshot, then the deltas having a bigger sequence number.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class DepthUpdate {
+
+	/**
+	 * The financial instrument of the book
+	 */
+	private final FinancialInstrument financialInstrument;
+
+	/**
+	 * The sequence number
+	 */
+	private final long sequence;
+
+	/**
+	 * Whether the update is a full snapshot or a delta
+	 */
+	private final boolean snapshot;
+
+	/**
+	 * The changed levels (delta) or all the levels (snapshot)
+	 */
+	private final List<DepthLevel> levels;
+
+	/**
+	 * Constructor
+	 *
+	 * @param financialInstrument
+	 *            the financial instrument of the book
+	 * @param sequence
+	 *            the sequence number
+	 * @param snapshot
+	 *            whether the update is a full snapshot or a delta
+	 * @param levels
+	 *            the changed levels (delta) or all the levels (snapshot)
+	 */
+	public DepthUpdate(final FinancialInstrument financialInstrument, final long sequence, final boolean snapshot,
+			final List<DepthLevel> levels) {
+		this.financialInstrument = financialInstrument;
+		this.sequence = sequence;
+		this.snapshot = snapshot;
+		this.levels = levels;
+	}
+
+	public FinancialInstrument getFinancialInstrument() {
+		return financialInstrument;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	public List<DepthLevel> getLevels() {
+		return levels;
+	}
+
+}
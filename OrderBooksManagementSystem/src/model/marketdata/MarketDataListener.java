@@ -0,0 +1,22 @@
+package model.marketdata;
+
+/**
+ * Receives the depth updates of the books it subscribed to. The updates are
+ * delivered on the thread of its {@link MarketDataSubscription}, in the order
+ * of their sequence numbers for each book.
+ *
+ *
+ * @author Jules
+ *
+ */
+public interface MarketDataListener {
+
+	/**
+	 * Called for each delta and each snapshot
+	 *
+	 * @param update
+	 *            the update
+	 */
+	void onDepthUpdate(DepthUpdate update);
+
+}
@@ -0,0 +1,143 @@
+package model.marketdata;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import logging.AsyncLogger;
+
+/**
+ * A subscription of a listener to the depth of one or several books. Each
+ * subscription has its own bounded queue and its own thread delivering the
+ * updates, so a slow listener never holds the lock of a depth book: when its
+ * queue is full, the new updates are dropped (and counted) instead of blocking
+ * the thread adding the orders. A listener which missed deltas sees a gap in
+ * the sequence numbers and catches up with the next periodic snapshot.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class MarketDataSubscription {
+
+	/**
+	 * The listener receiving the updates
+	 */
+	private final MarketDataListener listener;
+
+	/**
+	 * The updates waiting to be delivered
+	 */
+	private final BlockingQueue<DepthUpdate> pendingUpdates;
+
+	/**
+	 * The amount of updates dropped since the subscription started
+	 */
+	private final AtomicLong droppedUpdates = new AtomicLong();
+
+	/**
+	 * The thread delivering the updates to the listener
+	 */
+	private final Thread deliveryThread;
+
+	/**
+	 * Whether the subscription was cancelled
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructor. Starts the delivery thread.
+	 *
+	 * @param listener
+	 *            the listener receiving the updates
+	 * @param capacity
+	 *            the maximum amount of updates waiting to be delivered
+	 */
+	public MarketDataSubscription(final MarketDataListener listener, final int capacity) {
+		this.listener = listener;
+		pendingUpdates = new ArrayBlockingQueue<DepthUpdate>(capacity);
+
+		deliveryThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				deliverUpdates();
+			}
+
+		}, "market-data-" + listener.getClass().getName());
+		deliveryThread.setDaemon(true);
+		deliveryThread.start();
+	}
+
+	/**
+	 * Queues an update for delivery, without ever blocking
+	 *
+	 * @param update
+	 *            the update
+	 * @return true if the update was queued, false if it was dropped
+	 */
+	boolean offer(final DepthUpdate update) {
+		if (cancelled) {
+			return false;
+		}
+		if (pendingUpdates.offer(update)) {
+			return true;
+		}
+		droppedUpdates.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Delivers the updates to the listener until the subscription is cancelled
+	 */
+	private void deliverUpdates() {
+		while (!cancelled) {
+			final DepthUpdate update;
+			try {
+				update = pendingUpdates.take();
+			} catch (final InterruptedException e) {
+				// cancelled
+				break;
+			}
+
+			try {
+				listener.onDepthUpdate(update);
+			} catch (final RuntimeException e) {
+				// a failing listener must not stop the delivery of the next updates
+				AsyncLogger.error().append("The market data listener failed: ").append(e.toString()).commit();
+			}
+		}
+	}
+
+	/**
+	 * Cancels the subscription. The updates not delivered yet are discarded.
+	 */
+	public void cancel() {
+		cancelled = true;
+		deliveryThread.interrupt();
+		pendingUpdates.clear();
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public MarketDataListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the amount of updates waiting to be delivered
+	 */
+	public int getPendingUpdates() {
+		return pendingUpdates.size();
+	}
+
+	/**
+	 * @return the amount of updates dropped because the listener was too slow
+	 */
+	public long getDroppedUpdates() {
+		return droppedUpdates.get();
+	}
+
+}
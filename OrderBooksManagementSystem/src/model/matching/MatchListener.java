@@ -0,0 +1,26 @@
+package model.matching;
+
+import model.orders.Order;
+
+/**
+ * Notified of each match done by a {@link PriceLevelBook}
+ *
+ *
+ * @author Jules
+ *
+ */
+public interface MatchListener {
+
+	/**
+	 * Called each time an order receives units of an execution
+	 *
+	 * @param order
+	 *            the order, whose satisfied quantity is already updated
+	 * @param quantity
+	 *            the quantity received by the order in this match
+	 * @param price
+	 *            the price of a unit
+	 */
+	void onMatch(Order order, int quantity, double price);
+
+}
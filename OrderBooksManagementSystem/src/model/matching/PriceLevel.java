@@ -0,0 +1,102 @@
+package model.matching;
+
+import java.util.ArrayDeque;
+
+import model.orders.Order;
+
+/**
+ * The orders of a book resting at the same price, in arrival order (first in,
+ * first out)
+ *
+ *
+ * @author Jules
+ *
+ */
+public class PriceLevel {
+
+	/**
+	 * The price of the level
+	 */
+	private final double price;
+
+	/**
+	 * The resting orders, the oldest first
+	 */
+	private final ArrayDeque<Order> orders = new ArrayDeque<Order>();
+
+	/**
+	 * The quantity still expected by the orders of the level
+	 */
+	private int openQuantity = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param price
+	 *            the price of the level
+	 */
+	public PriceLevel(final double price) {
+		this.price = price;
+	}
+
+	/**
+	 * Adds an order at the end of the queue
+	 *
+	 * @param order
+	 *            the order
+	 */
+	void add(final Order order) {
+		orders.addLast(order);
+		openQuantity += order.getRequestedQuantity() - order.getSatisfiedQuantity();
+	}
+
+	/**
+	 * Gives units to the orders of the level, the oldest first, until either the
+	 * quantity or the level is exhausted. Fully satisfied orders leave the level.
+	 *
+	 * @param quantity
+	 *            the quantity available
+	 * @param executionPrice
+	 *            the price of a unit
+	 * @param listener
+	 *            notified of each match
+	 * @return the quantity given to the orders of the level
+	 */
+	int match(final int quantity, final double executionPrice, final MatchListener listener) {
+		int remainingQuantity = quantity;
+
+		while ((remainingQuantity > 0) && !orders.isEmpty()) {
+			final Order order = orders.peekFirst();
+			final int openOrderQuantity = order.getRequestedQuantity() - order.getSatisfiedQuantity();
+			final int matchedQuantity = Math.min(openOrderQuantity, remainingQuantity);
+
+			order.setSatisfiedQuantity(order.getSatisfiedQuantity() + matchedQuantity);
+			remainingQuantity -= matchedQuantity;
+			openQuantity -= matchedQuantity;
+
+			if (matchedQuantity == openOrderQuantity) {
+				orders.pollFirst();
+			}
+			listener.onMatch(order, matchedQuantity, executionPrice);
+		}
+
+		return quantity - remainingQuantity;
+	}
+
+	public double getPrice() {
+		return price;
+	}
+
+	public int getOpenQuantity() {
+		return openQuantity;
+	}
+
+	public int getOrderCount() {
+		return orders.size();
+	}
+
+	public boolean isEmpty() {
+		return orders.isEmpty();
+	}
+
+}
@@ -0,0 +1,144 @@
+package model.matching;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import model.orders.LimitOrder;
+import model.orders.MarketOrder;
+import model.orders.Order;
+
+/**
+ * The orders of a book waiting for executions, sorted by price-time priority:
+ * market orders first (they accept any price), then limit orders from the
+ * highest limit price to the lowest, and within a price, the oldest order
+ * first.
+ *
+ * Used by the books in continuous mode, where each execution is matched as
+ * soon as it arrives.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class PriceLevelBook {
+
+	/**
+	 * The market orders, which have priority over all limit orders
+	 */
+	private final PriceLevel marketLevel = new PriceLevel(Double.POSITIVE_INFINITY);
+
+	/**
+	 * The levels of the limit orders, the highest limit price first
+	 */
+	private final TreeMap<Double, PriceLevel> limitLevels = new TreeMap<Double, PriceLevel>(
+			Collections.reverseOrder());
+
+	/**
+	 * Adds an order at the end of the queue of its price
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void addLimitOrder(final LimitOrder order) {
+		PriceLevel level = limitLevels.get(order.getLimitPrice());
+		if (level == null) {
+			level = new PriceLevel(order.getLimitPrice());
+			limitLevels.put(order.getLimitPrice(), level);
+		}
+		level.add(order);
+	}
+
+	/**
+	 * Adds a market order at the end of the queue of market orders
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void addMarketOrder(final MarketOrder order) {
+		marketLevel.add(order);
+	}
+
+	/**
+	 * Matches an execution against the resting orders. Only the orders accepting
+	 * the execution price get units: the market orders and the limit orders
+	 * whose limit price is higher than or equal to the execution price.
+	 *
+	 * @param quantity
+	 *            the quantity offered by the execution
+	 * @param executionPrice
+	 *            the price of a unit
+	 * @param listener
+	 *            notified of each match
+	 * @return the quantity given to the orders, at most the offered quantity
+	 */
+	public int match(final int quantity, final double executionPrice, final MatchListener listener) {
+		int remainingQuantity = quantity - marketLevel.match(quantity, executionPrice, listener);
+
+		while (remainingQuantity > 0) {
+			final Map.Entry<Double, PriceLevel> bestEntry = limitLevels.firstEntry();
+			if ((bestEntry == null) || (bestEntry.getKey() < executionPrice)) {
+				break;
+			}
+
+			final PriceLevel bestLevel = bestEntry.getValue();
+			remainingQuantity -= bestLevel.match(remainingQuantity, executionPrice, listener);
+			if (bestLevel.isEmpty()) {
+				limitLevels.pollFirstEntry();
+			}
+		}
+
+		return quantity - remainingQuantity;
+	}
+
+	/**
+	 * Returns the highest limit price among the resting limit orders
+	 *
+	 * @return the best limit price, or NaN if no limit order rests in the book
+	 */
+	public double getBestLimitPrice() {
+		return (limitLevels.isEmpty() ? Double.NaN : limitLevels.firstKey());
+	}
+
+	/**
+	 * Returns the quantity still expected by all the resting orders
+	 *
+	 * @return the open quantity
+	 */
+	public int getOpenQuantity() {
+		int openQuantity = marketLevel.getOpenQuantity();
+		for (final PriceLevel level : limitLevels.values()) {
+			openQuantity += level.getOpenQuantity();
+		}
+		return openQuantity;
+	}
+
+	/**
+	 * Returns the amount of orders still resting in the book
+	 *
+	 * @return the amount of resting orders
+	 */
+	public int getRestingOrderCount() {
+		int restingOrderCount = marketLevel.getOrderCount();
+		for (final PriceLevel level : limitLevels.values()) {
+			restingOrderCount += level.getOrderCount();
+		}
+		return restingOrderCount;
+	}
+
+	/**
+	 * Returns the level of a limit price
+	 *
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the level, or null if no order rests at this price
+	 */
+	public PriceLevel getLimitLevel(final double limitPrice) {
+		return limitLevels.get(limitPrice);
+	}
+
+	public PriceLevel getMarketLevel() {
+		return marketLevel;
+	}
+
+}
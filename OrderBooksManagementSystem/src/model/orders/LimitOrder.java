@@ -14,7 +14,7 @@ public class LimitOrder extends Order {
 	 * pay)
 	 *
 	 */
-	private final double limitPrice;
+	private double limitPrice;
 
 	/**
 	 * Constructor. A Limit Order is an order only executed if its price is higher
@@ -26,6 +26,19 @@ public class LimitOrder extends Order {
 		this.limitPrice = limitPrice;
 	}
 
+	/**
+	 * (Re)initialises a recycled limit order
+	 *
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 */
+	void reuse(final int quantity, final double limitPrice) {
+		reuse(quantity);
+		this.limitPrice = limitPrice;
+	}
+
 	public double getLimitPrice() {
 		return limitPrice;
 	}
@@ -17,6 +17,17 @@ public class MarketOrder extends Order {
 	 */
 	public MarketOrder(final int requestedQuantity) {
 		super(requestedQuantity);
+	}
+
+	/**
+	 * (Re)initialises the market order, which is always valid
+	 *
+	 * @param requestedQuantity
+	 *            the quantity requested
+	 */
+	@Override
+	void reuse(final int requestedQuantity) {
+		super.reuse(requestedQuantity);
 		isValid = true;
 	}
 
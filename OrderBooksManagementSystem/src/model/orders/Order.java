@@ -2,6 +2,7 @@ package model.orders;
 
 import java.util.Date;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Abstract mother class for all types of orders
@@ -12,9 +13,13 @@ import java.util.UUID;
 public abstract class Order {
 
 	/**
-	 * The unique identifier, automatically generated
+	 * The unique identifier, automatically generated. It is a random (version 4)
+	 * UUID kept as two longs, so that creating or recycling an order does not
+	 * allocate a UUID object.
 	 */
-	protected final UUID id = UUID.randomUUID();
+	protected long idMostSignificantBits;
+
+	protected long idLeastSignificantBits;
 
 	/**
 	 * The quantity (= units amount) of financial instruments requested
@@ -27,11 +32,18 @@ public abstract class Order {
 	protected int satisfiedQuantity = 0;
 
 	/**
-	 * The entry date on an order book. I assumed that it is the same as the order
-	 * creation time (after all, the order is added to the book right after being
-	 * created).
+	 * The sum of the prices of the units given to the order. The units of an
+	 * order may come from executions at different prices (continuous and
+	 * incremental modes), so its average price is kept apart from any execution.
 	 */
-	protected final Date entryDate = new Date();
+	protected double filledNotional = 0;
+
+	/**
+	 * The entry date on an order book, in milliseconds since the epoch. I assumed
+	 * that it is the same as the order creation time (after all, the order is
+	 * added to the book right after being created).
+	 */
+	protected long entryTimeMillis;
 
 	/**
 	 * Whether an order is valid or not. "The order is invalid if it has a limit
@@ -39,6 +51,32 @@ public abstract class Order {
 	 */
 	protected boolean isValid;
 
+	/**
+	 * The id given to the order by the client who sent it, 0 if none. A book
+	 * refuses a second order with the same client id, so that a client can send
+	 * an order again when unsure it was received.
+	 */
+	protected long clientOrderId;
+
+	/**
+	 * The account the order is sent for, 0 if none. The open quantity and
+	 * notional of an account are limited by the pre-trade risk check of the
+	 * books.
+	 */
+	protected long accountId;
+
+	/**
+	 * The units the order still has reserved in the pre-trade risk check of its
+	 * book, given back as it is filled and when its book is processed. 0 if the
+	 * order was not checked.
+	 */
+	protected int reservedQuantity;
+
+	/**
+	 * The position of the order in the book it was added to, -1 if none
+	 */
+	protected int bookIndex;
+
 	/**
 	 * Constructor, used in inheriting classes.
 	 *
@@ -48,7 +86,32 @@ public abstract class Order {
 	 *
 	 */
 	public Order(final int requestedQuantity) {
+		reuse(requestedQuantity);
+	}
+
+	/**
+	 * (Re)initialises the order as if it was just created: new id, new entry date,
+	 * nothing satisfied. Used by the constructor and by the {@link OrderPool} to
+	 * recycle orders.
+	 *
+	 * @param requestedQuantity
+	 *            the quantity (= units amount) of financial instruments requested
+	 *            for this order
+	 */
+	void reuse(final int requestedQuantity) {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		// version 4 and IETF variant bits, as in UUID.randomUUID()
+		idMostSignificantBits = (random.nextLong() & 0xffffffffffff0fffL) | 0x0000000000004000L;
+		idLeastSignificantBits = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+		entryTimeMillis = System.currentTimeMillis();
 		this.requestedQuantity = requestedQuantity;
+		satisfiedQuantity = 0;
+		filledNotional = 0;
+		isValid = false;
+		clientOrderId = 0;
+		accountId = 0;
+		reservedQuantity = 0;
+		bookIndex = -1;
 	}
 
 	public int getSatisfiedQuantity() {
@@ -59,6 +122,32 @@ public abstract class Order {
 		this.satisfiedQuantity = satisfiedQuantity;
 	}
 
+	/**
+	 * Records the price of units given to the order. The satisfied quantity is
+	 * changed apart.
+	 *
+	 * @param quantity
+	 *            the units, negative if units are taken back
+	 * @param price
+	 *            the price of a unit
+	 */
+	public void recordFillPrice(final int quantity, final double price) {
+		filledNotional += quantity * price;
+	}
+
+	public double getFilledNotional() {
+		return filledNotional;
+	}
+
+	/**
+	 * Returns the average price of the units given to the order
+	 *
+	 * @return the average price, 0 if the order got nothing
+	 */
+	public double getAverageFillPrice() {
+		return (satisfiedQuantity == 0 ? 0 : filledNotional / satisfiedQuantity);
+	}
+
 	public boolean isValid() {
 		return isValid;
 	}
@@ -67,16 +156,84 @@ public abstract class Order {
 		this.isValid = isValid;
 	}
 
+	/**
+	 * Returns the id. A new UUID object is created at each call, so prefer
+	 * {@link #hasId(UUID)} to compare ids.
+	 *
+	 * @return the id
+	 */
 	public UUID getId() {
-		return id;
+		return new UUID(idMostSignificantBits, idLeastSignificantBits);
+	}
+
+	/**
+	 * Whether the order has a given id, without creating any object
+	 *
+	 * @param orderId
+	 *            the id
+	 * @return true if the order has this id
+	 */
+	public boolean hasId(final UUID orderId) {
+		return (idMostSignificantBits == orderId.getMostSignificantBits())
+				&& (idLeastSignificantBits == orderId.getLeastSignificantBits());
+	}
+
+	public long getIdMostSignificantBits() {
+		return idMostSignificantBits;
+	}
+
+	public long getIdLeastSignificantBits() {
+		return idLeastSignificantBits;
+	}
+
+	public long getClientOrderId() {
+		return clientOrderId;
+	}
+
+	public void setClientOrderId(final long clientOrderId) {
+		this.clientOrderId = clientOrderId;
+	}
+
+	public long getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(final long accountId) {
+		this.accountId = accountId;
+	}
+
+	public int getReservedQuantity() {
+		return reservedQuantity;
+	}
+
+	public void setReservedQuantity(final int reservedQuantity) {
+		this.reservedQuantity = reservedQuantity;
+	}
+
+	public int getBookIndex() {
+		return bookIndex;
+	}
+
+	public void setBookIndex(final int bookIndex) {
+		this.bookIndex = bookIndex;
 	}
 
 	public int getRequestedQuantity() {
 		return requestedQuantity;
 	}
 
+	/**
+	 * Returns the entry date. A new Date object is created at each call, so
+	 * prefer {@link #getEntryTimeMillis()} to compare dates.
+	 *
+	 * @return the entry date
+	 */
 	public Date getEntryDate() {
-		return entryDate;
+		return new Date(entryTimeMillis);
+	}
+
+	public long getEntryTimeMillis() {
+		return entryTimeMillis;
 	}
 
 }
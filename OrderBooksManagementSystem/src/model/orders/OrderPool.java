@@ -0,0 +1,205 @@
+package model.orders;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of orders, created in advance or given back once nothing can reach
+ * them anymore, so that the new orders are recycled instead of being
+ * allocated. Once the pool is warm, creating an order does not allocate
+ * anything.
+ *
+ * The orders of an archived book are given back once their owner (the store of
+ * the book, referenced by the book, by each of its snapshots and by its
+ * history) is not reachable anymore: the garbage collector tells it through a
+ * weak reference, and the orders are taken back by the next
+ * {@link #acquireLimitOrder(int, double)} or
+ * {@link #acquireMarketOrder(int)}. Nothing else may keep an order of a book
+ * once the book is archived.
+ *
+ * The pool is not thread safe: it must be used by a single intake thread. Only
+ * {@link #recycleWhenUnreachable(Object, List)} can be called from any thread.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderPool {
+
+	/**
+	 * The orders of an owner, given back once the owner is not reachable anymore
+	 */
+	private static final class RecyclableOrders extends WeakReference<Object> {
+
+		private final List<? extends Order> orders;
+
+		private RecyclableOrders(final Object owner, final List<? extends Order> orders,
+				final ReferenceQueue<Object> queue) {
+			super(owner, queue);
+			this.orders = orders;
+		}
+
+	}
+
+	/**
+	 * The free limit orders
+	 */
+	private final ArrayDeque<LimitOrder> freeLimitOrders = new ArrayDeque<LimitOrder>();
+
+	/**
+	 * The free market orders
+	 */
+	private final ArrayDeque<MarketOrder> freeMarketOrders = new ArrayDeque<MarketOrder>();
+
+	/**
+	 * The orders waiting for their owner to be unreachable. Kept here so that the
+	 * weak references themselves are not collected.
+	 */
+	private final Set<RecyclableOrders> pendingOrders = Collections
+			.newSetFromMap(new ConcurrentHashMap<RecyclableOrders, Boolean>());
+
+	/**
+	 * Receives the pending orders whose owner is not reachable anymore
+	 */
+	private final ReferenceQueue<Object> unreachableOwners = new ReferenceQueue<Object>();
+
+	/**
+	 * Creates orders in advance, e.g. before the books open, so that the first
+	 * orders of the day do not allocate either
+	 *
+	 * @param limitOrders
+	 *            the amount of limit orders to create
+	 * @param marketOrders
+	 *            the amount of market orders to create
+	 */
+	public void preallocate(final int limitOrders, final int marketOrders) {
+		for (int i = 0; i < limitOrders; i++) {
+			freeLimitOrders.push(new LimitOrder(0, 0));
+		}
+		for (int i = 0; i < marketOrders; i++) {
+			freeMarketOrders.push(new MarketOrder(0));
+		}
+	}
+
+	/**
+	 * Returns a limit order, recycled if possible
+	 *
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price
+	 * @return the limit order, as if it was just created
+	 */
+	public LimitOrder acquireLimitOrder(final int quantity, final double limitPrice) {
+		LimitOrder order = freeLimitOrders.poll();
+		if ((order == null) && (recycleUnreachableOrders() > 0)) {
+			order = freeLimitOrders.poll();
+		}
+		if (order == null) {
+			return new LimitOrder(quantity, limitPrice);
+		}
+		order.reuse(quantity, limitPrice);
+		return order;
+	}
+
+	/**
+	 * Returns a market order, recycled if possible
+	 *
+	 * @param quantity
+	 *            the quantity requested
+	 * @return the market order, as if it was just created
+	 */
+	public MarketOrder acquireMarketOrder(final int quantity) {
+		MarketOrder order = freeMarketOrders.poll();
+		if ((order == null) && (recycleUnreachableOrders() > 0)) {
+			order = freeMarketOrders.poll();
+		}
+		if (order == null) {
+			return new MarketOrder(quantity);
+		}
+		order.reuse(quantity);
+		return order;
+	}
+
+	/**
+	 * Gives an order back to the pool. The order must not be used anymore by
+	 * anybody.
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void release(final Order order) {
+		if (order instanceof LimitOrder) {
+			freeLimitOrders.push((LimitOrder) order);
+		} else if (order instanceof MarketOrder) {
+			freeMarketOrders.push((MarketOrder) order);
+		}
+	}
+
+	/**
+	 * Gives orders back to the pool once their owner cannot be reached anymore.
+	 * Can be called from any thread.
+	 *
+	 * @param owner
+	 *            the object through which the orders can be used (the store of
+	 *            their book)
+	 * @param orders
+	 *            the orders, not changed anymore
+	 */
+	public void recycleWhenUnreachable(final Object owner, final List<? extends Order> orders) {
+		if (!orders.isEmpty()) {
+			pendingOrders.add(new RecyclableOrders(owner, orders, unreachableOwners));
+		}
+	}
+
+	/**
+	 * Takes back the pending orders whose owner is not reachable anymore. Done
+	 * when the pool is empty, and can be done by the intake thread while it is
+	 * idle.
+	 *
+	 * @return the amount of orders taken back
+	 */
+	public int recycleUnreachableOrders() {
+		int recycled = 0;
+		RecyclableOrders unreachable;
+		while ((unreachable = (RecyclableOrders) unreachableOwners.poll()) != null) {
+			pendingOrders.remove(unreachable);
+			for (final Order order : unreachable.orders) {
+				release(order);
+			}
+			recycled += unreachable.orders.size();
+		}
+		return recycled;
+	}
+
+	/**
+	 * @return the amount of free limit orders
+	 */
+	public int getFreeLimitOrders() {
+		return freeLimitOrders.size();
+	}
+
+	/**
+	 * @return the amount of free market orders
+	 */
+	public int getFreeMarketOrders() {
+		return freeMarketOrders.size();
+	}
+
+	/**
+	 * @return the amount of orders waiting for their owner to be unreachable
+	 */
+	public int getPendingOrders() {
+		int pending = 0;
+		for (final RecyclableOrders recyclableOrders : pendingOrders) {
+			pending += recyclableOrders.orders.size();
+		}
+		return pending;
+	}
+
+}
@@ -0,0 +1,137 @@
+package model.query;
+
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * The secondary indexes of one book. Built on demand by the queries and
+ * shared by them: each index is immutable and replaced as a whole, so
+ * concurrent queries at worst build the same index twice.
+ *
+ *
+ * @author Jules
+ *
+ */
+final class BookIndex {
+
+	/**
+	 * The amount of orders left out of the sorted indexes (and scanned by the
+	 * queries) before the indexes are extended, at least
+	 */
+	private static final int MIN_UNINDEXED_ORDERS = 1024;
+
+	private volatile SortedColumn quantities;
+
+	private volatile SortedColumn entryTimes;
+
+	private volatile ValidityColumn validities;
+
+	/**
+	 * The valid and the invalid orders of a book at one version
+	 */
+	static final class ValidityColumn {
+
+		final long version;
+
+		final int[] validPositions;
+
+		final int validCount;
+
+		final int[] invalidPositions;
+
+		final int invalidCount;
+
+		ValidityColumn(final OrderBookSnapshot snapshot) {
+			final int orderCount = snapshot.getOrderCount();
+			int valid = 0;
+			for (int i = 0; i < orderCount; i++) {
+				if (snapshot.isValid(i)) {
+					valid++;
+				}
+			}
+			validPositions = new int[valid];
+			invalidPositions = new int[orderCount - valid];
+			int validIndex = 0;
+			int invalidIndex = 0;
+			for (int i = 0; i < orderCount; i++) {
+				if (snapshot.isValid(i)) {
+					validPositions[validIndex++] = i;
+				} else {
+					invalidPositions[invalidIndex++] = i;
+				}
+			}
+			validCount = valid;
+			invalidCount = orderCount - valid;
+			version = snapshot.getVersion();
+		}
+
+	}
+
+	/**
+	 * Returns the sorted index of a book, extended first if too many orders were
+	 * added since it was built
+	 *
+	 * @param type
+	 *            REQUESTED_QUANTITY or ENTRY_TIME
+	 * @param snapshot
+	 *            the snapshot of the book the query runs on
+	 * @return the index, covering the first orders of the book: fewer than the
+	 *         snapshot has, or more if a newer snapshot extended it
+	 */
+	SortedColumn getSortedColumn(final IndexType type, final OrderBookSnapshot snapshot) {
+		SortedColumn column = (type == IndexType.ENTRY_TIME ? entryTimes : quantities);
+		final int unindexed = snapshot.getOrderCount() - (column == null ? 0 : column.getCount());
+		if ((column == null) || (unindexed > Math.max(MIN_UNINDEXED_ORDERS, column.getCount() >>> 3))) {
+			column = SortedColumn.extend(type, column, snapshot);
+			if (type == IndexType.ENTRY_TIME) {
+				entryTimes = column;
+			} else {
+				quantities = column;
+			}
+		}
+		return column;
+	}
+
+	/**
+	 * Returns the validity index of a book at the version of a snapshot. The
+	 * index is rebuilt when the book is not open: the validity of the orders only
+	 * changes once the book is closed, and an open book changes too often.
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book the query runs on
+	 * @return the index, or null if there is none for this version
+	 */
+	ValidityColumn getValidityColumn(final OrderBookSnapshot snapshot) {
+		ValidityColumn column = validities;
+		if ((column == null) || (column.version != snapshot.getVersion())) {
+			if (snapshot.isOpen()) {
+				return null;
+			}
+			column = new ValidityColumn(snapshot);
+			validities = column;
+		}
+		return column;
+	}
+
+	/**
+	 * Frees an index which is not used anymore
+	 *
+	 * @param type
+	 *            the type of the index
+	 */
+	void drop(final IndexType type) {
+		switch (type) {
+			case REQUESTED_QUANTITY:
+				quantities = null;
+				break;
+			case ENTRY_TIME:
+				entryTimes = null;
+				break;
+			case VALIDITY:
+				validities = null;
+				break;
+			default:
+				break;
+		}
+	}
+
+}
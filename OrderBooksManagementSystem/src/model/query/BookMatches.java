@@ -0,0 +1,80 @@
+package model.query;
+
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * The orders of one book matching a query: their indexes in the snapshot the
+ * query ran on, in ascending order
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookMatches {
+
+	private final String symbol;
+
+	private final OrderBookSnapshot snapshot;
+
+	private final int[] indexes;
+
+	private final int count;
+
+	BookMatches(final String symbol, final OrderBookSnapshot snapshot, final int[] indexes, final int count) {
+		this.symbol = symbol;
+		this.snapshot = snapshot;
+		this.indexes = indexes;
+		this.count = count;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	/**
+	 * Returns the snapshot of the book the query ran on, to read the values of
+	 * the matching orders
+	 *
+	 * @return the snapshot
+	 */
+	public OrderBookSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the amount of matching orders
+	 *
+	 * @return the amount of matching orders
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the index in the snapshot of a matching order
+	 *
+	 * @param match
+	 *            the number of the match, from 0 to {@link #size()} - 1
+	 * @return the index of the order in the snapshot
+	 */
+	public int getIndex(final int match) {
+		if ((match < 0) || (match >= count)) {
+			throw new IndexOutOfBoundsException("Index: " + match + ", Size: " + count);
+		}
+		return indexes[match];
+	}
+
+	/**
+	 * Returns the quantity the matching orders did not receive
+	 *
+	 * @return the sum of the requested minus the satisfied quantities
+	 */
+	public long getUnfilledQuantity() {
+		long unfilledQuantity = 0;
+		for (int i = 0; i < count; i++) {
+			unfilledQuantity += snapshot.getRequestedQuantity(indexes[i]) - snapshot.getSatisfiedQuantity(indexes[i]);
+		}
+		return unfilledQuantity;
+	}
+
+}
@@ -0,0 +1,27 @@
+package model.query;
+
+/**
+ * The secondary indexes an {@link OrderQueryEngine} can keep for each book
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum IndexType {
+
+	/**
+	 * The orders sorted by requested quantity
+	 */
+	REQUESTED_QUANTITY,
+
+	/**
+	 * The orders sorted by entry time
+	 */
+	ENTRY_TIME,
+
+	/**
+	 * The valid and the invalid orders, as of the last change of the book
+	 */
+	VALIDITY;
+
+}
@@ -0,0 +1,218 @@
+package model.query;
+
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * The conditions of a query on the orders of the books. All conditions must
+ * hold for an order to match; a condition left unset does not filter
+ * anything. The conditions are set by chaining the methods:
+ *
+ * <pre>
+ * new OrderQuery().limitOrders().valid(false).requestedQuantityAtLeast(100)
+ * </pre>
+ *
+ * The conditions on the requested quantity, the entry time and the validity
+ * can be answered by the indexes of the {@link OrderQueryEngine}.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderQuery {
+
+	private String symbol;
+
+	private int minRequestedQuantity = Integer.MIN_VALUE;
+
+	private int maxRequestedQuantity = Integer.MAX_VALUE;
+
+	private long enteredFromMillis = Long.MIN_VALUE;
+
+	private long enteredToMillis = Long.MAX_VALUE;
+
+	/**
+	 * The validity of the orders, null for any
+	 */
+	private Boolean valid;
+
+	/**
+	 * True for the limit orders only, false for the market orders only, null for
+	 * both
+	 */
+	private Boolean limitOrder;
+
+	private boolean unfilledOnly;
+
+	/**
+	 * Only the orders of the book of an instrument
+	 *
+	 * @param symbol
+	 *            the symbol of the instrument
+	 * @return the query
+	 */
+	public OrderQuery instrument(final String symbol) {
+		this.symbol = symbol;
+		return this;
+	}
+
+	/**
+	 * Only the orders requesting a quantity in a range
+	 *
+	 * @param min
+	 *            the minimum quantity, included
+	 * @param max
+	 *            the maximum quantity, included
+	 * @return the query
+	 */
+	public OrderQuery requestedQuantityBetween(final int min, final int max) {
+		minRequestedQuantity = min;
+		maxRequestedQuantity = max;
+		return this;
+	}
+
+	/**
+	 * Only the orders requesting at least a quantity
+	 *
+	 * @param min
+	 *            the minimum quantity, included
+	 * @return the query
+	 */
+	public OrderQuery requestedQuantityAtLeast(final int min) {
+		minRequestedQuantity = min;
+		return this;
+	}
+
+	/**
+	 * Only the orders entered in a time window
+	 *
+	 * @param fromMillis
+	 *            the start of the window in milliseconds since the epoch,
+	 *            included
+	 * @param toMillis
+	 *            the end of the window in milliseconds since the epoch, excluded
+	 * @return the query
+	 */
+	public OrderQuery enteredBetween(final long fromMillis, final long toMillis) {
+		enteredFromMillis = fromMillis;
+		enteredToMillis = toMillis - 1;
+		return this;
+	}
+
+	/**
+	 * Only the valid or the invalid orders
+	 *
+	 * @param valid
+	 *            the validity of the orders
+	 * @return the query
+	 */
+	public OrderQuery valid(final boolean valid) {
+		this.valid = valid;
+		return this;
+	}
+
+	/**
+	 * Only the limit orders
+	 *
+	 * @return the query
+	 */
+	public OrderQuery limitOrders() {
+		limitOrder = Boolean.TRUE;
+		return this;
+	}
+
+	/**
+	 * Only the market orders
+	 *
+	 * @return the query
+	 */
+	public OrderQuery marketOrders() {
+		limitOrder = Boolean.FALSE;
+		return this;
+	}
+
+	/**
+	 * Only the orders which did not receive all the quantity they requested
+	 *
+	 * @return the query
+	 */
+	public OrderQuery unfilled() {
+		unfilledOnly = true;
+		return this;
+	}
+
+	/**
+	 * Whether an order of a snapshot matches all the conditions, except the
+	 * instrument
+	 *
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @param index
+	 *            the index of the order
+	 * @return true if the order matches
+	 */
+	public boolean matches(final OrderBookSnapshot snapshot, final int index) {
+		final int requestedQuantity = snapshot.getRequestedQuantity(index);
+		if ((requestedQuantity < minRequestedQuantity) || (requestedQuantity > maxRequestedQuantity)) {
+			return false;
+		}
+		final long entryTimeMillis = snapshot.getEntryTimeMillis(index);
+		if ((entryTimeMillis < enteredFromMillis) || (entryTimeMillis > enteredToMillis)) {
+			return false;
+		}
+		if ((valid != null) && (snapshot.isValid(index) != valid.booleanValue())) {
+			return false;
+		}
+		if ((limitOrder != null) && (snapshot.isLimitOrder(index) != limitOrder.booleanValue())) {
+			return false;
+		}
+		return !unfilledOnly || (snapshot.getSatisfiedQuantity(index) < requestedQuantity);
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public int getMinRequestedQuantity() {
+		return minRequestedQuantity;
+	}
+
+	public int getMaxRequestedQuantity() {
+		return maxRequestedQuantity;
+	}
+
+	public long getEnteredFromMillis() {
+		return enteredFromMillis;
+	}
+
+	/**
+	 * Returns the end of the time window
+	 *
+	 * @return the last millisecond of the window, included
+	 */
+	public long getEnteredToMillis() {
+		return enteredToMillis;
+	}
+
+	public Boolean getValid() {
+		return valid;
+	}
+
+	/**
+	 * Whether the query filters on the requested quantity
+	 *
+	 * @return true if a bound is set
+	 */
+	boolean hasQuantityCondition() {
+		return (minRequestedQuantity != Integer.MIN_VALUE) || (maxRequestedQuantity != Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Whether the query filters on the entry time
+	 *
+	 * @return true if a bound is set
+	 */
+	boolean hasTimeCondition() {
+		return (enteredFromMillis != Long.MIN_VALUE) || (enteredToMillis != Long.MAX_VALUE);
+	}
+
+}
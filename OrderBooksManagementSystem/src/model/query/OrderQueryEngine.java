@@ -0,0 +1,352 @@
+package model.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.OrderBook;
+import model.OrderBookManager;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Runs {@link OrderQuery}s across the books of a manager. The books are
+ * scanned in parallel on a fork-join pool, each on a snapshot of its own, and
+ * the conditions of the query are checked on the columns of the snapshots
+ * without touching the order objects.
+ *
+ * The indexes created with {@link #createIndex(IndexType)} are built for each
+ * book by the first query which can use them, then kept up to date by the
+ * following ones. For each book, the query reads the candidates of the most
+ * selective usable index, or scans the whole book when no index narrows it
+ * down enough.
+ *
+ * Can be used from any thread. The books added or archived while a query runs
+ * may be missed by it.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderQueryEngine {
+
+	private final OrderBookManager orderBookManager;
+
+	private final ForkJoinPool pool;
+
+	private final ConcurrentHashMap<OrderBook, BookIndex> indexes = new ConcurrentHashMap<OrderBook, BookIndex>();
+
+	/**
+	 * The types of index to use, replaced as a whole when changed
+	 */
+	private volatile EnumSet<IndexType> indexTypes = EnumSet.noneOf(IndexType.class);
+
+	/**
+	 * Constructor, with one thread per processor
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books to query
+	 */
+	public OrderQueryEngine(final OrderBookManager orderBookManager) {
+		this(orderBookManager, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books to query
+	 * @param parallelism
+	 *            the amount of threads scanning the books
+	 */
+	public OrderQueryEngine(final OrderBookManager orderBookManager, final int parallelism) {
+		this.orderBookManager = orderBookManager;
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Uses an index for the next queries
+	 *
+	 * @param type
+	 *            the type of index
+	 */
+	public synchronized void createIndex(final IndexType type) {
+		final EnumSet<IndexType> types = EnumSet.copyOf(indexTypes);
+		types.add(type);
+		indexTypes = types;
+	}
+
+	/**
+	 * Stops using an index and frees it
+	 *
+	 * @param type
+	 *            the type of index
+	 */
+	public synchronized void dropIndex(final IndexType type) {
+		final EnumSet<IndexType> types = EnumSet.copyOf(indexTypes);
+		types.remove(type);
+		indexTypes = types;
+		for (final BookIndex bookIndex : indexes.values()) {
+			bookIndex.drop(type);
+		}
+	}
+
+	/**
+	 * Finds the orders matching a query
+	 *
+	 * @param query
+	 *            the query
+	 * @return the matching orders of each book having some, in the order of the
+	 *         books of the manager
+	 */
+	public List<BookMatches> find(final OrderQuery query) {
+		final OrderBook[] orderBooks = getOrderBooks(query);
+		final BookMatches[] results = new BookMatches[orderBooks.length];
+		if (orderBooks.length > 0) {
+			pool.invoke(new ScanTask(orderBooks, 0, orderBooks.length, query, indexTypes, results));
+		}
+
+		final ArrayList<BookMatches> matches = new ArrayList<BookMatches>();
+		for (final BookMatches bookMatches : results) {
+			if ((bookMatches != null) && (bookMatches.size() > 0)) {
+				matches.add(bookMatches);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Counts the orders matching a query
+	 *
+	 * @param query
+	 *            the query
+	 * @return the amount of matching orders in all books
+	 */
+	public long count(final OrderQuery query) {
+		long count = 0;
+		for (final BookMatches bookMatches : find(query)) {
+			count += bookMatches.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the quantity not received by the orders matching a query, per
+	 * instrument
+	 *
+	 * @param query
+	 *            the query, e.g. new OrderQuery().valid(true)
+	 * @return the unfilled quantity per symbol, for the instruments having
+	 *         matching orders
+	 */
+	public HashMap<String, Long> getUnfilledQuantityPerInstrument(final OrderQuery query) {
+		final HashMap<String, Long> unfilledQuantities = new HashMap<String, Long>();
+		for (final BookMatches bookMatches : find(query)) {
+			unfilledQuantities.put(bookMatches.getSymbol(), bookMatches.getUnfilledQuantity());
+		}
+		return unfilledQuantities;
+	}
+
+	/**
+	 * Stops the threads of the engine
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Returns the books a query runs on, and forgets the indexes of the books
+	 * which left the manager
+	 */
+	private OrderBook[] getOrderBooks(final OrderQuery query) {
+		if (query.getSymbol() != null) {
+			final OrderBook orderBook = orderBookManager.getOrderBook(query.getSymbol());
+			return (orderBook == null ? new OrderBook[0] : new OrderBook[] { orderBook });
+		}
+
+		// a copy: the list may change meanwhile, which at worst leaves empty slots
+		final OrderBook[] copy = orderBookManager.getOrderBooks().toArray(new OrderBook[0]);
+		int count = 0;
+		for (final OrderBook orderBook : copy) {
+			if (orderBook != null) {
+				copy[count++] = orderBook;
+			}
+		}
+		final OrderBook[] orderBooks = Arrays.copyOf(copy, count);
+
+		if (indexes.size() > orderBooks.length) {
+			final Map<OrderBook, Boolean> current = new IdentityHashMap<OrderBook, Boolean>();
+			for (final OrderBook orderBook : orderBooks) {
+				current.put(orderBook, Boolean.TRUE);
+			}
+			indexes.keySet().retainAll(Collections.newSetFromMap(current));
+		}
+		return orderBooks;
+	}
+
+	/**
+	 * Finds the matching orders of one book in a snapshot of it. The indexes of
+	 * the book are shared by all its snapshots: one extended by a query on a
+	 * newer snapshot also covers orders this snapshot does not have, which are
+	 * skipped.
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @param snapshot
+	 *            a snapshot of the book, possibly older than its indexes
+	 * @param query
+	 *            the query
+	 * @param types
+	 *            the types of index usable
+	 * @return the matching orders of the snapshot
+	 */
+	BookMatches scan(final OrderBook orderBook, final OrderBookSnapshot snapshot, final OrderQuery query,
+			final EnumSet<IndexType> types) {
+		final int orderCount = snapshot.getOrderCount();
+
+		BookIndex bookIndex = null;
+		if (!types.isEmpty()) {
+			bookIndex = indexes.get(orderBook);
+			if (bookIndex == null) {
+				final BookIndex newIndex = new BookIndex();
+				bookIndex = indexes.putIfAbsent(orderBook, newIndex);
+				if (bookIndex == null) {
+					bookIndex = newIndex;
+				}
+			}
+		}
+
+		// the plan reading the least candidates, a full scan by default
+		int bestCost = orderCount;
+		SortedColumn bestColumn = null;
+		int bestFrom = 0;
+		int bestTo = 0;
+		BookIndex.ValidityColumn bestValidity = null;
+
+		if ((bookIndex != null) && types.contains(IndexType.REQUESTED_QUANTITY) && query.hasQuantityCondition()) {
+			final SortedColumn column = bookIndex.getSortedColumn(IndexType.REQUESTED_QUANTITY, snapshot);
+			final int from = column.lowerBound(query.getMinRequestedQuantity());
+			final int to = column.upperBound(query.getMaxRequestedQuantity());
+			final int cost = Math.max(0, to - from) + (orderCount - Math.min(column.getCount(), orderCount));
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestColumn = column;
+				bestFrom = from;
+				bestTo = to;
+			}
+		}
+		if ((bookIndex != null) && types.contains(IndexType.ENTRY_TIME) && query.hasTimeCondition()) {
+			final SortedColumn column = bookIndex.getSortedColumn(IndexType.ENTRY_TIME, snapshot);
+			final int from = column.lowerBound(query.getEnteredFromMillis());
+			final int to = column.upperBound(query.getEnteredToMillis());
+			final int cost = Math.max(0, to - from) + (orderCount - Math.min(column.getCount(), orderCount));
+			if (cost < bestCost) {
+				bestCost = cost;
+				bestColumn = column;
+				bestFrom = from;
+				bestTo = to;
+			}
+		}
+		if ((bookIndex != null) && types.contains(IndexType.VALIDITY) && (query.getValid() != null)) {
+			final BookIndex.ValidityColumn column = bookIndex.getValidityColumn(snapshot);
+			if (column != null) {
+				final int cost = (query.getValid().booleanValue() ? column.validCount : column.invalidCount);
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestColumn = null;
+					bestValidity = column;
+				}
+			}
+		}
+
+		int[] matches = new int[16];
+		int matchCount = 0;
+		if (bestValidity != null) {
+			final boolean valid = query.getValid().booleanValue();
+			final int[] positions = (valid ? bestValidity.validPositions : bestValidity.invalidPositions);
+			final int count = (valid ? bestValidity.validCount : bestValidity.invalidCount);
+			for (int i = 0; i < count; i++) {
+				if (query.matches(snapshot, positions[i])) {
+					matches = add(matches, matchCount++, positions[i]);
+				}
+			}
+		} else if (bestColumn != null) {
+			for (int rank = bestFrom; rank < bestTo; rank++) {
+				final int position = bestColumn.getPosition(rank);
+				if ((position < orderCount) && query.matches(snapshot, position)) {
+					matches = add(matches, matchCount++, position);
+				}
+			}
+			for (int i = Math.min(bestColumn.getCount(), orderCount); i < orderCount; i++) {
+				if (query.matches(snapshot, i)) {
+					matches = add(matches, matchCount++, i);
+				}
+			}
+			Arrays.sort(matches, 0, matchCount);
+		} else {
+			for (int i = 0; i < orderCount; i++) {
+				if (query.matches(snapshot, i)) {
+					matches = add(matches, matchCount++, i);
+				}
+			}
+		}
+
+		return new BookMatches(orderBook.getFinancialInstrument().getName(), snapshot, matches, matchCount);
+	}
+
+	private static int[] add(final int[] matches, final int count, final int position) {
+		final int[] target = (count == matches.length ? Arrays.copyOf(matches, count << 1) : matches);
+		target[count] = position;
+		return target;
+	}
+
+	/**
+	 * Scans a range of books, splitting it in halves until one book is left
+	 */
+	private final class ScanTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final OrderBook[] orderBooks;
+
+		private final int from;
+
+		private final int to;
+
+		private final OrderQuery query;
+
+		private final EnumSet<IndexType> types;
+
+		private final BookMatches[] results;
+
+		ScanTask(final OrderBook[] orderBooks, final int from, final int to, final OrderQuery query,
+				final EnumSet<IndexType> types, final BookMatches[] results) {
+			this.orderBooks = orderBooks;
+			this.from = from;
+			this.to = to;
+			this.query = query;
+			this.types = types;
+			this.results = results;
+		}
+
+		@Override
+		protected void compute() {
+			if ((to - from) == 1) {
+				results[from] = scan(orderBooks[from], orderBooks[from].snapshot(), query, types);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new ScanTask(orderBooks, from, middle, query, types, results),
+					new ScanTask(orderBooks, middle, to, query, types, results));
+		}
+
+	}
+
+}
@@ -0,0 +1,195 @@
+package model.query;
+
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * A secondary index of a book: the positions of its first orders sorted by a
+ * value which never changes once the order is added (the requested quantity or
+ * the entry time). Since the orders are only appended, the index stays true
+ * for the orders it covers and is extended by merging the new orders into it.
+ *
+ * Never modified once built.
+ *
+ *
+ * @author Jules
+ *
+ */
+final class SortedColumn {
+
+	private final IndexType type;
+
+	private final long[] keys;
+
+	private final int[] positions;
+
+	/**
+	 * The amount of orders covered: the orders 0 to count - 1 of the book
+	 */
+	private final int count;
+
+	private SortedColumn(final IndexType type, final long[] keys, final int[] positions, final int count) {
+		this.type = type;
+		this.keys = keys;
+		this.positions = positions;
+		this.count = count;
+	}
+
+	/**
+	 * Builds the index covering all the orders of a snapshot, from a previous
+	 * index covering the first ones
+	 *
+	 * @param type
+	 *            REQUESTED_QUANTITY or ENTRY_TIME
+	 * @param previous
+	 *            the previous index, null if none
+	 * @param snapshot
+	 *            the snapshot of the book
+	 * @return the new index
+	 */
+	static SortedColumn extend(final IndexType type, final SortedColumn previous, final OrderBookSnapshot snapshot) {
+		final int start = (previous == null ? 0 : previous.count);
+		final int orderCount = snapshot.getOrderCount();
+		final int tailCount = orderCount - start;
+
+		final long[] tailKeys = new long[tailCount];
+		final int[] tailPositions = new int[tailCount];
+		for (int i = 0; i < tailCount; i++) {
+			tailKeys[i] = key(type, snapshot, start + i);
+			tailPositions[i] = start + i;
+		}
+		sort(tailKeys, tailPositions, tailCount);
+		if (previous == null) {
+			return new SortedColumn(type, tailKeys, tailPositions, orderCount);
+		}
+
+		final long[] keys = new long[orderCount];
+		final int[] positions = new int[orderCount];
+		merge(previous.keys, previous.positions, 0, start, tailKeys, tailPositions, 0, tailCount, keys, positions, 0);
+		return new SortedColumn(type, keys, positions, orderCount);
+	}
+
+	/**
+	 * The value an order is sorted by
+	 */
+	static long key(final IndexType type, final OrderBookSnapshot snapshot, final int index) {
+		return (type == IndexType.ENTRY_TIME ? snapshot.getEntryTimeMillis(index)
+				: snapshot.getRequestedQuantity(index));
+	}
+
+	IndexType getType() {
+		return type;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	int getPosition(final int rank) {
+		return positions[rank];
+	}
+
+	/**
+	 * Returns the rank of the first order whose value is at least a key
+	 *
+	 * @param key
+	 *            the key
+	 * @return the rank, count if none
+	 */
+	int lowerBound(final long key) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (keys[middle] < key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the rank of the first order whose value is above a key
+	 *
+	 * @param key
+	 *            the key
+	 * @return the rank, count if none
+	 */
+	int upperBound(final long key) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (keys[middle] <= key) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Sorts the positions by key with a stable bottom-up merge sort, without
+	 * boxing. The runs already in order (e.g. the entry times, nearly sorted) are
+	 * not merged.
+	 */
+	private static void sort(final long[] keys, final int[] positions, final int length) {
+		long[] sourceKeys = keys;
+		int[] sourcePositions = positions;
+		long[] targetKeys = new long[length];
+		int[] targetPositions = new int[length];
+
+		for (int width = 1; width < length; width <<= 1) {
+			for (int from = 0; from < length; from += width << 1) {
+				final int middle = Math.min(from + width, length);
+				final int to = Math.min(from + (width << 1), length);
+				if ((middle < to) && (sourceKeys[middle - 1] > sourceKeys[middle])) {
+					merge(sourceKeys, sourcePositions, from, middle, sourceKeys, sourcePositions, middle, to,
+							targetKeys, targetPositions, from);
+				} else {
+					System.arraycopy(sourceKeys, from, targetKeys, from, to - from);
+					System.arraycopy(sourcePositions, from, targetPositions, from, to - from);
+				}
+			}
+			final long[] swappedKeys = sourceKeys;
+			final int[] swappedPositions = sourcePositions;
+			sourceKeys = targetKeys;
+			sourcePositions = targetPositions;
+			targetKeys = swappedKeys;
+			targetPositions = swappedPositions;
+		}
+
+		if (sourceKeys != keys) {
+			System.arraycopy(sourceKeys, 0, keys, 0, length);
+			System.arraycopy(sourcePositions, 0, positions, 0, length);
+		}
+	}
+
+	private static void merge(final long[] leftKeys, final int[] leftPositions, final int leftFrom, final int leftTo,
+			final long[] rightKeys, final int[] rightPositions, final int rightFrom, final int rightTo,
+			final long[] keys, final int[] positions, final int from) {
+		int left = leftFrom;
+		int right = rightFrom;
+		int target = from;
+		while ((left < leftTo) && (right < rightTo)) {
+			if (rightKeys[right] < leftKeys[left]) {
+				keys[target] = rightKeys[right];
+				positions[target++] = rightPositions[right++];
+			} else {
+				keys[target] = leftKeys[left];
+				positions[target++] = leftPositions[left++];
+			}
+		}
+		while (left < leftTo) {
+			keys[target] = leftKeys[left];
+			positions[target++] = leftPositions[left++];
+		}
+		while (right < rightTo) {
+			keys[target] = rightKeys[right];
+			positions[target++] = rightPositions[right++];
+		}
+	}
+
+}
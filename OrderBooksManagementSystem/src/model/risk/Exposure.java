@@ -0,0 +1,82 @@
+package model.risk;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What an account has open, as a whole or for one instrument: the units of its
+ * orders not filled yet, and their notional. Both counters are atomic, so
+ * orders of the same account can be checked from several threads without
+ * locking.
+ *
+ *
+ * @author Jules
+ *
+ */
+final class Exposure {
+
+	private final AtomicLong openQuantity = new AtomicLong();
+
+	/**
+	 * In ten-thousandths, see {@link RiskLimits#NOTIONAL_SCALE}
+	 */
+	private final AtomicLong openScaledNotional = new AtomicLong();
+
+	/**
+	 * Reserves a quantity and its notional if both stay within the limits. If
+	 * the quantity fits but the notional does not, the quantity is given back:
+	 * another thread can briefly see it reserved, which can only make it refuse
+	 * an order, never exceed a limit.
+	 *
+	 * @param quantity
+	 *            the units
+	 * @param scaledNotional
+	 *            their notional, scaled
+	 * @param limits
+	 *            the limits
+	 * @return true if reserved
+	 */
+	boolean tryReserve(final long quantity, final long scaledNotional, final RiskLimits limits) {
+		if (!tryAdd(openQuantity, quantity, limits.getMaxOpenQuantity())) {
+			return false;
+		}
+		if (!tryAdd(openScaledNotional, scaledNotional, limits.getMaxOpenScaledNotional())) {
+			openQuantity.addAndGet(-quantity);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gives back what was reserved
+	 *
+	 * @param quantity
+	 *            the units
+	 * @param scaledNotional
+	 *            their notional, scaled
+	 */
+	void release(final long quantity, final long scaledNotional) {
+		openQuantity.addAndGet(-quantity);
+		openScaledNotional.addAndGet(-scaledNotional);
+	}
+
+	private static boolean tryAdd(final AtomicLong counter, final long amount, final long max) {
+		while (true) {
+			final long current = counter.get();
+			if (amount > (max - current)) {
+				return false;
+			}
+			if (counter.compareAndSet(current, current + amount)) {
+				return true;
+			}
+		}
+	}
+
+	long getOpenQuantity() {
+		return openQuantity.get();
+	}
+
+	double getOpenNotional() {
+		return openScaledNotional.get() / RiskLimits.NOTIONAL_SCALE;
+	}
+
+}
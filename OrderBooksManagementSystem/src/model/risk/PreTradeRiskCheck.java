@@ -0,0 +1,197 @@
+package model.risk;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import model.FinancialInstrument;
+import model.orders.LimitOrder;
+import model.orders.Order;
+
+/**
+ * The pre-trade risk stage shared by the books of a manager: an order of an
+ * account is only added to a book if what the account has open stays within
+ * its limits, for the account as a whole and for the instrument of the book.
+ * What an order reserves is given back as it is filled, and what is left when
+ * its book is processed.
+ *
+ * Each account has its own atomic counters, and one pair of counters per
+ * instrument, so the checks of different accounts never contend and those of
+ * one account only on the instrument they share. Nothing is locked and, once
+ * an account traded an instrument, nothing is allocated.
+ *
+ * Market orders have no price before they trade: they count in the open
+ * quantity only. Orders without account (0) and accounts without limits are
+ * not checked.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class PreTradeRiskCheck {
+
+	/**
+	 * The limits and the counters of an account
+	 */
+	private static final class Account {
+
+		final RiskLimits accountLimits;
+
+		final RiskLimits instrumentLimits;
+
+		final Exposure exposure;
+
+		final ConcurrentHashMap<FinancialInstrument, Exposure> exposurePerInstrument;
+
+		Account(final RiskLimits accountLimits, final RiskLimits instrumentLimits, final Exposure exposure,
+				final ConcurrentHashMap<FinancialInstrument, Exposure> exposurePerInstrument) {
+			this.accountLimits = accountLimits;
+			this.instrumentLimits = instrumentLimits;
+			this.exposure = exposure;
+			this.exposurePerInstrument = exposurePerInstrument;
+		}
+
+		Exposure getExposure(final FinancialInstrument financialInstrument) {
+			Exposure instrumentExposure = exposurePerInstrument.get(financialInstrument);
+			if (instrumentExposure == null) {
+				final Exposure newExposure = new Exposure();
+				instrumentExposure = exposurePerInstrument.putIfAbsent(financialInstrument, newExposure);
+				if (instrumentExposure == null) {
+					instrumentExposure = newExposure;
+				}
+			}
+			return instrumentExposure;
+		}
+
+	}
+
+	private final ConcurrentHashMap<Long, Account> accounts = new ConcurrentHashMap<Long, Account>();
+
+	/**
+	 * Sets the limits of an account. What the account has open is kept, so the
+	 * limits can be changed while it trades.
+	 *
+	 * @param accountId
+	 *            the account, not 0
+	 * @param accountLimits
+	 *            the limits of the account over all instruments
+	 * @param instrumentLimits
+	 *            the limits of the account on each instrument
+	 */
+	public void setLimits(final long accountId, final RiskLimits accountLimits, final RiskLimits instrumentLimits) {
+		if (accountId == 0) {
+			throw new IllegalArgumentException("0 is not an account id");
+		}
+		final Account previous = accounts.get(accountId);
+		accounts.put(accountId,
+				(previous == null
+						? new Account(accountLimits, instrumentLimits, new Exposure(),
+								new ConcurrentHashMap<FinancialInstrument, Exposure>())
+						: new Account(accountLimits, instrumentLimits, previous.exposure,
+								previous.exposurePerInstrument)));
+	}
+
+	/**
+	 * Returned by {@link #reserve(long, FinancialInstrument, int, double)} when
+	 * the order exceeds a limit
+	 */
+	public static final int REFUSED = -1;
+
+	/**
+	 * Reserves what an order adds to the exposure of its account, before the
+	 * order is added to its book. What is reserved must be recorded on the order
+	 * ({@link Order#setReservedQuantity(int)}), since only that is given back.
+	 *
+	 * @param accountId
+	 *            the account of the order, 0 if none
+	 * @param financialInstrument
+	 *            the instrument of the book
+	 * @param quantity
+	 *            the quantity requested
+	 * @param limitPrice
+	 *            the limit price, 0 for a market order
+	 * @return the quantity reserved, 0 if the order is not checked (no account,
+	 *         or an account without limits), or {@link #REFUSED} if it exceeds a
+	 *         limit
+	 */
+	public int reserve(final long accountId, final FinancialInstrument financialInstrument, final int quantity,
+			final double limitPrice) {
+		final Account account = (accountId == 0 ? null : accounts.get(accountId));
+		if (account == null) {
+			return 0;
+		}
+		final long scaledNotional = quantity * RiskLimits.scaledPrice(limitPrice);
+		if (!account.exposure.tryReserve(quantity, scaledNotional, account.accountLimits)) {
+			return REFUSED;
+		}
+		if (!account.getExposure(financialInstrument).tryReserve(quantity, scaledNotional,
+				account.instrumentLimits)) {
+			account.exposure.release(quantity, scaledNotional);
+			return REFUSED;
+		}
+		return quantity;
+	}
+
+	/**
+	 * Gives back part of what an order reserved, because it was filled or will
+	 * not be anymore. Only what the order still has reserved is given back, so
+	 * an order added before its account had limits gives back nothing.
+	 *
+	 * @param order
+	 *            the order, its reserved quantity is decreased
+	 * @param financialInstrument
+	 *            the instrument of its book
+	 * @param quantity
+	 *            the units given back
+	 */
+	public void release(final Order order, final FinancialInstrument financialInstrument, final int quantity) {
+		final int releasedQuantity = Math.min(quantity, order.getReservedQuantity());
+		final Account account = accounts.get(order.getAccountId());
+		if ((account == null) || (releasedQuantity <= 0)) {
+			return;
+		}
+		order.setReservedQuantity(order.getReservedQuantity() - releasedQuantity);
+		final long scaledNotional = releasedQuantity * scaledPriceOf(order);
+		account.exposure.release(releasedQuantity, scaledNotional);
+		account.getExposure(financialInstrument).release(releasedQuantity, scaledNotional);
+	}
+
+	/**
+	 * Returns the units an account has open
+	 *
+	 * @param accountId
+	 *            the account
+	 * @param financialInstrument
+	 *            an instrument, or null for all instruments
+	 * @return the open quantity, 0 if the account has no limits
+	 */
+	public long getOpenQuantity(final long accountId, final FinancialInstrument financialInstrument) {
+		final Exposure exposure = getExposure(accountId, financialInstrument);
+		return (exposure == null ? 0 : exposure.getOpenQuantity());
+	}
+
+	/**
+	 * Returns the notional an account has open
+	 *
+	 * @param accountId
+	 *            the account
+	 * @param financialInstrument
+	 *            an instrument, or null for all instruments
+	 * @return the open notional, 0 if the account has no limits
+	 */
+	public double getOpenNotional(final long accountId, final FinancialInstrument financialInstrument) {
+		final Exposure exposure = getExposure(accountId, financialInstrument);
+		return (exposure == null ? 0 : exposure.getOpenNotional());
+	}
+
+	private Exposure getExposure(final long accountId, final FinancialInstrument financialInstrument) {
+		final Account account = accounts.get(accountId);
+		if (account == null) {
+			return null;
+		}
+		return (financialInstrument == null ? account.exposure : account.getExposure(financialInstrument));
+	}
+
+	private static long scaledPriceOf(final Order order) {
+		return (order instanceof LimitOrder ? RiskLimits.scaledPrice(((LimitOrder) order).getLimitPrice()) : 0);
+	}
+
+}
@@ -0,0 +1,77 @@
+package model.risk;
+
+/**
+ * The most an account can have open: a quantity of units and a notional (the
+ * units valued at their limit price), for the account as a whole or for one
+ * instrument
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class RiskLimits {
+
+	/**
+	 * No limit
+	 */
+	public static final RiskLimits NONE = new RiskLimits(Long.MAX_VALUE, Double.POSITIVE_INFINITY);
+
+	/**
+	 * The notionals are counted in ten-thousandths, as longs, so that reserving
+	 * and releasing the same quantity in several parts gives back exactly zero
+	 */
+	static final double NOTIONAL_SCALE = 10000;
+
+	private final long maxOpenQuantity;
+
+	private final double maxOpenNotional;
+
+	private final long maxOpenScaledNotional;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxOpenQuantity
+	 *            the most units open at once
+	 * @param maxOpenNotional
+	 *            the most notional open at once
+	 */
+	public RiskLimits(final long maxOpenQuantity, final double maxOpenNotional) {
+		if ((maxOpenQuantity < 0) || !(maxOpenNotional >= 0)) {
+			throw new IllegalArgumentException("The limits cannot be negative");
+		}
+		this.maxOpenQuantity = maxOpenQuantity;
+		this.maxOpenNotional = maxOpenNotional;
+		maxOpenScaledNotional = (maxOpenNotional >= (Long.MAX_VALUE / NOTIONAL_SCALE) ? Long.MAX_VALUE
+				: (long) (maxOpenNotional * NOTIONAL_SCALE));
+	}
+
+	/**
+	 * Scales the price of a unit for the notional counters
+	 *
+	 * @param price
+	 *            the price
+	 * @return the scaled price
+	 */
+	static long scaledPrice(final double price) {
+		return Math.round(price * NOTIONAL_SCALE);
+	}
+
+	public long getMaxOpenQuantity() {
+		return maxOpenQuantity;
+	}
+
+	public double getMaxOpenNotional() {
+		return maxOpenNotional;
+	}
+
+	long getMaxOpenScaledNotional() {
+		return maxOpenScaledNotional;
+	}
+
+	@Override
+	public String toString() {
+		return "RiskLimits [maxOpenQuantity=" + maxOpenQuantity + ", maxOpenNotional=" + maxOpenNotional + "]";
+	}
+
+}
@@ -0,0 +1,219 @@
+package model.snapshot;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The history of the store of a book, to rebuild its snapshot at any past
+ * time without replaying its events.
+ *
+ * It keeps two timelines, at the millisecond:
+ * <ul>
+ * <li>the checkpoints: every state published by the store, i.e. every change
+ * other than an appended order (new chunk, execution, new validities and
+ * satisfied quantities, processing). The states share their unchanged chunks,
+ * so a checkpoint costs a few references plus the chunks the change copied;</li>
+ * <li>the journal of the appended orders: the amount of orders at the end of
+ * each millisecond in which orders were added.</li>
+ * </ul>
+ * The book at a time T is the last checkpoint up to T restricted to the amount
+ * of orders of the journal at T: the orders added after T are still in the
+ * chunks but beyond that amount. Two binary searches, whatever the size of the
+ * history.
+ *
+ * Only the writer of the store records, without locking: it fills the slot
+ * after the published length of a timeline, then publishes the new length.
+ * When a timeline is full, the writer copies the entries still within the
+ * retention into new arrays and publishes them at once, so the history is
+ * bounded by its retention and a reader always sees a whole timeline.
+ *
+ *
+ * @author Jules
+ *
+ */
+final class BookHistory {
+
+	/**
+	 * The checkpoints. The slots below the length are never modified, except the
+	 * state of the last one, replaced by the last state of its millisecond
+	 * (hence the atomic array).
+	 */
+	private static final class Checkpoints {
+
+		private final long[] times;
+
+		private final AtomicReferenceArray<OrderStore.State> states;
+
+		private volatile int length;
+
+		/**
+		 * Whether older entries were dropped
+		 */
+		private final boolean truncated;
+
+		private Checkpoints(final int capacity, final boolean truncated) {
+			times = new long[capacity];
+			states = new AtomicReferenceArray<OrderStore.State>(capacity);
+			this.truncated = truncated;
+		}
+
+	}
+
+	/**
+	 * The journal, published like the checkpoints
+	 */
+	private static final class Journal {
+
+		private final long[] times;
+
+		private final AtomicIntegerArray orderCounts;
+
+		private volatile int length;
+
+		private final boolean truncated;
+
+		private Journal(final int capacity, final boolean truncated) {
+			times = new long[capacity];
+			orderCounts = new AtomicIntegerArray(capacity);
+			this.truncated = truncated;
+		}
+
+	}
+
+	/**
+	 * How long the history is kept, in milliseconds
+	 */
+	private final long retentionMillis;
+
+	private volatile Checkpoints checkpoints = new Checkpoints(16, false);
+
+	private volatile Journal journal = new Journal(64, false);
+
+	/**
+	 * Constructor
+	 *
+	 * @param retentionMillis
+	 *            how long the history is kept, in milliseconds
+	 */
+	BookHistory(final long retentionMillis) {
+		this.retentionMillis = retentionMillis;
+	}
+
+	/**
+	 * Records a state published by the store
+	 *
+	 * @param timeMillis
+	 *            the time of the publication
+	 * @param state
+	 *            the state
+	 */
+	void recordCheckpoint(final long timeMillis, final OrderStore.State state) {
+		Checkpoints current = checkpoints;
+		final int length = current.length;
+		// the last state of a millisecond is the one of the millisecond
+		if ((length > 0) && (current.times[length - 1] >= timeMillis)) {
+			current.states.lazySet(length - 1, state);
+			return;
+		}
+		if (length == current.times.length) {
+			// the last checkpoint before the retention is still the state at its start
+			final int from = Math.max(0, lastAtOrBefore(current.times, length, timeMillis - retentionMillis));
+			final Checkpoints kept = new Checkpoints(Math.max(16, (length - from) << 1),
+					current.truncated || (from > 0));
+			System.arraycopy(current.times, from, kept.times, 0, length - from);
+			for (int i = from; i < length; i++) {
+				kept.states.lazySet(i - from, current.states.get(i));
+			}
+			kept.length = length - from;
+			checkpoints = kept;
+			current = kept;
+		}
+		final int index = current.length;
+		current.times[index] = timeMillis;
+		current.states.lazySet(index, state);
+		current.length = index + 1;
+	}
+
+	/**
+	 * Records the amount of orders of the store
+	 *
+	 * @param timeMillis
+	 *            the time of the change
+	 * @param orderCount
+	 *            the amount of orders
+	 */
+	void recordOrderCount(final long timeMillis, final int orderCount) {
+		Journal current = journal;
+		final int length = current.length;
+		if ((length > 0) && (current.times[length - 1] >= timeMillis)) {
+			current.orderCounts.lazySet(length - 1, orderCount);
+			return;
+		}
+		if (length == current.times.length) {
+			final int from = Math.max(0, lastAtOrBefore(current.times, length, timeMillis - retentionMillis));
+			final Journal kept = new Journal(Math.max(64, (length - from) << 1), current.truncated || (from > 0));
+			System.arraycopy(current.times, from, kept.times, 0, length - from);
+			for (int i = from; i < length; i++) {
+				kept.orderCounts.lazySet(i - from, current.orderCounts.get(i));
+			}
+			kept.length = length - from;
+			journal = kept;
+			current = kept;
+		}
+		final int index = current.length;
+		current.times[index] = timeMillis;
+		current.orderCounts.lazySet(index, orderCount);
+		current.length = index + 1;
+	}
+
+	/**
+	 * Rebuilds the snapshot of the book at a time. Can be called from any
+	 * thread.
+	 *
+	 * @param timeMillis
+	 *            the time, in milliseconds since the epoch
+	 * @param open
+	 *            whether the book was open at that time
+	 * @return the snapshot, empty if the time is before the creation of the
+	 *         book, or null if the time is older than the retention
+	 */
+	OrderBookSnapshot snapshotAt(final long timeMillis, final boolean open) {
+		// the journal first: orders are only journaled after the checkpoint of their
+		// chunk, so the checkpoints read next have the chunks of all the orders counted
+		final Journal currentJournal = journal;
+		final int entry = lastAtOrBefore(currentJournal.times, currentJournal.length, timeMillis);
+		final int orderCount = (entry < 0 ? 0 : currentJournal.orderCounts.get(entry));
+		final Checkpoints currentCheckpoints = checkpoints;
+		final int checkpoint = lastAtOrBefore(currentCheckpoints.times, currentCheckpoints.length, timeMillis);
+
+		if ((checkpoint < 0) || ((entry < 0) && currentJournal.truncated)) {
+			return (currentCheckpoints.truncated || currentJournal.truncated ? null
+					: new OrderBookSnapshot(OrderStore.EMPTY, 0, open));
+		}
+		final OrderStore.State state = currentCheckpoints.states.get(checkpoint);
+		// an order entered before the last checkpoint is journaled at its entry
+		// time, earlier than the checkpoint of its chunk
+		return new OrderBookSnapshot(state, Math.min(orderCount, state.orders.length << OrderStore.CHUNK_SHIFT),
+				open);
+	}
+
+	/**
+	 * Returns the index of the last time up to a time
+	 *
+	 * @return the index, or -1 if all the times are after it
+	 */
+	private static int lastAtOrBefore(final long[] times, final int length, final long timeMillis) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (times[middle] <= timeMillis) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low - 1;
+	}
+
+}
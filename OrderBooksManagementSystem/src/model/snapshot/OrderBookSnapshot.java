@@ -0,0 +1,645 @@
+package model.snapshot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import model.Execution;
+import model.orders.Order;
+
+/**
+ * An immutable view of a book at one version: its orders (with their validity
+ * and satisfied quantity at that version), its executions and its state.
+ * Taking a snapshot copies nothing, and the statistics computed on a snapshot
+ * are consistent with each other whatever happens to the book meanwhile.
+ *
+ * The orders are read by index, from 0 (the first order added) to
+ * {@link #getOrderCount()} - 1. {@link #getOrder(int)} gives the order object
+ * itself, whose fields keep changing with the book: the other accessors give
+ * the values of the snapshot.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookSnapshot {
+
+	private final OrderStore.State state;
+
+	private final int orderCount;
+
+	private final long version;
+
+	private final boolean open;
+
+	OrderBookSnapshot(final OrderStore.State state, final int orderCount, final boolean open) {
+		this.state = state;
+		this.orderCount = orderCount;
+		this.open = open;
+		// only orders were added since the state was published, one version each
+		version = state.baseVersion + (orderCount - state.baseCount);
+	}
+
+	/**
+	 * Rebuilds the snapshot of a book from its columns, e.g. when the book is
+	 * read back from the disk. The order objects are not rebuilt:
+	 * {@link #getOrder(int)} gives null.
+	 *
+	 * @param version
+	 *            the version of the book
+	 * @param processed
+	 *            whether the book was processed
+	 * @param orderCount
+	 *            the amount of orders
+	 * @param idMostSignificantBits
+	 *            the ids of the orders, first half
+	 * @param idLeastSignificantBits
+	 *            the ids of the orders, second half
+	 * @param requestedQuantities
+	 *            the requested quantities
+	 * @param satisfiedQuantities
+	 *            the satisfied quantities
+	 * @param entryTimes
+	 *            the entry times, in milliseconds since the epoch
+	 * @param limitPrices
+	 *            the limit prices, NaN for the market orders
+	 * @param validities
+	 *            the validities
+	 * @param executions
+	 *            the executions
+	 * @return the snapshot
+	 */
+	public static OrderBookSnapshot restore(final long version, final boolean processed, final int orderCount,
+			final long[] idMostSignificantBits, final long[] idLeastSignificantBits, final int[] requestedQuantities,
+			final int[] satisfiedQuantities, final long[] entryTimes, final double[] limitPrices,
+			final boolean[] validities, final Execution[] executions) {
+		final int chunkCount = (orderCount + OrderStore.CHUNK_MASK) >>> OrderStore.CHUNK_SHIFT;
+		final Order[][] orderChunks = new Order[chunkCount][];
+		final long[][] mostChunks = new long[chunkCount][];
+		final long[][] leastChunks = new long[chunkCount][];
+		final int[][] requestedChunks = new int[chunkCount][];
+		final int[][] satisfiedChunks = new int[chunkCount][];
+		final long[][] entryTimeChunks = new long[chunkCount][];
+		final double[][] limitPriceChunks = new double[chunkCount][];
+		final boolean[][] validityChunks = new boolean[chunkCount][];
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			final int from = chunk << OrderStore.CHUNK_SHIFT;
+			final int to = from + OrderStore.CHUNK_SIZE;
+			orderChunks[chunk] = new Order[OrderStore.CHUNK_SIZE];
+			mostChunks[chunk] = Arrays.copyOfRange(idMostSignificantBits, from, to);
+			leastChunks[chunk] = Arrays.copyOfRange(idLeastSignificantBits, from, to);
+			requestedChunks[chunk] = Arrays.copyOfRange(requestedQuantities, from, to);
+			satisfiedChunks[chunk] = Arrays.copyOfRange(satisfiedQuantities, from, to);
+			entryTimeChunks[chunk] = Arrays.copyOfRange(entryTimes, from, to);
+			limitPriceChunks[chunk] = Arrays.copyOfRange(limitPrices, from, to);
+			validityChunks[chunk] = Arrays.copyOfRange(validities, from, to);
+		}
+		final OrderStore.State state = new OrderStore.State(null, orderChunks, mostChunks, leastChunks, requestedChunks,
+				entryTimeChunks, limitPriceChunks, validityChunks, satisfiedChunks, executions.clone(),
+				executions.length, processed, version, orderCount);
+		return new OrderBookSnapshot(state, orderCount, false);
+	}
+
+	/**
+	 * Returns the version of the book, increased by each change of the book
+	 *
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return the state read by the snapshot, shared with the other snapshots of
+	 *         the same version
+	 */
+	OrderStore.State getState() {
+		return state;
+	}
+
+	public boolean isProcessed() {
+		return state.processed;
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	public Order getOrder(final int index) {
+		checkIndex(index);
+		return state.orders[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	/**
+	 * Returns the id of an order. A new UUID object is created at each call.
+	 *
+	 * @param index
+	 *            the index of the order
+	 * @return the id
+	 */
+	public UUID getOrderId(final int index) {
+		checkIndex(index);
+		final int chunk = index >>> OrderStore.CHUNK_SHIFT;
+		final int offset = index & OrderStore.CHUNK_MASK;
+		return new UUID(state.idMostSignificantBits[chunk][offset], state.idLeastSignificantBits[chunk][offset]);
+	}
+
+	/**
+	 * Returns the first half of the id of an order, without creating any object
+	 *
+	 * @param index
+	 *            the index of the order
+	 * @return the most significant bits of the id
+	 */
+	public long getOrderIdMostSignificantBits(final int index) {
+		checkIndex(index);
+		return state.idMostSignificantBits[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	/**
+	 * Returns the second half of the id of an order, without creating any object
+	 *
+	 * @param index
+	 *            the index of the order
+	 * @return the least significant bits of the id
+	 */
+	public long getOrderIdLeastSignificantBits(final int index) {
+		checkIndex(index);
+		return state.idLeastSignificantBits[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	public int getRequestedQuantity(final int index) {
+		checkIndex(index);
+		return state.requestedQuantities[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	public int getSatisfiedQuantity(final int index) {
+		checkIndex(index);
+		return state.satisfiedQuantities[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	public long getEntryTimeMillis(final int index) {
+		checkIndex(index);
+		return state.entryTimes[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	public boolean isValid(final int index) {
+		checkIndex(index);
+		return state.validities[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	/**
+	 * Whether an order is a limit order
+	 *
+	 * @param index
+	 *            the index of the order
+	 * @return false for a market order
+	 */
+	public boolean isLimitOrder(final int index) {
+		return !Double.isNaN(getLimitPrice(index));
+	}
+
+	/**
+	 * Returns the limit price of an order
+	 *
+	 * @param index
+	 *            the index of the order
+	 * @return the limit price, NaN for a market order
+	 */
+	public double getLimitPrice(final int index) {
+		checkIndex(index);
+		return state.limitPrices[index >>> OrderStore.CHUNK_SHIFT][index & OrderStore.CHUNK_MASK];
+	}
+
+	/**
+	 * Returns the index of an order
+	 *
+	 * @param orderId
+	 *            the id of the order
+	 * @return the index, or -1 if the order is not in the snapshot
+	 */
+	public int indexOf(final UUID orderId) {
+		final long mostSignificantBits = orderId.getMostSignificantBits();
+		final long leastSignificantBits = orderId.getLeastSignificantBits();
+		for (int chunk = 0, start = 0; start < orderCount; chunk++, start += OrderStore.CHUNK_SIZE) {
+			final long[] most = state.idMostSignificantBits[chunk];
+			final long[] least = state.idLeastSignificantBits[chunk];
+			final int end = Math.min(OrderStore.CHUNK_SIZE, orderCount - start);
+			for (int i = 0; i < end; i++) {
+				if ((most[i] == mostSignificantBits) && (least[i] == leastSignificantBits)) {
+					return start + i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/* ********************** functions used in stats *********************** */
+
+	/*
+	 * The statistics are reductions over the orders, run on the reporting threads
+	 * for a big snapshot (see OrderReduction). Each one scans a range of orders
+	 * chunk by chunk.
+	 */
+
+	private static final OrderReduction<Integer> DEMAND = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.sumRequestedQuantities(from, to, null);
+		}
+	};
+
+	private static final OrderReduction<Integer> VALID_DEMAND = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.sumRequestedQuantities(from, to, Boolean.TRUE);
+		}
+	};
+
+	private static final OrderReduction<Integer> INVALID_DEMAND = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.sumRequestedQuantities(from, to, Boolean.FALSE);
+		}
+	};
+
+	private static final OrderReduction<Integer> AMOUNT_OF_VALID_ORDERS = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.countOrders(from, to, true);
+		}
+	};
+
+	private static final OrderReduction<Integer> AMOUNT_OF_INVALID_ORDERS = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.countOrders(from, to, false);
+		}
+	};
+
+	private static final OrderReduction<Integer> SATISFIED_QUANTITY = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.sumSatisfiedQuantities(from, to, false);
+		}
+	};
+
+	private static final OrderReduction<Integer> AMOUNT_OF_FILLED_ORDERS = new SumReduction() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			return snapshot.sumSatisfiedQuantities(from, to, true);
+		}
+	};
+
+	private static final OrderReduction<Integer> BIGGEST_ORDER = new OrderReduction<Integer>() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			int biggestOrderIndex = -1;
+			int biggestQuantity = 0;
+			for (int index = from; index < to; index++) {
+				final int quantity = snapshot.getRequestedQuantity(index);
+				if ((biggestOrderIndex < 0) || (quantity > biggestQuantity)) {
+					biggestOrderIndex = index;
+					biggestQuantity = quantity;
+				}
+			}
+			return biggestOrderIndex;
+		}
+
+		@Override
+		protected Integer combine(final OrderBookSnapshot snapshot, final Integer left, final Integer right) {
+			if ((left < 0) || ((right >= 0)
+					&& (snapshot.getRequestedQuantity(right) > snapshot.getRequestedQuantity(left)))) {
+				return right;
+			}
+			return left;
+		}
+	};
+
+	private static final OrderReduction<Integer> SMALLEST_ORDER = new OrderReduction<Integer>() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			int smallestOrderIndex = -1;
+			int smallestQuantity = 0;
+			for (int index = from; index < to; index++) {
+				final int quantity = snapshot.getRequestedQuantity(index);
+				if ((smallestOrderIndex < 0) || (quantity < smallestQuantity)) {
+					smallestOrderIndex = index;
+					smallestQuantity = quantity;
+				}
+			}
+			return smallestOrderIndex;
+		}
+
+		@Override
+		protected Integer combine(final OrderBookSnapshot snapshot, final Integer left, final Integer right) {
+			if ((left < 0) || ((right >= 0)
+					&& (snapshot.getRequestedQuantity(right) < snapshot.getRequestedQuantity(left)))) {
+				return right;
+			}
+			return left;
+		}
+	};
+
+	private static final OrderReduction<Integer> EARLIEST_ORDER = new OrderReduction<Integer>() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			int earliestOrderIndex = -1;
+			long earliestTime = 0;
+			for (int index = from; index < to; index++) {
+				final long entryTime = snapshot.getEntryTimeMillis(index);
+				if ((earliestOrderIndex < 0) || (entryTime < earliestTime)) {
+					earliestOrderIndex = index;
+					earliestTime = entryTime;
+				}
+			}
+			return earliestOrderIndex;
+		}
+
+		@Override
+		protected Integer combine(final OrderBookSnapshot snapshot, final Integer left, final Integer right) {
+			if ((left < 0) || ((right >= 0)
+					&& (snapshot.getEntryTimeMillis(right) < snapshot.getEntryTimeMillis(left)))) {
+				return right;
+			}
+			return left;
+		}
+	};
+
+	private static final OrderReduction<Integer> LATEST_ORDER = new OrderReduction<Integer>() {
+		@Override
+		protected Integer reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			int latestOrderIndex = -1;
+			long latestTime = 0;
+			for (int index = from; index < to; index++) {
+				final long entryTime = snapshot.getEntryTimeMillis(index);
+				if ((latestOrderIndex < 0) || (entryTime >= latestTime)) {
+					latestOrderIndex = index;
+					latestTime = entryTime;
+				}
+			}
+			return latestOrderIndex;
+		}
+
+		@Override
+		protected Integer combine(final OrderBookSnapshot snapshot, final Integer left, final Integer right) {
+			if ((left < 0) || ((right >= 0)
+					&& (snapshot.getEntryTimeMillis(right) >= snapshot.getEntryTimeMillis(left)))) {
+				return right;
+			}
+			return left;
+		}
+	};
+
+	private static final OrderReduction<HashMap<Double, Integer>> DEMAND_PER_LIMIT_PRICE = //
+			new OrderReduction<HashMap<Double, Integer>>() {
+		@Override
+		protected HashMap<Double, Integer> reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			final HashMap<Double, Integer> demandPerLimitPrice = new HashMap<>();
+			for (int index = from; index < to; index++) {
+				final double limitPrice = snapshot.getLimitPrice(index);
+				if (!Double.isNaN(limitPrice)) {
+					addDemand(demandPerLimitPrice, limitPrice, snapshot.getRequestedQuantity(index));
+				}
+			}
+			return demandPerLimitPrice;
+		}
+
+		@Override
+		protected HashMap<Double, Integer> combine(final OrderBookSnapshot snapshot,
+				final HashMap<Double, Integer> left, final HashMap<Double, Integer> right) {
+			final HashMap<Double, Integer> bigger = (left.size() >= right.size() ? left : right);
+			final HashMap<Double, Integer> smaller = (bigger == left ? right : left);
+			for (final Map.Entry<Double, Integer> entry : smaller.entrySet()) {
+				addDemand(bigger, entry.getKey(), entry.getValue());
+			}
+			return bigger;
+		}
+
+		private void addDemand(final HashMap<Double, Integer> demandPerLimitPrice, final Double limitPrice,
+				final int quantity) {
+			final Integer demand = demandPerLimitPrice.get(limitPrice);
+			demandPerLimitPrice.put(limitPrice, (demand == null ? 0 : demand.intValue()) + quantity);
+		}
+	};
+
+	/**
+	 * The reductions adding the results of the ranges
+	 */
+	private abstract static class SumReduction extends OrderReduction<Integer> {
+
+		@Override
+		protected Integer combine(final OrderBookSnapshot snapshot, final Integer left, final Integer right) {
+			return left + right;
+		}
+
+	}
+
+	public int getDemand() {
+		return DEMAND.invoke(this);
+	}
+
+	/**
+	 * Returns the demand of the valid or of the invalid orders
+	 *
+	 * @param valid
+	 *            true for the valid orders, false for the invalid ones
+	 * @return the demand
+	 */
+	public int getDemand(final boolean valid) {
+		return (valid ? VALID_DEMAND : INVALID_DEMAND).invoke(this);
+	}
+
+	/**
+	 * Returns the amount of valid or of invalid orders
+	 *
+	 * @param valid
+	 *            true for the valid orders, false for the invalid ones
+	 * @return the amount of orders
+	 */
+	public int getAmountOfOrders(final boolean valid) {
+		return (valid ? AMOUNT_OF_VALID_ORDERS : AMOUNT_OF_INVALID_ORDERS).invoke(this);
+	}
+
+	/**
+	 * Returns the quantity received by the orders
+	 *
+	 * @return the sum of the satisfied quantities
+	 */
+	public int getTotalSatisfiedQuantity() {
+		return SATISFIED_QUANTITY.invoke(this);
+	}
+
+	/**
+	 * Returns the amount of orders which received units (the fills)
+	 *
+	 * @return the amount of orders with a positive satisfied quantity
+	 */
+	public int getAmountOfFilledOrders() {
+		return AMOUNT_OF_FILLED_ORDERS.invoke(this);
+	}
+
+	/**
+	 * Returns the index of the biggest order, the first one if several are equally
+	 * big
+	 *
+	 * @return the index, or -1 if there is no order
+	 */
+	public int getBiggestOrderIndex() {
+		return BIGGEST_ORDER.invoke(this);
+	}
+
+	/**
+	 * Returns the index of the smallest order, the first one if several are
+	 * equally small
+	 *
+	 * @return the index, or -1 if there is no order
+	 */
+	public int getSmallestOrderIndex() {
+		return SMALLEST_ORDER.invoke(this);
+	}
+
+	/**
+	 * Returns the index of the earliest order, the first one if several entered
+	 * at the same time
+	 *
+	 * @return the index, or -1 if there is no order
+	 */
+	public int getEarliestOrderIndex() {
+		return EARLIEST_ORDER.invoke(this);
+	}
+
+	/**
+	 * Returns the index of the latest order, the last one if several entered at
+	 * the same time
+	 *
+	 * @return the index, or -1 if there is no order
+	 */
+	public int getLatestOrderIndex() {
+		return LATEST_ORDER.invoke(this);
+	}
+
+	/**
+	 * Returns a map, with the key = limit price, and the value = the total demand
+	 * for this limit price
+	 *
+	 * @return demandPerLimitPrice
+	 */
+	public HashMap<Double, Integer> getDemandPerLimitPrice() {
+		return DEMAND_PER_LIMIT_PRICE.invoke(this);
+	}
+
+	/**
+	 * Sums the requested quantities of a range of orders
+	 *
+	 * @param valid
+	 *            the validity of the orders summed, null for all the orders
+	 */
+	private int sumRequestedQuantities(final int from, final int to, final Boolean valid) {
+		int demand = 0;
+		for (int start = from; start < to;) {
+			final int chunk = start >>> OrderStore.CHUNK_SHIFT;
+			final int offset = start & OrderStore.CHUNK_MASK;
+			final int end = Math.min(OrderStore.CHUNK_SIZE, offset + (to - start));
+			final int[] requested = state.requestedQuantities[chunk];
+			if (valid == null) {
+				for (int i = offset; i < end; i++) {
+					demand += requested[i];
+				}
+			} else {
+				final boolean[] validities = state.validities[chunk];
+				final boolean validity = valid.booleanValue();
+				for (int i = offset; i < end; i++) {
+					if (validities[i] == validity) {
+						demand += requested[i];
+					}
+				}
+			}
+			start += end - offset;
+		}
+		return demand;
+	}
+
+	/**
+	 * Sums the satisfied quantities of a range of orders
+	 *
+	 * @param count
+	 *            true to count the orders with a positive satisfied quantity
+	 *            instead
+	 */
+	private int sumSatisfiedQuantities(final int from, final int to, final boolean count) {
+		int sum = 0;
+		for (int start = from; start < to;) {
+			final int chunk = start >>> OrderStore.CHUNK_SHIFT;
+			final int offset = start & OrderStore.CHUNK_MASK;
+			final int end = Math.min(OrderStore.CHUNK_SIZE, offset + (to - start));
+			final int[] satisfied = state.satisfiedQuantities[chunk];
+			for (int i = offset; i < end; i++) {
+				sum += (count ? (satisfied[i] > 0 ? 1 : 0) : satisfied[i]);
+			}
+			start += end - offset;
+		}
+		return sum;
+	}
+
+	/**
+	 * Counts the valid or the invalid orders of a range
+	 */
+	private int countOrders(final int from, final int to, final boolean valid) {
+		int amountOfOrders = 0;
+		for (int start = from; start < to;) {
+			final int chunk = start >>> OrderStore.CHUNK_SHIFT;
+			final int offset = start & OrderStore.CHUNK_MASK;
+			final int end = Math.min(OrderStore.CHUNK_SIZE, offset + (to - start));
+			final boolean[] validities = state.validities[chunk];
+			for (int i = offset; i < end; i++) {
+				if (validities[i] == valid) {
+					amountOfOrders++;
+				}
+			}
+			start += end - offset;
+		}
+		return amountOfOrders;
+	}
+
+	public int getExecutionCount() {
+		return state.executionCount;
+	}
+
+	public Execution getExecution(final int index) {
+		if ((index < 0) || (index >= state.executionCount)) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + state.executionCount);
+		}
+		return state.executions[index];
+	}
+
+	public int getTotalExecutionOffer() {
+		int totalExecutionOffer = 0;
+		for (int i = 0; i < state.executionCount; i++) {
+			totalExecutionOffer += state.executions[i].getOfferedQuantity();
+		}
+		return totalExecutionOffer;
+	}
+
+	/**
+	 * Gets the execution price: the unit price of the first execution, 0 if there
+	 * is no execution
+	 *
+	 * @return the execution price
+	 */
+	public double getExecutionPrice() {
+		return (state.executionCount == 0 ? 0 : state.executions[0].getUnitPrice());
+	}
+
+	private void checkIndex(final int index) {
+		if ((index < 0) || (index >= orderCount)) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + orderCount);
+		}
+	}
+
+}
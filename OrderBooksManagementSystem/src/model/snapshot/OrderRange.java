@@ -0,0 +1,82 @@
+package model.snapshot;
+
+/**
+ * A range of the orders of a snapshot which can be split in two, to be scanned
+ * by several threads. This is what a Spliterator would be on a more recent
+ * Java: {@link #trySplit()} hands over the first half of the range and keeps
+ * the second one, until the ranges are too small to be worth splitting.
+ *
+ * The ranges are split at the boundaries of the chunks of the columns, so
+ * that two threads never scan the same chunk.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class OrderRange {
+
+	/**
+	 * The amount of orders under which a range is not split anymore, hence
+	 * under which a snapshot is scanned by a single thread
+	 */
+	public static final int SEQUENTIAL_THRESHOLD = Integer.getInteger("orderbook.sequentialThreshold",
+			1 << 15);
+
+	private final OrderBookSnapshot snapshot;
+
+	private int from;
+
+	private final int to;
+
+	/**
+	 * Constructor
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @param from
+	 *            the index of the first order of the range, included
+	 * @param to
+	 *            the index of the last order of the range, excluded
+	 */
+	public OrderRange(final OrderBookSnapshot snapshot, final int from, final int to) {
+		this.snapshot = snapshot;
+		this.from = from;
+		this.to = to;
+	}
+
+	/**
+	 * Splits the range in two halves if it is big enough
+	 *
+	 * @return the first half, this range becoming the second one, or null if the
+	 *         range is too small to be split
+	 */
+	public OrderRange trySplit() {
+		if ((to - from) < (SEQUENTIAL_THRESHOLD << 1)) {
+			return null;
+		}
+		final int middle = (from + ((to - from) >>> 1)) & ~OrderStore.CHUNK_MASK;
+		if (middle <= from) {
+			return null;
+		}
+		final OrderRange prefix = new OrderRange(snapshot, from, middle);
+		from = middle;
+		return prefix;
+	}
+
+	public OrderBookSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public int getFrom() {
+		return from;
+	}
+
+	public int getTo() {
+		return to;
+	}
+
+	public int size() {
+		return to - from;
+	}
+
+}
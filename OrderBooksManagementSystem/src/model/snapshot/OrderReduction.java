@@ -0,0 +1,145 @@
+package model.snapshot;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A computation over the orders of a snapshot, e.g. a statistic, which runs
+ * on several threads for a big snapshot: the snapshot is split in
+ * {@link OrderRange}s, each range is reduced by one thread, and the results of
+ * the ranges are combined two by two. A snapshot with less than two ranges
+ * worth of orders is reduced by the calling thread alone.
+ *
+ * The statistics are reports: the parallel reductions run on a pool of their
+ * own, of daemon threads of minimal priority, bounded to half the processors by
+ * default (system property orderbook.reporting.parallelism), so that reports do
+ * not take the CPU from the intake and the matching. The intake does not use
+ * the reductions.
+ *
+ * The ranges are combined in order (the left one being before the right
+ * one), so a reduction can keep the first or the last of several equal
+ * orders.
+ *
+ * @param <R>
+ *            the type of the result
+ *
+ *
+ * @author Jules
+ *
+ */
+public abstract class OrderReduction<R> {
+
+	/**
+	 * The threads of the parallel reductions, shared by all the books, created
+	 * on the first parallel reduction
+	 */
+	private static final class PoolHolder {
+
+		static final ForkJoinPool POOL = new ForkJoinPool(
+				Integer.getInteger("orderbook.reporting.parallelism",
+						Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+				new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+					@Override
+					public ForkJoinWorkerThread newThread(final ForkJoinPool pool) {
+						final ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+						};
+						thread.setName("reporting-" + thread.getPoolIndex());
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+
+				}, null, false);
+
+	}
+
+	/**
+	 * @return the parallelism of the pool of the parallel reductions
+	 */
+	public static int getParallelism() {
+		return PoolHolder.POOL.getParallelism();
+	}
+
+	/**
+	 * Reduces the orders of a snapshot, in parallel if it is big
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the result
+	 */
+	public final R invoke(final OrderBookSnapshot snapshot) {
+		final OrderRange range = new OrderRange(snapshot, 0, snapshot.getOrderCount());
+		if (range.size() < (OrderRange.SEQUENTIAL_THRESHOLD << 1)) {
+			return reduce(snapshot, range.getFrom(), range.getTo());
+		}
+		return PoolHolder.POOL.invoke(new ReductionTask(range));
+	}
+
+	/**
+	 * Reduces the orders of a snapshot on the calling thread alone
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @return the result, the same as {@link #invoke(OrderBookSnapshot)}
+	 */
+	public final R invokeSequentially(final OrderBookSnapshot snapshot) {
+		return reduce(snapshot, 0, snapshot.getOrderCount());
+	}
+
+	/**
+	 * Reduces a range of orders, on one thread
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @param from
+	 *            the index of the first order, included
+	 * @param to
+	 *            the index of the last order, excluded
+	 * @return the result for the range
+	 */
+	protected abstract R reduce(OrderBookSnapshot snapshot, int from, int to);
+
+	/**
+	 * Combines the results of two consecutive ranges
+	 *
+	 * @param snapshot
+	 *            the snapshot
+	 * @param left
+	 *            the result of the first range
+	 * @param right
+	 *            the result of the range following it
+	 * @return the result for both ranges
+	 */
+	protected abstract R combine(OrderBookSnapshot snapshot, R left, R right);
+
+	/**
+	 * Reduces a range, forking the reduction of its first half if it can be
+	 * split
+	 */
+	private final class ReductionTask extends RecursiveTask<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final OrderRange range;
+
+		ReductionTask(final OrderRange range) {
+			this.range = range;
+		}
+
+		@Override
+		protected R compute() {
+			final OrderRange prefix = range.trySplit();
+			if (prefix == null) {
+				return reduce(range.getSnapshot(), range.getFrom(), range.getTo());
+			}
+			final ReductionTask left = new ReductionTask(prefix);
+			left.fork();
+			final R right = new ReductionTask(range).compute();
+			return combine(range.getSnapshot(), left.join(), right);
+		}
+
+	}
+
+}
@@ -0,0 +1,382 @@
+package model.snapshot;
+
+import java.util.Arrays;
+import java.util.List;
+
+import model.Execution;
+import model.orders.LimitOrder;
+import model.orders.Order;
+
+/**
+ * The columns of the orders of a book, published to the readers of
+ * {@link OrderBookSnapshot}s without any lock.
+ *
+ * The columns are split in chunks of {@link #CHUNK_SIZE} orders which are
+ * never reallocated. Adding an order writes past the count of orders known by
+ * the readers, then increments it: the existing snapshots do not see it.
+ * Changing the validity or the satisfied quantity of orders copies the chunks
+ * concerned (copy-on-write) and publishes new chunk directories, so the
+ * existing snapshots keep the old values: only the chunks of the orders
+ * changed are copied, so a match costs the same whatever the size of the book.
+ * A reader takes a snapshot in a few volatile reads, retrying only if the book
+ * changed meanwhile.
+ *
+ * Only one thread (the one changing the book) may call the writing methods.
+ *
+ * If the system property orderbook.history.enabled is set, the store also keeps
+ * its {@link BookHistory}, to give the snapshot of the book at any past time
+ * within the retention (system property orderbook.history.retentionMillis, one
+ * hour by default).
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderStore {
+
+	static final int CHUNK_SHIFT = 10;
+
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	/**
+	 * The chunk directories and the state of the book at a version. Never
+	 * modified once published, except the chunk slots beyond the count of orders
+	 * of the snapshots using it.
+	 */
+	static final class State {
+
+		/**
+		 * The store which published the state, null for a restored state. The
+		 * orders of an archived book are recycled once its store cannot be reached
+		 * anymore, so every state (hence every snapshot and the history) keeps its
+		 * store reachable.
+		 */
+		final OrderStore store;
+
+		final Order[][] orders;
+
+		final long[][] idMostSignificantBits;
+
+		final long[][] idLeastSignificantBits;
+
+		final int[][] requestedQuantities;
+
+		final long[][] entryTimes;
+
+		final double[][] limitPrices;
+
+		final boolean[][] validities;
+
+		final int[][] satisfiedQuantities;
+
+		final Execution[] executions;
+
+		final int executionCount;
+
+		final boolean processed;
+
+		/**
+		 * The version and the count of orders when the state was published
+		 */
+		final long baseVersion;
+
+		final int baseCount;
+
+		State(final OrderStore store, final Order[][] orders, final long[][] idMostSignificantBits,
+				final long[][] idLeastSignificantBits, final int[][] requestedQuantities, final long[][] entryTimes,
+				final double[][] limitPrices, final boolean[][] validities, final int[][] satisfiedQuantities,
+				final Execution[] executions, final int executionCount, final boolean processed,
+				final long baseVersion, final int baseCount) {
+			this.store = store;
+			this.orders = orders;
+			this.idMostSignificantBits = idMostSignificantBits;
+			this.idLeastSignificantBits = idLeastSignificantBits;
+			this.requestedQuantities = requestedQuantities;
+			this.entryTimes = entryTimes;
+			this.limitPrices = limitPrices;
+			this.validities = validities;
+			this.satisfiedQuantities = satisfiedQuantities;
+			this.executions = executions;
+			this.executionCount = executionCount;
+			this.processed = processed;
+			this.baseVersion = baseVersion;
+			this.baseCount = baseCount;
+		}
+
+	}
+
+	/**
+	 * Whether the stores keep their history
+	 */
+	public static final boolean HISTORY_ENABLED = Boolean.getBoolean("orderbook.history.enabled");
+
+	/**
+	 * How long the stores keep their history, in milliseconds
+	 */
+	public static final long HISTORY_RETENTION_MILLIS = Long.getLong("orderbook.history.retentionMillis",
+			60 * 60 * 1000L);
+
+	static final State EMPTY = new State(null, new Order[0][], new long[0][], new long[0][], new int[0][],
+			new long[0][], new double[0][], new boolean[0][], new int[0][], new Execution[0], 0, false, 0, 0);
+
+	private volatile State state = EMPTY;
+
+	private volatile int count;
+
+	/**
+	 * The version of the book, only used by the writer
+	 */
+	private long version;
+
+	/**
+	 * The chunk directories holding the changes not published yet, null if none.
+	 * Only the chunks changed since the last publication are copies.
+	 */
+	private boolean[][] pendingValidities;
+
+	private int[][] pendingSatisfiedQuantities;
+
+	/**
+	 * The history of the store, null if not kept
+	 */
+	private final BookHistory history;
+
+	/**
+	 * Constructor
+	 */
+	public OrderStore() {
+		history = (HISTORY_ENABLED ? new BookHistory(HISTORY_RETENTION_MILLIS) : null);
+		if (history != null) {
+			history.recordCheckpoint(System.currentTimeMillis(), EMPTY);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the book. Can be called from any thread.
+	 *
+	 * @param open
+	 *            whether the book is open, which is not held by the store
+	 * @return the snapshot
+	 */
+	public OrderBookSnapshot snapshot(final boolean open) {
+		State currentState;
+		int currentCount;
+		do {
+			currentState = state;
+			currentCount = count;
+			// a new state published meanwhile may not match the count
+		} while (currentState != state);
+		return new OrderBookSnapshot(currentState, currentCount, open);
+	}
+
+	/**
+	 * Takes the snapshot of the book at a past time. Can be called from any
+	 * thread.
+	 *
+	 * @param timeMillis
+	 *            the time, in milliseconds since the epoch
+	 * @param open
+	 *            whether the book was open at that time, which is not held by the
+	 *            store
+	 * @return the snapshot, empty if the time is before the creation of the
+	 *         book, or null if the history is not kept
+	 */
+	public OrderBookSnapshot snapshotAt(final long timeMillis, final boolean open) {
+		return (history == null ? null : history.snapshotAt(timeMillis, open));
+	}
+
+	/**
+	 * Adds an order
+	 *
+	 * @param order
+	 *            the order
+	 */
+	public void addOrder(final Order order) {
+		final int index = count;
+		final int chunk = index >>> CHUNK_SHIFT;
+		final int offset = index & CHUNK_MASK;
+		State currentState = state;
+		if (chunk == currentState.orders.length) {
+			currentState = addChunk(currentState);
+		}
+		currentState.orders[chunk][offset] = order;
+		order.setBookIndex(index);
+		currentState.idMostSignificantBits[chunk][offset] = order.getIdMostSignificantBits();
+		currentState.idLeastSignificantBits[chunk][offset] = order.getIdLeastSignificantBits();
+		currentState.requestedQuantities[chunk][offset] = order.getRequestedQuantity();
+		currentState.entryTimes[chunk][offset] = order.getEntryTimeMillis();
+		currentState.limitPrices[chunk][offset] = (order instanceof LimitOrder ? ((LimitOrder) order).getLimitPrice()
+				: Double.NaN);
+		currentState.validities[chunk][offset] = order.isValid();
+		currentState.satisfiedQuantities[chunk][offset] = order.getSatisfiedQuantity();
+		final boolean newState = (currentState != state);
+		if (newState) {
+			state = currentState;
+		}
+		version++;
+		count = index + 1;
+
+		if (history != null) {
+			// the entry time of the order spares reading the clock for each order
+			final long entryTimeMillis = order.getEntryTimeMillis();
+			if (newState) {
+				history.recordCheckpoint(entryTimeMillis, currentState);
+			}
+			history.recordOrderCount(entryTimeMillis, index + 1);
+		}
+	}
+
+	/**
+	 * Copies the validity and the satisfied quantity of the orders into the
+	 * columns, publishing a new version if any changed. The chunks left unchanged
+	 * are shared with the previous versions. Scans every order: when only a few
+	 * orders changed, prefer {@link #updateOrder(Order)} for each of them, then
+	 * {@link #publishUpdates()}.
+	 *
+	 * @param orders
+	 *            the orders of the book, in the order they were added
+	 */
+	public void updateOrders(final List<? extends Order> orders) {
+		final int orderCount = Math.min(count, orders.size());
+		for (int i = 0; i < orderCount; i++) {
+			updateOrder(orders.get(i));
+		}
+		publishUpdates();
+	}
+
+	/**
+	 * Copies the validity and the satisfied quantity of an order into the
+	 * columns, if they changed. The change is only seen by the snapshots taken
+	 * once {@link #publishUpdates()} is called, and no order may be added
+	 * meanwhile. Only the chunk of the order is copied, once per publication, so
+	 * the cost does not depend on the size of the book.
+	 *
+	 * @param order
+	 *            an order of the book
+	 */
+	public void updateOrder(final Order order) {
+		final int index = order.getBookIndex();
+		final int chunk = index >>> CHUNK_SHIFT;
+		final int offset = index & CHUNK_MASK;
+		final State currentState = state;
+		final boolean[][] validities = (pendingValidities == null ? currentState.validities : pendingValidities);
+		final int[][] satisfiedQuantities = (pendingSatisfiedQuantities == null ? currentState.satisfiedQuantities
+				: pendingSatisfiedQuantities);
+		if ((validities[chunk][offset] == order.isValid())
+				&& (satisfiedQuantities[chunk][offset] == order.getSatisfiedQuantity())) {
+			return;
+		}
+
+		if (pendingValidities == null) {
+			pendingValidities = currentState.validities.clone();
+			pendingSatisfiedQuantities = currentState.satisfiedQuantities.clone();
+		}
+		if (pendingValidities[chunk] == currentState.validities[chunk]) {
+			// first change of the chunk since the last publication
+			pendingValidities[chunk] = currentState.validities[chunk].clone();
+			pendingSatisfiedQuantities[chunk] = currentState.satisfiedQuantities[chunk].clone();
+		}
+		pendingValidities[chunk][offset] = order.isValid();
+		pendingSatisfiedQuantities[chunk][offset] = order.getSatisfiedQuantity();
+	}
+
+	/**
+	 * Publishes a new version with the changes given to
+	 * {@link #updateOrder(Order)}, if any
+	 */
+	public void publishUpdates() {
+		if (pendingValidities == null) {
+			return;
+		}
+		final State currentState = state;
+		version++;
+		state = new State(this, currentState.orders, currentState.idMostSignificantBits,
+				currentState.idLeastSignificantBits, currentState.requestedQuantities, currentState.entryTimes,
+				currentState.limitPrices, pendingValidities, pendingSatisfiedQuantities, currentState.executions,
+				currentState.executionCount, currentState.processed, version, count);
+		pendingValidities = null;
+		pendingSatisfiedQuantities = null;
+		recordCheckpoint();
+	}
+
+	/**
+	 * Adds an execution
+	 *
+	 * @param execution
+	 *            the execution
+	 */
+	public void addExecution(final Execution execution) {
+		final State currentState = state;
+		Execution[] executions = currentState.executions;
+		if (currentState.executionCount == executions.length) {
+			executions = Arrays.copyOf(executions, Math.max(4, executions.length * 2));
+		}
+		// beyond the count of the published states, hence invisible to the readers
+		executions[currentState.executionCount] = execution;
+		version++;
+		state = new State(this, currentState.orders, currentState.idMostSignificantBits,
+				currentState.idLeastSignificantBits, currentState.requestedQuantities, currentState.entryTimes,
+				currentState.limitPrices, currentState.validities, currentState.satisfiedQuantities, executions,
+				currentState.executionCount + 1, currentState.processed, version, count);
+		recordCheckpoint();
+	}
+
+	/**
+	 * Marks the book as processed, once the executions are given to the orders
+	 */
+	public void setProcessed() {
+		final State currentState = state;
+		version++;
+		state = new State(this, currentState.orders, currentState.idMostSignificantBits,
+				currentState.idLeastSignificantBits, currentState.requestedQuantities, currentState.entryTimes,
+				currentState.limitPrices, currentState.validities, currentState.satisfiedQuantities,
+				currentState.executions, currentState.executionCount, true, version, count);
+		recordCheckpoint();
+	}
+
+	/**
+	 * Records the state just published in the history
+	 */
+	private void recordCheckpoint() {
+		if (history != null) {
+			history.recordCheckpoint(System.currentTimeMillis(), state);
+		}
+	}
+
+	/**
+	 * Creates the state with one more chunk for each column. The new state is
+	 * published by the caller before the count is increased.
+	 *
+	 * @param currentState
+	 *            the current state
+	 * @return the new state
+	 */
+	private State addChunk(final State currentState) {
+		final int chunkCount = currentState.orders.length + 1;
+
+		final Order[][] orders = Arrays.copyOf(currentState.orders, chunkCount);
+		final long[][] idMostSignificantBits = Arrays.copyOf(currentState.idMostSignificantBits, chunkCount);
+		final long[][] idLeastSignificantBits = Arrays.copyOf(currentState.idLeastSignificantBits, chunkCount);
+		final int[][] requestedQuantities = Arrays.copyOf(currentState.requestedQuantities, chunkCount);
+		final long[][] entryTimes = Arrays.copyOf(currentState.entryTimes, chunkCount);
+		final double[][] limitPrices = Arrays.copyOf(currentState.limitPrices, chunkCount);
+		final boolean[][] validities = Arrays.copyOf(currentState.validities, chunkCount);
+		final int[][] satisfiedQuantities = Arrays.copyOf(currentState.satisfiedQuantities, chunkCount);
+
+		orders[chunkCount - 1] = new Order[CHUNK_SIZE];
+		idMostSignificantBits[chunkCount - 1] = new long[CHUNK_SIZE];
+		idLeastSignificantBits[chunkCount - 1] = new long[CHUNK_SIZE];
+		requestedQuantities[chunkCount - 1] = new int[CHUNK_SIZE];
+		entryTimes[chunkCount - 1] = new long[CHUNK_SIZE];
+		limitPrices[chunkCount - 1] = new double[CHUNK_SIZE];
+		validities[chunkCount - 1] = new boolean[CHUNK_SIZE];
+		satisfiedQuantities[chunkCount - 1] = new int[CHUNK_SIZE];
+
+		return new State(this, orders, idMostSignificantBits, idLeastSignificantBits, requestedQuantities, entryTimes,
+				limitPrices, validities, satisfiedQuantities, currentState.executions, currentState.executionCount,
+				currentState.processed, version, count);
+	}
+
+}
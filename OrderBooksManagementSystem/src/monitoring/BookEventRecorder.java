@@ -0,0 +1,237 @@
+package monitoring;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import logging.AsyncLogger;
+
+/**
+ * A small flight recorder for the book events (book opened / closed, execution
+ * accepted / rejected, validation runs, processing of the executions).
+ *
+ * Java Flight Recorder custom events need jdk.jfr, which is not available with
+ * the Java 7 level of this project, so the events are kept in a preallocated
+ * ring instead. Each event carries its wall-clock time and the JVM uptime, so a
+ * dump can be put side by side with a GC log (-Xlog:gc:file:uptime) or a
+ * profiler recording.
+ *
+ * The recording is off by default (-Dorderbook.events.enabled=true to start it
+ * with the JVM, or through JMX). When it is off, recording an event costs a
+ * single volatile read.
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class BookEventRecorder implements BookEventRecorderMXBean {
+
+	/**
+	 * The unique instance, registered in JMX by the book manager
+	 */
+	private static final BookEventRecorder INSTANCE = new BookEventRecorder(
+			Integer.getInteger("orderbook.events.capacity", 65536));
+
+	/**
+	 * Whether the events are recorded
+	 */
+	private static volatile boolean recording = Boolean.getBoolean("orderbook.events.enabled");
+
+	/**
+	 * The start time of the JVM, used to print the uptime of each event
+	 */
+	private final long jvmStartTimeMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+	/**
+	 * The amount of events the ring can hold before overwriting the oldest ones
+	 */
+	private final int capacity;
+
+	/*
+	 * The ring itself: one array per event field, so that recording an event does
+	 * not allocate anything
+	 */
+
+	private final long[] timestampsMillis;
+
+	private final long[] durationsNanos;
+
+	private final BookEventType[] types;
+
+	private final String[] instruments;
+
+	private final String[] threadNames;
+
+	private final int[] orderCounts;
+
+	private final int[] executionCounts;
+
+	private final int[] quantities;
+
+	/**
+	 * The total amount of recorded events. The next event is written at
+	 * recordedEvents % capacity.
+	 */
+	private long recordedEvents = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            the amount of events kept in memory
+	 */
+	private BookEventRecorder(final int capacity) {
+		this.capacity = capacity;
+		timestampsMillis = new long[capacity];
+		durationsNanos = new long[capacity];
+		types = new BookEventType[capacity];
+		instruments = new String[capacity];
+		threadNames = new String[capacity];
+		orderCounts = new int[capacity];
+		executionCounts = new int[capacity];
+		quantities = new int[capacity];
+	}
+
+	public static BookEventRecorder getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Whether the events are recorded. Callers should check it before gathering
+	 * the fields of an event.
+	 *
+	 * @return true if the events are recorded
+	 */
+	public static boolean isEnabled() {
+		return recording;
+	}
+
+	/**
+	 * Returns the start time of an event having a duration
+	 *
+	 * @return the current time in nanoseconds, or 0 if nothing is recorded
+	 */
+	public static long startTimer() {
+		return (recording ? System.nanoTime() : 0);
+	}
+
+	/**
+	 * Records an event without duration
+	 *
+	 * @param type
+	 *            the type of event
+	 * @param instrument
+	 *            the name of the financial instrument of the book
+	 * @param orderCount
+	 *            the amount of orders in the book
+	 * @param executionCount
+	 *            the amount of executions in the book
+	 * @param quantity
+	 *            the quantity concerned by the event (e.g. the quantity of the
+	 *            execution), 0 if not relevant
+	 */
+	public static void record(final BookEventType type, final String instrument, final int orderCount,
+			final int executionCount, final int quantity) {
+		if (recording) {
+			INSTANCE.write(type, instrument, orderCount, executionCount, quantity, 0);
+		}
+	}
+
+	/**
+	 * Records an event having a duration, e.g. a validation run
+	 *
+	 * @param type
+	 *            the type of event
+	 * @param instrument
+	 *            the name of the financial instrument of the book
+	 * @param orderCount
+	 *            the amount of orders in the book
+	 * @param executionCount
+	 *            the amount of executions in the book
+	 * @param startNanos
+	 *            the value returned by {@link #startTimer()} when the event
+	 *            started
+	 */
+	public static void recordTimed(final BookEventType type, final String instrument, final int orderCount,
+			final int executionCount, final long startNanos) {
+		if (recording) {
+			// the recording may have been started during the event
+			final long durationNanos = (startNanos == 0 ? 0 : System.nanoTime() - startNanos);
+			INSTANCE.write(type, instrument, orderCount, executionCount, 0, durationNanos);
+		}
+	}
+
+	/**
+	 * Writes an event into the ring. Only happens when recording, so the lock is
+	 * not on the path of a program running without recording.
+	 */
+	private synchronized void write(final BookEventType type, final String instrument, final int orderCount,
+			final int executionCount, final int quantity, final long durationNanos) {
+		final int slot = (int) (recordedEvents % capacity);
+		timestampsMillis[slot] = System.currentTimeMillis();
+		durationsNanos[slot] = durationNanos;
+		types[slot] = type;
+		instruments[slot] = instrument;
+		threadNames[slot] = Thread.currentThread().getName();
+		orderCounts[slot] = orderCount;
+		executionCounts[slot] = executionCount;
+		quantities[slot] = quantity;
+		recordedEvents++;
+	}
+
+	/**
+	 * Prints the events held in the ring, from the oldest to the most recent, one
+	 * per line: wall-clock time, JVM uptime, thread, event type, instrument, order
+	 * count, execution count, quantity, duration
+	 *
+	 * @param out
+	 *            the stream to print to
+	 * @return the amount of events printed
+	 */
+	public synchronized int dump(final PrintStream out) {
+		final long firstEvent = Math.max(0, recordedEvents - capacity);
+		out.println("TIMESTAMP_MS;UPTIME_MS;THREAD;EVENT;INSTRUMENT;ORDERS;EXECUTIONS;QUANTITY;DURATION_NS");
+		for (long event = firstEvent; event < recordedEvents; event++) {
+			final int slot = (int) (event % capacity);
+			out.println(timestampsMillis[slot] + ";" + (timestampsMillis[slot] - jvmStartTimeMillis) + ";"
+					+ threadNames[slot] + ";" + types[slot] + ";" + instruments[slot] + ";" + orderCounts[slot] + ";"
+					+ executionCounts[slot] + ";" + quantities[slot] + ";" + durationsNanos[slot]);
+		}
+		return (int) (recordedEvents - firstEvent);
+	}
+
+	/* ********************** MXBean functions *********************** */
+
+	@Override
+	public boolean isRecording() {
+		return recording;
+	}
+
+	@Override
+	public void setRecording(final boolean recording) {
+		BookEventRecorder.recording = recording;
+	}
+
+	@Override
+	public synchronized long getRecordedEvents() {
+		return recordedEvents;
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int dumpToFile(final String path) {
+		try (final PrintStream out = new PrintStream(new FileOutputStream(path))) {
+			return dump(out);
+		} catch (final IOException e) {
+			AsyncLogger.error().append("The book events could not be written to ").append(path).append(": ")
+					.append(e.getMessage()).commit();
+			return 0;
+		}
+	}
+
+}
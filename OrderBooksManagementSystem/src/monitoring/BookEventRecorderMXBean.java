@@ -0,0 +1,34 @@
+package monitoring;
+
+/**
+ * The management interface of the {@link BookEventRecorder}, allowing to start
+ * / stop the recording and to dump it while the program runs
+ *
+ *
+ * @author Jules
+ *
+ */
+public interface BookEventRecorderMXBean {
+
+	boolean isRecording();
+
+	void setRecording(boolean recording);
+
+	/**
+	 * @return the amount of events recorded since the start (including the ones
+	 *         already overwritten in the ring)
+	 */
+	long getRecordedEvents();
+
+	int getCapacity();
+
+	/**
+	 * Writes the events currently held in the ring to a file
+	 *
+	 * @param path
+	 *            the path of the file
+	 * @return the amount of events written
+	 */
+	int dumpToFile(String path);
+
+}
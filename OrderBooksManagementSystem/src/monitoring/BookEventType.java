@@ -0,0 +1,24 @@
+package monitoring;
+
+/**
+ * The types of events recorded by the {@link BookEventRecorder}
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum BookEventType {
+
+	BOOK_OPENED,
+
+	BOOK_CLOSED,
+
+	EXECUTION_ACCEPTED,
+
+	EXECUTION_REJECTED,
+
+	VALIDATION,
+
+	EXECUTIONS_PROCESSED;
+
+}
@@ -0,0 +1,185 @@
+package monitoring;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram, in the spirit of HdrHistogram: values are
+ * stored in log-linear buckets (32 linear sub-buckets per power of 2), which
+ * gives a relative error of about 3% over the whole range of a long, with a
+ * fixed memory footprint and no allocation when recording.
+ *
+ * Recording only costs a few shifts and an atomic increment, therefore it can
+ * be done from several threads at the same time without any lock.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * The number of bits used to split each power of 2 into linear sub-buckets
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of linear sub-buckets per power of 2
+	 */
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Values lower than SUB_BUCKET_COUNT are stored exactly in the first buckets,
+	 * then there are SUB_BUCKET_COUNT buckets for each power of 2 up to 2^62
+	 */
+	private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + ((63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT);
+
+	/**
+	 * The amount of recorded values per bucket
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * The total amount of recorded values
+	 */
+	private final AtomicLong totalCount = new AtomicLong();
+
+	/**
+	 * The sum of all recorded values, used to compute the mean
+	 */
+	private final AtomicLong totalSum = new AtomicLong();
+
+	/**
+	 * The biggest recorded value
+	 */
+	private final AtomicLong maxValue = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values (e.g. if the clock went backwards) are
+	 * recorded as 0.
+	 *
+	 * @param value
+	 *            the value to record, usually a latency in nanoseconds
+	 */
+	public void recordValue(final long value) {
+		final long safeValue = value < 0 ? 0 : value;
+
+		counts.incrementAndGet(bucketIndex(safeValue));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(safeValue);
+
+		long currentMax = maxValue.get();
+		while (safeValue > currentMax) {
+			if (maxValue.compareAndSet(currentMax, safeValue)) {
+				break;
+			}
+			currentMax = maxValue.get();
+		}
+	}
+
+	/**
+	 * Returns the value at a given percentile. The returned value is the highest
+	 * value equivalent to the bucket containing the percentile, so the real value
+	 * is at most about 3% lower.
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the value at the given percentile, or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+
+		final double boundedPercentile = Math.min(Math.max(percentile, 0), 100);
+		final long countAtPercentile = Math.max(1, (long) Math.ceil((boundedPercentile / 100) * count));
+
+		long accumulatedCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			accumulatedCount += counts.get(i);
+			if (accumulatedCount >= countAtPercentile) {
+				return Math.min(highestEquivalentValue(i), maxValue.get());
+			}
+		}
+
+		return maxValue.get();
+	}
+
+	/**
+	 * Returns the amount of recorded values
+	 *
+	 * @return the amount of recorded values
+	 */
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * Returns the biggest recorded value
+	 *
+	 * @return the biggest recorded value
+	 */
+	public long getMaxValue() {
+		return maxValue.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values
+	 *
+	 * @return the mean, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		final long count = totalCount.get();
+		return (count == 0 ? 0 : (double) totalSum.get() / count);
+	}
+
+	/**
+	 * Clears all recorded values. Values recorded at the same time as the reset
+	 * may or may not be kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Returns the index of the bucket holding a value
+	 *
+	 * @param value
+	 *            a positive value
+	 * @return the index of the bucket
+	 */
+	private static int bucketIndex(final long value) {
+		if (value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		// position of the highest bit, at least SUB_BUCKET_BITS here
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BUCKET_BITS;
+		final int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + (shift * SUB_BUCKET_COUNT) + subBucket;
+	}
+
+	/**
+	 * Returns the highest value that can be stored in a bucket
+	 *
+	 * @param index
+	 *            the index of the bucket
+	 * @return the highest value of the bucket
+	 */
+	private static long highestEquivalentValue(final int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+		final int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+		final long lowestValue = ((long) (SUB_BUCKET_COUNT + subBucket)) << shift;
+		return lowestValue + (1L << shift) - 1;
+	}
+
+}
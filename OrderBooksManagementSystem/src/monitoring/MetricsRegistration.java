@@ -0,0 +1,82 @@
+package monitoring;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import logging.AsyncLogger;
+
+/**
+ * Registers the metrics of the books and of the book manager in the platform
+ * MBean server, so that they can be read through JMX
+ *
+ *
+ * @author Jules
+ *
+ */
+public final class MetricsRegistration {
+
+	/**
+	 * The domain of all the MBeans of the application
+	 */
+	public static final String DOMAIN = "orderbooks";
+
+	private MetricsRegistration() {
+	}
+
+	/**
+	 * Registers an MBean. A failing registration is printed but does not stop the
+	 * program, since the books can work without JMX.
+	 *
+	 * @param type
+	 *            the type of the MBean, e.g. OrderBook
+	 * @param name
+	 *            the name of the MBean, e.g. the name of the financial instrument
+	 * @param mbean
+	 *            the MBean
+	 * @return the name under which the MBean was registered, or null if the
+	 *         registration failed
+	 */
+	public static ObjectName register(final String type, final String name, final Object mbean) {
+		try {
+			final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName objectName = new ObjectName(
+					DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+			if (mBeanServer.isRegistered(objectName)) {
+				mBeanServer.unregisterMBean(objectName);
+			}
+			mBeanServer.registerMBean(mbean, objectName);
+			return objectName;
+		} catch (final JMException e) {
+			AsyncLogger.error().append("The metrics ").append(name).append(" could not be registered: ")
+					.append(e.getMessage()).commit();
+			return null;
+		}
+	}
+
+	/**
+	 * Unregisters an MBean previously registered
+	 *
+	 * @param objectName
+	 *            the name returned by {@link #register(String, String, Object)},
+	 *            can be null
+	 */
+	public static void unregister(final ObjectName objectName) {
+		if (objectName == null) {
+			return;
+		}
+
+		try {
+			final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			if (mBeanServer.isRegistered(objectName)) {
+				mBeanServer.unregisterMBean(objectName);
+			}
+		} catch (final JMException e) {
+			AsyncLogger.error().append("The metrics ").append(objectName.toString())
+					.append(" could not be unregistered: ").append(e.getMessage()).commit();
+		}
+	}
+
+}
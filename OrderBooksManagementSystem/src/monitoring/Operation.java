@@ -0,0 +1,22 @@
+package monitoring;
+
+/**
+ * The operations of the order books whose latency is recorded
+ *
+ *
+ * @author Jules
+ *
+ */
+public enum Operation {
+
+	ADD_ORDER,
+
+	ADD_EXECUTION,
+
+	PROCESS_EXECUTIONS,
+
+	STATISTICS,
+
+	AUDIT_EXPORT;
+
+}
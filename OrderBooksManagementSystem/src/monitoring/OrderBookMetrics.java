@@ -0,0 +1,261 @@
+package monitoring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds one latency histogram per operation and the accepted / rejected
+ * counters of an order book (or of the book manager).
+ *
+ * The instrumentation can be turned off completely by starting the JVM with
+ * -Dorderbook.metrics.disabled=true: since the flag is a static final, the JIT
+ * removes the timing calls from the hot paths in that case.
+ *
+ * A histogram takes tens of kilobytes, so it is only created on the first
+ * latency recorded for its operation: a book whose metrics are disabled, or
+ * which never ran an operation, has none.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookMetrics implements OrderBookMetricsMXBean {
+
+	/**
+	 * Whether the latencies and counters are recorded
+	 */
+	public static final boolean ENABLED = !Boolean.getBoolean("orderbook.metrics.disabled");
+
+	/**
+	 * The histogram of the operations never recorded, always empty
+	 */
+	private static final LatencyHistogram EMPTY_HISTOGRAM = new LatencyHistogram();
+
+	/**
+	 * One histogram per operation, indexed by the ordinal of the operation, null
+	 * until the first latency of the operation is recorded
+	 */
+	private final AtomicReferenceArray<LatencyHistogram> histograms = new AtomicReferenceArray<LatencyHistogram>(
+			Operation.values().length);
+
+	private final AtomicLong acceptedOrders = new AtomicLong();
+
+	private final AtomicLong rejectedOrders = new AtomicLong();
+
+	private final AtomicLong throttledOrders = new AtomicLong();
+
+	private final AtomicLong duplicateOrders = new AtomicLong();
+
+	private final AtomicLong riskRejectedOrders = new AtomicLong();
+
+	private final AtomicLong acceptedExecutions = new AtomicLong();
+
+	private final AtomicLong rejectedExecutions = new AtomicLong();
+
+	/**
+	 * Returns the start time of an operation, to be given back to
+	 * {@link #recordLatency(Operation, long)} when the operation is over
+	 *
+	 * @return the current time in nanoseconds, or 0 if the metrics are disabled
+	 */
+	public static long startTimer() {
+		return (ENABLED ? System.nanoTime() : 0);
+	}
+
+	/**
+	 * Records the latency of an operation
+	 *
+	 * @param operation
+	 *            the operation
+	 * @param startNanos
+	 *            the value returned by {@link #startTimer()} when the operation
+	 *            started
+	 */
+	public void recordLatency(final Operation operation, final long startNanos) {
+		if (ENABLED) {
+			final long latency = System.nanoTime() - startNanos;
+			LatencyHistogram histogram = histograms.get(operation.ordinal());
+			if (histogram == null) {
+				// the first latency of the operation: another thread may create it too
+				histograms.compareAndSet(operation.ordinal(), null, new LatencyHistogram());
+				histogram = histograms.get(operation.ordinal());
+			}
+			histogram.recordValue(latency);
+		}
+	}
+
+	public void orderAccepted() {
+		if (ENABLED) {
+			acceptedOrders.incrementAndGet();
+		}
+	}
+
+	public void orderRejected() {
+		if (ENABLED) {
+			rejectedOrders.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts an order rejected because the intake rate of the book was exceeded,
+	 * also counted as rejected
+	 */
+	public void orderThrottled() {
+		if (ENABLED) {
+			throttledOrders.incrementAndGet();
+			rejectedOrders.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts an order rejected because its client order id was already used in
+	 * the book, also counted as rejected
+	 */
+	public void orderDuplicated() {
+		if (ENABLED) {
+			duplicateOrders.incrementAndGet();
+			rejectedOrders.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Counts an order rejected because it exceeded the risk limits of its
+	 * account, also counted as rejected
+	 */
+	public void orderRiskRejected() {
+		if (ENABLED) {
+			riskRejectedOrders.incrementAndGet();
+			rejectedOrders.incrementAndGet();
+		}
+	}
+
+	public void executionAccepted() {
+		if (ENABLED) {
+			acceptedExecutions.incrementAndGet();
+		}
+	}
+
+	public void executionRejected() {
+		if (ENABLED) {
+			rejectedExecutions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns the histogram of an operation
+	 *
+	 * @param operation
+	 *            the operation
+	 * @return the histogram, a shared empty one if no latency of the operation
+	 *         was recorded yet
+	 */
+	public LatencyHistogram getHistogram(final Operation operation) {
+		final LatencyHistogram histogram = histograms.get(operation.ordinal());
+		return (histogram == null ? EMPTY_HISTOGRAM : histogram);
+	}
+
+	/* ********************** MXBean functions *********************** */
+
+	@Override
+	public long getAcceptedOrders() {
+		return acceptedOrders.get();
+	}
+
+	@Override
+	public long getRejectedOrders() {
+		return rejectedOrders.get();
+	}
+
+	@Override
+	public long getThrottledOrders() {
+		return throttledOrders.get();
+	}
+
+	@Override
+	public long getDuplicateOrders() {
+		return duplicateOrders.get();
+	}
+
+	@Override
+	public long getRiskRejectedOrders() {
+		return riskRejectedOrders.get();
+	}
+
+	@Override
+	public long getAcceptedExecutions() {
+		return acceptedExecutions.get();
+	}
+
+	@Override
+	public long getRejectedExecutions() {
+		return rejectedExecutions.get();
+	}
+
+	@Override
+	public Map<String, Long> getLatencyCounts() {
+		final Map<String, Long> latencyCounts = new LinkedHashMap<>();
+		for (final Operation operation : Operation.values()) {
+			latencyCounts.put(operation.name(), getHistogram(operation).getTotalCount());
+		}
+		return latencyCounts;
+	}
+
+	@Override
+	public Map<String, Long> getMedianLatenciesNanos() {
+		return getLatenciesAtPercentile(50);
+	}
+
+	@Override
+	public Map<String, Long> getP99LatenciesNanos() {
+		return getLatenciesAtPercentile(99);
+	}
+
+	@Override
+	public Map<String, Long> getMaxLatenciesNanos() {
+		final Map<String, Long> maxLatencies = new LinkedHashMap<>();
+		for (final Operation operation : Operation.values()) {
+			maxLatencies.put(operation.name(), getHistogram(operation).getMaxValue());
+		}
+		return maxLatencies;
+	}
+
+	@Override
+	public long getLatencyAtPercentileNanos(final String operation, final double percentile) {
+		return getHistogram(Operation.valueOf(operation)).getValueAtPercentile(percentile);
+	}
+
+	@Override
+	public void reset() {
+		for (int i = 0; i < histograms.length(); i++) {
+			final LatencyHistogram histogram = histograms.get(i);
+			if (histogram != null) {
+				histogram.reset();
+			}
+		}
+		acceptedOrders.set(0);
+		rejectedOrders.set(0);
+		throttledOrders.set(0);
+		duplicateOrders.set(0);
+		riskRejectedOrders.set(0);
+		acceptedExecutions.set(0);
+		rejectedExecutions.set(0);
+	}
+
+	/**
+	 * Returns, for each operation, the latency at a given percentile
+	 *
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the latencies in nanoseconds, by operation name
+	 */
+	private Map<String, Long> getLatenciesAtPercentile(final double percentile) {
+		final Map<String, Long> latencies = new LinkedHashMap<>();
+		for (final Operation operation : Operation.values()) {
+			latencies.put(operation.name(), getHistogram(operation).getValueAtPercentile(percentile));
+		}
+		return latencies;
+	}
+
+}
@@ -0,0 +1,77 @@
+package monitoring;
+
+import java.util.Map;
+
+/**
+ * The management interface exposing the latencies and the counters of an order
+ * book (or of the book manager) through JMX, e.g. in JConsole or VisualVM
+ *
+ *
+ * @author Jules
+ *
+ */
+public interface OrderBookMetricsMXBean {
+
+	long getAcceptedOrders();
+
+	long getRejectedOrders();
+
+	/**
+	 * @return the amount of orders rejected because the intake rate of the book
+	 *         was exceeded
+	 */
+	long getThrottledOrders();
+
+	/**
+	 * @return the amount of orders rejected because their client order id was
+	 *         already used in the book
+	 */
+	long getDuplicateOrders();
+
+	/**
+	 * @return the amount of orders rejected because they exceeded the risk
+	 *         limits of their account
+	 */
+	long getRiskRejectedOrders();
+
+	long getAcceptedExecutions();
+
+	long getRejectedExecutions();
+
+	/**
+	 * @return for each operation, the amount of recorded latencies
+	 */
+	Map<String, Long> getLatencyCounts();
+
+	/**
+	 * @return for each operation, the median latency in nanoseconds
+	 */
+	Map<String, Long> getMedianLatenciesNanos();
+
+	/**
+	 * @return for each operation, the 99th percentile latency in nanoseconds
+	 */
+	Map<String, Long> getP99LatenciesNanos();
+
+	/**
+	 * @return for each operation, the maximum latency in nanoseconds
+	 */
+	Map<String, Long> getMaxLatenciesNanos();
+
+	/**
+	 * Returns the latency of an operation at a given percentile
+	 *
+	 * @param operation
+	 *            the name of the operation, e.g. ADD_ORDER
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the latency in nanoseconds
+	 */
+	long getLatencyAtPercentileNanos(String operation, double percentile);
+
+	/**
+	 * Clears all latencies and counters
+	 */
+	void reset();
+
+}
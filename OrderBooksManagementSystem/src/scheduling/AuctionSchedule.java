@@ -0,0 +1,56 @@
+package scheduling;
+
+/**
+ * The timeouts opening, closing and processing a book at the times of its
+ * auction window
+ *
+ *
+ * @author Jules
+ *
+ */
+public class AuctionSchedule {
+
+	private final Timeout openTimeout;
+
+	private final Timeout closeTimeout;
+
+	private final Timeout processTimeout;
+
+	/**
+	 * Constructor
+	 *
+	 * @param openTimeout
+	 *            the timeout opening the book
+	 * @param closeTimeout
+	 *            the timeout closing the book
+	 * @param processTimeout
+	 *            the timeout processing the book
+	 */
+	public AuctionSchedule(final Timeout openTimeout, final Timeout closeTimeout, final Timeout processTimeout) {
+		this.openTimeout = openTimeout;
+		this.closeTimeout = closeTimeout;
+		this.processTimeout = processTimeout;
+	}
+
+	/**
+	 * Cancels the steps of the auction that did not happen yet
+	 */
+	public void cancel() {
+		openTimeout.cancel();
+		closeTimeout.cancel();
+		processTimeout.cancel();
+	}
+
+	public Timeout getOpenTimeout() {
+		return openTimeout;
+	}
+
+	public Timeout getCloseTimeout() {
+		return closeTimeout;
+	}
+
+	public Timeout getProcessTimeout() {
+		return processTimeout;
+	}
+
+}
@@ -0,0 +1,219 @@
+package scheduling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import model.BookState;
+import model.OrderBook;
+import model.OrderBookManager;
+
+/**
+ * Opens, closes and processes books at given times (auction windows,
+ * staggered closes...), using a single hashed timer wheel for all the books:
+ * no thread per book and no polling of the books.
+ *
+ * The times are wall-clock times (milliseconds since the epoch). The books are
+ * not synchronized: when an action is due, the thread of the wheel hands it to
+ * the executor of the thread changing the books (e.g. the
+ * {@link gateway.OrderEntryGateway}), which does it through the
+ * {@link OrderBookManager}, so that a processed book is exported and archived
+ * as when it is processed by any other entry point.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookScheduler {
+
+	/**
+	 * The default precision of the scheduler, in milliseconds
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	/**
+	 * The default amount of buckets of the wheel: with 10 ms ticks, a turn takes
+	 * about 5 seconds
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	/**
+	 * The manager of the books
+	 */
+	private final OrderBookManager orderBookManager;
+
+	/**
+	 * Runs the actions on the thread changing the books
+	 */
+	private final Executor bookExecutor;
+
+	/**
+	 * The wheel telling when the actions are due
+	 */
+	private final HashedTimerWheel timerWheel;
+
+	/**
+	 * Constructor, with the default precision
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books
+	 * @param bookExecutor
+	 *            runs the actions on the thread changing the books
+	 */
+	public BookScheduler(final OrderBookManager orderBookManager, final Executor bookExecutor) {
+		this(orderBookManager, bookExecutor,
+				new HashedTimerWheel(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE, "book-scheduler"));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param orderBookManager
+	 *            the manager of the books
+	 * @param bookExecutor
+	 *            runs the actions on the thread changing the books
+	 * @param timerWheel
+	 *            the wheel telling when the actions are due
+	 */
+	public BookScheduler(final OrderBookManager orderBookManager, final Executor bookExecutor,
+			final HashedTimerWheel timerWheel) {
+		this.orderBookManager = orderBookManager;
+		this.bookExecutor = bookExecutor;
+		this.timerWheel = timerWheel;
+	}
+
+	/**
+	 * Opens a book at a given time, unless it was already opened
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @param openAtMillis
+	 *            the time, in milliseconds since the epoch
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout scheduleOpen(final OrderBook orderBook, final long openAtMillis) {
+		final String symbol = orderBook.getFinancialInstrument().getName();
+		return scheduleAt(new Runnable() {
+
+			@Override
+			public void run() {
+				orderBookManager.openBook(symbol);
+			}
+
+		}, openAtMillis);
+	}
+
+	/**
+	 * Closes a book at a given time, if it is open at that time
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @param closeAtMillis
+	 *            the time, in milliseconds since the epoch
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout scheduleClose(final OrderBook orderBook, final long closeAtMillis) {
+		final String symbol = orderBook.getFinancialInstrument().getName();
+		return scheduleAt(new Runnable() {
+
+			@Override
+			public void run() {
+				orderBookManager.closeBook(symbol);
+			}
+
+		}, closeAtMillis);
+	}
+
+	/**
+	 * Processes the executions of a book at a given time, if it is closed and
+	 * not processed yet at that time
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @param processAtMillis
+	 *            the time, in milliseconds since the epoch
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout scheduleProcess(final OrderBook orderBook, final long processAtMillis) {
+		final String symbol = orderBook.getFinancialInstrument().getName();
+		return scheduleAt(new Runnable() {
+
+			@Override
+			public void run() {
+				if (orderBook.getState() == BookState.CLOSED) {
+					orderBookManager.processBook(symbol);
+				}
+			}
+
+		}, processAtMillis);
+	}
+
+	/**
+	 * Schedules the whole auction window of a book
+	 *
+	 * @param orderBook
+	 *            the book
+	 * @param openAtMillis
+	 *            when the book opens
+	 * @param closeAtMillis
+	 *            when the book closes
+	 * @param processAtMillis
+	 *            when the executions of the book are processed
+	 * @return the schedule, which can be cancelled
+	 */
+	public AuctionSchedule scheduleAuction(final OrderBook orderBook, final long openAtMillis,
+			final long closeAtMillis, final long processAtMillis) {
+		return new AuctionSchedule(scheduleOpen(orderBook, openAtMillis), scheduleClose(orderBook, closeAtMillis),
+				scheduleProcess(orderBook, processAtMillis));
+	}
+
+	/**
+	 * Closes books one after the other, e.g. to spread the closing of many books
+	 *
+	 * @param orderBooks
+	 *            the books, in closing order
+	 * @param firstCloseAtMillis
+	 *            when the first book closes
+	 * @param intervalMillis
+	 *            the time between two closes
+	 * @return the timeouts, one per book
+	 */
+	public List<Timeout> scheduleStaggeredCloses(final List<OrderBook> orderBooks, final long firstCloseAtMillis,
+			final long intervalMillis) {
+		final ArrayList<Timeout> timeouts = new ArrayList<Timeout>(orderBooks.size());
+		for (int i = 0; i < orderBooks.size(); i++) {
+			timeouts.add(scheduleClose(orderBooks.get(i), firstCloseAtMillis + (i * intervalMillis)));
+		}
+		return timeouts;
+	}
+
+	/**
+	 * Stops the scheduler. The actions not done yet never will be.
+	 */
+	public void stop() {
+		timerWheel.stop();
+	}
+
+	/**
+	 * Schedules an action at a wall-clock time, to be run by the executor of the
+	 * books
+	 *
+	 * @param action
+	 *            the action
+	 * @param atMillis
+	 *            the time, in milliseconds since the epoch
+	 * @return the timeout
+	 */
+	private Timeout scheduleAt(final Runnable action, final long atMillis) {
+		return timerWheel.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				bookExecutor.execute(action);
+			}
+
+		}, atMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+	}
+
+}
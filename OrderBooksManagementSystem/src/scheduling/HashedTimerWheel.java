@@ -0,0 +1,295 @@
+package scheduling;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel: a ring of buckets, one per tick, turned by a single
+ * thread. A timeout is put in the bucket of its deadline (modulo the size of
+ * the wheel) with the amount of turns left before it expires, so scheduling
+ * and cancelling are done in constant time however many timeouts are pending.
+ * The price is the precision, which is one tick.
+ *
+ * Timeouts can be scheduled and cancelled from any thread: the requests are
+ * queued and applied by the thread of the wheel, which also runs the tasks.
+ * The tasks must therefore be short.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class HashedTimerWheel {
+
+	/**
+	 * A bucket of the wheel: a doubly linked list of timeouts. Only used by the
+	 * thread of the wheel.
+	 */
+	static class Bucket {
+
+		private Timeout head;
+
+		private Timeout tail;
+
+		private void add(final Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = timeout;
+				tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private void remove(final Timeout timeout) {
+			if (timeout.previous != null) {
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.previous = timeout.previous;
+			}
+			if (timeout == head) {
+				head = timeout.next;
+			}
+			if (timeout == tail) {
+				tail = timeout.previous;
+			}
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Expires the timeouts of the bucket due in this turn of the wheel, and
+		 * counts down the others
+		 */
+		private void expireTimeouts(final long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				final Timeout next = timeout.next;
+				if (timeout.isCancelled()) {
+					remove(timeout);
+				} else if ((timeout.remainingRounds <= 0) && (timeout.deadline <= deadline)) {
+					remove(timeout);
+					timeout.expire();
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+	}
+
+	/**
+	 * The maximum amount of new timeouts put in the buckets per tick, so that a
+	 * burst of scheduling does not delay the expiration of the current bucket
+	 */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+	/**
+	 * The duration of a tick, in nanoseconds
+	 */
+	private final long tickNanos;
+
+	/**
+	 * The buckets. Their amount is a power of 2, so the bucket of a tick is found
+	 * with a mask.
+	 */
+	private final Bucket[] buckets;
+
+	private final int mask;
+
+	/**
+	 * The timeouts scheduled but not yet put in a bucket
+	 */
+	private final ConcurrentLinkedQueue<Timeout> scheduledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * The timeouts cancelled but not yet removed from their bucket
+	 */
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * The start time of the wheel. The deadlines are relative to it.
+	 */
+	private final long startNanos;
+
+	/**
+	 * The thread turning the wheel
+	 */
+	private final Thread workerThread;
+
+	/**
+	 * The current tick. Only used by the thread of the wheel.
+	 */
+	private long tick = 0;
+
+	private volatile boolean running = true;
+
+	/**
+	 * Constructor. Starts the thread of the wheel.
+	 *
+	 * @param tickDuration
+	 *            the duration of a tick, i.e. the precision of the wheel
+	 * @param unit
+	 *            the unit of the tick duration
+	 * @param wheelSize
+	 *            the amount of buckets, rounded up to a power of 2. Timeouts
+	 *            further than wheelSize ticks stay in their bucket for several
+	 *            turns.
+	 * @param threadName
+	 *            the name of the thread of the wheel
+	 */
+	public HashedTimerWheel(final long tickDuration, final TimeUnit unit, final int wheelSize,
+			final String threadName) {
+		tickNanos = Math.max(1, unit.toNanos(tickDuration));
+
+		int bucketCount = 1;
+		while (bucketCount < wheelSize) {
+			bucketCount <<= 1;
+		}
+		buckets = new Bucket[bucketCount];
+		for (int i = 0; i < bucketCount; i++) {
+			buckets[i] = new Bucket();
+		}
+		mask = bucketCount - 1;
+
+		startNanos = System.nanoTime();
+		workerThread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				turn();
+			}
+
+		}, threadName);
+		workerThread.setDaemon(true);
+		workerThread.start();
+	}
+
+	/**
+	 * Schedules a task
+	 *
+	 * @param task
+	 *            the task, run on the thread of the wheel
+	 * @param delay
+	 *            the delay before running the task, 0 or negative to run it at the
+	 *            next tick
+	 * @param unit
+	 *            the unit of the delay
+	 * @return the timeout, which can be cancelled
+	 */
+	public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+		final long deadline = (System.nanoTime() - startNanos) + unit.toNanos(Math.max(0, delay));
+		final Timeout timeout = new Timeout(this, task, deadline);
+		scheduledTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the wheel. The pending timeouts never expire.
+	 */
+	public void stop() {
+		running = false;
+		workerThread.interrupt();
+	}
+
+	/**
+	 * Called by a timeout when it is cancelled
+	 *
+	 * @param timeout
+	 *            the cancelled timeout
+	 */
+	void onCancelled(final Timeout timeout) {
+		cancelledTimeouts.add(timeout);
+	}
+
+	/**
+	 * The loop of the thread of the wheel: at each tick, applies the scheduling
+	 * and cancelling requests, then expires the timeouts of the current bucket
+	 */
+	private void turn() {
+		while (running) {
+			final long deadline = waitForNextTick();
+			if (deadline < 0) {
+				break;
+			}
+
+			removeCancelledTimeouts();
+			transferScheduledTimeouts();
+			buckets[(int) (tick & mask)].expireTimeouts(deadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleeps until the end of the current tick
+	 *
+	 * @return the time at the end of the tick (relative to the start of the
+	 *         wheel), or -1 if the wheel was stopped
+	 */
+	private long waitForNextTick() {
+		final long deadline = tickNanos * (tick + 1);
+
+		while (running) {
+			final long currentTime = System.nanoTime() - startNanos;
+			final long sleepTimeMillis = ((deadline - currentTime) + 999999) / 1000000;
+
+			if (sleepTimeMillis <= 0) {
+				return currentTime;
+			}
+
+			try {
+				Thread.sleep(sleepTimeMillis);
+			} catch (final InterruptedException e) {
+				// stopped, running is false
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Puts the newly scheduled timeouts in the bucket of their deadline
+	 */
+	private void transferScheduledTimeouts() {
+		for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			final Timeout timeout = scheduledTimeouts.poll();
+			if (timeout == null) {
+				break;
+			}
+			if (timeout.isCancelled()) {
+				continue;
+			}
+
+			final long deadlineTick = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+
+			// a timeout already late goes in the current bucket
+			final long bucketTick = Math.max(deadlineTick, tick);
+			buckets[(int) (bucketTick & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * Removes the cancelled timeouts from their bucket
+	 */
+	private void removeCancelledTimeouts() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	/**
+	 * @return the amount of timeouts scheduled but not yet put in a bucket
+	 */
+	public int getScheduledTimeoutsWaitingForTransfer() {
+		return scheduledTimeouts.size();
+	}
+
+}
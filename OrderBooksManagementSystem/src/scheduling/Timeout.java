@@ -0,0 +1,119 @@
+package scheduling;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import logging.AsyncLogger;
+
+/**
+ * A task scheduled in a {@link HashedTimerWheel}. It sits in a bucket of the
+ * wheel (a doubly linked list), so it can be removed in constant time when it
+ * is cancelled.
+ *
+ *
+ * @author Jules
+ *
+ */
+public class Timeout {
+
+	private static final int STATE_PENDING = 0;
+
+	private static final int STATE_CANCELLED = 1;
+
+	private static final int STATE_EXPIRED = 2;
+
+	/**
+	 * The wheel holding the timeout
+	 */
+	private final HashedTimerWheel wheel;
+
+	/**
+	 * The task to run when the timeout expires
+	 */
+	private final Runnable task;
+
+	/**
+	 * The deadline, in nanoseconds since the start of the wheel
+	 */
+	final long deadline;
+
+	/**
+	 * The amount of full turns of the wheel left before the timeout expires. Only
+	 * used by the thread of the wheel.
+	 */
+	long remainingRounds;
+
+	/*
+	 * The neighbours in the bucket. Only used by the thread of the wheel.
+	 */
+
+	Timeout previous;
+
+	Timeout next;
+
+	/**
+	 * The bucket holding the timeout, null while not in a bucket
+	 */
+	HashedTimerWheel.Bucket bucket;
+
+	/**
+	 * Pending, cancelled or expired
+	 */
+	private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+	/**
+	 * Constructor
+	 *
+	 * @param wheel
+	 *            the wheel holding the timeout
+	 * @param task
+	 *            the task to run when the timeout expires
+	 * @param deadline
+	 *            the deadline, in nanoseconds since the start of the wheel
+	 */
+	Timeout(final HashedTimerWheel wheel, final Runnable task, final long deadline) {
+		this.wheel = wheel;
+		this.task = task;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * Cancels the timeout, if it did not expire yet. Can be called from any
+	 * thread.
+	 *
+	 * @return true if the timeout was cancelled, false if it already expired or
+	 *         was already cancelled
+	 */
+	public boolean cancel() {
+		if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+			return false;
+		}
+		wheel.onCancelled(this);
+		return true;
+	}
+
+	/**
+	 * Runs the task, unless the timeout was cancelled meanwhile. Called by the
+	 * thread of the wheel.
+	 */
+	void expire() {
+		if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+			return;
+		}
+
+		try {
+			task.run();
+		} catch (final RuntimeException e) {
+			// a failing task must not stop the wheel
+			AsyncLogger.error().append("A scheduled task failed: ").append(e.toString()).commit();
+		}
+	}
+
+	public boolean isCancelled() {
+		return state.get() == STATE_CANCELLED;
+	}
+
+	public boolean isExpired() {
+		return state.get() == STATE_EXPIRED;
+	}
+
+}
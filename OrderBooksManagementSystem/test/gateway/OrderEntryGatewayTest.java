@@ -0,0 +1,147 @@
+package gateway;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import customexceptions.OrderBookExceptionCode;
+import model.OrderBook;
+import model.OrderBookManager;
+
+/**
+ * Round trips through a gateway listening to an ephemeral port of the loopback
+ * interface
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderEntryGatewayTest {
+
+	private static final String SYMBOL = "GTW";
+
+	private OrderBookManager orderBookManager;
+
+	private OrderBook orderBook;
+
+	private OrderEntryGateway gateway;
+
+	@Before
+	public void setUp() throws IOException {
+		orderBookManager = new OrderBookManager();
+		orderBook = orderBookManager.createOrderBook(orderBookManager.getInstrumentRegistry().intern(SYMBOL));
+		gateway = new OrderEntryGateway(orderBookManager, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	@After
+	public void tearDown() {
+		gateway.stop();
+	}
+
+	private GatewayClient connect() throws IOException {
+		return new GatewayClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), gateway.getPort()));
+	}
+
+	/**
+	 * Receives the acknowledgement of a request
+	 */
+	private static Acknowledgement receive(final GatewayClient client, final long correlationId) throws IOException {
+		final Acknowledgement acknowledgement = client.receiveAcknowledgement();
+		assertEquals(correlationId, acknowledgement.getCorrelationId());
+		return acknowledgement;
+	}
+
+	@Test(timeout = 10000)
+	public void ordersAreAcceptedAndAcknowledged() throws IOException {
+		gateway.start();
+		try (GatewayClient client = connect()) {
+			assertTrue(receive(client, client.sendOpenBook(SYMBOL)).isAccepted());
+
+			// pipelined: the acknowledgements come back in the order of the requests
+			final long limitOrder = client.sendLimitOrder(SYMBOL, 10, 20, 1);
+			final long marketOrder = client.sendMarketOrder(SYMBOL, 5);
+			final Acknowledgement limitAcknowledgement = receive(client, limitOrder);
+			final Acknowledgement marketAcknowledgement = receive(client, marketOrder);
+			assertTrue(limitAcknowledgement.isAccepted());
+			assertTrue(marketAcknowledgement.isAccepted());
+			assertNotNull(orderBook.getOrderById(limitAcknowledgement.getOrderId()));
+			assertNotNull(orderBook.getOrderById(marketAcknowledgement.getOrderId()));
+
+			assertTrue(receive(client, client.sendCloseBook(SYMBOL)).isAccepted());
+			assertTrue(receive(client, client.sendExecution(SYMBOL, 15, 18)).isAccepted());
+			assertTrue(orderBook.isProcessed());
+			assertEquals(10, orderBook.getOrderById(limitAcknowledgement.getOrderId()).getSatisfiedQuantity());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void refusedRequestsGetTheirCode() throws IOException {
+		gateway.start();
+		try (GatewayClient client = connect()) {
+			final long unknown = client.sendLimitOrder("NONE", 10, 20);
+			final long closed = client.sendLimitOrder(SYMBOL, 10, 20);
+			// nothing is demanded yet
+			final long noDemand = client.sendExecution(SYMBOL, 10, 20);
+			final long open = client.sendOpenBook(SYMBOL);
+			final long malformed = client.sendLimitOrder(SYMBOL, 0, 20);
+			final long first = client.sendLimitOrder(SYMBOL, 10, 20, 42);
+			final long duplicate = client.sendLimitOrder(SYMBOL, 10, 20, 42);
+			final long onOpenBook = client.sendExecution(SYMBOL, 10, 20);
+
+			assertEquals(OrderBookExceptionCode.UNKNOWN_INSTRUMENT, receive(client, unknown).getStatus());
+			assertEquals(OrderBookExceptionCode.ADD_ORDER_ON_CLOSED_BOOK_EXCEPTION_MESSAGE,
+					receive(client, closed).getStatus());
+			assertEquals(OrderBookExceptionCode.EXECUTION_OFFER_EXCEEDS_DEMAND, receive(client, noDemand).getStatus());
+			assertTrue(receive(client, open).isAccepted());
+			final Acknowledgement malformedAcknowledgement = receive(client, malformed);
+			assertEquals(OrderBookExceptionCode.MALFORMED_REQUEST, malformedAcknowledgement.getStatus());
+			assertNull(malformedAcknowledgement.getOrderId());
+			assertTrue(receive(client, first).isAccepted());
+			assertEquals(OrderBookExceptionCode.DUPLICATE_CLIENT_ORDER_ID, receive(client, duplicate).getStatus());
+			assertEquals(OrderBookExceptionCode.ADD_EXECUTION_ON_OPEN_BOOK_EXCEPTION_MESSAGE,
+					receive(client, onOpenBook).getStatus());
+			assertEquals(1, orderBook.getTotalAmountOfOrders());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void eachSourceIsThrottledOnItsOwn() throws IOException {
+		// one order at once, then one every 100 ms
+		gateway.setSourceRateLimit(10, 1);
+		gateway.start();
+		try (GatewayClient throttled = connect(); GatewayClient other = connect()) {
+			assertTrue(receive(throttled, throttled.sendOpenBook(SYMBOL)).isAccepted());
+
+			final long start = System.nanoTime();
+			final long[] orders = new long[4];
+			for (int i = 0; i < orders.length; i++) {
+				orders[i] = throttled.sendLimitOrder(SYMBOL, 1, 20);
+			}
+			assertTrue(receive(throttled, orders[0]).isAccepted());
+
+			// the other connection has its own rate: it is served while the first one
+			// waits for its next orders
+			final long otherStart = System.nanoTime();
+			assertTrue(receive(other, other.sendLimitOrder(SYMBOL, 1, 20)).isAccepted());
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - otherStart) < 250);
+
+			// the orders above the rate are delayed, not refused
+			for (int i = 1; i < orders.length; i++) {
+				assertTrue(receive(throttled, orders[i]).isAccepted());
+			}
+			assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 250);
+			assertEquals(orders.length + 1, orderBook.getTotalAmountOfOrders());
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests of the JSON written by the statistics server: escaping, numbers and
+ * separators
+ *
+ *
+ * @author Jules
+ *
+ */
+public class JsonWriterTest {
+
+	private static String text(final JsonWriter json) {
+		return new String(json.getBytes(), 0, json.getLength(), StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void stringsAreEscaped() {
+		final JsonWriter json = new JsonWriter();
+		json.beginArray();
+		json.value("say \"hi\"");
+		json.value("C:\\books");
+		json.value("tab\tline\n");
+		json.value("caf\u00e9 \u20ac");
+		json.value((String) null);
+		json.endArray();
+		assertEquals("[\"say \\\"hi\\\"\",\"C:\\\\books\",\"tab\\u0009line\\u000a\","
+				+ "\"caf\\u00e9 \\u20ac\",null]", text(json));
+	}
+
+	@Test
+	public void namesAreEscaped() {
+		final JsonWriter json = new JsonWriter();
+		json.beginObject().name("a\"b").value(1).endObject();
+		assertEquals("{\"a\\\"b\":1}", text(json));
+	}
+
+	@Test
+	public void nanAndInfinitiesAreNull() {
+		final JsonWriter json = new JsonWriter();
+		json.beginObject();
+		json.name("nan").value(Double.NaN);
+		json.name("positive").value(Double.POSITIVE_INFINITY);
+		json.name("negative").value(Double.NEGATIVE_INFINITY);
+		json.name("after").value(true);
+		json.endObject();
+		assertEquals("{\"nan\":null,\"positive\":null,\"negative\":null,\"after\":true}", text(json));
+	}
+
+	@Test
+	public void numbersAreWrittenAsJava() {
+		final JsonWriter json = new JsonWriter();
+		json.beginArray();
+		json.value(15.0);
+		json.value(-2.5);
+		json.value(1e20);
+		json.value(0L);
+		json.value(-1234567890123L);
+		json.value(Long.MIN_VALUE);
+		json.value(Long.MAX_VALUE);
+		json.endArray();
+		assertEquals("[15,-2.5,1.0E20,0,-1234567890123,-9223372036854775808,9223372036854775807]", text(json));
+	}
+
+	@Test
+	public void nestedValuesAreSeparated() {
+		final JsonWriter json = new JsonWriter();
+		json.beginObject();
+		json.name("books").beginArray();
+		json.beginObject().name("symbol").value("A").name("open").value(false).endObject();
+		json.beginObject().endObject();
+		json.beginArray().endArray();
+		json.endArray();
+		json.name("count").value(2);
+		json.endObject();
+		assertEquals("{\"books\":[{\"symbol\":\"A\",\"open\":false},{},[]],\"count\":2}", text(json));
+	}
+
+	@Test
+	public void resetStartsANewDocument() {
+		final JsonWriter json = new JsonWriter();
+		final StringBuilder expected = new StringBuilder("[");
+		json.beginArray();
+		// grows the buffer
+		for (int i = 0; i < 10000; i++) {
+			json.value(i);
+			expected.append(i == 0 ? "" : ",").append(i);
+		}
+		json.endArray();
+		assertEquals(expected.append(']').toString(), text(json));
+
+		json.reset().beginArray().value("x").endArray();
+		assertEquals("[\"x\"]", text(json));
+	}
+
+}
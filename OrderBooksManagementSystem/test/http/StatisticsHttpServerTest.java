@@ -0,0 +1,134 @@
+package http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Execution;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.orders.LimitOrder;
+
+/**
+ * Tests of the statistics server, requested over the loopback on an ephemeral
+ * port
+ *
+ *
+ * @author Jules
+ *
+ */
+public class StatisticsHttpServerTest {
+
+	private OrderBookManager orderBookManager;
+
+	private OrderBook orderBook;
+
+	private StatisticsHttpServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		orderBookManager = new OrderBookManager();
+		orderBook = orderBookManager.createOrderBook(orderBookManager.getInstrumentRegistry().intern("WEB"));
+		server = new StatisticsHttpServer(orderBookManager,
+				new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop();
+	}
+
+	private HttpURLConnection open(final String path, final String method) throws IOException {
+		final URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), path);
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(5000);
+		connection.setReadTimeout(5000);
+		return connection;
+	}
+
+	/**
+	 * Sends a request and returns the body of the answer, checking its status
+	 * and its type
+	 */
+	private String request(final String path, final String method, final int expectedStatus) throws IOException {
+		final HttpURLConnection connection = open(path, method);
+		try {
+			assertEquals(expectedStatus, connection.getResponseCode());
+			assertEquals("application/json", connection.getContentType());
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			try (InputStream input = (expectedStatus < 400 ? connection.getInputStream()
+					: connection.getErrorStream())) {
+				final byte[] buffer = new byte[4096];
+				int read;
+				while ((read = input.read(buffer)) >= 0) {
+					body.write(buffer, 0, read);
+				}
+			}
+			return new String(body.toByteArray(), StandardCharsets.US_ASCII);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void booksAreListed() throws IOException {
+		orderBook.open();
+		orderBook.addLimitOrder(10, 20);
+		assertEquals("[{\"symbol\":\"WEB\",\"version\":" + orderBook.snapshot().getVersion()
+				+ ",\"matchingMode\":\"" + orderBook.getMatchingMode().name()
+				+ "\",\"open\":true,\"processed\":false,\"totalAmountOfOrders\":1}]", request("/books", "GET", 200));
+	}
+
+	@Test(timeout = 10000)
+	public void statisticsOfAProcessedBook() throws IOException {
+		orderBook.open();
+		final LimitOrder order = orderBook.addLimitOrder(10, 20);
+		orderBook.close();
+		orderBook.addExecution(new Execution(10, 15.5));
+		assertTrue(orderBook.isProcessed());
+
+		final String statistics = request("/books/WEB/statistics2", "GET", 200);
+		assertTrue(statistics, statistics.startsWith("{\"symbol\":\"WEB\","));
+		assertTrue(statistics, statistics.contains("\"amountOfValidOrders\":1,\"amountOfInvalidOrders\":0,"
+				+ "\"demandOfValidOrders\":10,\"demandOfInvalidOrders\":0,"));
+		assertTrue(statistics, statistics.contains("\"limitBreakDown\":[{\"limitPrice\":20,\"demand\":10}]"));
+		assertTrue(statistics, statistics.endsWith("\"totalExecutionQuantity\":10,\"executionPrice\":15.5}"));
+
+		final String orderStatistics = request("/orders/" + order.getId(), "GET", 200);
+		assertTrue(orderStatistics, orderStatistics.contains("\"id\":\"" + order.getId()
+				+ "\",\"valid\":true,\"executionQuantity\":10,\"orderPrice\":15.5,\"executionPrice\":155}"));
+	}
+
+	@Test(timeout = 10000)
+	public void unknownResourcesAreNotFound() throws IOException {
+		assertTrue(request("/books/NONE/statistics1", "GET", 404).startsWith("{\"error\":"));
+		assertTrue(request("/books/WEB/history", "GET", 404).startsWith("{\"error\":"));
+		assertTrue(request("/orders/not-an-id", "GET", 404).startsWith("{\"error\":"));
+	}
+
+	@Test(timeout = 10000)
+	public void onlyGetIsAllowed() throws IOException {
+		final HttpURLConnection connection = open("/books", "DELETE");
+		try {
+			assertEquals(405, connection.getResponseCode());
+			assertEquals("GET", connection.getHeaderField("Allow"));
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package logging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests of the logger: order of the messages, reuse of the ring, messages
+ * dropped or waited for when the ring is full, and flush
+ *
+ *
+ * @author Jules
+ *
+ */
+public class AsyncLoggerTest {
+
+	/**
+	 * An output which blocks the flusher on its first write until released
+	 */
+	private static final class BlockingOutput extends OutputStream {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		private final CountDownLatch writing = new CountDownLatch(1);
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		@Override
+		public synchronized void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			writing.countDown();
+			try {
+				released.await();
+			} catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (this) {
+				bytes.write(b, off, len);
+			}
+		}
+
+		synchronized List<String> lines() throws IOException {
+			return AsyncLoggerTest.lines(bytes);
+		}
+
+	}
+
+	private static List<String> lines(final ByteArrayOutputStream bytes) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new StringReader(bytes.toString()));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lines.add(line);
+		}
+		return lines;
+	}
+
+	@Test(timeout = 10000)
+	public void messagesArePrintedInOrderOnceFlushed() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger(new PrintStream(bytes), 16, LogLevel.INFO);
+
+		logger.entry(LogLevel.INFO).append("demand ").append(12).append(' ').append(2.5).append(' ').append(true)
+				.commit();
+		logger.entry(LogLevel.DEBUG).append("not printed").commit();
+		logger.entry(LogLevel.WARN).append("warning").commit();
+		logger.flushEntries();
+
+		final List<String> lines = lines(bytes);
+		assertEquals(2, lines.size());
+		assertEquals("demand 12 2.5 true", lines.get(0));
+		assertEquals("warning", lines.get(1));
+		assertEquals(0, logger.getDroppedEntries());
+	}
+
+	@Test(timeout = 30000)
+	public void ringIsReusedWithoutLosingReports() throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final AsyncLogger logger = new AsyncLogger(new PrintStream(bytes), 4, LogLevel.INFO);
+		final int linesPerThread = 2000;
+
+		final Thread[] threads = new Thread[2];
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+
+				@Override
+				public void run() {
+					for (int i = 0; i < linesPerThread; i++) {
+						logger.entry(LogLevel.INFO).append(thread).append(' ').append(i).commit();
+					}
+				}
+
+			};
+			threads[t].start();
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		logger.flushEntries();
+
+		// every line, each thread's lines in the order they were logged
+		final List<String> lines = lines(bytes);
+		assertEquals(threads.length * linesPerThread, lines.size());
+		final int[] next = new int[threads.length];
+		for (final String line : lines) {
+			final String[] parts = line.split(" ");
+			final int thread = Integer.parseInt(parts[0]);
+			assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+		}
+		assertEquals(0, logger.getDroppedEntries());
+	}
+
+	@Test(timeout = 10000)
+	public void diagnosticsAreDroppedAndCountedWhenTheRingIsFull() throws Exception {
+		final BlockingOutput output = new BlockingOutput();
+		final AsyncLogger logger = new AsyncLogger(new PrintStream(output), 4, LogLevel.INFO);
+
+		logger.entry(LogLevel.WARN).append("0").commit();
+		// the flusher holds the first entry until the output is released
+		output.writing.await();
+		for (int i = 1; i < 6; i++) {
+			logger.entry(LogLevel.WARN).append(i).commit();
+		}
+		assertEquals(2, logger.getDroppedEntries());
+
+		output.released.countDown();
+		logger.flushEntries();
+		final List<String> lines = output.lines();
+		assertEquals(5, lines.size());
+		for (int i = 0; i < 4; i++) {
+			assertEquals(String.valueOf(i), lines.get(i));
+		}
+		assertEquals("[2 log lines dropped]", lines.get(4));
+	}
+
+	@Test(timeout = 10000)
+	public void reportsWaitWhenTheRingIsFull() throws Exception {
+		final BlockingOutput output = new BlockingOutput();
+		final AsyncLogger logger = new AsyncLogger(new PrintStream(output), 4, LogLevel.INFO);
+
+		logger.entry(LogLevel.INFO).append("0").commit();
+		output.writing.await();
+		for (int i = 1; i < 4; i++) {
+			logger.entry(LogLevel.INFO).append(i).commit();
+		}
+		final Thread reporter = new Thread() {
+
+			@Override
+			public void run() {
+				logger.entry(LogLevel.INFO).append("4").commit();
+			}
+
+		};
+		reporter.start();
+		reporter.join(200);
+		assertTrue(reporter.isAlive());
+
+		output.released.countDown();
+		reporter.join();
+		logger.flushEntries();
+		final List<String> lines = output.lines();
+		assertEquals(5, lines.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(String.valueOf(i), lines.get(i));
+		}
+		assertEquals(0, logger.getDroppedEntries());
+	}
+
+}
@@ -0,0 +1,29 @@
+package logging;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the log levels
+ *
+ *
+ * @author Jules
+ *
+ */
+public class LogLevelTest {
+
+	@Test
+	public void parseIgnoresCaseAndSpaces() {
+		assertEquals(LogLevel.DEBUG, LogLevel.parse(" debug ", LogLevel.INFO));
+		assertEquals(LogLevel.WARN, LogLevel.parse("Warn", LogLevel.INFO));
+	}
+
+	@Test
+	public void parseFallsBackOnUnknownNames() {
+		assertEquals(LogLevel.INFO, LogLevel.parse("verbose", LogLevel.INFO));
+		assertEquals(LogLevel.INFO, LogLevel.parse("", LogLevel.INFO));
+		assertEquals(LogLevel.ERROR, LogLevel.parse(null, LogLevel.ERROR));
+	}
+
+}
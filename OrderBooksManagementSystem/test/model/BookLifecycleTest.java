@@ -0,0 +1,218 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import customexceptions.OrderBookExceptionCode;
+import model.orders.LimitOrder;
+import model.risk.PreTradeRiskCheck;
+import model.risk.RiskLimits;
+
+/**
+ * Tests of the lifecycle of a book when several threads change it at once
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookLifecycleTest {
+
+	private static final int THREAD_COUNT = 8;
+
+	private ExecutorService threads;
+
+	@Before
+	public void setUp() {
+		threads = Executors.newFixedThreadPool(THREAD_COUNT);
+	}
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	/**
+	 * Runs the same transition on all the threads at once
+	 *
+	 * @return the results of the threads
+	 */
+	private List<OrderBookExceptionCode> race(final Callable<OrderBookExceptionCode> transition) throws Exception {
+		final CountDownLatch start = new CountDownLatch(1);
+		final ArrayList<Future<OrderBookExceptionCode>> futures = new ArrayList<Future<OrderBookExceptionCode>>();
+		for (int i = 0; i < THREAD_COUNT; i++) {
+			futures.add(threads.submit(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() throws Exception {
+					start.await();
+					return transition.call();
+				}
+
+			}));
+		}
+		start.countDown();
+		final ArrayList<OrderBookExceptionCode> results = new ArrayList<OrderBookExceptionCode>();
+		for (final Future<OrderBookExceptionCode> future : futures) {
+			results.add(future.get());
+		}
+		return results;
+	}
+
+	private static int countSuccesses(final List<OrderBookExceptionCode> results) {
+		int successes = 0;
+		for (final OrderBookExceptionCode result : results) {
+			if (result == null) {
+				successes++;
+			}
+		}
+		return successes;
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentOpensOpenOnce() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			final OrderBook orderBook = new OrderBook(new FinancialInstrument("LFC"));
+			final List<OrderBookExceptionCode> results = race(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() {
+					return orderBook.open();
+				}
+
+			});
+			assertEquals(1, countSuccesses(results));
+			for (final OrderBookExceptionCode result : results) {
+				assertTrue((result == null) || (result == OrderBookExceptionCode.BOOK_ALREADY_OPEN));
+			}
+			assertEquals(BookState.OPEN, orderBook.getState());
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentProcessesDistributeOnce() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			final OrderBook orderBook = new OrderBook(new FinancialInstrument("LFC"));
+			orderBook.open();
+			final LimitOrder order = orderBook.addLimitOrder(10, 20);
+			// refuses the execution price, so that the book is not processed at once
+			orderBook.addLimitOrder(5, 10);
+			orderBook.close();
+			assertNull(orderBook.addExecution(new Execution(4, 15)));
+
+			final List<OrderBookExceptionCode> results = race(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() {
+					return orderBook.processExecutions();
+				}
+
+			});
+			assertEquals(1, countSuccesses(results));
+			for (final OrderBookExceptionCode result : results) {
+				assertTrue((result == null) || (result == OrderBookExceptionCode.BOOK_ALREADY_PROCESSED));
+			}
+			assertEquals(BookState.PROCESSED, orderBook.getState());
+			assertEquals(4, order.getSatisfiedQuantity());
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void processRacingCloseNeverProcessesAnOpenBook() throws Exception {
+		for (int round = 0; round < 200; round++) {
+			final OrderBook orderBook = new OrderBook(new FinancialInstrument("LFC"));
+			orderBook.open();
+			orderBook.addLimitOrder(10, 20);
+			final CountDownLatch start = new CountDownLatch(1);
+			final Future<OrderBookExceptionCode> close = threads.submit(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() throws Exception {
+					start.await();
+					return orderBook.close();
+				}
+
+			});
+			final Future<OrderBookExceptionCode> process = threads.submit(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() throws Exception {
+					start.await();
+					return orderBook.processExecutions();
+				}
+
+			});
+			start.countDown();
+
+			assertNull(close.get());
+			if (process.get() == null) {
+				assertEquals(BookState.PROCESSED, orderBook.getState());
+			} else {
+				assertEquals(OrderBookExceptionCode.PROCESS_OPEN_BOOK, process.get());
+				assertEquals(BookState.CLOSED, orderBook.getState());
+			}
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void ordersAddedWhileClosingAreProcessed() throws Exception {
+		final long account = 7;
+		for (int round = 0; round < 100; round++) {
+			final OrderBook orderBook = new OrderBook(new FinancialInstrument("LFC"));
+			final PreTradeRiskCheck riskCheck = new PreTradeRiskCheck();
+			riskCheck.setLimits(account, RiskLimits.NONE, RiskLimits.NONE);
+			orderBook.setRiskCheck(riskCheck);
+			orderBook.open();
+			final CountDownLatch start = new CountDownLatch(1);
+			final Future<Integer> producer = threads.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int accepted = 0;
+					while (true) {
+						if (orderBook.addLimitOrder(account, 0, 1, 20) != null) {
+							accepted++;
+						} else if (orderBook.getState() != BookState.OPEN) {
+							return accepted;
+						}
+					}
+				}
+
+			});
+			final Future<OrderBookExceptionCode> closer = threads.submit(new Callable<OrderBookExceptionCode>() {
+
+				@Override
+				public OrderBookExceptionCode call() throws Exception {
+					start.await();
+					Thread.yield();
+					assertNull(orderBook.close());
+					return orderBook.processExecutions();
+				}
+
+			});
+			start.countDown();
+
+			assertNull(closer.get());
+			final int accepted = producer.get();
+			// every accepted order made it into the processed book
+			assertEquals(accepted, orderBook.getOrders().size());
+			assertEquals(accepted, orderBook.getTotalAmountOfOrders());
+			assertEquals(accepted, orderBook.snapshot().getDemand());
+			assertEquals(0, riskCheck.getOpenQuantity(account, null));
+		}
+	}
+
+}
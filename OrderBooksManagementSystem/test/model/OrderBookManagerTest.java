@@ -0,0 +1,103 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import model.orders.LimitOrder;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Tests of the book manager: archiving while other threads read the books
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookManagerTest {
+
+	private OrderBookManager orderBookManager;
+
+	@Before
+	public void setUp() {
+		orderBookManager = new OrderBookManager();
+	}
+
+	@Test
+	public void archivedOrdersAreNotRecycled() {
+		final OrderBook orderBook = createProcessedBook("OLD");
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+		final LimitOrder order = (LimitOrder) snapshot.getOrder(0);
+
+		assertTrue(orderBookManager.archiveBook(0));
+		final OrderBook nextBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("NEW"));
+		nextBook.open();
+		final LimitOrder nextOrder = nextBook.addLimitOrder(99, 1);
+
+		assertTrue(nextOrder != order);
+		assertSame(order, snapshot.getOrder(0));
+		assertEquals(10, order.getRequestedQuantity());
+		assertEquals(10, snapshot.getRequestedQuantity(0));
+		assertEquals(1, orderBookManager.getOrderBooks().size());
+	}
+
+	@Test(timeout = 30000)
+	public void readersSeeWholeBooksWhileBooksAreArchived() throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch started = new CountDownLatch(1);
+		final Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				started.countDown();
+				try {
+					while (running.get()) {
+						for (final OrderBook orderBook : orderBookManager.getOrderBooks()) {
+							orderBook.getFinancialInstrument().getName();
+						}
+						orderBookManager.getOrderBooks().toArray(new OrderBook[0]);
+					}
+				} catch (final Throwable e) {
+					failure.set(e);
+				}
+			}
+
+		});
+		reader.start();
+		started.await();
+
+		for (int i = 0; i < 500; i++) {
+			createProcessedBook("BOOK" + i);
+			orderBookManager.evictProcessedBooks();
+			assertTrue(orderBookManager.archiveBook(0));
+		}
+		running.set(false);
+		reader.join();
+
+		assertNull(failure.get());
+		assertTrue(orderBookManager.getOrderBooks().isEmpty());
+	}
+
+	private OrderBook createProcessedBook(final String symbol) {
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern(symbol));
+		orderBook.open();
+		orderBook.addLimitOrder(10, 20);
+		orderBook.close();
+		// the execution covers the whole demand: the book is processed at once
+		orderBook.addExecution(new Execution(10, 15));
+		assertTrue(orderBook.isProcessed());
+		return orderBook;
+	}
+
+}
@@ -0,0 +1,163 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import model.fills.Fill;
+import model.fills.FillListener;
+import model.fills.FillPublisher;
+import model.marketdata.DepthLevel;
+import model.orders.LimitOrder;
+
+/**
+ * Tests of a book
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookTest {
+
+	/**
+	 * A listener recording the batches of fills, until an amount of units
+	 */
+	private static class RecordingFillListener implements FillListener {
+
+		private final List<List<Fill>> batches = new ArrayList<List<Fill>>();
+
+		private final CountDownLatch filled = new CountDownLatch(1);
+
+		private final int expectedQuantity;
+
+		private int filledQuantity = 0;
+
+		private RecordingFillListener(final int expectedQuantity) {
+			this.expectedQuantity = expectedQuantity;
+		}
+
+		@Override
+		public synchronized void onFills(final List<Fill> fills) {
+			batches.add(fills);
+			for (final Fill fill : fills) {
+				filledQuantity += fill.getFilledQuantity();
+			}
+			if (filledQuantity >= expectedQuantity) {
+				filled.countDown();
+			}
+		}
+
+		@Override
+		public void onFillsDropped(final int droppedBatches,
+				final Map<FinancialInstrument, Long> firstMissedSequences) {
+			throw new AssertionError("dropped " + droppedBatches);
+		}
+
+	}
+
+	private OrderBookManager orderBookManager;
+
+	@Before
+	public void setUp() {
+		orderBookManager = new OrderBookManager();
+	}
+
+	@Test
+	public void matchValidatesTheDepthOfTheMatchedOrders() {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("DPT"), MatchingMode.CONTINUOUS);
+		orderBook.open();
+		final LimitOrder matched = orderBook.addLimitOrder(10, 20);
+		orderBook.addLimitOrder(5, 20);
+		orderBook.addLimitOrder(7, 18);
+		final long sequence = orderBook.getDepthBook().getSequence();
+
+		assertNull(orderBook.addExecution(new Execution(4, 19)));
+
+		assertTrue(matched.isValid());
+		assertTrue(orderBook.getDepthBook().getSequence() > sequence);
+		final List<DepthLevel> levels = orderBook.getDepthBook().getLevels();
+		int validDemand = 0;
+		for (final DepthLevel level : levels) {
+			if (level.getLimitPrice() == 20) {
+				assertEquals(15, level.getDemand());
+				assertEquals(10, level.getValidDemand());
+			} else {
+				assertEquals(0, level.getValidDemand());
+			}
+			validDemand += level.getValidDemand();
+		}
+		assertEquals(orderBook.getDemandOfValidOrders(), validDemand);
+
+		// a second match of the same order does not count its demand twice
+		assertNull(orderBook.addExecution(new Execution(2, 19)));
+		validDemand = 0;
+		for (final DepthLevel level : orderBook.getDepthBook().getLevels()) {
+			validDemand += level.getValidDemand();
+		}
+		assertEquals(orderBook.getDemandOfValidOrders(), validDemand);
+	}
+
+	@Test(timeout = 10000)
+	public void incrementalDistributionFillsEachOrderOnce() throws InterruptedException {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("INC"), MatchingMode.INCREMENTAL_AUCTION);
+		final RecordingFillListener listener = new RecordingFillListener(4);
+		orderBook.subscribeToFills(listener, 16);
+		orderBook.open();
+		final LimitOrder first = orderBook.addLimitOrder(3, 20);
+		orderBook.addLimitOrder(3, 20);
+		orderBook.addLimitOrder(3, 20);
+		orderBook.close();
+
+		// 1 unit each in proportion, the unit left goes to the first order
+		assertNull(orderBook.addExecution(new Execution(4, 10)));
+
+		assertTrue(listener.filled.await(5, TimeUnit.SECONDS));
+		synchronized (listener) {
+			final HashMap<UUID, Integer> quantities = new HashMap<UUID, Integer>();
+			for (final List<Fill> batch : listener.batches) {
+				for (final Fill fill : batch) {
+					assertNull(quantities.put(fill.getOrderId(), fill.getFilledQuantity()));
+				}
+			}
+			assertEquals(3, quantities.size());
+			assertEquals(Integer.valueOf(2), quantities.get(first.getId()));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void incrementalDistributionPublishesBoundedBatches() throws InterruptedException {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("BAT"), MatchingMode.INCREMENTAL_AUCTION);
+		final RecordingFillListener listener = new RecordingFillListener(3000);
+		orderBook.subscribeToFills(listener, 16);
+		orderBook.open();
+		for (int i = 0; i < 3000; i++) {
+			orderBook.addLimitOrder(2, 20);
+		}
+		orderBook.close();
+
+		assertNull(orderBook.addExecution(new Execution(3000, 10)));
+
+		assertTrue(listener.filled.await(5, TimeUnit.SECONDS));
+		synchronized (listener) {
+			assertEquals(3, listener.batches.size());
+			for (final List<Fill> batch : listener.batches) {
+				assertTrue(batch.size() <= FillPublisher.MAX_BATCH_SIZE);
+			}
+		}
+	}
+
+}
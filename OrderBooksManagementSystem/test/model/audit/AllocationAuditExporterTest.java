@@ -0,0 +1,155 @@
+package model.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Execution;
+import model.MatchingMode;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.orders.LimitOrder;
+import model.orders.Order;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Tests of the export of the allocations, read back from the file
+ *
+ *
+ * @author Jules
+ *
+ */
+public class AllocationAuditExporterTest {
+
+	private OrderBookManager orderBookManager;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		orderBookManager = new OrderBookManager();
+		file = File.createTempFile("allocations", AllocationAuditExporter.EXTENSION);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	/**
+	 * Reads the whole exported file
+	 */
+	private ByteBuffer readExport() throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			final ByteBuffer buffer = ByteBuffer.allocate((int) randomAccessFile.length());
+			randomAccessFile.getChannel().read(buffer, 0);
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Checks the header and the record of each order of a book against its
+	 * snapshot
+	 */
+	private ByteBuffer exportAndCheck(final OrderBook orderBook) throws IOException {
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+		assertEquals(snapshot.getOrderCount(), AllocationAuditExporter.export(file,
+				orderBook.getFinancialInstrument().getInstrumentID(), snapshot));
+
+		final ByteBuffer export = readExport();
+		assertEquals(AllocationAuditExporter.HEADER_SIZE
+				+ (snapshot.getOrderCount() * AllocationAuditExporter.RECORD_SIZE), export.limit());
+		assertEquals(0x414c4c31, export.getInt(0));
+		assertEquals(2, export.getInt(4));
+		assertEquals(AllocationAuditExporter.RECORD_SIZE, export.getInt(8));
+		assertEquals(snapshot.getOrderCount(), export.getInt(12));
+		assertEquals(snapshot.getVersion(), export.getLong(16));
+		assertEquals(orderBook.getFinancialInstrument().getInstrumentID().getMostSignificantBits(),
+				export.getLong(24));
+		assertEquals(snapshot.getExecutionPrice(), export.getDouble(40), 0);
+
+		for (int i = 0; i < snapshot.getOrderCount(); i++) {
+			final int offset = AllocationAuditExporter.HEADER_SIZE + (i * AllocationAuditExporter.RECORD_SIZE);
+			final Order order = snapshot.getOrder(i);
+			assertEquals(order.getIdMostSignificantBits(), export.getLong(offset));
+			assertEquals(order.getIdLeastSignificantBits(), export.getLong(offset + 8));
+			assertEquals(orderBook.getFinancialInstrument().getInstrumentID().getLeastSignificantBits(),
+					export.getLong(offset + 24));
+			assertEquals(order.getRequestedQuantity(), export.getInt(offset + 32));
+			assertEquals(order.getSatisfiedQuantity(), export.getInt(offset + 36));
+			assertEquals(order.isValid() ? 1 : 0, export.get(offset + 48));
+		}
+		return export;
+	}
+
+	private static double priceOfRecord(final ByteBuffer export, final int index) {
+		return export.getDouble(AllocationAuditExporter.HEADER_SIZE + (index * AllocationAuditExporter.RECORD_SIZE)
+				+ 40);
+	}
+
+	@Test
+	public void callAuctionRecordsHaveTheExecutionPrice() throws IOException {
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("AUD"));
+		orderBook.open();
+		orderBook.addLimitOrder(10, 20);
+		// refuses the execution price
+		orderBook.addLimitOrder(5, 10);
+		orderBook.close();
+		assertNull(orderBook.addExecution(new Execution(4, 15)));
+		assertNull(orderBook.processExecutions());
+
+		final ByteBuffer export = exportAndCheck(orderBook);
+		assertEquals(4, export.getInt(AllocationAuditExporter.HEADER_SIZE + 36));
+		assertEquals(15, priceOfRecord(export, 0), 0);
+		assertEquals(0, priceOfRecord(export, 1), 0);
+	}
+
+	@Test
+	public void continuousRecordsHaveTheAveragePriceOfTheirFills() throws IOException {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("AUC"), MatchingMode.CONTINUOUS);
+		orderBook.open();
+		final LimitOrder first = orderBook.addLimitOrder(10, 20);
+		final LimitOrder second = orderBook.addLimitOrder(10, 18);
+		orderBook.addLimitOrder(10, 12);
+		// only the first order accepts 20, then both get units at 15
+		assertNull(orderBook.addExecution(new Execution(5, 20)));
+		assertNull(orderBook.addExecution(new Execution(10, 15)));
+		orderBook.close();
+		assertNull(orderBook.processExecutions());
+		assertEquals(10, first.getSatisfiedQuantity());
+		assertEquals(5, second.getSatisfiedQuantity());
+
+		final ByteBuffer export = exportAndCheck(orderBook);
+		assertEquals((5 * 20 + 5 * 15) / 10.0, priceOfRecord(export, 0), 1e-9);
+		assertEquals(15, priceOfRecord(export, 1), 1e-9);
+		assertEquals(0, priceOfRecord(export, 2), 0);
+	}
+
+	@Test
+	public void exportOverwritesALongerFile() throws IOException {
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("AUO"));
+		orderBook.open();
+		orderBook.addLimitOrder(10, 20);
+		orderBook.close();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(4096);
+		}
+		assertNull(orderBook.addExecution(new Execution(10, 20)));
+
+		exportAndCheck(orderBook);
+		assertEquals(20, priceOfRecord(readExport(), 0), 0);
+	}
+
+}
@@ -0,0 +1,190 @@
+package model.fills;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Execution;
+import model.FinancialInstrument;
+import model.MatchingMode;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.orders.LimitOrder;
+import model.orders.Order;
+
+/**
+ * Tests of the fills of each client, recorded by the books of a manager in
+ * every matching mode, and checked against what the orders got
+ *
+ *
+ * @author Jules
+ *
+ */
+public class ClientFillIndexTest {
+
+	private static final long FIRST_ACCOUNT = 1;
+
+	private static final long SECOND_ACCOUNT = 2;
+
+	private OrderBookManager orderBookManager;
+
+	private ClientFillIndex clientFillIndex;
+
+	@Before
+	public void setUp() {
+		orderBookManager = new OrderBookManager();
+		clientFillIndex = orderBookManager.getClientFillIndex();
+	}
+
+	/**
+	 * Checks the fills of an account in a book against what its orders got
+	 */
+	private void checkAgainstOrders(final OrderBook orderBook, final long accountId) {
+		long quantity = 0;
+		double notional = 0;
+		for (final Order order : orderBook.getOrders()) {
+			if (order.getAccountId() == accountId) {
+				quantity += order.getSatisfiedQuantity();
+				notional += order.getFilledNotional();
+			}
+		}
+		final ClientFills clientFills = clientFillIndex.getClientFills(accountId);
+		assertEquals(quantity, clientFills.getFilledQuantity(orderBook.getFinancialInstrument()));
+		assertEquals(notional, clientFills.getFilledNotional(orderBook.getFinancialInstrument()), 1e-9);
+	}
+
+	/**
+	 * Two executions in call auction: the second one shares its offer from
+	 * scratch, so the units given by the first one are partly taken back
+	 */
+	private OrderBook callAuctionBook() {
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("CFA"));
+		orderBook.open();
+		orderBook.addLimitOrder(FIRST_ACCOUNT, 1, 10, 20);
+		orderBook.addLimitOrder(SECOND_ACCOUNT, 2, 10, 20);
+		// refuses the execution price, so that the book is not processed by the
+		// first execution
+		orderBook.addLimitOrder(5, 10);
+		orderBook.close();
+		// 5 units for each account, then 2: 4 taken back and 1 given again
+		assertNull(orderBook.addExecution(new Execution(10, 15)));
+		assertNull(orderBook.addExecution(new Execution(4, 15)));
+		assertNull(orderBook.processExecutions());
+		return orderBook;
+	}
+
+	private OrderBook incrementalBook() {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("CFI"), MatchingMode.INCREMENTAL_AUCTION);
+		orderBook.open();
+		orderBook.addLimitOrder(FIRST_ACCOUNT, 3, 6, 20);
+		orderBook.addLimitOrder(SECOND_ACCOUNT, 4, 4, 20);
+		// refuses the execution price: nothing for it
+		orderBook.addLimitOrder(FIRST_ACCOUNT, 5, 5, 10);
+		orderBook.close();
+		assertNull(orderBook.addExecution(new Execution(5, 15)));
+		assertNull(orderBook.addExecution(new Execution(5, 15)));
+		assertTrue(orderBook.isProcessed());
+		return orderBook;
+	}
+
+	private OrderBook continuousBook() {
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("CFC"), MatchingMode.CONTINUOUS);
+		orderBook.open();
+		orderBook.addLimitOrder(FIRST_ACCOUNT, 6, 10, 20);
+		orderBook.addLimitOrder(SECOND_ACCOUNT, 7, 10, 18);
+		// only the first order accepts 20, then both get units at 15
+		assertNull(orderBook.addExecution(new Execution(5, 20)));
+		assertNull(orderBook.addExecution(new Execution(10, 15)));
+		orderBook.close();
+		assertNull(orderBook.processExecutions());
+		return orderBook;
+	}
+
+	@Test
+	public void callAuctionCountsTheUnitsTakenBack() {
+		final OrderBook orderBook = callAuctionBook();
+		final FinancialInstrument instrument = orderBook.getFinancialInstrument();
+
+		for (final long accountId : new long[] { FIRST_ACCOUNT, SECOND_ACCOUNT }) {
+			final ClientFills clientFills = clientFillIndex.getClientFills(accountId);
+			assertEquals(2, clientFills.getFilledQuantity(instrument));
+			assertEquals(30, clientFills.getFilledNotional(instrument), 1e-9);
+			checkAgainstOrders(orderBook, accountId);
+		}
+	}
+
+	@Test
+	public void incrementalAuctionCountsEachExecution() {
+		final OrderBook orderBook = incrementalBook();
+		final FinancialInstrument instrument = orderBook.getFinancialInstrument();
+
+		assertEquals(6, clientFillIndex.getClientFills(FIRST_ACCOUNT).getFilledQuantity(instrument));
+		assertEquals(90, clientFillIndex.getClientFills(FIRST_ACCOUNT).getFilledNotional(instrument), 1e-9);
+		assertEquals(4, clientFillIndex.getClientFills(SECOND_ACCOUNT).getFilledQuantity(instrument));
+		assertEquals(60, clientFillIndex.getClientFills(SECOND_ACCOUNT).getFilledNotional(instrument), 1e-9);
+		checkAgainstOrders(orderBook, FIRST_ACCOUNT);
+		checkAgainstOrders(orderBook, SECOND_ACCOUNT);
+	}
+
+	@Test
+	public void continuousCountsThePriceOfEachMatch() {
+		final OrderBook orderBook = continuousBook();
+		final FinancialInstrument instrument = orderBook.getFinancialInstrument();
+
+		assertEquals(10, clientFillIndex.getClientFills(FIRST_ACCOUNT).getFilledQuantity(instrument));
+		assertEquals(5 * 20 + 5 * 15, clientFillIndex.getClientFills(FIRST_ACCOUNT).getFilledNotional(instrument),
+				1e-9);
+		assertEquals(5, clientFillIndex.getClientFills(SECOND_ACCOUNT).getFilledQuantity(instrument));
+		assertEquals(5 * 15, clientFillIndex.getClientFills(SECOND_ACCOUNT).getFilledNotional(instrument), 1e-9);
+		checkAgainstOrders(orderBook, FIRST_ACCOUNT);
+		checkAgainstOrders(orderBook, SECOND_ACCOUNT);
+	}
+
+	@Test
+	public void totalsAddTheBooksOfEveryInstrument() {
+		final OrderBook callAuctionBook = callAuctionBook();
+		final OrderBook incrementalBook = incrementalBook();
+		final OrderBook continuousBook = continuousBook();
+
+		final ClientFills firstFills = clientFillIndex.getClientFills(FIRST_ACCOUNT);
+		assertEquals(2 + 6 + 10, firstFills.getFilledQuantity());
+		assertEquals(30 + 90 + 175, firstFills.getFilledNotional(), 1e-9);
+		final ClientFills secondFills = clientFillIndex.getClientFills(SECOND_ACCOUNT);
+		assertEquals(2 + 4 + 5, secondFills.getFilledQuantity());
+		assertEquals(30 + 60 + 75, secondFills.getFilledNotional(), 1e-9);
+
+		assertEquals(3, firstFills.getInstruments().size());
+		assertTrue(firstFills.getInstruments().contains(callAuctionBook.getFinancialInstrument()));
+		assertTrue(firstFills.getInstruments().contains(incrementalBook.getFinancialInstrument()));
+		assertTrue(firstFills.getInstruments().contains(continuousBook.getFinancialInstrument()));
+		// only the orders with an account are indexed
+		assertEquals(2, clientFillIndex.getAllClientFills().size());
+		assertNull(clientFillIndex.getClientFills(0));
+	}
+
+	@Test
+	public void correctionsStayExact() {
+		final FinancialInstrument instrument = new FinancialInstrument("CFX");
+		final LimitOrder order = new LimitOrder(10, 1);
+		order.setAccountId(FIRST_ACCOUNT);
+		final ClientFillIndex index = new ClientFillIndex();
+
+		index.recordFill(order, instrument, 3, 0.1);
+		index.recordFill(order, instrument, -1, 0.1);
+		index.recordFill(order, instrument, 0, 0.1);
+		final ClientFills clientFills = index.getClientFills(FIRST_ACCOUNT);
+		assertEquals(2, clientFills.getFilledQuantity(instrument));
+		// counted in ten-thousandths: no rounding error is left
+		assertEquals(0.2, clientFills.getFilledNotional(instrument), 0);
+		assertEquals(0.2, clientFills.getFilledNotional(), 0);
+		assertEquals(0, clientFills.getFilledQuantity(new FinancialInstrument("CFY")));
+		assertEquals(0, clientFills.getFilledNotional(new FinancialInstrument("CFY")), 0);
+	}
+
+}
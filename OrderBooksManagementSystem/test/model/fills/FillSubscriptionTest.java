@@ -0,0 +1,136 @@
+package model.fills;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import model.Execution;
+import model.FinancialInstrument;
+import model.MatchingMode;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.orders.LimitOrder;
+
+/**
+ * Tests of the recovery of the fills a slow listener dropped, with their
+ * sequence numbers
+ *
+ *
+ * @author Jules
+ *
+ */
+public class FillSubscriptionTest {
+
+	private static final int EXECUTIONS = 20;
+
+	/**
+	 * A booking listener: blocked on its first batch until released, it applies
+	 * the fills of the book in sequence order and gets the dropped ones again
+	 */
+	private static final class BookingListener implements FillListener {
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private final CountDownLatch booked = new CountDownLatch(1);
+
+		private OrderBook orderBook;
+
+		private long lastSequence = 0;
+
+		private int bookedQuantity = 0;
+
+		private int droppedBatches = 0;
+
+		@Override
+		public void onFills(final List<Fill> fills) {
+			try {
+				released.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			book(fills);
+		}
+
+		@Override
+		public synchronized void onFillsDropped(final int dropped,
+				final Map<FinancialInstrument, Long> firstMissedSequences) {
+			droppedBatches += dropped;
+			final Long firstMissedSequence = firstMissedSequences.get(orderBook.getFinancialInstrument());
+			assertTrue(firstMissedSequence.longValue() > lastSequence);
+			book(orderBook.getFillPublisher().getFillsSince(lastSequence + 1));
+		}
+
+		private synchronized void book(final List<Fill> fills) {
+			for (final Fill fill : fills) {
+				if (fill.getSequence() > lastSequence) {
+					// no gap: the dropped fills are got again before the next ones
+					assertEquals(lastSequence + 1, fill.getSequence());
+					lastSequence = fill.getSequence();
+					bookedQuantity += fill.getFilledQuantity();
+				}
+			}
+			if (lastSequence == EXECUTIONS) {
+				booked.countDown();
+			}
+		}
+
+	}
+
+	@Test(timeout = 10000)
+	public void droppedFillsAreGotAgainFromTheBook() throws InterruptedException {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("FIL"), MatchingMode.CONTINUOUS);
+		final BookingListener listener = new BookingListener();
+		listener.orderBook = orderBook;
+		final FillSubscription subscription = orderBookManager.subscribeToFills(listener, 1);
+		orderBook.open();
+		final LimitOrder order = orderBook.addLimitOrder(1000, 20);
+
+		// one fill, hence one batch, per execution: the listener holds the first,
+		// the second waits in the queue, the others are dropped
+		for (int i = 0; i < EXECUTIONS; i++) {
+			assertNull(orderBook.addExecution(new Execution(i + 1, 20)));
+		}
+		assertEquals(EXECUTIONS, orderBook.getFillPublisher().getFillsSince(1).size());
+		listener.released.countDown();
+
+		assertTrue(listener.booked.await(5, TimeUnit.SECONDS));
+		synchronized (listener) {
+			assertTrue(listener.droppedBatches > 0);
+			assertEquals(order.getSatisfiedQuantity(), listener.bookedQuantity);
+			assertEquals((EXECUTIONS * (EXECUTIONS + 1)) / 2, listener.bookedQuantity);
+		}
+		subscription.cancel();
+	}
+
+	@Test
+	public void fillsSinceASequenceAreKeptInOrder() {
+		final FillPublisher publisher = new FillPublisher();
+		final FinancialInstrument instrument = new FinancialInstrument("SEQ");
+		assertTrue(publisher.getFillsSince(1).isEmpty());
+		for (int batch = 0; batch < 3; batch++) {
+			final ArrayList<Fill> fills = new ArrayList<Fill>();
+			for (int i = 0; i < 2; i++) {
+				fills.add(new Fill(publisher.nextSequence(), null, instrument, 1, 10));
+			}
+			publisher.publish(fills);
+		}
+
+		assertEquals(6, publisher.getFillsSince(0).size());
+		final List<Fill> fills = publisher.getFillsSince(4);
+		assertEquals(3, fills.size());
+		assertEquals(4, fills.get(0).getSequence());
+		assertEquals(6, fills.get(2).getSequence());
+		assertTrue(publisher.getFillsSince(7).isEmpty());
+	}
+
+}
@@ -0,0 +1,103 @@
+package model.intake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import model.OrderBook;
+import model.OrderBookManager;
+
+/**
+ * Tests of the set of client order ids, while its table grows
+ *
+ *
+ * @author Jules
+ *
+ */
+public class ClientOrderIdSetTest {
+
+	private static final int IDS = 100000;
+
+	/**
+	 * Returns the id number i, spread over the whole range of longs and with
+	 * the low bits of many ids equal, so that they collide before hashing
+	 */
+	private static long id(final int i) {
+		return ((long) i << 32) | (i & 1);
+	}
+
+	@Test
+	public void duplicatesAreDetectedAcrossGrowth() {
+		final ClientOrderIdSet set = new ClientOrderIdSet();
+		for (int i = 1; i <= IDS; i++) {
+			assertTrue(set.add(id(i)));
+			// the first id is still found after each resize
+			assertFalse(set.add(id(1)));
+		}
+		assertEquals(IDS, set.size());
+		for (int i = 1; i <= IDS; i++) {
+			assertTrue(set.contains(id(i)));
+			assertFalse(set.add(id(i)));
+		}
+		assertFalse(set.contains(id(IDS + 1)));
+		assertEquals(IDS, set.size());
+	}
+
+	@Test
+	public void ensureCapacityKeepsTheIds() {
+		final ClientOrderIdSet set = new ClientOrderIdSet();
+		for (int i = 1; i <= 1000; i++) {
+			assertTrue(set.add(id(i)));
+		}
+		set.ensureCapacity(IDS);
+		for (int i = 1; i <= 1000; i++) {
+			assertTrue(set.contains(id(i)));
+			assertFalse(set.add(id(i)));
+		}
+		for (int i = 1001; i <= IDS; i++) {
+			assertTrue(set.add(id(i)));
+		}
+		assertEquals(IDS, set.size());
+	}
+
+	@Test
+	public void clearForgetsTheIds() {
+		final ClientOrderIdSet set = new ClientOrderIdSet();
+		for (int i = 1; i <= 1000; i++) {
+			set.add(id(i));
+		}
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains(id(1)));
+		assertTrue(set.add(id(1)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroIsNotAnId() {
+		new ClientOrderIdSet().add(0);
+	}
+
+	@Test
+	public void bookRejectsAnOrderSentAgainAfterGrowth() {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("DUP"));
+		orderBook.open();
+		for (int i = 1; i <= 5000; i++) {
+			assertNotNull(orderBook.addLimitOrder(id(i), 1, 10));
+		}
+		final int demand = orderBook.getDemand();
+
+		assertNull(orderBook.addLimitOrder(id(1), 1, 10));
+		assertNull(orderBook.addLimitOrder(id(5000), 1, 10));
+
+		assertEquals(5000, orderBook.getTotalAmountOfOrders());
+		assertEquals(demand, orderBook.getDemand());
+		assertNotNull(orderBook.addLimitOrder(id(5001), 1, 10));
+	}
+
+}
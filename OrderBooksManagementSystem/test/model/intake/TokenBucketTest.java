@@ -0,0 +1,101 @@
+package model.intake;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests of the token bucket, on the real clock: the rates are slow enough for
+ * the tests not to depend on the speed of the machine
+ *
+ *
+ * @author Jules
+ *
+ */
+public class TokenBucketTest {
+
+	@Test
+	public void burstIsTakenThenRefused() {
+		final TokenBucket bucket = new TokenBucket(10, 5);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(bucket.tryAcquire());
+		}
+		assertFalse(bucket.tryAcquire());
+		final long nanosUntilAvailable = bucket.nanosUntilAvailable();
+		assertTrue(nanosUntilAvailable > 0);
+		assertTrue(nanosUntilAvailable <= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	@Test
+	public void refillAtTheLimitGivesOneToken() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(10, 3);
+		while (bucket.tryAcquire()) {
+			// empties the bucket
+		}
+
+		// just after the next token: one order, not a new burst
+		TimeUnit.NANOSECONDS.sleep(bucket.nanosUntilAvailable() + TimeUnit.MILLISECONDS.toNanos(5));
+		assertEquals(0, bucket.nanosUntilAvailable());
+		assertTrue(bucket.tryAcquire());
+		assertFalse(bucket.tryAcquire());
+	}
+
+	@Test
+	public void idleBucketHoldsAtMostItsBurst() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(10, 3);
+		Thread.sleep(500);
+		int taken = 0;
+		while (bucket.tryAcquire()) {
+			taken++;
+		}
+		assertEquals(3, taken);
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentTakersShareTheBurst() throws InterruptedException {
+		final TokenBucket bucket = new TokenBucket(1, 50);
+		final AtomicInteger taken = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] takers = new Thread[4];
+		for (int i = 0; i < takers.length; i++) {
+			takers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (final InterruptedException e) {
+						return;
+					}
+					for (int attempt = 0; attempt < 1000; attempt++) {
+						if (bucket.tryAcquire()) {
+							taken.incrementAndGet();
+						}
+					}
+				}
+
+			});
+			takers[i].start();
+		}
+		start.countDown();
+		for (final Thread taker : takers) {
+			taker.join();
+		}
+
+		// one more token per second of test at most
+		assertTrue(taken.get() >= 50);
+		assertTrue(taken.get() <= 51);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rateMustBePositive() {
+		new TokenBucket(0, 1);
+	}
+
+}
@@ -0,0 +1,98 @@
+package model.marketdata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import model.FinancialInstrument;
+import model.orders.LimitOrder;
+
+/**
+ * Tests of the depth of a book
+ *
+ *
+ * @author Jules
+ *
+ */
+public class DepthBookTest {
+
+	/**
+	 * A listener blocked until released, recording the updates it receives
+	 */
+	private static class BlockedListener implements MarketDataListener {
+
+		private final CountDownLatch released = new CountDownLatch(1);
+
+		private final List<DepthUpdate> updates = new ArrayList<DepthUpdate>();
+
+		private final CountDownLatch received;
+
+		private BlockedListener(final int expectedUpdates) {
+			received = new CountDownLatch(expectedUpdates);
+		}
+
+		@Override
+		public void onDepthUpdate(final DepthUpdate update) {
+			try {
+				released.await();
+			} catch (final InterruptedException e) {
+				return;
+			}
+			synchronized (updates) {
+				updates.add(update);
+			}
+			received.countDown();
+		}
+
+	}
+
+	@Test(timeout = 10000)
+	public void slowListenerDoesNotBlockTheIntake() throws InterruptedException {
+		final DepthBook depthBook = new DepthBook(new FinancialInstrument("DPT"));
+		final BlockedListener listener = new BlockedListener(101);
+		final MarketDataSubscription subscription = new MarketDataSubscription(listener, 1000);
+		depthBook.subscribe(subscription);
+
+		// the listener is blocked: adding the orders must not wait for it
+		for (int i = 0; i < 100; i++) {
+			depthBook.onLimitOrderAdded(new LimitOrder(10, 20 + (i % 5)));
+		}
+		assertEquals(100, depthBook.getSequence());
+
+		listener.released.countDown();
+		assertTrue(listener.received.await(5, TimeUnit.SECONDS));
+		synchronized (listener.updates) {
+			assertTrue(listener.updates.get(0).isSnapshot());
+			for (int i = 1; i < listener.updates.size(); i++) {
+				assertEquals(i, listener.updates.get(i).getSequence());
+			}
+		}
+		assertEquals(0, subscription.getDroppedUpdates());
+		subscription.cancel();
+	}
+
+	@Test(timeout = 10000)
+	public void fullQueueDropsUpdates() {
+		final DepthBook depthBook = new DepthBook(new FinancialInstrument("DPT"));
+		final BlockedListener listener = new BlockedListener(1);
+		final MarketDataSubscription subscription = new MarketDataSubscription(listener, 4);
+		depthBook.subscribe(subscription);
+
+		for (int i = 0; i < 20; i++) {
+			depthBook.onLimitOrderAdded(new LimitOrder(10, 20));
+		}
+
+		// the snapshot may already be taken by the blocked delivery thread
+		assertTrue(subscription.getDroppedUpdates() >= 16);
+		assertTrue(subscription.getPendingUpdates() <= 4);
+		listener.released.countDown();
+		subscription.cancel();
+	}
+
+}
@@ -0,0 +1,137 @@
+package model.orders;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import model.Execution;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Tests of the pool of orders: preallocated orders, orders given back, and
+ * orders of the archived books recycled once nothing reaches them
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderPoolTest {
+
+	private static final int ARCHIVED_ORDERS = 100;
+
+	@Test
+	public void warmPoolHandsBackRecycledInstances() {
+		final OrderPool pool = new OrderPool();
+		pool.preallocate(2, 1);
+		assertEquals(2, pool.getFreeLimitOrders());
+		assertEquals(1, pool.getFreeMarketOrders());
+
+		final LimitOrder first = pool.acquireLimitOrder(10, 20);
+		pool.acquireLimitOrder(5, 15);
+		final MarketOrder market = pool.acquireMarketOrder(3);
+		assertEquals(0, pool.getFreeLimitOrders());
+		assertEquals(0, pool.getFreeMarketOrders());
+		assertEquals(3, market.getRequestedQuantity());
+
+		first.setSatisfiedQuantity(10);
+		first.setValid(true);
+		first.setAccountId(7);
+		first.setReservedQuantity(10);
+		final long firstId = first.getIdMostSignificantBits();
+		pool.release(first);
+
+		final LimitOrder recycled = pool.acquireLimitOrder(8, 30);
+		assertSame(first, recycled);
+		assertEquals(8, recycled.getRequestedQuantity());
+		assertEquals(30, recycled.getLimitPrice(), 0);
+		assertEquals(0, recycled.getSatisfiedQuantity());
+		assertFalse(recycled.isValid());
+		assertEquals(0, recycled.getAccountId());
+		assertEquals(0, recycled.getReservedQuantity());
+		assertTrue(firstId != recycled.getIdMostSignificantBits());
+	}
+
+	@Test(timeout = 30000)
+	public void ordersOfAnArchivedBookAreRecycledOnceUnreachable() throws InterruptedException {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		final OrderPool pool = orderBookManager.getOrderPool();
+		final int freeOrders = pool.getFreeLimitOrders();
+
+		final List<Order> archivedOrders = new ArrayList<Order>();
+		archiveBook(orderBookManager, archivedOrders);
+		assertEquals(ARCHIVED_ORDERS, archivedOrders.size());
+		assertEquals(freeOrders - ARCHIVED_ORDERS, pool.getFreeLimitOrders());
+
+		// the orders come back once the book and its snapshots are collected
+		int recycled = 0;
+		while (recycled < ARCHIVED_ORDERS) {
+			System.gc();
+			recycled += pool.recycleUnreachableOrders();
+			Thread.sleep(10);
+		}
+		assertEquals(ARCHIVED_ORDERS, recycled);
+		assertEquals(0, pool.getPendingOrders());
+		assertEquals(freeOrders, pool.getFreeLimitOrders());
+
+		final Set<Order> archived = Collections.newSetFromMap(new IdentityHashMap<Order, Boolean>());
+		archived.addAll(archivedOrders);
+		for (int i = 0; i < ARCHIVED_ORDERS; i++) {
+			final LimitOrder order = pool.acquireLimitOrder(1, 10);
+			assertTrue(archived.contains(order));
+			assertEquals(0, order.getSatisfiedQuantity());
+		}
+	}
+
+	@Test
+	public void snapshotKeepsTheOrdersOfAnArchivedBook() throws InterruptedException {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		final OrderPool pool = orderBookManager.getOrderPool();
+		final OrderBookSnapshot snapshot = archiveBook(orderBookManager, new ArrayList<Order>());
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			assertEquals(0, pool.recycleUnreachableOrders());
+			Thread.sleep(10);
+		}
+		assertEquals(ARCHIVED_ORDERS, pool.getPendingOrders());
+		assertEquals(1, snapshot.getOrder(0).getSatisfiedQuantity());
+	}
+
+	/**
+	 * Fills, processes and archives a book. Only the orders and the snapshot of
+	 * the processed book are kept: the book is not reachable once it returns.
+	 *
+	 * @param archivedOrders
+	 *            receives the orders of the archived book
+	 * @return the snapshot of the processed book
+	 */
+	private static OrderBookSnapshot archiveBook(final OrderBookManager orderBookManager,
+			final List<Order> archivedOrders) {
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("POOL"));
+		orderBook.open();
+		for (int i = 0; i < ARCHIVED_ORDERS; i++) {
+			orderBook.addLimitOrder(1, 20);
+		}
+		orderBook.close();
+		orderBook.addExecution(new Execution(ARCHIVED_ORDERS, 15));
+		assertTrue(orderBook.isProcessed());
+
+		assertTrue(orderBookManager.archiveBook(orderBookManager.getOrderBooks().indexOf(orderBook)));
+		assertEquals(ARCHIVED_ORDERS, orderBookManager.getOrderPool().getPendingOrders());
+		archivedOrders.addAll(orderBook.getOrders());
+		return orderBook.snapshot();
+	}
+
+}
@@ -0,0 +1,98 @@
+package model.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.OrderBook;
+import model.OrderBookManager;
+import model.snapshot.OrderBookSnapshot;
+
+/**
+ * Tests of the query engine
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderQueryEngineTest {
+
+	private OrderBookManager orderBookManager;
+
+	private OrderBook orderBook;
+
+	private OrderQueryEngine engine;
+
+	@Before
+	public void setUp() {
+		orderBookManager = new OrderBookManager();
+		orderBook = orderBookManager.createOrderBook(orderBookManager.getInstrumentRegistry().intern("QRY"));
+		orderBook.open();
+		engine = new OrderQueryEngine(orderBookManager, 2);
+	}
+
+	@After
+	public void tearDown() {
+		engine.shutdown();
+	}
+
+	@Test
+	public void indexedQueryMatchesScan() {
+		addOrders(5000);
+		engine.createIndex(IndexType.REQUESTED_QUANTITY);
+		final OrderQuery query = new OrderQuery().requestedQuantityBetween(10, 20);
+
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+		assertArrayEquals(scan(snapshot, query), indexes(engine.find(query).get(0)));
+	}
+
+	@Test
+	public void oldSnapshotAfterIndexExtendedByNewerOne() {
+		engine.createIndex(IndexType.REQUESTED_QUANTITY);
+		final OrderQuery query = new OrderQuery().requestedQuantityBetween(10, 20);
+		addOrders(3000);
+		engine.find(query);
+
+		final OrderBookSnapshot oldSnapshot = orderBook.snapshot();
+		addOrders(5000);
+		// extends the index of the book beyond the old snapshot
+		engine.find(query);
+
+		final BookMatches matches = engine.scan(orderBook, oldSnapshot, query,
+				EnumSet.of(IndexType.REQUESTED_QUANTITY));
+		assertEquals(3000, oldSnapshot.getOrderCount());
+		assertArrayEquals(scan(oldSnapshot, query), indexes(matches));
+	}
+
+	private void addOrders(final int count) {
+		for (int i = 0; i < count; i++) {
+			orderBook.addLimitOrder(1 + (i % 50), 10 + (i % 7));
+		}
+	}
+
+	private static int[] scan(final OrderBookSnapshot snapshot, final OrderQuery query) {
+		int[] matches = new int[snapshot.getOrderCount()];
+		int count = 0;
+		for (int i = 0; i < snapshot.getOrderCount(); i++) {
+			if (query.matches(snapshot, i)) {
+				matches[count++] = i;
+			}
+		}
+		return Arrays.copyOf(matches, count);
+	}
+
+	private static int[] indexes(final BookMatches matches) {
+		final int[] indexes = new int[matches.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = matches.getIndex(i);
+		}
+		return indexes;
+	}
+
+}
@@ -0,0 +1,208 @@
+package model.risk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.Execution;
+import model.FinancialInstrument;
+import model.MatchingMode;
+import model.OrderBook;
+import model.OrderBookManager;
+import model.orders.LimitOrder;
+
+/**
+ * Tests of the pre-trade risk stage when several threads reserve and release
+ * for the same account at once
+ *
+ *
+ * @author Jules
+ *
+ */
+public class PreTradeRiskCheckTest {
+
+	private static final int THREAD_COUNT = 4;
+
+	private static final long ACCOUNT = 7;
+
+	private static final FinancialInstrument INSTRUMENT = new FinancialInstrument("RSK");
+
+	private ExecutorService threads;
+
+	private PreTradeRiskCheck riskCheck;
+
+	@Before
+	public void setUp() {
+		threads = Executors.newFixedThreadPool(THREAD_COUNT);
+		riskCheck = new PreTradeRiskCheck();
+	}
+
+	@After
+	public void tearDown() {
+		threads.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentReservationsStayWithinTheLimit() throws Exception {
+		riskCheck.setLimits(ACCOUNT, new RiskLimits(1000, Double.POSITIVE_INFINITY), RiskLimits.NONE);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < THREAD_COUNT; i++) {
+			results.add(threads.submit(new Callable<Integer>() {
+
+				@Override
+				public Integer call() throws Exception {
+					start.await();
+					int reserved = 0;
+					for (int j = 0; j < 500; j++) {
+						if (riskCheck.reserve(ACCOUNT, INSTRUMENT, 1, 20) == 1) {
+							reserved++;
+						}
+					}
+					return reserved;
+				}
+
+			}));
+		}
+		start.countDown();
+
+		int reserved = 0;
+		for (final Future<Integer> result : results) {
+			reserved += result.get();
+		}
+		assertEquals(1000, reserved);
+		assertEquals(1000, riskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(1000, riskCheck.getOpenQuantity(ACCOUNT, INSTRUMENT));
+		assertEquals(20000, riskCheck.getOpenNotional(ACCOUNT, null), 1e-9);
+	}
+
+	@Test(timeout = 10000)
+	public void concurrentReleasesGiveEverythingBack() throws Exception {
+		riskCheck.setLimits(ACCOUNT, new RiskLimits(100, 2000), RiskLimits.NONE);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < THREAD_COUNT; i++) {
+			results.add(threads.submit(new Callable<Boolean>() {
+
+				@Override
+				public Boolean call() throws Exception {
+					final LimitOrder order = new LimitOrder(5, 20);
+					order.setAccountId(ACCOUNT);
+					start.await();
+					// reserves and releases over and over: whatever the interleaving, the
+					// account never goes over its limits
+					for (int j = 0; j < 10000; j++) {
+						if (riskCheck.reserve(ACCOUNT, INSTRUMENT, 5, 20) == 5) {
+							order.setReservedQuantity(5);
+							if (riskCheck.getOpenQuantity(ACCOUNT, null) > 100) {
+								return false;
+							}
+							riskCheck.release(order, INSTRUMENT, 2);
+							riskCheck.release(order, INSTRUMENT, 3);
+						}
+					}
+					return true;
+				}
+
+			}));
+		}
+		start.countDown();
+
+		for (final Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		assertEquals(0, riskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(0, riskCheck.getOpenQuantity(ACCOUNT, INSTRUMENT));
+		assertEquals(0, riskCheck.getOpenNotional(ACCOUNT, null), 1e-9);
+		assertEquals(0, riskCheck.getOpenNotional(ACCOUNT, INSTRUMENT), 1e-9);
+	}
+
+	@Test
+	public void instrumentRejectionGivesBackTheAccountReservation() {
+		final FinancialInstrument other = new FinancialInstrument("OTH");
+		riskCheck.setLimits(ACCOUNT, new RiskLimits(100, Double.POSITIVE_INFINITY),
+				new RiskLimits(10, Double.POSITIVE_INFINITY));
+
+		assertEquals(10, riskCheck.reserve(ACCOUNT, INSTRUMENT, 10, 20));
+		assertEquals(PreTradeRiskCheck.REFUSED, riskCheck.reserve(ACCOUNT, INSTRUMENT, 1, 20));
+
+		assertEquals(10, riskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(200, riskCheck.getOpenNotional(ACCOUNT, null), 1e-9);
+		assertEquals(10, riskCheck.reserve(ACCOUNT, other, 10, 20));
+		assertEquals(20, riskCheck.getOpenQuantity(ACCOUNT, null));
+	}
+
+	@Test
+	public void ordersWithoutAccountAreNotChecked() {
+		riskCheck.setLimits(ACCOUNT, new RiskLimits(0, 0), RiskLimits.NONE);
+		assertEquals(0, riskCheck.reserve(0, INSTRUMENT, 1000, 20));
+		assertEquals(0, riskCheck.reserve(8, INSTRUMENT, 1000, 20));
+		assertEquals(PreTradeRiskCheck.REFUSED, riskCheck.reserve(ACCOUNT, INSTRUMENT, 1, 20));
+	}
+
+	@Test
+	public void processedBookReleasesItsOrders() {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		orderBookManager.setAccountLimits(ACCOUNT, new RiskLimits(10, Double.POSITIVE_INFINITY), RiskLimits.NONE);
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("RSK"));
+		final PreTradeRiskCheck bookRiskCheck = orderBookManager.getRiskCheck();
+		orderBook.open();
+
+		assertNotNull(orderBook.addLimitOrder(ACCOUNT, 1, 6, 20));
+		assertNull(orderBook.addLimitOrder(ACCOUNT, 2, 6, 20));
+		assertNotNull(orderBook.addLimitOrder(ACCOUNT, 3, 4, 20));
+		assertEquals(10, bookRiskCheck.getOpenQuantity(ACCOUNT, null));
+
+		orderBook.close();
+		orderBook.addExecution(new Execution(4, 15));
+		orderBook.processExecutions();
+
+		assertTrue(orderBook.isProcessed());
+		assertEquals(0, bookRiskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(0, bookRiskCheck.getOpenNotional(ACCOUNT, orderBook.getFinancialInstrument()), 1e-9);
+	}
+
+	@Test
+	public void orderAddedBeforeTheLimitsReleasesNothing() {
+		final OrderBookManager orderBookManager = new OrderBookManager();
+		final OrderBook orderBook = orderBookManager.createOrderBook(
+				orderBookManager.getInstrumentRegistry().intern("RSK"), MatchingMode.CONTINUOUS);
+		final PreTradeRiskCheck bookRiskCheck = orderBookManager.getRiskCheck();
+		orderBook.open();
+
+		// not checked: the account has no limits yet
+		final LimitOrder early = orderBook.addLimitOrder(ACCOUNT, 1, 6, 20);
+		assertEquals(0, early.getReservedQuantity());
+		orderBookManager.setAccountLimits(ACCOUNT, new RiskLimits(10, Double.POSITIVE_INFINITY), RiskLimits.NONE);
+		final LimitOrder late = orderBook.addLimitOrder(ACCOUNT, 2, 4, 20);
+		assertEquals(4, late.getReservedQuantity());
+
+		// the early order gets 6 units and the late one 2
+		assertNull(orderBook.addExecution(new Execution(8, 20)));
+		assertEquals(6, early.getSatisfiedQuantity());
+		assertEquals(2, late.getSatisfiedQuantity());
+		assertEquals(2, bookRiskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(40, bookRiskCheck.getOpenNotional(ACCOUNT, null), 1e-9);
+
+		orderBook.close();
+		orderBook.processExecutions();
+		assertEquals(0, bookRiskCheck.getOpenQuantity(ACCOUNT, null));
+		assertEquals(0, bookRiskCheck.getOpenQuantity(ACCOUNT, orderBook.getFinancialInstrument()));
+		assertEquals(0, bookRiskCheck.getOpenNotional(ACCOUNT, null), 1e-9);
+	}
+
+}
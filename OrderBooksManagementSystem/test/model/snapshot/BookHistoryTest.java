@@ -0,0 +1,68 @@
+package model.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import model.Execution;
+import model.orders.Order;
+
+/**
+ * Tests of the history of a store
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookHistoryTest {
+
+	/**
+	 * A state of one chunk, with a given amount of executions to tell the states
+	 * apart
+	 */
+	private static OrderStore.State state(final int executionCount) {
+		final int size = OrderStore.CHUNK_SIZE;
+		return new OrderStore.State(null, new Order[1][size], new long[1][size], new long[1][size], new int[1][size],
+				new long[1][size], new double[1][size], new boolean[1][size], new int[1][size],
+				new Execution[executionCount], executionCount, false, executionCount, 0);
+	}
+
+	@Test
+	public void snapshotAtGivesTheLastValuesOfTheMillisecond() {
+		final BookHistory history = new BookHistory(60000);
+		history.recordCheckpoint(1000, state(0));
+		history.recordOrderCount(1000, 5);
+		history.recordOrderCount(1000, 7);
+		history.recordCheckpoint(1002, state(1));
+		history.recordOrderCount(1003, 9);
+
+		assertEquals(0, history.snapshotAt(999, true).getOrderCount());
+		assertEquals(7, history.snapshotAt(1000, true).getOrderCount());
+		assertEquals(0, history.snapshotAt(1001, true).getExecutionCount());
+		assertEquals(1, history.snapshotAt(1002, true).getExecutionCount());
+		assertEquals(7, history.snapshotAt(1002, true).getOrderCount());
+		assertEquals(9, history.snapshotAt(5000, true).getOrderCount());
+	}
+
+	@Test
+	public void historyOlderThanTheRetentionIsDropped() {
+		final BookHistory history = new BookHistory(100);
+		for (int time = 0; time < 100000; time++) {
+			if ((time % 10) == 0) {
+				history.recordCheckpoint(time, state(time / 10));
+			}
+			history.recordOrderCount(time, Math.min(time, OrderStore.CHUNK_SIZE));
+		}
+
+		assertNull(history.snapshotAt(10, true));
+		final OrderBookSnapshot recent = history.snapshotAt(99995, true);
+		assertNotNull(recent);
+		assertEquals(9999, recent.getExecutionCount());
+		assertEquals(OrderStore.CHUNK_SIZE, recent.getOrderCount());
+		// the start of the retention is still known
+		assertEquals(9990, history.snapshotAt(99900, true).getExecutionCount());
+	}
+
+}
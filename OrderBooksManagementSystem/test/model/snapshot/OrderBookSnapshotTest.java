@@ -0,0 +1,157 @@
+package model.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import model.Execution;
+import model.FinancialInstrument;
+import model.MatchingMode;
+import model.OrderBook;
+import model.orders.LimitOrder;
+import model.orders.OrderPool;
+
+/**
+ * Tests of the snapshots of a book taken while orders keep arriving
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookSnapshotTest {
+
+	private static final int ORDER_COUNT = 30000;
+
+	/**
+	 * The quantity of the order of an index
+	 */
+	private static int quantityOf(final int index) {
+		return (index % 10) + 1;
+	}
+
+	/**
+	 * The demand of the first orders
+	 */
+	private static int demandOf(final int orderCount) {
+		int demand = 0;
+		for (int i = 0; i < orderCount; i++) {
+			demand += quantityOf(i);
+		}
+		return demand;
+	}
+
+	@Test
+	public void snapshotKeepsItsOrders() {
+		final OrderBook orderBook = new OrderBook(new FinancialInstrument("SNP"));
+		orderBook.open();
+		orderBook.addLimitOrder(5, 20);
+		final OrderBookSnapshot snapshot = orderBook.snapshot();
+
+		orderBook.addLimitOrder(7, 10);
+		orderBook.close();
+		assertNull(orderBook.addExecution(new Execution(2, 15)));
+
+		assertEquals(1, snapshot.getOrderCount());
+		assertEquals(5, snapshot.getDemand());
+		assertEquals(0, snapshot.getExecutionCount());
+		assertTrue(snapshot.isOpen());
+		assertEquals(2, orderBook.snapshot().getOrderCount());
+	}
+
+	@Test
+	public void matchCopiesOnlyTheChunksOfTheOrdersFilled() {
+		final OrderBook orderBook = new OrderBook(new FinancialInstrument("SNP"), new OrderPool(),
+				MatchingMode.CONTINUOUS);
+		orderBook.open();
+		final int orderCount = 4 * OrderStore.CHUNK_SIZE;
+		for (int i = 0; i < orderCount; i++) {
+			orderBook.addLimitOrder(1, 10);
+		}
+		// the best order, in the last chunk
+		final LimitOrder best = orderBook.addLimitOrder(5, 30);
+		final OrderBookSnapshot before = orderBook.snapshot();
+
+		assertNull(orderBook.addExecution(new Execution(2, 30)));
+		final OrderBookSnapshot after = orderBook.snapshot();
+
+		assertEquals(orderCount, best.getBookIndex());
+		assertEquals(0, before.getSatisfiedQuantity(orderCount));
+		assertEquals(2, after.getSatisfiedQuantity(orderCount));
+		assertTrue(after.isValid(orderCount));
+		for (int chunk = 0; chunk < 4; chunk++) {
+			assertSame(before.getState().validities[chunk], after.getState().validities[chunk]);
+			assertSame(before.getState().satisfiedQuantities[chunk], after.getState().satisfiedQuantities[chunk]);
+		}
+		assertTrue(before.getState().satisfiedQuantities[4] != after.getState().satisfiedQuantities[4]);
+	}
+
+	@Test(timeout = 60000)
+	public void snapshotsAreIsolatedFromConcurrentIntake() throws Exception {
+		final OrderBook orderBook = new OrderBook(new FinancialInstrument("SNP"));
+		orderBook.open();
+		final AtomicBoolean writing = new AtomicBoolean(true);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicInteger checkedSnapshots = new AtomicInteger();
+		final CountDownLatch readersStarted = new CountDownLatch(2);
+
+		final Runnable reader = new Runnable() {
+
+			@Override
+			public void run() {
+				readersStarted.countDown();
+				long lastVersion = -1;
+				try {
+					while (writing.get() || (checkedSnapshots.get() == 0)) {
+						final OrderBookSnapshot snapshot = orderBook.snapshot();
+						assertTrue(snapshot.getVersion() >= lastVersion);
+						lastVersion = snapshot.getVersion();
+
+						final int orderCount = snapshot.getOrderCount();
+						final int validDemand = snapshot.getDemand(true);
+						assertEquals(demandOf(orderCount), snapshot.getDemand());
+						for (int i = 0; i < orderCount; i += 97) {
+							assertEquals(quantityOf(i), snapshot.getRequestedQuantity(i));
+						}
+						Thread.yield();
+						// the book changed meanwhile, not the snapshot
+						assertEquals(orderCount, snapshot.getOrderCount());
+						assertEquals(validDemand, snapshot.getDemand(true));
+						assertEquals(demandOf(orderCount), snapshot.getDemand());
+						checkedSnapshots.incrementAndGet();
+					}
+				} catch (final Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+
+		};
+		final Thread firstReader = new Thread(reader);
+		final Thread secondReader = new Thread(reader);
+		firstReader.start();
+		secondReader.start();
+		readersStarted.await();
+
+		for (int i = 0; i < ORDER_COUNT; i++) {
+			orderBook.addLimitOrder(quantityOf(i), 10 + (i % 20));
+		}
+		orderBook.close();
+		// invalidates the orders below 20 while the readers go on
+		assertNull(orderBook.addExecution(new Execution(100, 20)));
+		writing.set(false);
+		firstReader.join();
+		secondReader.join();
+
+		assertNull(failure.get());
+		assertTrue(checkedSnapshots.get() > 0);
+		assertEquals(demandOf(ORDER_COUNT), orderBook.snapshot().getDemand());
+	}
+
+}
@@ -0,0 +1,130 @@
+package model.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import model.Execution;
+import model.FinancialInstrument;
+import model.OrderBook;
+
+/**
+ * Tests that the parallel reductions give the same results as the sequential
+ * ones, and run on the reporting threads
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderReductionTest {
+
+	/**
+	 * More than two ranges worth of orders, so that the reductions run in
+	 * parallel, and not a multiple of a chunk
+	 */
+	private static final int ORDER_COUNT = (3 * OrderRange.SEQUENTIAL_THRESHOLD) + 17;
+
+	/**
+	 * Returns the index of the last order of the biggest quantity, and the
+	 * lowest priority among the threads which reduced a range
+	 */
+	private static final class LastBiggestOrder extends OrderReduction<long[]> {
+
+		@Override
+		protected long[] reduce(final OrderBookSnapshot snapshot, final int from, final int to) {
+			int last = from;
+			for (int i = from + 1; i < to; i++) {
+				if (snapshot.getRequestedQuantity(i) >= snapshot.getRequestedQuantity(last)) {
+					last = i;
+				}
+			}
+			return new long[] { last, Thread.currentThread().getPriority() };
+		}
+
+		@Override
+		protected long[] combine(final OrderBookSnapshot snapshot, final long[] left, final long[] right) {
+			final int index = (snapshot.getRequestedQuantity((int) right[0]) >= snapshot
+					.getRequestedQuantity((int) left[0]) ? (int) right[0] : (int) left[0]);
+			return new long[] { index, Math.min(left[1], right[1]) };
+		}
+
+	}
+
+	private static OrderBookSnapshot bigSnapshot() {
+		final OrderBook orderBook = new OrderBook(new FinancialInstrument("RED"));
+		orderBook.ensureCapacity(ORDER_COUNT);
+		orderBook.open();
+		for (int i = 0; i < ORDER_COUNT; i++) {
+			if ((i % 7) == 0) {
+				orderBook.addMarketOrder((i % 13) + 1);
+			} else {
+				orderBook.addLimitOrder((i % 13) + 1, 10 + (i % 20));
+			}
+		}
+		orderBook.close();
+		// invalidates the limit orders below 20, without processing the book
+		assertNull(orderBook.addExecution(new Execution(1, 20)));
+		return orderBook.snapshot();
+	}
+
+	@Test(timeout = 60000)
+	public void parallelAndSequentialReductionsAgree() {
+		final OrderBookSnapshot snapshot = bigSnapshot();
+
+		int demand = 0;
+		int validDemand = 0;
+		int validOrders = 0;
+		int biggest = 0;
+		int smallest = 0;
+		final Map<Double, Integer> demandPerLimitPrice = new HashMap<Double, Integer>();
+		for (int i = 0; i < ORDER_COUNT; i++) {
+			final int quantity = snapshot.getRequestedQuantity(i);
+			demand += quantity;
+			if (snapshot.isValid(i)) {
+				validDemand += quantity;
+				validOrders++;
+			}
+			if (quantity > snapshot.getRequestedQuantity(biggest)) {
+				biggest = i;
+			}
+			if (quantity < snapshot.getRequestedQuantity(smallest)) {
+				smallest = i;
+			}
+			if (snapshot.isLimitOrder(i)) {
+				final Integer limitDemand = demandPerLimitPrice.get(snapshot.getLimitPrice(i));
+				demandPerLimitPrice.put(snapshot.getLimitPrice(i), (limitDemand == null ? 0 : limitDemand) + quantity);
+			}
+		}
+		assertTrue(validOrders > 0);
+		assertTrue(validOrders < ORDER_COUNT);
+
+		assertEquals(demand, snapshot.getDemand());
+		assertEquals(validDemand, snapshot.getDemand(true));
+		assertEquals(demand - validDemand, snapshot.getDemand(false));
+		assertEquals(validOrders, snapshot.getAmountOfOrders(true));
+		assertEquals(ORDER_COUNT - validOrders, snapshot.getAmountOfOrders(false));
+		assertEquals(demandPerLimitPrice, snapshot.getDemandPerLimitPrice());
+		assertEquals(biggest, snapshot.getBiggestOrderIndex());
+		assertEquals(smallest, snapshot.getSmallestOrderIndex());
+	}
+
+	@Test(timeout = 60000)
+	public void parallelReductionKeepsTheOrderOfTheRangesOnTheReportingThreads() {
+		final OrderBookSnapshot snapshot = bigSnapshot();
+		final LastBiggestOrder reduction = new LastBiggestOrder();
+
+		final long[] parallel = reduction.invoke(snapshot);
+		final long[] sequential = reduction.invokeSequentially(snapshot);
+		assertEquals(sequential[0], parallel[0]);
+		assertEquals(Thread.currentThread().getPriority(), sequential[1]);
+		// the calling thread waits while the reporting threads reduce the ranges
+		assertEquals(Thread.MIN_PRIORITY, parallel[1]);
+		assertTrue(OrderReduction.getParallelism() <= Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+}
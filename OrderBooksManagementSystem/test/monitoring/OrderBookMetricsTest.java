@@ -0,0 +1,41 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of the metrics of a book, whose histograms are created on their first
+ * latency
+ *
+ *
+ * @author Jules
+ *
+ */
+public class OrderBookMetricsTest {
+
+	@Test
+	public void histogramsAreCreatedOnTheirFirstLatency() {
+		final OrderBookMetrics metrics = new OrderBookMetrics();
+		final LatencyHistogram empty = metrics.getHistogram(Operation.ADD_ORDER);
+		for (final Operation operation : Operation.values()) {
+			assertSame(empty, metrics.getHistogram(operation));
+			assertEquals(0, metrics.getHistogram(operation).getTotalCount());
+		}
+
+		metrics.recordLatency(Operation.ADD_ORDER, OrderBookMetrics.startTimer());
+		metrics.recordLatency(Operation.ADD_ORDER, OrderBookMetrics.startTimer());
+		final LatencyHistogram addOrder = metrics.getHistogram(Operation.ADD_ORDER);
+		assertTrue(addOrder != empty);
+		assertEquals(2, addOrder.getTotalCount());
+		assertSame(empty, metrics.getHistogram(Operation.ADD_EXECUTION));
+		assertEquals(0, empty.getTotalCount());
+		assertEquals(Long.valueOf(2), metrics.getLatencyCounts().get(Operation.ADD_ORDER.name()));
+
+		metrics.reset();
+		assertEquals(0, metrics.getHistogram(Operation.ADD_ORDER).getTotalCount());
+	}
+
+}
@@ -0,0 +1,108 @@
+package scheduling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import model.BookState;
+import model.Execution;
+import model.OrderBook;
+import model.OrderBookManager;
+
+/**
+ * Tests of the scheduler of the books
+ *
+ *
+ * @author Jules
+ *
+ */
+public class BookSchedulerTest {
+
+	private OrderBookManager orderBookManager;
+
+	private ExecutorService bookThread;
+
+	private BookScheduler bookScheduler;
+
+	/**
+	 * The threads which ran the actions
+	 */
+	private final Thread[] actionThreads = new Thread[1];
+
+	private final CountDownLatch actionDone = new CountDownLatch(1);
+
+	@Before
+	public void setUp() {
+		orderBookManager = new OrderBookManager();
+		bookThread = Executors.newSingleThreadExecutor();
+		bookScheduler = new BookScheduler(orderBookManager, new Executor() {
+
+			@Override
+			public void execute(final Runnable action) {
+				bookThread.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						action.run();
+						actionThreads[0] = Thread.currentThread();
+						actionDone.countDown();
+					}
+
+				});
+			}
+
+		});
+	}
+
+	@After
+	public void tearDown() {
+		bookScheduler.stop();
+		bookThread.shutdownNow();
+	}
+
+	@Test(timeout = 10000)
+	public void scheduledProcessGoesThroughTheManager() throws Exception {
+		final File directory = new File(System.getProperty("java.io.tmpdir"), "book-scheduler-" + System.nanoTime());
+		assertTrue(orderBookManager.enableColdStorage(directory.getPath(), 1));
+		final OrderBook orderBook = orderBookManager
+				.createOrderBook(orderBookManager.getInstrumentRegistry().intern("SCH"));
+		orderBook.open();
+		orderBook.addLimitOrder(10, 20);
+		// refuses the execution price, so that the book waits for more executions
+		orderBook.addLimitOrder(5, 10);
+		orderBook.close();
+		assertNull(orderBook.addExecution(new Execution(4, 15)));
+		assertEquals(BookState.CLOSED, orderBook.getState());
+
+		bookScheduler.scheduleProcess(orderBook, System.currentTimeMillis() + 20);
+		assertTrue(actionDone.await(5, TimeUnit.SECONDS));
+
+		assertEquals(BookState.PROCESSED, orderBook.getState());
+		// processed through the manager: the book was archived
+		assertNull(orderBookManager.getOrderBook("SCH"));
+		assertEquals(1, orderBookManager.getBookArchive().getSegmentCount());
+		final Thread[] ownerThread = new Thread[1];
+		bookThread.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				ownerThread[0] = Thread.currentThread();
+			}
+
+		}).get();
+		assertSame(ownerThread[0], actionThreads[0]);
+	}
+
+}